@@ -0,0 +1,77 @@
+package se.liu.imt.mi.snomedct.expressionrepository.benchmarks;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionId;
+
+/**
+ * Benchmarks of the data store hierarchy queries at several depths of the
+ * synthetic hierarchy, at the current time and at a specific time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HierarchyBenchmark {
+
+	/**
+	 * The expression the queries are about.
+	 */
+	@State(Scope.Thread)
+	public static class Target {
+
+		/**
+		 * The level of the expression, 0 for the root.
+		 */
+		@Param({ "0", "2", "4", "6" })
+		public int queryDepth;
+
+		public ExpressionId id;
+
+		@Setup(Level.Trial)
+		public void setUp(HierarchyState state) {
+			id = state.hierarchy.getLevel(
+					Math.min(queryDepth, state.hierarchy.getDepth())).get(0);
+		}
+	}
+
+	@Benchmark
+	public Set<ExpressionId> getDescendants(HierarchyState state,
+			Target target) throws Exception {
+		return state.dataStore.getDescendants(target.id, null);
+	}
+
+	@Benchmark
+	public Set<ExpressionId> getAncestors(HierarchyState state, Target target)
+			throws Exception {
+		return state.dataStore.getAncestors(target.id, null);
+	}
+
+	@Benchmark
+	public Set<ExpressionId> getDescendantsAtTime(HierarchyState state,
+			Target target) throws Exception {
+		return state.dataStore.getDescendants(target.id, state.time);
+	}
+
+	@Benchmark
+	public Set<ExpressionId> getAncestorsAtTime(HierarchyState state,
+			Target target) throws Exception {
+		return state.dataStore.getAncestors(target.id, state.time);
+	}
+
+}
@@ -0,0 +1,92 @@
+package se.liu.imt.mi.snomedct.expressionrepository.benchmarks;
+
+import java.util.Date;
+import java.util.UUID;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.commons.configuration.XMLConfiguration;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.postgresql.DataStore;
+
+/**
+ * A data store connected to the database in <code>config.xml</code> with a
+ * synthetic hierarchy built for each trial. The database should be a scratch
+ * database with the expression repository schema, since the benchmarks leave
+ * their expressions behind.
+ */
+@State(Scope.Benchmark)
+public class HierarchyState {
+
+	/**
+	 * The number of levels below the root of the synthetic hierarchy.
+	 */
+	@Param("6")
+	public int depth;
+
+	/**
+	 * The number of children of every expression above the lowest level.
+	 */
+	@Param("4")
+	public int fanOut;
+
+	/**
+	 * The data store.
+	 */
+	public DataStore dataStore;
+
+	/**
+	 * The synthetic hierarchy.
+	 */
+	public SyntheticHierarchy hierarchy;
+
+	/**
+	 * A prefix that is unique for this trial.
+	 */
+	public String prefix;
+
+	/**
+	 * A time after the hierarchy was built, used by the time-travel
+	 * benchmarks.
+	 */
+	public Date time;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		dataStore = openDataStore();
+		prefix = "benchmark/" + UUID.randomUUID();
+		hierarchy = SyntheticHierarchy.build(dataStore, prefix, depth, fanOut);
+		// make sure the time-travel queries see the whole hierarchy
+		Thread.sleep(10);
+		time = new Date();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Throwable {
+		dataStore.finalize();
+	}
+
+	/**
+	 * Opens a data store on the database given in <code>config.xml</code> in
+	 * the working directory.
+	 *
+	 * @return The data store.
+	 * @throws Exception
+	 *             Thrown if the configuration can not be read or the database
+	 *             can not be reached
+	 */
+	public static DataStore openDataStore() throws Exception {
+		Configuration config = new XMLConfiguration("config.xml");
+		return new DataStore(config.getString("database.url"),
+				config.getString("database.username"),
+				config.getString("database.password"), config.getInt(
+						"database.poolsize", Runtime.getRuntime()
+								.availableProcessors()));
+	}
+
+}
@@ -0,0 +1,81 @@
+package se.liu.imt.mi.snomedct.expressionrepository.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import se.liu.imt.mi.snomedct.expressionrepository.ExpressionRepositoryImpl;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionId;
+
+/**
+ * Benchmark of the whole <code>getExpressionID</code> pipeline: parse,
+ * normalize, classify and persist. The repository is configured by
+ * <code>config.xml</code> in the working directory, and the expressions are
+ * read from the file given by the <code>benchmark.workload</code> system
+ * property, one expression per line. Every line should be a new expression
+ * for the database; once the workload is used up it starts over and the
+ * benchmark measures look ups of existing expressions instead.
+ * <code>SyntheticOntologyGenerator</code> writes a matching ontology and
+ * workload.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RepositoryBenchmark {
+
+	private ExpressionRepositoryImpl repository;
+
+	private List<String> workload;
+
+	private final AtomicInteger next = new AtomicInteger();
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		String file = System.getProperty("benchmark.workload");
+		if (file == null)
+			throw new IllegalStateException(
+					"The system property benchmark.workload must name a file with one expression per line");
+		workload = new ArrayList<String>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (!line.trim().isEmpty())
+					workload.add(line.trim());
+			}
+		} finally {
+			in.close();
+		}
+		repository = new ExpressionRepositoryImpl();
+		// wait for the ontology so the first invocation is not measured as
+		// part of the startup
+		repository.getReasoner();
+	}
+
+	@Benchmark
+	public ExpressionId getExpressionID() throws Exception {
+		return repository.getExpressionID(workload.get(next.getAndIncrement()
+				% workload.size()));
+	}
+
+}
@@ -0,0 +1,82 @@
+package se.liu.imt.mi.snomedct.expressionrepository.benchmarks;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionId;
+
+/**
+ * Benchmarks of the data store write path.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StoreBenchmark {
+
+	/**
+	 * Numbers the expressions stored by the benchmarks.
+	 */
+	private static final AtomicLong counter = new AtomicLong();
+
+	/**
+	 * A new expression without relatives, stored before each invocation.
+	 */
+	@State(Scope.Thread)
+	public static class NewExpression {
+
+		/**
+		 * The number of parents given to the new expression.
+		 */
+		@Param({ "1", "8", "64" })
+		public int parentCount;
+
+		public ExpressionId id;
+
+		public Set<ExpressionId> parents;
+
+		public Set<ExpressionId> children = new HashSet<ExpressionId>();
+
+		@Setup(Level.Invocation)
+		public void setUp(HierarchyState state) throws Exception {
+			id = state.dataStore.storeExpression(state.prefix + "/new/"
+					+ counter.incrementAndGet(), null);
+			List<ExpressionId> lowest = state.hierarchy.getLevel(state.depth);
+			int offset = (int) (counter.get() % lowest.size());
+			parents = new HashSet<ExpressionId>();
+			for (int i = 0; i < parentCount && i < lowest.size(); i++)
+				parents.add(lowest.get((offset + i) % lowest.size()));
+		}
+	}
+
+	@Benchmark
+	public ExpressionId storeExpression(HierarchyState state) throws Exception {
+		return state.dataStore.storeExpression(state.prefix + "/new/"
+				+ counter.incrementAndGet(), null);
+	}
+
+	@Benchmark
+	public void storeExpressionParentsAndChildren(HierarchyState state,
+			NewExpression expression) throws Exception {
+		state.dataStore.storeExpressionParentsAndChildren(expression.id,
+				expression.parents, expression.children);
+	}
+
+}
@@ -0,0 +1,67 @@
+package se.liu.imt.mi.snomedct.expressionrepository.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionId;
+
+/**
+ * Benchmarks of subsumption tests between the root and the lowest level of
+ * the synthetic hierarchy, at the current time and at a specific time. Both
+ * subsuming and not subsuming pairs are tested.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubsumptionBenchmark {
+
+	/**
+	 * Walks through the lowest level of the hierarchy.
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+
+		private int next = 0;
+
+		public ExpressionId next(HierarchyState state) {
+			List<ExpressionId> lowest = state.hierarchy.getLevel(state.hierarchy
+					.getDepth());
+			next = (next + 1) % lowest.size();
+			return lowest.get(next);
+		}
+	}
+
+	@Benchmark
+	public boolean isSubsuming(HierarchyState state, Cursor cursor)
+			throws Exception {
+		return state.dataStore.isSubsuming(state.hierarchy.getRoot(),
+				cursor.next(state), null);
+	}
+
+	@Benchmark
+	public boolean isSubsumingNot(HierarchyState state, Cursor cursor)
+			throws Exception {
+		return state.dataStore.isSubsuming(cursor.next(state),
+				state.hierarchy.getRoot(), null);
+	}
+
+	@Benchmark
+	public boolean isSubsumingAtTime(HierarchyState state, Cursor cursor)
+			throws Exception {
+		return state.dataStore.isSubsuming(state.hierarchy.getRoot(),
+				cursor.next(state), state.time);
+	}
+
+}
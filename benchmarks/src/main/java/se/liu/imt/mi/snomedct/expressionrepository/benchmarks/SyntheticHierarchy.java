@@ -0,0 +1,105 @@
+package se.liu.imt.mi.snomedct.expressionrepository.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStore;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionId;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionRelatives;
+
+/**
+ * A balanced tree of expressions stored directly in a data store, used as a
+ * fixture for the data store benchmarks. The expression strings are unique
+ * for each tree but are not valid SNOMED CT expressions, so the tree should
+ * be built in a scratch database.
+ */
+public class SyntheticHierarchy {
+
+	/**
+	 * The expression ids of each level, the root level first.
+	 */
+	private final List<List<ExpressionId>> levels;
+
+	/**
+	 * Creates a hierarchy from the stored levels.
+	 *
+	 * @param levels
+	 *            The expression ids of each level, the root level first.
+	 */
+	private SyntheticHierarchy(List<List<ExpressionId>> levels) {
+		super();
+		this.levels = levels;
+	}
+
+	/**
+	 * Stores a new tree of expressions, one level at a time, with every
+	 * expression below the root having one parent on the level above.
+	 *
+	 * @param dataStore
+	 *            The data store.
+	 * @param prefix
+	 *            A prefix that makes the expression strings of this tree
+	 *            unique.
+	 * @param depth
+	 *            The number of levels below the root.
+	 * @param fanOut
+	 *            The number of children of every expression above the lowest
+	 *            level.
+	 * @return The hierarchy.
+	 * @throws Exception
+	 *             Forwards any exception thrown by the data store
+	 */
+	public static SyntheticHierarchy build(DataStore dataStore, String prefix,
+			int depth, int fanOut) throws Exception {
+		List<List<ExpressionId>> levels = new ArrayList<List<ExpressionId>>();
+		Set<ExpressionId> none = Collections.emptySet();
+		int size = 1;
+		for (int d = 0; d <= depth; d++) {
+			List<String> expressions = new ArrayList<String>(size);
+			for (int i = 0; i < size; i++)
+				expressions.add(prefix + "/" + d + "/" + i);
+			List<ExpressionId> ids = dataStore.storeExpressions(expressions,
+					null);
+
+			List<ExpressionRelatives> relatives = new ArrayList<ExpressionRelatives>(
+					size);
+			for (int i = 0; i < size; i++) {
+				Set<ExpressionId> parents = (d == 0 ? none : Collections
+						.singleton(levels.get(d - 1).get(i / fanOut)));
+				relatives.add(new ExpressionRelatives(ids.get(i), parents,
+						none));
+			}
+			dataStore.storeExpressionRelatives(relatives);
+
+			levels.add(ids);
+			size *= fanOut;
+		}
+		return new SyntheticHierarchy(levels);
+	}
+
+	/**
+	 * @return The root expression.
+	 */
+	public ExpressionId getRoot() {
+		return levels.get(0).get(0);
+	}
+
+	/**
+	 * @param depth
+	 *            The level, 0 for the root.
+	 * @return The expression ids of a level.
+	 */
+	public List<ExpressionId> getLevel(int depth) {
+		return levels.get(depth);
+	}
+
+	/**
+	 * @return The number of levels below the root.
+	 */
+	public int getDepth() {
+		return levels.size() - 1;
+	}
+
+}
@@ -0,0 +1,443 @@
+package se.liu.imt.mi.snomedct.expressionrepository.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.semanticweb.elk.owlapi.ElkReasonerFactory;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.reasoner.InferenceType;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+
+/**
+ * Generates a synthetic EL++ ontology shaped like SNOMED CT, together with
+ * files for loading its concepts and inferred transitive closure into the
+ * expression repository database, and a workload of post-coordinated
+ * expressions that refer to its concepts. The ontology is written in OWL
+ * functional syntax and can be used as <code>owlapi.url</code> instead of the
+ * licensed SNOMED CT OWL file.
+ * <p>
+ * All concepts descend from 138875005 |SNOMED CT Concept|. The attributes are
+ * object properties that also exist as concepts below 410662002 |Concept
+ * model attribute|. The other concepts are spread over <code>depth</code>
+ * levels, with the number of concepts growing by <code>fanOut</code> per
+ * level. Generated ids are valid SCTIDs with Verhoeff check digits.
+ */
+public class SyntheticOntologyGenerator {
+
+	private static final Logger log = Logger
+			.getLogger(SyntheticOntologyGenerator.class);
+
+	/**
+	 * 138875005 |SNOMED CT Concept|
+	 */
+	public static final long ROOT = 138875005L;
+
+	/**
+	 * 410662002 |Concept model attribute|
+	 */
+	public static final long ATTRIBUTE_ROOT = 410662002L;
+
+	/**
+	 * The start time of the generated concepts and relationships.
+	 */
+	private static final String START_TIME = "2002-01-31 00:00:00";
+
+	/**
+	 * The first item identifier of the generated concepts.
+	 */
+	private static final long FIRST_ITEM_ID = 1000000L;
+
+	private int conceptCount = 10000;
+	private int depth = 8;
+	private int fanOut = 6;
+	private int attributeTypeCount = 40;
+	private double attributeDensity = 1.5;
+	private double definedRatio = 0.3;
+	private double multiParentRatio = 0.1;
+	private int expressionCount = 10000;
+	private long seed = 1;
+	private String namespace = "http://www.ihtsdo.org/";
+
+	/**
+	 * The SCTID of each concept, indexed by concept number. Number 0 is the
+	 * root, number 1 the attribute root and the attributes come next.
+	 */
+	private long[] ids;
+
+	/**
+	 * The concept numbers of each concept's parents.
+	 */
+	private int[][] parents;
+
+	/**
+	 * The attribute concept numbers of each concept's attribute relationships.
+	 */
+	private int[][] attributeTypes;
+
+	/**
+	 * The value concept numbers of each concept's attribute relationships.
+	 */
+	private int[][] attributeValues;
+
+	/**
+	 * If each concept is fully defined or primitive.
+	 */
+	private boolean[] defined;
+
+	/**
+	 * The concept number of the first concept that is neither the root, the
+	 * attribute root nor an attribute.
+	 */
+	private int firstConcept;
+
+	/**
+	 * Generates the concepts and their relationships.
+	 */
+	public void generate() {
+		Random random = new Random(seed);
+		firstConcept = 2 + attributeTypeCount;
+		int count = Math.max(conceptCount, firstConcept + depth);
+
+		ids = new long[count];
+		parents = new int[count][];
+		attributeTypes = new int[count][];
+		attributeValues = new int[count][];
+		defined = new boolean[count];
+
+		ids[0] = ROOT;
+		parents[0] = new int[0];
+		ids[1] = ATTRIBUTE_ROOT;
+		parents[1] = new int[] { 0 };
+		for (int i = 2; i < count; i++) {
+			ids[i] = Verhoeff.conceptId(FIRST_ITEM_ID + i);
+		}
+		for (int i = 2; i < firstConcept; i++) {
+			parents[i] = new int[] { 1 };
+		}
+		for (int i = 0; i < firstConcept; i++) {
+			attributeTypes[i] = new int[0];
+			attributeValues[i] = new int[0];
+		}
+
+		// spread the concepts over the levels, growing by fanOut per level
+		int remaining = count - firstConcept;
+		double[] weights = new double[depth];
+		double total = 0;
+		for (int l = 0; l < depth; l++) {
+			weights[l] = Math.pow(fanOut, l);
+			total += weights[l];
+		}
+		int levelStart = firstConcept;
+		int previousStart = 0;
+		int previousSize = 1;
+		for (int l = 0; l < depth; l++) {
+			int size = (l == depth - 1 ? count - levelStart : Math.max(1,
+					(int) Math.round(remaining * weights[l] / total)));
+			size = Math.min(size, count - levelStart - (depth - 1 - l));
+			for (int j = 0; j < size; j++) {
+				int concept = levelStart + j;
+				int primary = previousStart + j % previousSize;
+				if (previousSize > 1 && random.nextDouble() < multiParentRatio) {
+					int extra = previousStart + random.nextInt(previousSize);
+					parents[concept] = (extra == primary ? new int[] { primary }
+							: new int[] { primary, extra });
+				} else {
+					parents[concept] = new int[] { primary };
+				}
+			}
+			previousStart = levelStart;
+			previousSize = size;
+			levelStart += size;
+		}
+
+		// add attribute relationships to the concepts below the top level
+		int topLevelEnd = firstConcept
+				+ Math.max(1, (int) Math.round(remaining * weights[0] / total));
+		for (int concept = firstConcept; concept < count; concept++) {
+			int n = 0;
+			if (concept >= topLevelEnd) {
+				n = (int) attributeDensity;
+				if (random.nextDouble() < attributeDensity - n)
+					n++;
+			}
+			attributeTypes[concept] = new int[n];
+			attributeValues[concept] = new int[n];
+			for (int k = 0; k < n; k++) {
+				attributeTypes[concept][k] = 2 + random
+						.nextInt(attributeTypeCount);
+				int value;
+				do {
+					value = firstConcept + random.nextInt(count - firstConcept);
+				} while (value == concept);
+				attributeValues[concept][k] = value;
+			}
+			defined[concept] = n > 0 && random.nextDouble() < definedRatio;
+		}
+		log.info("Generated " + count + " concepts");
+	}
+
+	/**
+	 * Writes the ontology in OWL functional syntax.
+	 *
+	 * @param file
+	 *            The file.
+	 * @throws IOException
+	 *             Thrown if the file can not be written.
+	 */
+	public void writeOntology(File file) throws IOException {
+		Writer out = open(file);
+		try {
+			out.write("Prefix(:=<" + namespace + ">)\n");
+			out.write("Prefix(owl:=<http://www.w3.org/2002/07/owl#>)\n");
+			out.write("Ontology(<" + namespace + "synthetic>\n");
+			for (int i = 0; i < ids.length; i++) {
+				out.write("Declaration(Class(" + iri(i) + "))\n");
+			}
+			for (int i = 2; i < firstConcept; i++) {
+				out.write("Declaration(ObjectProperty(" + iri(i) + "))\n");
+			}
+			for (int i = 1; i < ids.length; i++) {
+				if (defined[i]) {
+					out.write("EquivalentClasses(" + iri(i)
+							+ " ObjectIntersectionOf(");
+					for (int parent : parents[i])
+						out.write(iri(parent) + " ");
+					for (int k = 0; k < attributeTypes[i].length; k++)
+						out.write(restriction(i, k) + " ");
+					out.write("))\n");
+				} else {
+					for (int parent : parents[i])
+						out.write("SubClassOf(" + iri(i) + " " + iri(parent)
+								+ ")\n");
+					for (int k = 0; k < attributeTypes[i].length; k++)
+						out.write("SubClassOf(" + iri(i) + " "
+								+ restriction(i, k) + ")\n");
+				}
+			}
+			out.write(")\n");
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the concepts as tab separated id and start time, for loading
+	 * into the <code>concepts</code> table.
+	 *
+	 * @param file
+	 *            The file.
+	 * @throws IOException
+	 *             Thrown if the file can not be written.
+	 */
+	public void writeConcepts(File file) throws IOException {
+		Writer out = open(file);
+		try {
+			for (long id : ids) {
+				out.write(id + "\t" + START_TIME + "\n");
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Classifies an ontology with ELK and writes its inferred transitive
+	 * closure as tab separated source id, destination id, start time and if
+	 * the relation is direct, for loading into the
+	 * <code>transitiveclosure</code> table.
+	 *
+	 * @param ontologyFile
+	 *            The ontology, written by <code>writeOntology</code>.
+	 * @param file
+	 *            The file.
+	 * @throws Exception
+	 *             Thrown if the ontology can not be loaded or classified, or
+	 *             the file can not be written.
+	 */
+	public void writeTransitiveClosure(File ontologyFile, File file)
+			throws Exception {
+		long start = System.currentTimeMillis();
+		OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+		OWLOntology ontology = manager
+				.loadOntologyFromOntologyDocument(ontologyFile);
+		OWLReasoner reasoner = new ElkReasonerFactory()
+				.createReasoner(ontology);
+		reasoner.precomputeInferences(InferenceType.CLASS_HIERARCHY);
+		log.info("Classified ontology in "
+				+ (System.currentTimeMillis() - start) + " ms");
+
+		long rows = 0;
+		Writer out = open(file);
+		try {
+			for (OWLClass c : ontology.getClassesInSignature()) {
+				String source = sctid(c);
+				if (source == null)
+					continue;
+				Set<OWLClass> direct = reasoner.getSuperClasses(c, true)
+						.getFlattened();
+				for (OWLClass ancestor : reasoner.getSuperClasses(c, false)
+						.getFlattened()) {
+					String destination = sctid(ancestor);
+					if (destination == null)
+						continue;
+					out.write(source + "\t" + destination + "\t" + START_TIME
+							+ "\t" + direct.contains(ancestor) + "\n");
+					rows++;
+				}
+			}
+		} finally {
+			out.close();
+			reasoner.dispose();
+		}
+		log.info("Wrote " + rows + " transitive closure rows");
+	}
+
+	/**
+	 * Writes a workload of distinct post-coordinated expressions in the SNOMED
+	 * CT compositional grammar, one per line. Each expression refines one or,
+	 * sometimes, two focus concepts with one to three attributes.
+	 *
+	 * @param file
+	 *            The file.
+	 * @throws IOException
+	 *             Thrown if the file can not be written.
+	 */
+	public void writeExpressions(File file) throws IOException {
+		Random random = new Random(seed + 1);
+		Set<String> written = new HashSet<String>();
+		int attempts = 0;
+		Writer out = open(file);
+		try {
+			while (written.size() < expressionCount
+					&& attempts++ < expressionCount * 10) {
+				StringBuilder expression = new StringBuilder();
+				expression.append(ids[randomConcept(random)]);
+				if (random.nextDouble() < 0.1)
+					expression.append('+').append(ids[randomConcept(random)]);
+				expression.append(':');
+				int n = 1 + random.nextInt(3);
+				for (int k = 0; k < n; k++) {
+					if (k > 0)
+						expression.append(',');
+					expression.append(ids[2 + random.nextInt(attributeTypeCount)]);
+					expression.append('=');
+					expression.append(ids[randomConcept(random)]);
+				}
+				if (written.add(expression.toString()))
+					out.write(expression + "\n");
+			}
+		} finally {
+			out.close();
+		}
+		log.info("Wrote " + written.size() + " expressions");
+	}
+
+	private int randomConcept(Random random) {
+		return firstConcept + random.nextInt(ids.length - firstConcept);
+	}
+
+	private String iri(int concept) {
+		return ":SCT_" + ids[concept];
+	}
+
+	private String restriction(int concept, int k) {
+		return "ObjectSomeValuesFrom(" + iri(attributeTypes[concept][k]) + " "
+				+ iri(attributeValues[concept][k]) + ")";
+	}
+
+	private String sctid(OWLClass c) {
+		String iri = c.getIRI().toString();
+		if (!iri.startsWith(namespace + "SCT_"))
+			return null;
+		return iri.substring(namespace.length() + 4);
+	}
+
+	private static Writer open(File file) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
+				file), "UTF-8"), 1 << 16);
+	}
+
+	/**
+	 * Generates an ontology and its database and workload files.
+	 *
+	 * @param args
+	 *            <code>--out</code> directory (required), and optionally
+	 *            <code>--concepts</code>, <code>--depth</code>,
+	 *            <code>--fanout</code>, <code>--attributetypes</code>,
+	 *            <code>--attributedensity</code>, <code>--defined</code>,
+	 *            <code>--multiparent</code>, <code>--expressions</code>,
+	 *            <code>--seed</code> and <code>--namespace</code>, each
+	 *            followed by its value. Add <code>--closure</code> to classify
+	 *            the ontology and write its transitive closure.
+	 * @throws Exception
+	 *             Thrown if anything goes wrong.
+	 */
+	public static void main(String[] args) throws Exception {
+		SyntheticOntologyGenerator generator = new SyntheticOntologyGenerator();
+		File out = null;
+		boolean closure = false;
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("--closure")) {
+				closure = true;
+				continue;
+			}
+			if (i + 1 == args.length)
+				throw new IllegalArgumentException("Missing value for " + arg);
+			String value = args[++i];
+			if (arg.equals("--out"))
+				out = new File(value);
+			else if (arg.equals("--concepts"))
+				generator.conceptCount = Integer.parseInt(value);
+			else if (arg.equals("--depth"))
+				generator.depth = Integer.parseInt(value);
+			else if (arg.equals("--fanout"))
+				generator.fanOut = Integer.parseInt(value);
+			else if (arg.equals("--attributetypes"))
+				generator.attributeTypeCount = Integer.parseInt(value);
+			else if (arg.equals("--attributedensity"))
+				generator.attributeDensity = Double.parseDouble(value);
+			else if (arg.equals("--defined"))
+				generator.definedRatio = Double.parseDouble(value);
+			else if (arg.equals("--multiparent"))
+				generator.multiParentRatio = Double.parseDouble(value);
+			else if (arg.equals("--expressions"))
+				generator.expressionCount = Integer.parseInt(value);
+			else if (arg.equals("--seed"))
+				generator.seed = Long.parseLong(value);
+			else if (arg.equals("--namespace"))
+				generator.namespace = value;
+			else
+				throw new IllegalArgumentException("Unknown option " + arg);
+		}
+		if (out == null)
+			throw new IllegalArgumentException(
+					"The output directory must be given with --out");
+		if (generator.depth < 1 || generator.fanOut < 1
+				|| generator.attributeTypeCount < 1)
+			throw new IllegalArgumentException(
+					"The depth, fan-out and number of attribute types must be at least 1");
+		out.mkdirs();
+
+		generator.generate();
+		File ontology = new File(out, "ontology.owl");
+		generator.writeOntology(ontology);
+		generator.writeConcepts(new File(out, "concepts.tsv"));
+		generator.writeExpressions(new File(out, "expressions.txt"));
+		if (closure)
+			generator.writeTransitiveClosure(ontology, new File(out,
+					"transitiveclosure.tsv"));
+	}
+
+}
@@ -0,0 +1,116 @@
+package se.liu.imt.mi.snomedct.expressionrepository;
+
+import org.semanticweb.owlapi.reasoner.ReasonerProgressMonitor;
+
+/**
+ * A reasoner progress monitor that records the stages of a classification
+ * and how many classes ELK put into the class taxonomy in them. A full
+ * classification puts every class into the taxonomy, and an incremental
+ * classification only the classes affected by the changed axioms, so the
+ * two numbers show how much of the taxonomy a change cost.
+ */
+public class ClassificationMonitor implements ReasonerProgressMonitor {
+
+	/**
+	 * The name of the stage where ELK computes the whole class taxonomy.
+	 */
+	static final String FULL_TAXONOMY_STAGE = "Class Taxonomy Computation";
+
+	/**
+	 * The name of the stage where ELK updates the class taxonomy after
+	 * changes.
+	 */
+	static final String INCREMENTAL_TAXONOMY_STAGE = "Incremental Taxonomy Construction";
+
+	private final StringBuilder stages = new StringBuilder();
+
+	private String stage = null;
+	private long stageStart;
+	private int stageSize;
+
+	private long start = System.nanoTime();
+	private long taxonomyWork = 0;
+	private long taxonomySize = 0;
+
+	/**
+	 * Forget the stages recorded so far, before the next classification.
+	 */
+	public synchronized void reset() {
+		stages.setLength(0);
+		stage = null;
+		taxonomyWork = 0;
+		start = System.nanoTime();
+	}
+
+	@Override
+	public synchronized void reasonerTaskStarted(String taskName) {
+		stage = taskName;
+		stageStart = System.nanoTime();
+		stageSize = 0;
+	}
+
+	@Override
+	public synchronized void reasonerTaskProgressChanged(int value, int max) {
+		stageSize = max;
+	}
+
+	@Override
+	public void reasonerTaskBusy() {
+		// nothing to record
+	}
+
+	@Override
+	public synchronized void reasonerTaskStopped() {
+		if (stage == null)
+			return;
+		if (stages.length() > 0)
+			stages.append(", ");
+		stages.append(stage).append(' ').append(stageSize).append(" in ")
+				.append((System.nanoTime() - stageStart) / 1000000)
+				.append(" ms");
+		if (stage.equals(FULL_TAXONOMY_STAGE)) {
+			taxonomyWork += stageSize;
+			taxonomySize = stageSize;
+		} else if (stage.equals(INCREMENTAL_TAXONOMY_STAGE)) {
+			taxonomyWork += stageSize;
+		}
+		stage = null;
+	}
+
+	/**
+	 * @return The number of classes put into the taxonomy since the last
+	 *         reset.
+	 */
+	public synchronized long getTaxonomyWork() {
+		return taxonomyWork;
+	}
+
+	/**
+	 * @return The number of classes in the taxonomy at the last full
+	 *         classification, or 0 if there has been none.
+	 */
+	public synchronized long getTaxonomySize() {
+		return taxonomySize;
+	}
+
+	/**
+	 * @return The time since the last reset, in milliseconds.
+	 */
+	public synchronized long getElapsedMillis() {
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("recomputed ").append(taxonomyWork).append(" classes");
+		if (taxonomySize > 0)
+			sb.append(String.format(" (%.3f%% of %d)", 100.0 * taxonomyWork
+					/ taxonomySize, taxonomySize));
+		sb.append(" in ").append(getElapsedMillis()).append(" ms");
+		if (stages.length() > 0)
+			sb.append(": ").append(stages);
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,195 @@
+package se.liu.imt.mi.snomedct.expressionrepository;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionId;
+
+/**
+ * A cache of expression ids keyed by expression strings, both the strings
+ * given by the caller and the sorted expression strings. The id of a stored
+ * expression never changes, so entries are never out of date and are only
+ * dropped to keep the cache within its size, least recently used first. When
+ * several threads ask for the same missing key at the same time the id is
+ * loaded once, by the first thread, and the other threads wait for its
+ * result.
+ */
+public class ExpressionIdCache {
+
+	private static final int SEGMENTS = 16;
+
+	/**
+	 * One segment of the cache, a least recently used map.
+	 */
+	private static final class Segment extends
+			LinkedHashMap<String, ExpressionId> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int maxSize;
+
+		Segment(int maxSize) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(
+				Map.Entry<String, ExpressionId> eldest) {
+			return size() > maxSize;
+		}
+	}
+
+	/**
+	 * The cached ids, split by key hash so that threads using different keys
+	 * seldom wait for each other.
+	 */
+	private final Segment[] segments = new Segment[SEGMENTS];
+
+	/**
+	 * The loads in progress.
+	 */
+	private final ConcurrentMap<String, FutureTask<ExpressionId>> loading = new ConcurrentHashMap<String, FutureTask<ExpressionId>>();
+
+	/**
+	 * The largest number of cached ids.
+	 */
+	private final int maxSize;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Creates an expression id cache.
+	 *
+	 * @param maxSize
+	 *            The largest number of cached ids. No ids are cached if it is
+	 *            zero, but concurrent loads of the same key are still made
+	 *            once.
+	 */
+	public ExpressionIdCache(int maxSize) {
+		this.maxSize = maxSize;
+		for (int i = 0; i < SEGMENTS; i++)
+			segments[i] = new Segment(Math.max(1, maxSize / SEGMENTS));
+	}
+
+	private Segment segmentFor(String key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return segments[h & (SEGMENTS - 1)];
+	}
+
+	/**
+	 * Look up a cached id.
+	 *
+	 * @param key
+	 *            The expression string.
+	 * @return The id, or <code>null</code> if it is not cached.
+	 */
+	public ExpressionId get(String key) {
+		Segment segment = segmentFor(key);
+		ExpressionId id;
+		synchronized (segment) {
+			id = segment.get(key);
+		}
+		if (id != null)
+			hits.incrementAndGet();
+		return id;
+	}
+
+	/**
+	 * Cache an id.
+	 *
+	 * @param key
+	 *            The expression string.
+	 * @param id
+	 *            The id, which is not cached if it is <code>null</code>.
+	 */
+	public void put(String key, ExpressionId id) {
+		if (id == null || maxSize == 0)
+			return;
+		Segment segment = segmentFor(key);
+		synchronized (segment) {
+			segment.put(key, id);
+		}
+	}
+
+	/**
+	 * Look up a cached id, or load it. If another thread is already loading
+	 * the same key, wait for its result instead. The loader must not ask the
+	 * cache for the same key, since it would wait for itself.
+	 *
+	 * @param key
+	 *            The expression string.
+	 * @param loader
+	 *            Loads the id. A <code>null</code> result is returned but not
+	 *            cached.
+	 * @return The id.
+	 * @throws Exception
+	 *             Forwards any exception thrown by the loader, also to the
+	 *             threads waiting for it.
+	 */
+	public ExpressionId get(String key, Callable<ExpressionId> loader)
+			throws Exception {
+		ExpressionId id = get(key);
+		if (id != null)
+			return id;
+		misses.incrementAndGet();
+		FutureTask<ExpressionId> task = new FutureTask<ExpressionId>(loader);
+		FutureTask<ExpressionId> running = loading.putIfAbsent(key, task);
+		if (running == null) {
+			running = task;
+			try {
+				task.run();
+				put(key, task.get());
+			} catch (ExecutionException e) {
+				// thrown again below
+			} finally {
+				loading.remove(key, task);
+			}
+		}
+		try {
+			return running.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception)
+				throw (Exception) cause;
+			throw (Error) cause;
+		}
+	}
+
+	/**
+	 * @return The number of look ups answered from the cache.
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return The number of look ups that had to load the id or wait for
+	 *         another thread loading it.
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return The number of cached ids.
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+}
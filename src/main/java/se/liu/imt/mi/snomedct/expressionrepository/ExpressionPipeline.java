@@ -0,0 +1,232 @@
+package se.liu.imt.mi.snomedct.expressionrepository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.antlr.runtime.tree.Tree;
+import org.apache.log4j.Logger;
+
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionId;
+
+/**
+ * Collects new expressions from many threads and writes them in batches, so
+ * that concurrent requests for new expressions share one classification and
+ * one data store transaction. New expressions wait in a bounded queue, and
+ * threads submitting expressions wait when the queue is full. A single writer
+ * thread takes the first waiting expression, keeps collecting expressions for
+ * a time window or until the batch is full, and writes the batch.
+ */
+public class ExpressionPipeline {
+
+	/**
+	 * Writes a batch of new expressions.
+	 */
+	public interface BatchWriter {
+
+		/**
+		 * Write a batch of expressions, which may already have been stored
+		 * by someone else.
+		 *
+		 * @param parseTrees
+		 *            The parse trees of the expressions keyed by their sorted
+		 *            expression strings.
+		 * @return The ids of all expressions keyed by their sorted expression
+		 *         strings.
+		 * @throws Exception
+		 *             Thrown if the batch could not be written.
+		 */
+		Map<String, ExpressionId> write(Map<String, Tree> parseTrees)
+				throws Exception;
+	}
+
+	/**
+	 * A submitted expression and the future for its id.
+	 */
+	private static final class Request extends FutureTask<ExpressionId> {
+
+		private static final Callable<ExpressionId> NONE = new Callable<ExpressionId>() {
+			@Override
+			public ExpressionId call() {
+				throw new IllegalStateException("Completed by the pipeline");
+			}
+		};
+
+		private final String sortedExpression;
+		private final Tree ast;
+
+		Request(String sortedExpression, Tree ast) {
+			super(NONE);
+			this.sortedExpression = sortedExpression;
+			this.ast = ast;
+		}
+
+		void complete(ExpressionId id) {
+			set(id);
+		}
+
+		void fail(Throwable t) {
+			setException(t);
+		}
+	}
+
+	private static final Logger log = Logger
+			.getLogger(ExpressionPipeline.class);
+
+	private final BatchWriter writer;
+
+	private final BlockingQueue<Request> queue;
+
+	private final int batchSize;
+
+	private final long windowNanos;
+
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong expressions = new AtomicLong();
+
+	/**
+	 * Creates a pipeline and starts its writer thread.
+	 *
+	 * @param writer
+	 *            Writes the batches.
+	 * @param queueSize
+	 *            The largest number of expressions waiting to be written.
+	 * @param batchSize
+	 *            The largest number of expressions written together.
+	 * @param windowMillis
+	 *            How long to collect expressions for a batch after the first
+	 *            one, in milliseconds. With 0 only the expressions already
+	 *            waiting are written together.
+	 */
+	public ExpressionPipeline(BatchWriter writer, int queueSize,
+			int batchSize, long windowMillis) {
+		this.writer = writer;
+		this.queue = new ArrayBlockingQueue<Request>(queueSize);
+		this.batchSize = batchSize;
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runWriter();
+			}
+		}, "expression-writer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Submit a new expression to be written. Waits while the queue is full.
+	 *
+	 * @param sortedExpression
+	 *            The sorted expression string.
+	 * @param ast
+	 *            The parse tree of the expression.
+	 * @return The future id of the expression.
+	 * @throws InterruptedException
+	 *             Thrown if the thread is interrupted while waiting for room
+	 *             in the queue.
+	 */
+	public Future<ExpressionId> submit(String sortedExpression, Tree ast)
+			throws InterruptedException {
+		Request request = new Request(sortedExpression, ast);
+		queue.put(request);
+		return request;
+	}
+
+	private void runWriter() {
+		List<Request> batch = new ArrayList<Request>(batchSize);
+		while (true) {
+			try {
+				batch.add(queue.take());
+				long deadline = System.nanoTime() + windowNanos;
+				queue.drainTo(batch, batchSize - batch.size());
+				while (batch.size() < batchSize) {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0)
+						break;
+					Request next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+					if (next == null)
+						break;
+					batch.add(next);
+					queue.drainTo(batch, batchSize - batch.size());
+				}
+				write(batch);
+			} catch (InterruptedException e) {
+				for (Request request : batch)
+					request.fail(e);
+				return;
+			} catch (Throwable t) {
+				log.error("Expression writer failed", t);
+				for (Request request : batch)
+					request.fail(t);
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+
+	/**
+	 * Write a batch. If it fails, each expression is written on its own, so
+	 * an expression that can not be written does not fail the others. The
+	 * writer must leave nothing of a failed batch behind.
+	 */
+	private void write(List<Request> batch) {
+		long start = System.currentTimeMillis();
+		Map<String, Tree> parseTrees = new LinkedHashMap<String, Tree>();
+		for (Request request : batch)
+			parseTrees.put(request.sortedExpression, request.ast);
+		Map<String, ExpressionId> ids;
+		try {
+			ids = writer.write(parseTrees);
+		} catch (Throwable t) {
+			if (batch.size() == 1) {
+				batch.get(0).fail(t);
+				return;
+			}
+			log.warn("Writing a batch of " + batch.size()
+					+ " expressions failed, writing them one at a time", t);
+			for (Request request : batch)
+				write(Collections.singletonList(request));
+			return;
+		}
+		batches.incrementAndGet();
+		expressions.addAndGet(parseTrees.size());
+		for (Request request : batch)
+			request.complete(ids.get(request.sortedExpression));
+		if (log.isDebugEnabled())
+			log.debug("Wrote " + parseTrees.size() + " new expressions in "
+					+ (System.currentTimeMillis() - start)
+					+ " ms, queue depth " + queue.size());
+	}
+
+	/**
+	 * @return The number of expressions waiting to be written.
+	 */
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	/**
+	 * @return The number of batches written.
+	 */
+	public long getBatches() {
+		return batches.get();
+	}
+
+	/**
+	 * @return The number of distinct expressions written.
+	 */
+	public long getExpressions() {
+		return expressions.get();
+	}
+
+}
@@ -4,8 +4,30 @@
 package se.liu.imt.mi.snomedct.expressionrepository;
 
 import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.antlr.runtime.ANTLRStringStream;
 import org.antlr.runtime.CharStream;
@@ -15,21 +37,27 @@ import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.XMLConfiguration;
 import org.apache.commons.lang.NotImplementedException;
 import org.apache.log4j.Logger;
+import org.semanticweb.elk.owlapi.ElkReasonerConfiguration;
 import org.semanticweb.elk.owlapi.ElkReasonerFactory;
+import org.semanticweb.elk.reasoner.config.ReasonerConfiguration;
 import org.semanticweb.owlapi.apibinding.OWLManager;
 import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAxiom;
 import org.semanticweb.owlapi.model.OWLClass;
 import org.semanticweb.owlapi.model.OWLClassExpression;
 import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLEquivalentClassesAxiom;
 import org.semanticweb.owlapi.model.OWLObjectIntersectionOf;
 import org.semanticweb.owlapi.model.OWLOntology;
 import org.semanticweb.owlapi.model.OWLOntologyCreationException;
 import org.semanticweb.owlapi.model.OWLOntologyFormat;
 import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.reasoner.InferenceType;
 import org.semanticweb.owlapi.reasoner.Node;
-import org.semanticweb.owlapi.reasoner.NodeSet;
+import org.semanticweb.owlapi.reasoner.NullReasonerProgressMonitor;
 import org.semanticweb.owlapi.reasoner.OWLReasoner;
 import org.semanticweb.owlapi.reasoner.OWLReasonerFactory;
+import org.semanticweb.owlapi.reasoner.ReasonerProgressMonitor;
 
 //import au.csiro.snorocket.owlapi.SnorocketReasonerFactory;
 
@@ -42,12 +70,17 @@ import se.liu.imt.mi.snomedct.expression.tools.ExpressionSyntaxError;
 import se.liu.imt.mi.snomedct.expression.tools.SCTOWLExpressionBuilder;
 import se.liu.imt.mi.snomedct.expression.tools.SCTSortedExpressionBuilder;
 import se.liu.imt.mi.snomedct.expression.tools.SnomedCTParser;
+import se.liu.imt.mi.snomedct.expressionrepository.api.ExpressionAlreadyExistsException;
 import se.liu.imt.mi.snomedct.expressionrepository.api.ExpressionRepository;
 import se.liu.imt.mi.snomedct.expressionrepository.api.NonExistingIdException;
+import se.liu.imt.mi.snomedct.expressionrepository.api.RelativeAlreadySetException;
 import se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStore;
 import se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStoreException;
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStoreFactory;
 import se.liu.imt.mi.snomedct.expressionrepository.datatypes.Expression;
 import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionId;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionIdSet;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionRelatives;
 import uk.ac.manchester.cs.owl.owlapi.mansyntaxrenderer.ManchesterOWLSyntaxObjectRenderer;
 import uk.ac.manchester.cs.owl.owlapi.mansyntaxrenderer.ManchesterOWLSyntaxPrefixNameShortFormProvider;
 import uk.ac.manchester.cs.owlapi.dlsyntax.DLSyntaxOntologyFormat;
@@ -64,8 +97,93 @@ public class ExpressionRepositoryImpl extends Object implements
 	private OWLOntologyManager manager;
 	private OWLReasoner reasoner;
 	private DataStore dataStore;
+
+	/**
+	 * The ids of recently asked for expressions, keyed by both the given and
+	 * the sorted expression strings.
+	 */
+	private ExpressionIdCache expressionIds;
 	private SCTOWLExpressionBuilder owlExpressionBuilder;
 
+	/**
+	 * Classifies and stores new expressions in batches, or <code>null</code>
+	 * if each new expression is classified and stored on its own.
+	 */
+	private ExpressionPipeline pipeline = null;
+
+	/**
+	 * Released when the ontology has been loaded and classified, or when
+	 * loading has failed.
+	 */
+	private final CountDownLatch ontologyLoaded = new CountDownLatch(1);
+
+	/**
+	 * The exception thrown while loading the ontology, if any.
+	 */
+	private volatile Exception ontologyFailure = null;
+
+	/**
+	 * Serializes all changes to the ontology and the reasoner. Hierarchy
+	 * queries and look ups of existing expressions are answered by the data
+	 * store and never take this lock, so they do not wait for a
+	 * classification in progress.
+	 */
+	private final ReentrantLock ontologyLock = new ReentrantLock();
+
+	/**
+	 * Serializes the evaluation of query expressions that are not stored,
+	 * which use their own copy of the ontology and their own reasoner, so
+	 * queries never wait for the classification of new expressions.
+	 */
+	private final ReentrantLock queryLock = new ReentrantLock();
+
+	/**
+	 * The copy of the ontology that query expressions are classified in,
+	 * created by the first query that needs it. Only used with the query lock
+	 * held.
+	 */
+	private OWLOntology queryOntology = null;
+	private OWLOntologyManager queryManager;
+	private OWLReasoner queryReasoner;
+	private SCTOWLExpressionBuilder queryExpressionBuilder;
+
+	/**
+	 * The axioms of the expressions stored since the query ontology was
+	 * copied, which the next query adds to it.
+	 */
+	private final Queue<OWLAxiom> queryAxioms = new ConcurrentLinkedQueue<OWLAxiom>();
+
+	/**
+	 * If stored expressions' axioms are collected for the query ontology.
+	 * Only used with the ontology lock held.
+	 */
+	private boolean collectQueryAxioms = false;
+
+	/**
+	 * The namespace of the temporary classes used to evaluate query
+	 * expressions that are not stored. It must not end with a number after an
+	 * underscore, so the classes are never mistaken for concepts or stored
+	 * expressions.
+	 */
+	private static final String QUERY_IRI = "urn:x-expressionrepository:query#q";
+
+	/**
+	 * The number of stored expressions parsed and translated together when
+	 * the ontology is loaded.
+	 */
+	private static final int EXPRESSION_BATCH_SIZE = 10000;
+
+	/**
+	 * Numbers the temporary query classes.
+	 */
+	private final AtomicLong queryCounter = new AtomicLong();
+
+	/**
+	 * Records the stages of the latest classification. Only used with the
+	 * ontology lock held.
+	 */
+	private final ClassificationMonitor classificationMonitor = new ClassificationMonitor();
+
 	private static final Logger log = Logger
 			.getLogger(ExpressionRepositoryImpl.class);
 	Configuration config = null;
@@ -73,7 +191,9 @@ public class ExpressionRepositoryImpl extends Object implements
 	/**
 	 * Constructor for ExpressionRepository implementation. Initializes
 	 * configuration management, logging, database and OWLAPI related
-	 * components.
+	 * components. Unless <code>owlapi.background</code> is set to
+	 * <code>false</code> the ontology is loaded and classified in a background
+	 * thread, and only operations that add new expressions wait for it.
 	 * 
 	 * @throws Exception
 	 *             Forwards any exception thrown during initialization
@@ -92,32 +212,79 @@ public class ExpressionRepositoryImpl extends Object implements
 
 		// initialize data store
 		try {
-			String url = config.getString("database.url");
-			String username = config.getString("database.username");
-			String password = config.getString("database.password");
-			dataStore = new se.liu.imt.mi.snomedct.expressionrepository.datastore.postgresql.DataStore(
-					url, username, password);
+			dataStore = DataStoreFactory.createDataStore(config);
 			log.debug("DataStore initialized");
+			expressionIds = new ExpressionIdCache(config.getInt(
+					"expressioncache.size", 100000));
 		} catch (Exception e) {
 			log.debug("Exception", e);
 			throw e;
 		}
 
+		// new expressions asked for by concurrent threads are classified and
+		// stored together, unless the pipeline is disabled
+		if (config.getBoolean("pipeline.enabled", true)) {
+			pipeline = new ExpressionPipeline(
+					new ExpressionPipeline.BatchWriter() {
+						@Override
+						public Map<String, ExpressionId> write(
+								Map<String, Tree> parseTrees) throws Exception {
+							return addNewExpressionsLocked(parseTrees);
+						}
+					}, config.getInt("pipeline.queuesize", 10000),
+					config.getInt("pipeline.batchsize", 1000),
+					config.getLong("pipeline.window", 5));
+		}
+
 		// initialize OWL API
 		manager = OWLManager.createOWLOntologyManager();
 		dataFactory = manager.getOWLDataFactory();
 
+		// load and classify the ontology, either in the background or before
+		// returning. Read operations are answered by the data store and do not
+		// have to wait for the ontology.
+		if (config.getBoolean("owlapi.background", true)) {
+			Thread loader = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						loadOntology();
+					} catch (Exception e) {
+						log.error("Could not load ontology", e);
+						ontologyFailure = e;
+					} finally {
+						ontologyLoaded.countDown();
+					}
+				}
+			}, "ontology-loader");
+			loader.setDaemon(true);
+			loader.start();
+		} else {
+			try {
+				loadOntology();
+			} finally {
+				ontologyLoaded.countDown();
+			}
+		}
+	}
+
+	/**
+	 * Loads the ontology, adds all expressions stored in the data store to it
+	 * and classifies it.
+	 * 
+	 * @throws Exception
+	 *             Forwards any exception thrown during loading
+	 */
+	private void loadOntology() throws Exception {
 		// initialize ontology
 		try {
 			String url = config.getString("owlapi.url");
 			log.debug("Starting to load ontology into memory");
+			long start = System.currentTimeMillis();
 			ontology = manager
 					.loadOntologyFromOntologyDocument(IRI.create(url));
-			log.debug("Finished loading ontology into memory");
-
-			log.debug("Creating reasoner");
-			OWLReasonerFactory reasonerFactory = new ElkReasonerFactory();
-			reasoner = reasonerFactory.createReasoner(ontology);
+			log.info("Loaded ontology into memory in "
+					+ (System.currentTimeMillis() - start) + " ms");
 
 			owlExpressionBuilder = new SCTOWLExpressionBuilder(ontology,
 					dataFactory);
@@ -126,131 +293,257 @@ public class ExpressionRepositoryImpl extends Object implements
 			throw e;
 		}
 
-		// add all existing expressions from expression table to ontology
+		// add all existing expressions from expression table to ontology in
+		// one bulk update, the reasoner is created afterwards so that the
+		// ontology is only classified once
 		try {
 			log.debug("Adding existing expressions from data store to ontology");
-			Collection<Expression> expressions = dataStore.getAllExpressions(null);
-			for (Expression ex : expressions) {
-				Tree result = SnomedCTParser
-						.parseExpression(ex.getExpression());
-				addExpressionToOntology(result, ex.getExpressionId());
+			long start = System.currentTimeMillis();
+			// The expressions are streamed from the data store and parsed
+			// and translated in chunks on a pool of threads, so the
+			// expression strings are never all in memory at the same time.
+			StoredExpressionLoader loader = new StoredExpressionLoader(
+					config.getInt("owlapi.workers", Runtime.getRuntime()
+							.availableProcessors()));
+			Set<OWLAxiom> axioms;
+			try {
+				dataStore.forEachExpression(null, loader);
+				axioms = loader.getAxioms();
+			} finally {
+				loader.shutdown();
 			}
+			log.info("Fetched, parsed and translated " + loader.getCount()
+					+ " expressions in "
+					+ (System.currentTimeMillis() - start) + " ms");
+
+			start = System.currentTimeMillis();
+			manager.addAxioms(ontology, axioms);
+			log.info("Added " + axioms.size() + " axioms to ontology in "
+					+ (System.currentTimeMillis() - start) + " ms");
 		} catch (Exception e) {
-			log.debug("Exception", e);
-			// throw e;
+			// new expressions must not be classified against an ontology
+			// without the stored expressions, as their parents and children
+			// would be wrong, so loading fails and so do later writes
+			log.error("Could not add the stored expressions to the ontology",
+					e);
+			ontologyFailure = e;
+			throw e;
 		}
 
-		// classify ontology
+		// create reasoner and classify ontology
+		log.debug("Creating reasoner");
+		long start = System.currentTimeMillis();
+		// the monitor records how much of the taxonomy each classification
+		// recomputes
+		reasoner = createReasoner(ontology, classificationMonitor);
 		log.debug("Starting classification of ontology");
-		reasoner.precomputeInferences(org.semanticweb.owlapi.reasoner.InferenceType.CLASS_HIERARCHY);
-		log.debug("Finished classifying ontology");
+		classificationMonitor.reset();
+		reasoner.precomputeInferences(InferenceType.CLASS_HIERARCHY);
+		log.info("Created reasoner and classified ontology in "
+				+ (System.currentTimeMillis() - start) + " ms, "
+				+ classificationMonitor);
 
 	}
 
-	private ExpressionId getExpressionID(Tree ast) {
+	/**
+	 * Creates an ELK reasoner for an ontology, which classifies later changes
+	 * incrementally.
+	 * 
+	 * @param ontology
+	 *            The ontology.
+	 * @param monitor
+	 *            Receives the progress of the classifications.
+	 * @return The reasoner.
+	 */
+	private static OWLReasoner createReasoner(OWLOntology ontology,
+			ReasonerProgressMonitor monitor) {
+		ReasonerConfiguration elkConfig = ReasonerConfiguration
+				.getConfiguration();
+		elkConfig.setParameter(ReasonerConfiguration.INCREMENTAL_MODE_ALLOWED,
+				"true");
+		elkConfig.setParameter(ReasonerConfiguration.INCREMENTAL_TAXONOMY,
+				"true");
+		OWLReasonerFactory reasonerFactory = new ElkReasonerFactory();
+		return reasonerFactory.createReasoner(ontology,
+				new ElkReasonerConfiguration(ElkReasonerConfiguration
+						.getDefaultOwlReasonerConfiguration(monitor),
+						elkConfig));
+	}
+
+	/**
+	 * Parses and translates the stored expressions handed to it by the data
+	 * store, in chunks on a pool of threads. Each thread has its own OWL
+	 * expression builder. When all threads are busy and a few chunks are
+	 * waiting, the thread reading from the data store translates the next
+	 * chunk itself, so reading never gets far ahead of translating.
+	 */
+	private class StoredExpressionLoader implements DataStore.ExpressionHandler {
+
+		private final ExecutorService executor;
+
+		private final ThreadLocal<SCTOWLExpressionBuilder> builders = new ThreadLocal<SCTOWLExpressionBuilder>() {
+			@Override
+			protected SCTOWLExpressionBuilder initialValue() {
+				return new SCTOWLExpressionBuilder(ontology, dataFactory);
+			}
+		};
+
+		private final List<Future<List<OWLAxiom>>> results = new ArrayList<Future<List<OWLAxiom>>>();
+
+		private List<Expression> chunk = new ArrayList<Expression>(
+				EXPRESSION_BATCH_SIZE);
+
+		private int count = 0;
+
+		StoredExpressionLoader(int workers) {
+			executor = new ThreadPoolExecutor(workers, workers, 0L,
+					TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+							2 * workers),
+					new ThreadPoolExecutor.CallerRunsPolicy());
+		}
+
+		@Override
+		public void handle(Expression expression) {
+			count++;
+			chunk.add(expression);
+			if (chunk.size() == EXPRESSION_BATCH_SIZE)
+				submit();
+		}
+
+		private void submit() {
+			final List<Expression> expressions = chunk;
+			chunk = new ArrayList<Expression>(EXPRESSION_BATCH_SIZE);
+			results.add(executor.submit(new Callable<List<OWLAxiom>>() {
+				@Override
+				public List<OWLAxiom> call() {
+					SCTOWLExpressionBuilder builder = builders.get();
+					List<OWLAxiom> axioms = new ArrayList<OWLAxiom>(
+							expressions.size());
+					for (Expression ex : expressions) {
+						try {
+							Tree result = SnomedCTParser.parseExpression(ex
+									.getExpression());
+							axioms.add(createExpressionAxiom(builder, result,
+									ex.getExpressionId()));
+						} catch (Exception e) {
+							log.error("Could not add expression "
+									+ ex.toString() + " to ontology", e);
+						}
+					}
+					return axioms;
+				}
+			}));
+		}
+
+		/**
+		 * @return The axioms of all expressions handled.
+		 * @throws Exception
+		 *             Forwards any error thrown during translation
+		 */
+		Set<OWLAxiom> getAxioms() throws Exception {
+			if (!chunk.isEmpty())
+				submit();
+			Set<OWLAxiom> axioms = new HashSet<OWLAxiom>(2 * count);
+			for (Future<List<OWLAxiom>> result : results)
+				axioms.addAll(result.get());
+			return axioms;
+		}
+
+		/**
+		 * @return The number of expressions handled.
+		 */
+		int getCount() {
+			return count;
+		}
+
+		void shutdown() {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Waits until the ontology has been loaded and classified.
+	 * 
+	 * @throws Exception
+	 *             Thrown if the ontology could not be loaded or the waiting
+	 *             thread was interrupted
+	 */
+	private void awaitOntology() throws Exception {
+		if (ontologyLoaded.getCount() > 0) {
+			log.debug("Waiting for ontology to be loaded");
+			ontologyLoaded.await();
+		}
+		if (ontologyFailure != null)
+			throw new Exception("Ontology could not be loaded",
+					ontologyFailure);
+	}
+
+	private ExpressionId getExpressionID(final Tree ast) {
 		// generate sorted expression string
-		String sortedExpression = SCTSortedExpressionBuilder
+		final String sortedExpression = SCTSortedExpressionBuilder
 				.buildSortedExpression(ast);
 		log.debug("sorted expression = " + sortedExpression);
 
 		// use try block to implement transaction??
 		try {
 			// id of the current expression, either an existing or a new one
-			ExpressionId expid = null;
-
-			// check if the expression is a single code
-			try {
-				expid = new ExpressionId(new Long(sortedExpression));
-			} catch (NumberFormatException nfe) {
-				;
-			} catch (Exception e) {
-				// Should never happen!
-				throw new ExpressionSyntaxError(e);
-			}
-			if (expid == null)
-				// if the expression is not a plain number, check if the
-				// expression exists in the repository
-				expid = dataStore.getExpressionId(sortedExpression, null);
-
-			// TODO: If the expression is a single number but not an expression
-			// ID or SCTID, need for a new data store method?
+			ExpressionId expid = lookupExpressionID(sortedExpression);
 
 			if (expid != null) {// the expression is currently in the
 								// expression repository
 				log.debug("existing expression id = " + expid.toString());
 				return expid;
-			} else
-				// add expression to expression table
-				expid = dataStore.storeExpression(sortedExpression, null);
+			}
 
-			log.debug("new expression id = " + expid.toString());
+			// a new expression is added by one thread, and other threads
+			// asking for the same expression wait for its id
+			return expressionIds.get(sortedExpression,
+					new Callable<ExpressionId>() {
+						@Override
+						public ExpressionId call() throws Exception {
+							// the pipeline classifies and stores the
+							// expression together with those of other
+							// threads
+							if (pipeline != null) {
+								try {
+									return pipeline.submit(sortedExpression,
+											ast).get();
+								} catch (ExecutionException e) {
+									Throwable cause = e.getCause();
+									if (cause instanceof Exception)
+										throw (Exception) cause;
+									throw (Error) cause;
+								}
+							}
 
-			// generate OWL expression and create new class for the expression
-			// add axiom to ontology and classify
-			OWLClass new_pc_concept = addExpressionToOntology(ast, expid);
+							// a new expression can not be classified before
+							// the ontology is loaded
+							awaitOntology();
 
-			// check for equivalent classes
-			Node<OWLClass> equivalentClasses = reasoner
-					.getEquivalentClasses(new_pc_concept);
-			ExpressionId eqExpid = null;
-			if (equivalentClasses.getSize() != 0) {
-				for (OWLClass cl : equivalentClasses.getEntities()) {
-					ExpressionId eqExpidTemp = new ExpressionId(
-							getIDFromOWLElement(cl));
-					log.debug("equivalent expression id = "
-							+ eqExpidTemp.toString());
-					if (!expid.equals(eqExpidTemp)) {
-						eqExpid = eqExpidTemp;
-						if (eqExpid.isPreCoordinated())
-							break;
-					}
-				}
-			}
-			if (eqExpid != null)
-				// if there is at least one equivalent expression or
-				// pre-coordinated
-				// concept then store the equivalence in the repository
-				dataStore.storeExpressionEquivalence(expid, eqExpid);
-			else {
-				// if there are no equivalent expressions or pre-cordinated
-				// concepts, add direct super- and sub classes to the data store
-				NodeSet<OWLClass> superClasses = reasoner.getSuperClasses(
-						new_pc_concept, true);
-				HashSet<ExpressionId> parents = new HashSet<ExpressionId>();
-				if (!superClasses.isEmpty()) {
-					for (Node<OWLClass> c : superClasses) {
-						for (OWLClass cl : c.getEntities()) {
-							log.debug("parent id = " + cl.toString());
-						}
-						ExpressionId id = new ExpressionId(
-								getIDFromOWLElement(c
-										.getRepresentativeElement()));
-						log.debug("parent id = " + id.toString());
-						if (id.getId() != 0)
-							parents.add(id);
-					}
-				}
-				NodeSet<OWLClass> subClasses = reasoner.getSubClasses(
-						new_pc_concept, true);
-				HashSet<ExpressionId> children = new HashSet<ExpressionId>();
-				if (!subClasses.isEmpty()) {
-					for (Node<OWLClass> c : subClasses) {
-						ExpressionId id = new ExpressionId(
-								getIDFromOWLElement(c
-										.getRepresentativeElement()));
-						for (OWLClass cl : c.getEntities()) {
-							log.debug("child id = " + cl.toString());
+							// changes to the ontology and the reasoner are
+							// made by one thread at a time
+							ontologyLock.lock();
+							try {
+								// another thread may have added the
+								// expression while this thread was waiting
+								// for the lock
+								ExpressionId expid = dataStore
+										.getExpressionId(sortedExpression,
+												null);
+								if (expid != null) {
+									log.debug("existing expression id = "
+											+ expid.toString());
+									return expid;
+								}
+								return addNewExpressions(
+										Collections.singletonMap(
+												sortedExpression, ast)).get(
+										sortedExpression);
+							} finally {
+								ontologyLock.unlock();
+							}
 						}
-						log.debug("child id = " + id.toString());
-						if (id.getId() != 0)
-							children.add(id);
-					}
-				}
-				dataStore.storeExpressionParentsAndChildren(expid, parents,
-						children);
-			}
-			// return newly generated ID
-			return expid;
+					});
 
 		} catch (Exception e) {
 			log.debug("Exception caught: " + e.getMessage());
@@ -261,6 +554,42 @@ public class ExpressionRepositoryImpl extends Object implements
 		return null;
 	}
 
+	/**
+	 * Returns the id of an expression that is a single code or already exists
+	 * in the data store, without storing anything.
+	 * 
+	 * @param sortedExpression
+	 *            The sorted expression string.
+	 * @return The expression id, or <code>null</code> if the expression is
+	 *         new.
+	 * @throws Exception
+	 *             Forwards any exception thrown by the data store
+	 */
+	private ExpressionId lookupExpressionID(String sortedExpression)
+			throws Exception {
+		// check if the expression is a single code
+		try {
+			return new ExpressionId(new Long(sortedExpression));
+		} catch (NumberFormatException nfe) {
+			;
+		} catch (Exception e) {
+			// Should never happen!
+			throw new ExpressionSyntaxError(e);
+		}
+
+		// TODO: If the expression is a single number but not an expression
+		// ID or SCTID, need for a new data store method?
+
+		// if the expression is not a plain number, check if the expression
+		// exists in the repository
+		ExpressionId expid = expressionIds.get(sortedExpression);
+		if (expid == null) {
+			expid = dataStore.getExpressionId(sortedExpression, null);
+			expressionIds.put(sortedExpression, expid);
+		}
+		return expid;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -269,15 +598,401 @@ public class ExpressionRepositoryImpl extends Object implements
 	 * getExpressionID(java.lang.String)
 	 */
 	@Override
-	public ExpressionId getExpressionID(String expression)
+	public ExpressionId getExpressionID(final String expression)
 			throws ExpressionSyntaxError, NonExistingIdException {
 
 		log.debug("expression = " + expression);
 
+		// an expression asked for before is neither parsed nor sorted again
+		ExpressionId id = expressionIds.get(expression);
+		if (id != null)
+			return id;
+
+		// the id is loaded once per sorted expression, which may be the same
+		// string as the given expression, so the given expression is not
+		// loaded through the cache as well
 		Tree result = SnomedCTParser.parseExpression(expression);
+		id = getExpressionID(result);
+		expressionIds.put(expression, id);
+		return id;
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * se.liu.imt.mi.snomedct.expressionrepository.api.ExpressionRepository#
+	 * getExpressionIDs(java.util.Collection)
+	 */
+	@Override
+	public List<ExpressionId> getExpressionIDs(Collection<String> expressions)
+			throws ExpressionSyntaxError, NonExistingIdException,
+			DataStoreException {
+
+		log.debug("number of expressions = " + expressions.size());
+
+		// parse all expressions and generate sorted expression strings before
+		// anything is stored
+		List<String> sortedExpressions = new ArrayList<String>(
+				expressions.size());
+		Map<String, Tree> parseTrees = new LinkedHashMap<String, Tree>();
+		Map<String, ExpressionId> ids = new HashMap<String, ExpressionId>();
+		for (String expression : expressions) {
+			// an expression asked for before is neither parsed nor sorted
+			// again
+			ExpressionId cached = expressionIds.get(expression);
+			if (cached != null) {
+				sortedExpressions.add(expression);
+				ids.put(expression, cached);
+				continue;
+			}
+			Tree ast = SnomedCTParser.parseExpression(expression);
+			String sortedExpression = SCTSortedExpressionBuilder
+					.buildSortedExpression(ast);
+			sortedExpressions.add(sortedExpression);
+			// a single code is its own id
+			try {
+				ids.put(sortedExpression, new ExpressionId(new Long(
+						sortedExpression)));
+			} catch (NumberFormatException nfe) {
+				cached = expressionIds.get(sortedExpression);
+				if (cached != null)
+					ids.put(sortedExpression, cached);
+				else
+					parseTrees.put(sortedExpression, ast);
+			}
+		}
+
+		// look up all existing expressions in one round trip
+		ids.putAll(dataStore.getExpressionIds(parseTrees.keySet(), null));
+		parseTrees.keySet().removeAll(ids.keySet());
+		log.debug("new expressions = " + parseTrees.size());
+
+		if (!parseTrees.isEmpty()) {
+			// new expressions can not be classified before the ontology is
+			// loaded
+			try {
+				awaitOntology();
+			} catch (Exception e) {
+				throw new DataStoreException(
+						"New expressions can not be stored without the ontology",
+						e);
+			}
+
+			ontologyLock.lock();
+			try {
+				// other threads may have added some of the expressions while
+				// this thread was waiting for the lock
+				ids.putAll(dataStore.getExpressionIds(parseTrees.keySet(),
+						null));
+				parseTrees.keySet().removeAll(ids.keySet());
+				ids.putAll(addNewExpressions(parseTrees));
+			} finally {
+				ontologyLock.unlock();
+			}
+		}
+
+		// return the ids in the same order as the expressions
+		List<ExpressionId> result = new ArrayList<ExpressionId>(
+				sortedExpressions.size());
+		Iterator<String> expression = expressions.iterator();
+		for (String sortedExpression : sortedExpressions) {
+			ExpressionId id = ids.get(sortedExpression);
+			result.add(id);
+			expressionIds.put(expression.next(), id);
+			expressionIds.put(sortedExpression, id);
+		}
+		return result;
+	}
+
+	/**
+	 * Stores the expressions that are still new, once the ontology is loaded
+	 * and while holding the ontology lock.
+	 * 
+	 * @param parseTrees
+	 *            The parse trees of the expressions keyed by their sorted
+	 *            expression strings.
+	 * @return The ids of all the expressions keyed by the sorted expression
+	 *         strings.
+	 * @throws Exception
+	 *             Forwards any exception thrown by the data store or the
+	 *             reasoner
+	 */
+	private Map<String, ExpressionId> addNewExpressionsLocked(
+			Map<String, Tree> parseTrees) throws Exception {
+		awaitOntology();
+		ontologyLock.lock();
+		try {
+			// some of the expressions may have been added since they were
+			// looked up
+			Map<String, ExpressionId> ids = new HashMap<String, ExpressionId>(
+					dataStore.getExpressionIds(parseTrees.keySet(), null));
+			Map<String, Tree> newParseTrees = new LinkedHashMap<String, Tree>(
+					parseTrees);
+			newParseTrees.keySet().removeAll(ids.keySet());
+			ids.putAll(addNewExpressions(newParseTrees));
+			return ids;
+		} finally {
+			ontologyLock.unlock();
+		}
+	}
+
+	/**
+	 * Stores several new expressions, adds them to the ontology, classifies
+	 * the ontology once and stores the expressions' equivalences or parents
+	 * and children in the same transaction as the expressions. Must only be
+	 * called by the thread holding the ontology lock.
+	 * 
+	 * @param parseTrees
+	 *            The parse trees of the new expressions keyed by their sorted
+	 *            expression strings.
+	 * @return The new expression ids keyed by the sorted expression strings.
+	 * @throws ExpressionSyntaxError
+	 *             Thrown if an expression can not be translated to OWL
+	 * @throws NonExistingIdException
+	 *             Thrown if the data store does not know an id used as a
+	 *             relative
+	 * @throws DataStoreException
+	 *             Thrown if there is a problem with the data store
+	 */
+	private Map<String, ExpressionId> addNewExpressions(
+			Map<String, Tree> parseTrees) throws ExpressionSyntaxError,
+			NonExistingIdException, DataStoreException {
+		Map<String, ExpressionId> result = new HashMap<String, ExpressionId>();
+		if (parseTrees.isEmpty())
+			return result;
 
-		return getExpressionID(result);
+		// translate all expressions to OWL before storing any of them
+		List<String> sortedExpressions = new ArrayList<String>(
+				parseTrees.keySet());
+		final List<OWLClassExpression> owlExpressions = new ArrayList<OWLClassExpression>(
+				sortedExpressions.size());
+		for (String sortedExpression : sortedExpressions) {
+			try {
+				owlExpressions.add(owlExpressionBuilder
+						.translateToOWL(parseTrees.get(sortedExpression)));
+			} catch (Exception e) {
+				throw new ExpressionSyntaxError(e);
+			}
+		}
+
+		// store the expressions and their equivalences, parents and children
+		// in one transaction, classifying the expressions once they have got
+		// their ids
+		final Set<OWLAxiom> axioms = new HashSet<OWLAxiom>();
+		List<ExpressionId> newIds;
+		boolean stored = false;
+		try {
+			newIds = dataStore.storeExpressionsAndRelatives(sortedExpressions,
+					null, new DataStore.RelativesHandler() {
+						@Override
+						public List<ExpressionRelatives> getRelatives(
+								List<ExpressionId> ids) {
+							return classifyNewExpressions(ids, owlExpressions,
+									axioms);
+						}
+					});
+			stored = true;
+		} catch (ExpressionAlreadyExistsException e) {
+			throw new DataStoreException(e);
+		} catch (RelativeAlreadySetException e) {
+			throw new DataStoreException(e);
+		} finally {
+			// nothing is stored if anything fails, so the expressions are
+			// taken out of the ontology again before they are retried, for
+			// example one at a time by the pipeline
+			if (!stored && !axioms.isEmpty()) {
+				manager.removeAxioms(ontology, axioms);
+				classify();
+			}
+		}
+		for (int i = 0; i < newIds.size(); i++)
+			result.put(sortedExpressions.get(i), newIds.get(i));
 
+		// the stored expressions are added to the query ontology by the next
+		// query
+		if (collectQueryAxioms)
+			queryAxioms.addAll(axioms);
+
+		return result;
+	}
+
+	/**
+	 * Adds new expressions to the ontology, classifies the ontology once and
+	 * works out the expressions' equivalences or parents and children. Must
+	 * only be called by the thread holding the ontology lock.
+	 * 
+	 * @param newIds
+	 *            The ids of the new expressions.
+	 * @param owlExpressions
+	 *            The OWL translations of the new expressions in the same order
+	 *            as the ids.
+	 * @param axioms
+	 *            Receives the axioms added to the ontology.
+	 * @return The expressions' equivalences or parents and children, ordered
+	 *         so every new parent comes before its children.
+	 */
+	private List<ExpressionRelatives> classifyNewExpressions(
+			List<ExpressionId> newIds, List<OWLClassExpression> owlExpressions,
+			Set<OWLAxiom> axioms) {
+		// add all axioms to the ontology and classify once
+		long start = System.currentTimeMillis();
+		Map<OWLClass, ExpressionId> newClasses = new HashMap<OWLClass, ExpressionId>();
+		for (int i = 0; i < newIds.size(); i++) {
+			ExpressionId expid = newIds.get(i);
+			OWLClass cl = getExpressionClass(expid);
+			newClasses.put(cl, expid);
+			axioms.add(dataFactory.getOWLEquivalentClassesAxiom(cl,
+					owlExpressions.get(i)));
+		}
+		manager.addAxioms(ontology, axioms);
+		classify();
+		log.info("Added and classified " + axioms.size()
+				+ " new expressions in "
+				+ (System.currentTimeMillis() - start) + " ms, "
+				+ classificationMonitor);
+
+		// store the new expressions in order of how many new expressions
+		// that subsume them, so every new parent is stored before its
+		// children
+		final Map<OWLClass, Integer> newAncestorCounts = new HashMap<OWLClass, Integer>();
+		for (OWLClass cl : newClasses.keySet()) {
+			Set<OWLClass> ancestors = new HashSet<OWLClass>(reasoner
+					.getSuperClasses(cl, false).getFlattened());
+			ancestors.retainAll(newClasses.keySet());
+			newAncestorCounts.put(cl, ancestors.size());
+		}
+		List<OWLClass> order = new ArrayList<OWLClass>(newClasses.keySet());
+		Collections.sort(order, new Comparator<OWLClass>() {
+			@Override
+			public int compare(OWLClass o1, OWLClass o2) {
+				return newAncestorCounts.get(o1).compareTo(
+						newAncestorCounts.get(o2));
+			}
+		});
+
+		// the ids of the new expressions whose relatives are not stored yet
+		Set<ExpressionId> pending = new HashSet<ExpressionId>(
+				newClasses.values());
+		List<ExpressionRelatives> relatives = new ArrayList<ExpressionRelatives>(
+				order.size());
+		for (OWLClass cl : order) {
+			ExpressionId expid = newClasses.get(cl);
+			pending.remove(expid);
+
+			// check for equivalent classes, preferring pre-coordinated
+			// concepts
+			ExpressionId eqExpid = null;
+			for (OWLClass eq : reasoner.getEquivalentClasses(cl).getEntities()) {
+				ExpressionId eqExpidTemp = new ExpressionId(
+						getIDFromOWLElement(eq));
+				if (eqExpidTemp.getId() != 0 && !expid.equals(eqExpidTemp)
+						&& !pending.contains(eqExpidTemp)) {
+					eqExpid = eqExpidTemp;
+					if (eqExpid.isPreCoordinated())
+						break;
+				}
+			}
+			if (eqExpid != null) {
+				log.debug("expression id = " + expid.toString()
+						+ ", equivalent expression id = " + eqExpid.toString());
+				relatives.add(new ExpressionRelatives(expid, eqExpid));
+				continue;
+			}
+
+			// direct super classes are either stored already or stored
+			// earlier in this batch
+			HashSet<ExpressionId> parents = new HashSet<ExpressionId>();
+			for (Node<OWLClass> c : reasoner.getSuperClasses(cl, true)) {
+				ExpressionId id = getStoredId(c, pending);
+				if (id != null)
+					parents.add(id);
+			}
+
+			// direct sub classes that are stored later in this batch are
+			// passed through, they will be linked in when they are stored
+			Set<Node<OWLClass>> childNodes = new HashSet<Node<OWLClass>>();
+			collectStoredSubClasses(cl, pending, childNodes,
+					new HashSet<OWLClass>());
+			HashSet<ExpressionId> children = new HashSet<ExpressionId>();
+			for (Node<OWLClass> c : childNodes) {
+				boolean direct = true;
+				for (Node<OWLClass> other : childNodes) {
+					if (other != c
+							&& reasoner.getSubClasses(
+									other.getRepresentativeElement(), false)
+									.containsEntity(
+											c.getRepresentativeElement())) {
+						direct = false;
+						break;
+					}
+				}
+				if (direct)
+					children.add(getStoredId(c, pending));
+			}
+			log.debug("expression id = " + expid.toString() + ", parents = "
+					+ parents.toString() + ", children = "
+					+ children.toString());
+			relatives.add(new ExpressionRelatives(expid, parents, children));
+		}
+
+		return relatives;
+	}
+
+	/**
+	 * Returns the id of a class in a node that is stored in the data store,
+	 * preferring the node's representative element.
+	 * 
+	 * @param node
+	 *            The node.
+	 * @param pending
+	 *            The ids of new expressions whose relatives are not stored
+	 *            yet.
+	 * @return The id, or <code>null</code> if no class in the node is stored.
+	 */
+	private ExpressionId getStoredId(Node<OWLClass> node,
+			Set<ExpressionId> pending) {
+		ExpressionId id = new ExpressionId(getIDFromOWLElement(node
+				.getRepresentativeElement()));
+		if (id.getId() != 0 && !pending.contains(id))
+			return id;
+		for (OWLClass cl : node.getEntities()) {
+			id = new ExpressionId(getIDFromOWLElement(cl));
+			if (id.getId() != 0 && !pending.contains(id))
+				return id;
+		}
+		return null;
+	}
+
+	/**
+	 * Collects the nodes of the closest sub classes of a class that are
+	 * stored in the data store, passing through nodes that only contain new
+	 * expressions whose relatives are not stored yet.
+	 * 
+	 * @param cl
+	 *            The class.
+	 * @param pending
+	 *            The ids of new expressions whose relatives are not stored
+	 *            yet.
+	 * @param result
+	 *            The collected nodes.
+	 * @param visited
+	 *            The classes already visited.
+	 */
+	private void collectStoredSubClasses(OWLClass cl,
+			Set<ExpressionId> pending, Set<Node<OWLClass>> result,
+			Set<OWLClass> visited) {
+		for (Node<OWLClass> c : reasoner.getSubClasses(cl, true)) {
+			if (c.isBottomNode()
+					|| !visited.add(c.getRepresentativeElement()))
+				continue;
+			if (getStoredId(c, pending) != null)
+				result.add(c);
+			else
+				collectStoredSubClasses(c.getRepresentativeElement(),
+						pending, result, visited);
+		}
 	}
 
 	/*
@@ -309,6 +1024,21 @@ public class ExpressionRepositoryImpl extends Object implements
 		return dataStore.getDescendants(id, null);
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * se.liu.imt.mi.snomedct.expressionrepository.api.ExpressionRepository#
+	 * getDecendants
+	 * (se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionId,
+	 * java.util.Date)
+	 */
+	@Override
+	public Collection<ExpressionId> getDecendants(ExpressionId id, Date time)
+			throws DataStoreException, NonExistingIdException {
+		return dataStore.getDescendants(id, time);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -323,6 +1053,21 @@ public class ExpressionRepositoryImpl extends Object implements
 		return dataStore.getChildren(id, null);
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * se.liu.imt.mi.snomedct.expressionrepository.api.ExpressionRepository#
+	 * getChildren
+	 * (se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionId,
+	 * java.util.Date)
+	 */
+	@Override
+	public Collection<ExpressionId> getChildren(ExpressionId id, Date time)
+			throws DataStoreException, NonExistingIdException {
+		return dataStore.getChildren(id, time);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -337,6 +1082,21 @@ public class ExpressionRepositoryImpl extends Object implements
 		return dataStore.getAncestors(id, null);
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * se.liu.imt.mi.snomedct.expressionrepository.api.ExpressionRepository#
+	 * getAncestors
+	 * (se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionId,
+	 * java.util.Date)
+	 */
+	@Override
+	public Collection<ExpressionId> getAncestors(ExpressionId id, Date time)
+			throws DataStoreException, NonExistingIdException {
+		return dataStore.getAncestors(id, time);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -351,6 +1111,38 @@ public class ExpressionRepositoryImpl extends Object implements
 		return dataStore.getParents(id, null);
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * se.liu.imt.mi.snomedct.expressionrepository.api.ExpressionRepository#
+	 * getParents
+	 * (se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionId,
+	 * java.util.Date)
+	 */
+	@Override
+	public Collection<ExpressionId> getParents(ExpressionId id, Date time)
+			throws DataStoreException, NonExistingIdException {
+		return dataStore.getParents(id, time);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * se.liu.imt.mi.snomedct.expressionrepository.api.ExpressionRepository#
+	 * isSubsumedNotEquivalent
+	 * (se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionId,
+	 * se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionId,
+	 * java.util.Date)
+	 */
+	@Override
+	public boolean isSubsumedNotEquivalent(ExpressionId id1, ExpressionId id2,
+			Date time) throws DataStoreException {
+		// id1 is subsumed by id2 when id2 subsumes id1
+		return dataStore.isSubsumingNotEquivalent(id2, id1, time);
+	}
+
 	private Long getIDFromOWLElement(OWLClass c) {
 		String name = c.toStringID();
 		log.debug("OWLClass = " + name);
@@ -363,30 +1155,57 @@ public class ExpressionRepositoryImpl extends Object implements
 		return id;
 	}
 
-	private OWLClass addExpressionToOntology(Tree parseTree, ExpressionId expid)
-			throws Exception {
-
-		log.debug("expression id = " + expid.toString());
+	/**
+	 * Classifies the changes to the ontology since the last classification.
+	 * Only the class hierarchy is computed, and ELK updates it incrementally
+	 * from the changed axioms, so the time taken depends on the size of the
+	 * change rather than the size of the ontology. Must be called with the
+	 * ontology lock held.
+	 */
+	private void classify() {
+		classificationMonitor.reset();
+		reasoner.flush();
+		reasoner.precomputeInferences(InferenceType.CLASS_HIERARCHY);
+	}
 
+	/**
+	 * Creates the equivalence axiom between the OWL class for an expression id
+	 * and the OWL translation of the expression, using a given OWL expression
+	 * builder. The axiom is not added to the ontology.
+	 * 
+	 * @param builder
+	 *            The OWL expression builder, which must only be used by one
+	 *            thread at a time.
+	 * @param parseTree
+	 *            The parse tree of the expression.
+	 * @param expid
+	 *            The expression id.
+	 * @return The equivalence axiom.
+	 * @throws Exception
+	 *             Forwards any exception thrown during translation to OWL
+	 */
+	private OWLEquivalentClassesAxiom createExpressionAxiom(
+			SCTOWLExpressionBuilder builder, Tree parseTree, ExpressionId expid)
+			throws Exception {
 		// create OWL expression from parse tree
-		OWLClassExpression owlExpression = owlExpressionBuilder
-				.translateToOWL(parseTree);
+		OWLClassExpression owlExpression = builder.translateToOWL(parseTree);
+
+		return dataFactory.getOWLEquivalentClassesAxiom(
+				getExpressionClass(expid), owlExpression);
+	}
 
-		// create new class for the expression
-		OWLClass new_pc_concept = dataFactory
+	/**
+	 * Returns the OWL class representing an expression id.
+	 * 
+	 * @param expid
+	 *            The expression id.
+	 * @return The OWL class for the expression.
+	 */
+	private OWLClass getExpressionClass(ExpressionId expid) {
+		return dataFactory
 				.getOWLClass(IRI
 						.create(se.liu.imt.mi.snomedct.expression.tools.SCTOWLExpressionBuilder.PC_IRI
 								+ expid.toString()));
-
-		// add equivalence axom to ontology
-		manager.addAxiom(ontology, dataFactory.getOWLEquivalentClassesAxiom(
-				new_pc_concept, owlExpression));
-
-		// classify ontology
-		reasoner.flush();
-		reasoner.precomputeInferences();
-
-		return new_pc_concept;
 	}
 
 	private String printOWLExpression(OWLClassExpression e) {
@@ -437,8 +1256,10 @@ public class ExpressionRepositoryImpl extends Object implements
 						|| ast.getChild(0).getType() != se.liu.imt.mi.snomedct.expression.SCTExpressionParser.TOP_AND)
 					throw new ExpressionSyntaxError(
 							"Descendant may only take an SCT expression as argument, not a query expression");
-				ExpressionId expid = getExpressionID(ast.getChild(0));
-				return getDecendants(expid);
+				return evaluateExpression(
+						ast.getChild(0),
+						true,
+						ast.getType() == se.liu.imt.mi.snomedct.expression.SCTExpressionParser.DESC_SELF);
 			}
 			case se.liu.imt.mi.snomedct.expression.SCTExpressionParser.UNION: {
 				Collection<ExpressionId> set = new HashSet<ExpressionId>();
@@ -448,9 +1269,7 @@ public class ExpressionRepositoryImpl extends Object implements
 				return set;
 			}
 			case se.liu.imt.mi.snomedct.expression.SCTExpressionParser.TOP_AND: {
-				Collection<ExpressionId> c = new HashSet<ExpressionId>();
-				c.add(getExpressionID(ast));
-				return c;
+				return evaluateExpression(ast, false, true);
 			}
 			default:
 				throw new Exception("Undetermined AST node type: "
@@ -461,7 +1280,144 @@ public class ExpressionRepositoryImpl extends Object implements
 		return null;
 	}
 
-	public OWLReasoner getReasoner() {
+	/**
+	 * Evaluates an expression in a query without storing it. An expression
+	 * that is a single code or already exists in the data store is answered
+	 * by the data store. Any other expression is added to the query ontology,
+	 * a copy of the ontology with the expressions stored so far, as a
+	 * temporary class outside the expression namespace, classified, and
+	 * removed again, so neither the data store nor the ontology that new
+	 * expressions are classified in is changed, and the query does not wait
+	 * for new expressions being classified.
+	 * 
+	 * @param ast
+	 *            The parse tree of the expression.
+	 * @param descendants
+	 *            If the descendants of the expression shall be included.
+	 * @param self
+	 *            If the expression itself shall be included, as its id or,
+	 *            for an expression that is not stored, the ids of the stored
+	 *            concepts and expressions that are equivalent to it.
+	 * @return The ids.
+	 * @throws Exception
+	 *             Forwards any exception thrown by the data store or the
+	 *             reasoner
+	 */
+	private Collection<ExpressionId> evaluateExpression(Tree ast,
+			boolean descendants, boolean self) throws Exception {
+		String sortedExpression = SCTSortedExpressionBuilder
+				.buildSortedExpression(ast);
+		log.debug("sorted query expression = " + sortedExpression);
+
+		// answer an existing expression from the data store
+		ExpressionId expid = lookupExpressionID(sortedExpression);
+		if (expid != null) {
+			if (!descendants)
+				return new ExpressionIdSet(expid.getId());
+			Collection<ExpressionId> descendantIds = dataStore.getDescendants(
+					expid, null);
+			if (!self)
+				return descendantIds;
+			long[] ids = new long[descendantIds.size() + 1];
+			int i = 0;
+			for (ExpressionId id : descendantIds)
+				ids[i++] = id.getId();
+			ids[i] = expid.getId();
+			return new ExpressionIdSet(ids);
+		}
+
+		// classify a new expression as a temporary class in the query
+		// ontology, which is not changed by the writers
+		awaitOntology();
+		queryLock.lock();
+		try {
+			if (queryOntology == null)
+				createQueryOntology();
+			Set<OWLAxiom> stored = new HashSet<OWLAxiom>();
+			for (OWLAxiom axiom = queryAxioms.poll(); axiom != null; axiom = queryAxioms
+					.poll())
+				stored.add(axiom);
+			if (!stored.isEmpty())
+				queryManager.addAxioms(queryOntology, stored);
+
+			OWLClass queryClass = dataFactory.getOWLClass(IRI
+					.create(QUERY_IRI + queryCounter.incrementAndGet()));
+			OWLAxiom axiom = dataFactory.getOWLEquivalentClassesAxiom(
+					queryClass, queryExpressionBuilder.translateToOWL(ast));
+			queryManager.addAxiom(queryOntology, axiom);
+			try {
+				// the stored expressions, the removal of the previous query
+				// class and this one are classified together
+				queryReasoner.flush();
+				Set<OWLClass> classes = new HashSet<OWLClass>();
+				if (self)
+					classes.addAll(queryReasoner.getEquivalentClasses(
+							queryClass).getEntities());
+				if (descendants)
+					classes.addAll(queryReasoner.getSubClasses(queryClass,
+							false).getFlattened());
+				classes.remove(queryClass);
+
+				long[] ids = new long[classes.size()];
+				int size = 0;
+				for (OWLClass cl : classes) {
+					long id = getIDFromOWLElement(cl);
+					if (id != 0)
+						ids[size++] = id;
+				}
+				return new ExpressionIdSet(ids, size);
+			} finally {
+				// the removal is classified together with the next query
+				queryManager.removeAxiom(queryOntology, axiom);
+				queryReasoner.flush();
+			}
+		} finally {
+			queryLock.unlock();
+		}
+	}
+
+	/**
+	 * Copies the classified ontology, with the stored expressions, to the
+	 * query ontology and classifies the copy. Only the copying waits for the
+	 * ontology lock. Must be called with the query lock held.
+	 * 
+	 * @throws Exception
+	 *             Forwards any exception thrown while creating the copy
+	 */
+	private void createQueryOntology() throws Exception {
+		long start = System.currentTimeMillis();
+		Set<OWLAxiom> axioms = new HashSet<OWLAxiom>();
+		ontologyLock.lock();
+		try {
+			for (OWLOntology o : ontology.getImportsClosure())
+				axioms.addAll(o.getAxioms());
+			// expressions stored from now on are passed on by the writers
+			queryAxioms.clear();
+			collectQueryAxioms = true;
+		} finally {
+			ontologyLock.unlock();
+		}
+		queryManager = OWLManager.createOWLOntologyManager();
+		OWLOntology copy = queryManager.createOntology(axioms);
+		queryExpressionBuilder = new SCTOWLExpressionBuilder(copy,
+				queryManager.getOWLDataFactory());
+		queryReasoner = createReasoner(copy, new NullReasonerProgressMonitor());
+		queryReasoner.precomputeInferences(InferenceType.CLASS_HIERARCHY);
+		queryOntology = copy;
+		log.info("Copied and classified the ontology for queries in "
+				+ (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * @return The number of new expressions waiting to be classified and
+	 *         stored.
+	 */
+	public int getPendingExpressionCount() {
+		return pipeline != null ? pipeline.getQueueDepth() : 0;
+	}
+
+	public OWLReasoner getReasoner() throws Exception {
+		awaitOntology();
 		return reasoner;
 	}
 }
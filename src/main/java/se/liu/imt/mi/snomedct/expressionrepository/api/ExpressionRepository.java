@@ -5,6 +5,7 @@ package se.liu.imt.mi.snomedct.expressionrepository.api;
 
 import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 
 import se.liu.imt.mi.snomedct.expression.tools.ExpressionSyntaxError;
 import se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStoreException;
@@ -39,6 +40,31 @@ public interface ExpressionRepository {
 	ExpressionId getExpressionID(String expression)
 			throws ExpressionSyntaxError, NonExistingIdException;
 
+	/**
+	 * Returns expression id objects for several SNOMED CT post-coordinated
+	 * expressions. Expressions that exist in the repository get their existing
+	 * ids. All other expressions are stored and classified together, and their
+	 * equivalences, parents and children are stored in one transaction.
+	 * 
+	 * @param expressions
+	 *            <code>String</code>s containing expressions according to the
+	 *            SNOMED CT Compositional Grammar.
+	 * @return The expression id objects, in the same order as the expressions.
+	 * @exception ExpressionSyntaxError
+	 *                There is a syntax error according to the SNOMED CT
+	 *                Compositional Grammer in at least one of the
+	 *                <code>String</code>s. No expression is stored in that
+	 *                case.
+	 * @exception NonExistingIdException
+	 *                There is some id in an expression that can not be found in
+	 *                the repository (including pre-coordinated SNOMED CT
+	 *                content).
+	 * @throws DataStoreException
+	 */
+	List<ExpressionId> getExpressionIDs(Collection<String> expressions)
+			throws ExpressionSyntaxError, NonExistingIdException,
+			DataStoreException;
+
 	/**
 	 * Returns an expression as a <code>String</code> according to the SNOMED CT
 	 * Compositional Grammar from an <code>ExpressionId</code> object.
@@ -90,6 +116,24 @@ public interface ExpressionRepository {
 	Collection<ExpressionId> getDecendants(ExpressionId id)
 			throws NonExistingIdException, DataStoreException;
 
+	/**
+	 * Returns all descendants of an expression given an
+	 * <code>ExpressionId</code>, as they were at a specific time.
+	 * 
+	 * @param id
+	 *            An <code>ExpressionId</code> object
+	 * @param time
+	 *            The specific time. A <code>null</code> value is handled as the
+	 *            current time.
+	 * @return A <code>Collection</code> of <code>ExpressionId</code>
+	 *         representing all descendants at the time
+	 * @throws NonExistingIdException
+	 *             The id does not exist in the repository.
+	 * @throws DataStoreException
+	 */
+	Collection<ExpressionId> getDecendants(ExpressionId id, Date time)
+			throws NonExistingIdException, DataStoreException;
+
 	/**
 	 * Returns all direct descendants (children) of an expression given an
 	 * <code>ExpressionId</code>
@@ -105,6 +149,24 @@ public interface ExpressionRepository {
 	Collection<ExpressionId> getChildren(ExpressionId id)
 			throws NonExistingIdException, DataStoreException;
 
+	/**
+	 * Returns all direct descendants (children) of an expression given an
+	 * <code>ExpressionId</code>, as they were at a specific time.
+	 * 
+	 * @param id
+	 *            An <code>ExpressionId</code> object
+	 * @param time
+	 *            The specific time. A <code>null</code> value is handled as the
+	 *            current time.
+	 * @return A <code>Collection</code> of <code>ExpressionId</code>
+	 *         representing all children at the time
+	 * @throws NonExistingIdException
+	 *             The id does not exist in the repository.
+	 * @throws DataStoreException
+	 */
+	Collection<ExpressionId> getChildren(ExpressionId id, Date time)
+			throws NonExistingIdException, DataStoreException;
+
 	/**
 	 * Returns all ancestors of an expression given an <code>ExpressionId</code>
 	 * 
@@ -119,6 +181,24 @@ public interface ExpressionRepository {
 	Collection<ExpressionId> getAncestors(ExpressionId id)
 			throws NonExistingIdException, DataStoreException;
 
+	/**
+	 * Returns all ancestors of an expression given an
+	 * <code>ExpressionId</code>, as they were at a specific time.
+	 * 
+	 * @param id
+	 *            An <code>ExpressionId</code> object
+	 * @param time
+	 *            The specific time. A <code>null</code> value is handled as the
+	 *            current time.
+	 * @return A <code>Collection</code> of <code>ExpressionId</code>
+	 *         representing all ancestors at the time
+	 * @throws NonExistingIdException
+	 *             The id does not exist in the repository.
+	 * @throws DataStoreException
+	 */
+	Collection<ExpressionId> getAncestors(ExpressionId id, Date time)
+			throws NonExistingIdException, DataStoreException;
+
 	/**
 	 * Returns all direct ancestors (parents) of an expression given an
 	 * <code>ExpressionId</code>
@@ -134,6 +214,24 @@ public interface ExpressionRepository {
 	Collection<ExpressionId> getParents(ExpressionId id)
 			throws NonExistingIdException, DataStoreException;
 
+	/**
+	 * Returns all direct ancestors (parents) of an expression given an
+	 * <code>ExpressionId</code>, as they were at a specific time.
+	 * 
+	 * @param id
+	 *            An <code>ExpressionId</code> object
+	 * @param time
+	 *            The specific time. A <code>null</code> value is handled as the
+	 *            current time.
+	 * @return A <code>Collection</code> of <code>ExpressionId</code>
+	 *         representing all parents at the time
+	 * @throws NonExistingIdException
+	 *             The id does not exist in the repository.
+	 * @throws DataStoreException
+	 */
+	Collection<ExpressionId> getParents(ExpressionId id, Date time)
+			throws NonExistingIdException, DataStoreException;
+
 	/**
 	 * Checks subsumption between two <code>ExpressionId</code> objects
 	 * 
@@ -141,7 +239,11 @@ public interface ExpressionRepository {
 	 *            An <code>ExpressionId</code> object
 	 * @param id2
 	 *            An <code>ExpressionId</code> object
-	 * @return true iff id1 is subsumed by id2
+	 * @param time
+	 *            The specific time. A <code>null</code> value is handled as the
+	 *            current time.
+	 * @return true iff id1 is subsumed by id2, and not equivalent to it, at
+	 *         the time
 	 * @throws DataStoreException
 	 */
 	boolean isSubsumedNotEquivalent(ExpressionId id1, ExpressionId id2,
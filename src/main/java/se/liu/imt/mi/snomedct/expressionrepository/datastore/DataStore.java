@@ -4,11 +4,15 @@ import se.liu.imt.mi.snomedct.expressionrepository.api.RelativeAlreadySetExcepti
 import se.liu.imt.mi.snomedct.expressionrepository.api.ExpressionAlreadyExistsException;
 import se.liu.imt.mi.snomedct.expressionrepository.api.NonExistingIdException;
 
+import java.util.Collection;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import se.liu.imt.mi.snomedct.expressionrepository.datatypes.Expression;
 import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionId;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionRelatives;
 
 /**
  * The interface to the data store.
@@ -19,6 +23,44 @@ import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionId;
  */
 public interface DataStore {
 
+	/**
+	 * Receives the expressions in the data store one at a time.
+	 */
+	interface ExpressionHandler {
+
+		/**
+		 * Handle one expression.
+		 * 
+		 * @param expression
+		 *            The expression.
+		 */
+		void handle(Expression expression);
+	}
+
+	/**
+	 * Works out the relatives of new expressions once they have ids, before
+	 * they are stored.
+	 */
+	interface RelativesHandler {
+
+		/**
+		 * Get the equivalences or parents and children of the new expressions.
+		 * The data store does not yet return the new expressions when this is
+		 * called.
+		 * 
+		 * @param ids
+		 *            The new expressions' ids in the same order as the
+		 *            expressions.
+		 * @return The expressions' equivalences or parents and children, in
+		 *         the order they are to be stored.
+		 * @throws DataStoreException
+		 *             Thrown if the relatives can not be worked out. Nothing is
+		 *             stored in that case.
+		 */
+		List<ExpressionRelatives> getRelatives(List<ExpressionId> ids)
+				throws DataStoreException;
+	}
+
 	/**
 	 * Store an expression in the data store.
 	 * 
@@ -95,6 +137,81 @@ public interface DataStore {
 
 	// TODO Lgg till en funktion som tar bort lagrad ekvivalens.
 
+	/**
+	 * Store several expressions in the data store in one transaction.
+	 * 
+	 * @param expressions
+	 *            The expressions to store.
+	 * @param time
+	 *            The time the expressions were created. A <code>null</code>
+	 *            value is handled as the current time.
+	 * @return The stored expressions' ids in the same order as the
+	 *         expressions.
+	 * @throws DataStoreException
+	 *             Thrown if there are any problem with the data store.
+	 * @throws ExpressionAlreadyExistsException
+	 *             Thrown if any of the expressions already exists in the data
+	 *             store. No expression is stored in that case.
+	 */
+	List<ExpressionId> storeExpressions(List<String> expressions, Date time)
+			throws DataStoreException, ExpressionAlreadyExistsException;
+
+	/**
+	 * Store the equivalences or parents and children of several expressions
+	 * in one transaction. The relatives are stored in list order, so an
+	 * expression may have an expression that is earlier in the list as a
+	 * relative. If anything fails nothing is stored.
+	 * 
+	 * @param relatives
+	 *            The expressions' equivalences or parents and children.
+	 * @throws DataStoreException
+	 *             Thrown if there are any problem with the data store.
+	 * @throws NonExistingIdException
+	 *             Thrown if at least one of the expression ids don't exist in
+	 *             the data store.
+	 * @throws RelativeAlreadySetException
+	 *             Thrown if the equivalence already is set or any parent or
+	 *             children already has been added to any of the expressions in
+	 *             the data store.
+	 */
+	void storeExpressionRelatives(List<ExpressionRelatives> relatives)
+			throws DataStoreException, NonExistingIdException,
+			RelativeAlreadySetException;
+
+	/**
+	 * Store several expressions and their equivalences or parents and
+	 * children in the data store in one transaction. The handler is called
+	 * with the expressions' ids to get their relatives, which are stored as
+	 * by {@link #storeExpressionRelatives(List)}. If anything fails, the
+	 * handler included, nothing is stored.
+	 * 
+	 * @param expressions
+	 *            The expressions to store.
+	 * @param time
+	 *            The time the expressions were created. A <code>null</code>
+	 *            value is handled as the current time.
+	 * @param handler
+	 *            Works out the expressions' relatives.
+	 * @return The stored expressions' ids in the same order as the
+	 *         expressions.
+	 * @throws DataStoreException
+	 *             Thrown if there are any problem with the data store.
+	 * @throws ExpressionAlreadyExistsException
+	 *             Thrown if any of the expressions already exists in the data
+	 *             store.
+	 * @throws NonExistingIdException
+	 *             Thrown if at least one of the relatives' ids don't exist in
+	 *             the data store.
+	 * @throws RelativeAlreadySetException
+	 *             Thrown if the equivalence already is set or any parent or
+	 *             children already has been added to any of the expressions in
+	 *             the data store.
+	 */
+	List<ExpressionId> storeExpressionsAndRelatives(List<String> expressions,
+			Date time, RelativesHandler handler) throws DataStoreException,
+			ExpressionAlreadyExistsException, NonExistingIdException,
+			RelativeAlreadySetException;
+
 	/**
 	 * Get an expression's id from the data store.
 	 * 
@@ -111,6 +228,22 @@ public interface DataStore {
 	ExpressionId getExpressionId(String expression, Date time)
 			throws DataStoreException;
 
+	/**
+	 * Get the ids of several expressions from the data store with one look up.
+	 * 
+	 * @param expressions
+	 *            The expressions to receive the ids for.
+	 * @param time
+	 *            The specific time. A <code>null</code> value is handled as the
+	 *            current time.
+	 * @return The ids of the expressions that exist in the data store, keyed
+	 *         by expression. Expressions that do not exist are left out.
+	 * @throws DataStoreException
+	 *             Thrown if there are any problem with the data store.
+	 */
+	Map<String, ExpressionId> getExpressionIds(Collection<String> expressions,
+			Date time) throws DataStoreException;
+
 	/**
 	 * Get a String representation of an expression from the data store given an
 	 * expression id.
@@ -209,6 +342,22 @@ public interface DataStore {
 	 */
 	Set<Expression> getAllExpressions(Date time) throws DataStoreException;
 
+	/**
+	 * Hand all expressions in the data store at a specific time to a handler,
+	 * one at a time, without keeping them all in memory. The handler must not
+	 * use the data store.
+	 * 
+	 * @param time
+	 *            The specific time. A <code>null</code> value is handled as the
+	 *            current time.
+	 * @param handler
+	 *            The handler.
+	 * @throws DataStoreException
+	 *             Thrown if there are any problem with the data store.
+	 */
+	void forEachExpression(Date time, ExpressionHandler handler)
+			throws DataStoreException;
+
 	/**
 	 * Check if one concept or expression is subsuming but not is equivalent to
 	 * another concept or expression at a specific time.
@@ -0,0 +1,32 @@
+package se.liu.imt.mi.snomedct.expressionrepository.datastore;
+
+import org.apache.commons.configuration.Configuration;
+
+/**
+ * Wraps a data store in another data store that adds a concern, such as
+ * caching or metrics, and forwards the operations. Decorators are found with
+ * <code>java.util.ServiceLoader</code> and listed by name, innermost first,
+ * in the <code>datastore.decorators</code> key in <code>config.xml</code>.
+ */
+public interface DataStoreDecorator {
+
+	/**
+	 * @return The name of the decorator in <code>datastore.decorators</code>.
+	 */
+	String getName();
+
+	/**
+	 * Wrap a data store.
+	 * 
+	 * @param dataStore
+	 *            The data store to wrap.
+	 * @param config
+	 *            The configuration.
+	 * @return The wrapping data store.
+	 * @throws DataStoreException
+	 *             Thrown if the wrapping data store can not be created.
+	 */
+	DataStore decorate(DataStore dataStore, Configuration config)
+			throws DataStoreException;
+
+}
@@ -0,0 +1,88 @@
+package se.liu.imt.mi.snomedct.expressionrepository.datastore;
+
+import java.util.ServiceLoader;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.log4j.Logger;
+
+/**
+ * Creates the data store described by the configuration: the backend named by
+ * <code>datastore.type</code>, <code>postgresql</code> by default, wrapped in
+ * the decorators listed in <code>datastore.decorators</code>.
+ */
+public final class DataStoreFactory {
+
+	private static final Logger log = Logger.getLogger(DataStoreFactory.class);
+
+	/**
+	 * The backend used when <code>datastore.type</code> is not set.
+	 */
+	public static final String DEFAULT_TYPE = "postgresql";
+
+	private DataStoreFactory() {
+	}
+
+	/**
+	 * Create the data store described by the configuration.
+	 * 
+	 * @param config
+	 *            The configuration.
+	 * @return The data store, wrapped in its decorators.
+	 * @throws DataStoreException
+	 *             Thrown if the data store type or a decorator is unknown, or
+	 *             the data store can not be created.
+	 */
+	public static DataStore createDataStore(Configuration config)
+			throws DataStoreException {
+		final String type = config.getString("datastore.type", DEFAULT_TYPE)
+				.trim();
+		DataStore dataStore = null;
+		final StringBuilder known = new StringBuilder();
+		for (DataStoreProvider provider : ServiceLoader
+				.load(DataStoreProvider.class)) {
+			if (provider.getType().equals(type)) {
+				dataStore = provider.createDataStore(config);
+				break;
+			}
+			known.append(' ').append(provider.getType());
+		}
+		if (dataStore == null) {
+			throw new DataStoreException("Unknown data store type " + type
+					+ ", the known types are" + known);
+		}
+		log.debug("Created data store of type " + type);
+
+		// Wrap the data store in the decorators, innermost first.
+		for (String name : config.getStringArray("datastore.decorators")) {
+			name = name.trim();
+			if (name.isEmpty())
+				continue;
+			dataStore = getDecorator(name).decorate(dataStore, config);
+			log.debug("Added data store decorator " + name);
+		}
+		return dataStore;
+	}
+
+	/**
+	 * Find a decorator by name.
+	 * 
+	 * @param name
+	 *            The name.
+	 * @return The decorator.
+	 * @throws DataStoreException
+	 *             Thrown if there is no decorator with the name.
+	 */
+	private static DataStoreDecorator getDecorator(String name)
+			throws DataStoreException {
+		final StringBuilder known = new StringBuilder();
+		for (DataStoreDecorator decorator : ServiceLoader
+				.load(DataStoreDecorator.class)) {
+			if (decorator.getName().equals(name))
+				return decorator;
+			known.append(' ').append(decorator.getName());
+		}
+		throw new DataStoreException("Unknown data store decorator " + name
+				+ ", the known decorators are" + known);
+	}
+
+}
@@ -0,0 +1,32 @@
+package se.liu.imt.mi.snomedct.expressionrepository.datastore;
+
+import org.apache.commons.configuration.Configuration;
+
+/**
+ * Creates a data store of one type from the configuration. Providers are
+ * found with <code>java.util.ServiceLoader</code>, so a new backend is added
+ * by listing its provider in
+ * <code>META-INF/services/se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStoreProvider</code>
+ * , and chosen with the <code>datastore.type</code> key in
+ * <code>config.xml</code>.
+ */
+public interface DataStoreProvider {
+
+	/**
+	 * @return The type name of the data store, the value of
+	 *         <code>datastore.type</code> that selects this provider.
+	 */
+	String getType();
+
+	/**
+	 * Create a data store.
+	 * 
+	 * @param config
+	 *            The configuration.
+	 * @return The data store.
+	 * @throws DataStoreException
+	 *             Thrown if the data store can not be created.
+	 */
+	DataStore createDataStore(Configuration config) throws DataStoreException;
+
+}
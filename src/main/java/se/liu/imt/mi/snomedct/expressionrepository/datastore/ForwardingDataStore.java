@@ -0,0 +1,169 @@
+package se.liu.imt.mi.snomedct.expressionrepository.datastore;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import se.liu.imt.mi.snomedct.expressionrepository.api.ExpressionAlreadyExistsException;
+import se.liu.imt.mi.snomedct.expressionrepository.api.NonExistingIdException;
+import se.liu.imt.mi.snomedct.expressionrepository.api.RelativeAlreadySetException;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.Expression;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionId;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionRelatives;
+
+/**
+ * A data store that forwards every operation to another data store. Data
+ * store decorators extend this class and override the operations they add a
+ * concern to.
+ */
+public abstract class ForwardingDataStore implements DataStore {
+
+	/**
+	 * The data store the operations are forwarded to.
+	 */
+	protected final DataStore delegate;
+
+	/**
+	 * Creates a data store that forwards to another data store.
+	 * 
+	 * @param delegate
+	 *            The data store the operations are forwarded to.
+	 */
+	protected ForwardingDataStore(DataStore delegate) {
+		super();
+		this.delegate = delegate;
+	}
+
+	/**
+	 * @return The data store the operations are forwarded to.
+	 */
+	public DataStore getDelegate() {
+		return delegate;
+	}
+
+	@Override
+	public ExpressionId storeExpression(String expression, Date time)
+			throws DataStoreException, ExpressionAlreadyExistsException {
+		return delegate.storeExpression(expression, time);
+	}
+
+	@Override
+	public void storeExpressionEquivalence(ExpressionId id,
+			ExpressionId equivalentExpressionId) throws DataStoreException,
+			NonExistingIdException, RelativeAlreadySetException {
+		delegate.storeExpressionEquivalence(id, equivalentExpressionId);
+	}
+
+	@Override
+	public void storeExpressionParentsAndChildren(ExpressionId id,
+			Set<ExpressionId> parents, Set<ExpressionId> children)
+			throws DataStoreException, NonExistingIdException,
+			RelativeAlreadySetException {
+		delegate.storeExpressionParentsAndChildren(id, parents, children);
+	}
+
+	@Override
+	public List<ExpressionId> storeExpressions(List<String> expressions,
+			Date time) throws DataStoreException,
+			ExpressionAlreadyExistsException {
+		return delegate.storeExpressions(expressions, time);
+	}
+
+	@Override
+	public void storeExpressionRelatives(List<ExpressionRelatives> relatives)
+			throws DataStoreException, NonExistingIdException,
+			RelativeAlreadySetException {
+		delegate.storeExpressionRelatives(relatives);
+	}
+
+	@Override
+	public List<ExpressionId> storeExpressionsAndRelatives(
+			List<String> expressions, Date time, RelativesHandler handler)
+			throws DataStoreException, ExpressionAlreadyExistsException,
+			NonExistingIdException, RelativeAlreadySetException {
+		return delegate.storeExpressionsAndRelatives(expressions, time,
+				handler);
+	}
+
+	@Override
+	public ExpressionId getExpressionId(String expression, Date time)
+			throws DataStoreException {
+		return delegate.getExpressionId(expression, time);
+	}
+
+	@Override
+	public Map<String,
+			ExpressionId> getExpressionIds(Collection<String> expressions,
+			Date time) throws DataStoreException {
+		return delegate.getExpressionIds(expressions, time);
+	}
+
+	@Override
+	public String getExpression(ExpressionId id, Date time)
+			throws DataStoreException, NonExistingIdException {
+		return delegate.getExpression(id, time);
+	}
+
+	@Override
+	public Set<ExpressionId> getDescendants(ExpressionId id, Date time)
+			throws DataStoreException, NonExistingIdException {
+		return delegate.getDescendants(id, time);
+	}
+
+	@Override
+	public Set<ExpressionId> getChildren(ExpressionId id, Date time)
+			throws DataStoreException, NonExistingIdException {
+		return delegate.getChildren(id, time);
+	}
+
+	@Override
+	public Set<ExpressionId> getAncestors(ExpressionId id, Date time)
+			throws DataStoreException, NonExistingIdException {
+		return delegate.getAncestors(id, time);
+	}
+
+	@Override
+	public Set<ExpressionId> getParents(ExpressionId id, Date time)
+			throws DataStoreException, NonExistingIdException {
+		return delegate.getParents(id, time);
+	}
+
+	@Override
+	public Set<Expression> getAllExpressions(Date time)
+			throws DataStoreException {
+		return delegate.getAllExpressions(time);
+	}
+
+	@Override
+	public void forEachExpression(Date time, ExpressionHandler handler)
+			throws DataStoreException {
+		delegate.forEachExpression(time, handler);
+	}
+
+	@Override
+	public boolean isSubsumingNotEquivalent(ExpressionId id1, ExpressionId id2,
+			Date time) throws DataStoreException {
+		return delegate.isSubsumingNotEquivalent(id1, id2, time);
+	}
+
+	@Override
+	public boolean isEquivalent(ExpressionId id1, ExpressionId id2, Date time)
+			throws DataStoreException {
+		return delegate.isEquivalent(id1, id2, time);
+	}
+
+	@Override
+	public boolean isSubsuming(ExpressionId id1, ExpressionId id2, Date time)
+			throws DataStoreException {
+		return delegate.isSubsuming(id1, id2, time);
+	}
+
+	@Override
+	public boolean isExistingId(ExpressionId id, Date time)
+			throws DataStoreException {
+		return delegate.isExistingId(id, time);
+	}
+
+}
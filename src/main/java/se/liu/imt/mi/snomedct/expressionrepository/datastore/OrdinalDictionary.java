@@ -0,0 +1,245 @@
+package se.liu.imt.mi.snomedct.expressionrepository.datastore;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A dictionary that maps 64-bit concept and expression ids to dense
+ * <code>int</code> ordinals, 0, 1, 2 and so on, in the order the ids are
+ * added. The ordinals can be used to index arrays and bitmaps instead of
+ * hashing boxed ids. The dictionary is kept in primitive arrays, a few bytes
+ * per id.
+ * <p>
+ * A dictionary backed by a file appends every new id to the file, so the
+ * ordinals stay the same when the dictionary is opened again. The dictionary
+ * is not thread safe. Concurrent look ups are safe as long as no id is added
+ * at the same time.
+ */
+public class OrdinalDictionary {
+
+	/**
+	 * The value in <code>slots</code> that marks an empty slot.
+	 */
+	private static final int EMPTY = -1;
+
+	/**
+	 * The ids, indexed by ordinal.
+	 */
+	private long[] ids;
+
+	/**
+	 * The open addressing hash table of ordinals, indexed by a hash of the
+	 * ids.
+	 */
+	private int[] slots;
+
+	/**
+	 * The number of ids in the dictionary.
+	 */
+	private int size = 0;
+
+	/**
+	 * The file new ids are appended to, or <code>null</code> if the dictionary
+	 * is only kept in memory.
+	 */
+	private final DataOutputStream out;
+
+	/**
+	 * Creates an empty dictionary that is only kept in memory.
+	 */
+	public OrdinalDictionary() {
+		super();
+		ids = new long[1024];
+		slots = new int[2048];
+		Arrays.fill(slots, EMPTY);
+		out = null;
+	}
+
+	/**
+	 * Opens a dictionary backed by a file, reading the ids already in the
+	 * file. The file is created if it does not exist.
+	 *
+	 * @param file
+	 *            The file.
+	 * @throws IOException
+	 *             Thrown if the file can not be read or opened for writing.
+	 */
+	public OrdinalDictionary(final File file) throws IOException {
+		super();
+		ids = new long[1024];
+		slots = new int[2048];
+		Arrays.fill(slots, EMPTY);
+		if (file.exists()) {
+			final DataInputStream in = new DataInputStream(
+					new BufferedInputStream(new FileInputStream(file)));
+			try {
+				while (true) {
+					final long id;
+					try {
+						id = in.readLong();
+					} catch (EOFException e) {
+						break;
+					}
+					insert(id);
+				}
+			} finally {
+				in.close();
+			}
+			// Cut off a partly written id at the end of the file.
+			if (file.length() != size * 8L) {
+				final FileOutputStream truncate = new FileOutputStream(file,
+						true);
+				try {
+					truncate.getChannel().truncate(size * 8L);
+				} finally {
+					truncate.close();
+				}
+			}
+		}
+		out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file, true)));
+	}
+
+	/**
+	 * Get the ordinal of an id.
+	 *
+	 * @param id
+	 *            The id.
+	 * @return The ordinal, or -1 if the id is not in the dictionary.
+	 */
+	public int getOrdinal(final long id) {
+		int slot = slot(id);
+		while (slots[slot] != EMPTY) {
+			if (ids[slots[slot]] == id)
+				return slots[slot];
+			slot = (slot + 1) & (slots.length - 1);
+		}
+		return -1;
+	}
+
+	/**
+	 * Get the ordinal of an id, adding the id with the next ordinal if it is
+	 * not in the dictionary.
+	 *
+	 * @param id
+	 *            The id.
+	 * @return The ordinal.
+	 * @throws IOException
+	 *             Thrown if a new id can not be written to the file.
+	 */
+	public int addId(final long id) throws IOException {
+		final int ordinal = getOrdinal(id);
+		if (ordinal >= 0)
+			return ordinal;
+		if (out != null)
+			out.writeLong(id);
+		return insert(id);
+	}
+
+	/**
+	 * Get the id of an ordinal.
+	 *
+	 * @param ordinal
+	 *            The ordinal.
+	 * @return The id.
+	 * @throws IndexOutOfBoundsException
+	 *             Thrown if the ordinal is not in use.
+	 */
+	public long getId(final int ordinal) {
+		if (ordinal < 0 || ordinal >= size)
+			throw new IndexOutOfBoundsException("The ordinal " + ordinal
+					+ " is not in use.");
+		return ids[ordinal];
+	}
+
+	/**
+	 * @return The number of ids in the dictionary, which is also the next
+	 *         ordinal.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Write the ids added since the last flush to the file.
+	 *
+	 * @throws IOException
+	 *             Thrown if the file can not be written.
+	 */
+	public void flush() throws IOException {
+		if (out != null)
+			out.flush();
+	}
+
+	/**
+	 * Flush and close the file.
+	 *
+	 * @throws IOException
+	 *             Thrown if the file can not be written.
+	 */
+	public void close() throws IOException {
+		if (out != null)
+			out.close();
+	}
+
+	/**
+	 * Add an id that is not in the dictionary.
+	 *
+	 * @param id
+	 *            The id.
+	 * @return The new ordinal.
+	 */
+	private int insert(final long id) {
+		if (size == ids.length)
+			ids = Arrays.copyOf(ids, ids.length * 2);
+		if (size * 2 >= slots.length)
+			rehash(slots.length * 2);
+		final int ordinal = size++;
+		ids[ordinal] = id;
+		int slot = slot(id);
+		while (slots[slot] != EMPTY)
+			slot = (slot + 1) & (slots.length - 1);
+		slots[slot] = ordinal;
+		return ordinal;
+	}
+
+	/**
+	 * Rebuild the hash table with a new number of slots.
+	 *
+	 * @param capacity
+	 *            The new number of slots, a power of two.
+	 */
+	private void rehash(final int capacity) {
+		slots = new int[capacity];
+		Arrays.fill(slots, EMPTY);
+		for (int ordinal = 0; ordinal < size; ordinal++) {
+			int slot = slot(ids[ordinal]);
+			while (slots[slot] != EMPTY)
+				slot = (slot + 1) & (slots.length - 1);
+			slots[slot] = ordinal;
+		}
+	}
+
+	/**
+	 * Get the home slot of an id.
+	 *
+	 * @param id
+	 *            The id.
+	 * @return The slot.
+	 */
+	private int slot(final long id) {
+		// Spread the bits, SCTIDs share their low order partition digits.
+		long h = id * 0x9E3779B97F4A7C15L;
+		h ^= (h >>> 32);
+		return (int) h & (slots.length - 1);
+	}
+
+}
@@ -0,0 +1,411 @@
+package se.liu.imt.mi.snomedct.expressionrepository.datastore.decorator;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import se.liu.imt.mi.snomedct.expressionrepository.api.ExpressionAlreadyExistsException;
+import se.liu.imt.mi.snomedct.expressionrepository.api.NonExistingIdException;
+import se.liu.imt.mi.snomedct.expressionrepository.api.RelativeAlreadySetException;
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStore;
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStoreException;
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.ForwardingDataStore;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionId;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionIdSet;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionRelatives;
+
+/**
+ * A data store decorator that caches the parents, children, ancestors and
+ * descendants of expressions. The cache is bounded by the total size of the
+ * cached sets and evicts the least recently used sets first. It is split into
+ * segments with a lock each, so look ups of different expressions seldom wait
+ * for each other.
+ * <p>
+ * When relatives are stored through the cache, the cached sets of the
+ * expression, of its ancestors and of its descendants, which include any
+ * equivalent expressions, are removed. The cache must only be used when all
+ * changes to the data store go through it. The returned sets can not be
+ * modified.
+ */
+public class CachingDataStore extends ForwardingDataStore {
+
+	/**
+	 * The kinds of relatives that are cached.
+	 */
+	public enum Relation {
+		PARENTS, CHILDREN, ANCESTORS, DESCENDANTS
+	}
+
+	private static final Set<Relation> ALL = EnumSet.allOf(Relation.class);
+	private static final Set<Relation> DOWN = EnumSet.of(Relation.CHILDREN,
+			Relation.DESCENDANTS);
+	private static final Set<Relation> UP = EnumSet.of(Relation.PARENTS,
+			Relation.ANCESTORS);
+
+	/**
+	 * The number of segments, a power of two.
+	 */
+	private static final int SEGMENTS = 16;
+
+	/**
+	 * The key of a cached set.
+	 */
+	private static final class Key {
+
+		private final ExpressionId id;
+		private final Relation relation;
+		private final Date time;
+
+		Key(ExpressionId id, Relation relation, Date time) {
+			this.id = id;
+			this.relation = relation;
+			this.time = time;
+		}
+
+		@Override
+		public int hashCode() {
+			return (id.hashCode() * 31 + relation.ordinal()) * 31
+					+ (time == null ? 0 : time.hashCode());
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return id.equals(other.id)
+					&& relation == other.relation
+					&& (time == null ? other.time == null : time
+							.equals(other.time));
+		}
+	}
+
+	/**
+	 * One segment of the cache, a least recently used map and an index from
+	 * expression id to the keys of that id in the map.
+	 */
+	private final class Segment {
+
+		private final LinkedHashMap<Key, ExpressionIdSet> entries = new LinkedHashMap<Key, ExpressionIdSet>(
+				64, 0.75f, true);
+
+		private final Map<ExpressionId, Set<Key>> keysById = new HashMap<ExpressionId, Set<Key>>();
+
+		private final long maxWeight;
+
+		private long weight = 0;
+
+		Segment(long maxWeight) {
+			this.maxWeight = maxWeight;
+		}
+
+		synchronized ExpressionIdSet get(Key key) {
+			return entries.get(key);
+		}
+
+		synchronized void put(Key key, ExpressionIdSet value, long version) {
+			// Skip a set read before relatives were stored, since it may
+			// already be out of date.
+			if (version != CachingDataStore.this.version.get())
+				return;
+			long w = weigh(value);
+			if (w > maxWeight)
+				return;
+			ExpressionIdSet previous = entries.put(key, value);
+			if (previous != null)
+				weight -= weigh(previous);
+			else {
+				Set<Key> keys = keysById.get(key.id);
+				if (keys == null) {
+					keys = new HashSet<Key>(4);
+					keysById.put(key.id, keys);
+				}
+				keys.add(key);
+			}
+			weight += w;
+			Iterator<Map.Entry<Key, ExpressionIdSet>> i = entries
+					.entrySet().iterator();
+			while (weight > maxWeight && i.hasNext()) {
+				Map.Entry<Key, ExpressionIdSet> eldest = i.next();
+				i.remove();
+				unindex(eldest.getKey());
+				weight -= weigh(eldest.getValue());
+				evictions.incrementAndGet();
+			}
+		}
+
+		synchronized void invalidate(ExpressionId id, Set<Relation> relations) {
+			Set<Key> keys = keysById.get(id);
+			if (keys == null)
+				return;
+			for (Iterator<Key> i = keys.iterator(); i.hasNext();) {
+				Key key = i.next();
+				if (relations.contains(key.relation)) {
+					weight -= weigh(entries.remove(key));
+					i.remove();
+					invalidations.incrementAndGet();
+				}
+			}
+			if (keys.isEmpty())
+				keysById.remove(id);
+		}
+
+		synchronized void clear() {
+			entries.clear();
+			keysById.clear();
+			weight = 0;
+		}
+
+		private void unindex(Key key) {
+			Set<Key> keys = keysById.get(key.id);
+			keys.remove(key);
+			if (keys.isEmpty())
+				keysById.remove(key.id);
+		}
+	}
+
+	private final Segment[] segments = new Segment[SEGMENTS];
+
+	/**
+	 * Counts the stored relatives, so that sets read from the data store
+	 * before a change are not put in the cache after it.
+	 */
+	private final AtomicLong version = new AtomicLong();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+
+	/**
+	 * Creates a hierarchy cache.
+	 *
+	 * @param delegate
+	 *            The data store to cache.
+	 * @param maxWeight
+	 *            The largest total size of the cached sets, counting each set
+	 *            as its size plus one.
+	 */
+	public CachingDataStore(DataStore delegate, long maxWeight) {
+		super(delegate);
+		for (int i = 0; i < SEGMENTS; i++)
+			segments[i] = new Segment(Math.max(1, maxWeight / SEGMENTS));
+	}
+
+	private static long weigh(Set<ExpressionId> value) {
+		return value.size() + 1;
+	}
+
+	private Segment segmentFor(ExpressionId id) {
+		int h = id.hashCode();
+		h ^= (h >>> 16);
+		return segments[h & (SEGMENTS - 1)];
+	}
+
+	/**
+	 * Look up a set of relatives in the cache, or read it from the data store
+	 * and cache it.
+	 */
+	private Set<ExpressionId> getRelatives(ExpressionId id, Relation relation,
+			Date time) throws DataStoreException, NonExistingIdException {
+		Key key = new Key(id, relation, time == null ? null : new Date(
+				time.getTime()));
+		Segment segment = segmentFor(id);
+		ExpressionIdSet cached = segment.get(key);
+		if (cached != null) {
+			hits.incrementAndGet();
+			return new ExpressionIdSet(cached);
+		}
+		misses.incrementAndGet();
+		long v = version.get();
+		Set<ExpressionId> result;
+		switch (relation) {
+		case PARENTS:
+			result = delegate.getParents(id, time);
+			break;
+		case CHILDREN:
+			result = delegate.getChildren(id, time);
+			break;
+		case ANCESTORS:
+			result = delegate.getAncestors(id, time);
+			break;
+		default:
+			result = delegate.getDescendants(id, time);
+			break;
+		}
+		// the cached set is never changed, and callers get copies of it, which
+		// share its ids until they are changed
+		cached = new ExpressionIdSet(result);
+		segment.put(key, cached, v);
+		return new ExpressionIdSet(cached);
+	}
+
+	/**
+	 * Remove the cached sets that change when the relatives of an expression
+	 * are stored: all sets of the expression, the descendants and children
+	 * of its ancestors and the ancestors and parents of its descendants. The
+	 * ancestors and descendants are read after the change, so they include
+	 * the expressions equivalent to its parents and children.
+	 */
+	private void invalidate(ExpressionId id) throws DataStoreException,
+			NonExistingIdException {
+		Set<ExpressionId> ancestors = delegate.getAncestors(id, null);
+		Set<ExpressionId> descendants = delegate.getDescendants(id, null);
+		segmentFor(id).invalidate(id, ALL);
+		for (ExpressionId ancestor : ancestors)
+			segmentFor(ancestor).invalidate(ancestor, DOWN);
+		for (ExpressionId descendant : descendants)
+			segmentFor(descendant).invalidate(descendant, UP);
+	}
+
+	@Override
+	public void storeExpressionEquivalence(ExpressionId id,
+			ExpressionId equivalentExpressionId) throws DataStoreException,
+			NonExistingIdException, RelativeAlreadySetException {
+		version.incrementAndGet();
+		try {
+			super.storeExpressionEquivalence(id, equivalentExpressionId);
+		} finally {
+			version.incrementAndGet();
+		}
+		invalidate(id);
+	}
+
+	@Override
+	public void storeExpressionParentsAndChildren(ExpressionId id,
+			Set<ExpressionId> parents, Set<ExpressionId> children)
+			throws DataStoreException, NonExistingIdException,
+			RelativeAlreadySetException {
+		version.incrementAndGet();
+		try {
+			super.storeExpressionParentsAndChildren(id, parents, children);
+		} finally {
+			version.incrementAndGet();
+		}
+		invalidate(id);
+	}
+
+	@Override
+	public void storeExpressionRelatives(List<ExpressionRelatives> relatives)
+			throws DataStoreException, NonExistingIdException,
+			RelativeAlreadySetException {
+		version.incrementAndGet();
+		try {
+			super.storeExpressionRelatives(relatives);
+		} finally {
+			version.incrementAndGet();
+		}
+		for (ExpressionRelatives r : relatives)
+			invalidate(r.getId());
+	}
+
+	@Override
+	public List<ExpressionId> storeExpressionsAndRelatives(
+			List<String> expressions, Date time, final RelativesHandler handler)
+			throws DataStoreException, ExpressionAlreadyExistsException,
+			NonExistingIdException, RelativeAlreadySetException {
+		// Keeps the relatives the handler returns, to know what to invalidate.
+		final List<ExpressionRelatives> relatives = new ArrayList<ExpressionRelatives>();
+		final List<ExpressionId> ids;
+		version.incrementAndGet();
+		try {
+			ids = super.storeExpressionsAndRelatives(expressions, time,
+					new RelativesHandler() {
+						@Override
+						public List<ExpressionRelatives> getRelatives(
+								List<ExpressionId> ids)
+								throws DataStoreException {
+							List<ExpressionRelatives> result = handler
+									.getRelatives(ids);
+							relatives.clear();
+							relatives.addAll(result);
+							return result;
+						}
+					});
+		} finally {
+			version.incrementAndGet();
+		}
+		for (ExpressionRelatives r : relatives)
+			invalidate(r.getId());
+		return ids;
+	}
+
+	@Override
+	public Set<ExpressionId> getDescendants(ExpressionId id, Date time)
+			throws DataStoreException, NonExistingIdException {
+		return getRelatives(id, Relation.DESCENDANTS, time);
+	}
+
+	@Override
+	public Set<ExpressionId> getChildren(ExpressionId id, Date time)
+			throws DataStoreException, NonExistingIdException {
+		return getRelatives(id, Relation.CHILDREN, time);
+	}
+
+	@Override
+	public Set<ExpressionId> getAncestors(ExpressionId id, Date time)
+			throws DataStoreException, NonExistingIdException {
+		return getRelatives(id, Relation.ANCESTORS, time);
+	}
+
+	@Override
+	public Set<ExpressionId> getParents(ExpressionId id, Date time)
+			throws DataStoreException, NonExistingIdException {
+		return getRelatives(id, Relation.PARENTS, time);
+	}
+
+	/**
+	 * @return The number of look ups answered from the cache.
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return The number of look ups read from the data store.
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return The number of sets evicted to stay within the size bound.
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return The number of sets removed because relatives were stored.
+	 */
+	public long getInvalidations() {
+		return invalidations.get();
+	}
+
+	/**
+	 * Remove all cached sets.
+	 */
+	public void clear() {
+		for (Segment segment : segments)
+			segment.clear();
+	}
+
+	@Override
+	public String toString() {
+		long h = hits.get();
+		long m = misses.get();
+		return String.format(
+				"hits %d, misses %d (%.1f%% hit rate), evictions %d, invalidations %d",
+				h, m, h + m == 0 ? 0.0 : 100.0 * h / (h + m), evictions.get(),
+				invalidations.get());
+	}
+
+}
@@ -0,0 +1,26 @@
+package se.liu.imt.mi.snomedct.expressionrepository.datastore.decorator;
+
+import org.apache.commons.configuration.Configuration;
+
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStore;
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStoreDecorator;
+
+/**
+ * Provides the <code>cache</code> data store decorator. The total size of the
+ * cached sets of relatives is bounded by <code>datastore.cache.maxweight</code>,
+ * by default one million expression ids.
+ */
+public class CachingDataStoreDecorator implements DataStoreDecorator {
+
+	@Override
+	public String getName() {
+		return "cache";
+	}
+
+	@Override
+	public DataStore decorate(DataStore dataStore, Configuration config) {
+		return new CachingDataStore(dataStore, config.getLong(
+				"datastore.cache.maxweight", 1000000));
+	}
+
+}
@@ -0,0 +1,434 @@
+package se.liu.imt.mi.snomedct.expressionrepository.datastore.decorator;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import se.liu.imt.mi.snomedct.expressionrepository.api.ExpressionAlreadyExistsException;
+import se.liu.imt.mi.snomedct.expressionrepository.api.NonExistingIdException;
+import se.liu.imt.mi.snomedct.expressionrepository.api.RelativeAlreadySetException;
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStore;
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStoreException;
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.ForwardingDataStore;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.Expression;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionId;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionRelatives;
+
+/**
+ * A data store decorator that counts the calls, failures and time spent in
+ * each operation of the data store it wraps. The counters are lock free and
+ * can be read at any time.
+ */
+public class MetricsDataStore extends ForwardingDataStore {
+
+	/**
+	 * The operations of the data store.
+	 */
+	public enum Operation {
+		STORE_EXPRESSION,
+		STORE_EXPRESSION_EQUIVALENCE,
+		STORE_EXPRESSION_PARENTS_AND_CHILDREN,
+		STORE_EXPRESSIONS,
+		STORE_EXPRESSION_RELATIVES,
+		STORE_EXPRESSIONS_AND_RELATIVES,
+		GET_EXPRESSION_ID,
+		GET_EXPRESSION_IDS,
+		GET_EXPRESSION,
+		GET_DESCENDANTS,
+		GET_CHILDREN,
+		GET_ANCESTORS,
+		GET_PARENTS,
+		GET_ALL_EXPRESSIONS,
+		FOR_EACH_EXPRESSION,
+		IS_SUBSUMING_NOT_EQUIVALENT,
+		IS_EQUIVALENT,
+		IS_SUBSUMING,
+		IS_EXISTING_ID
+	}
+
+	/**
+	 * The number of calls of each operation, indexed by ordinal.
+	 */
+	private final AtomicLongArray calls = new AtomicLongArray(
+			Operation.values().length);
+
+	/**
+	 * The number of calls of each operation that threw an exception.
+	 */
+	private final AtomicLongArray failures = new AtomicLongArray(
+			Operation.values().length);
+
+	/**
+	 * The total time spent in each operation, in nanoseconds.
+	 */
+	private final AtomicLongArray nanos = new AtomicLongArray(
+			Operation.values().length);
+
+	/**
+	 * Creates a metrics decorator.
+	 * 
+	 * @param delegate
+	 *            The data store to measure.
+	 */
+	public MetricsDataStore(DataStore delegate) {
+		super(delegate);
+	}
+
+	/**
+	 * @param operation
+	 *            The operation.
+	 * @return The number of calls of the operation.
+	 */
+	public long getCalls(Operation operation) {
+		return calls.get(operation.ordinal());
+	}
+
+	/**
+	 * @param operation
+	 *            The operation.
+	 * @return The number of calls of the operation that threw an exception.
+	 */
+	public long getFailures(Operation operation) {
+		return failures.get(operation.ordinal());
+	}
+
+	/**
+	 * @param operation
+	 *            The operation.
+	 * @return The total time spent in the operation, in nanoseconds.
+	 */
+	public long getTotalNanos(Operation operation) {
+		return nanos.get(operation.ordinal());
+	}
+
+	/**
+	 * Set all counters to zero.
+	 */
+	public void reset() {
+		for (int i = 0; i < calls.length(); i++) {
+			calls.set(i, 0);
+			failures.set(i, 0);
+			nanos.set(i, 0);
+		}
+	}
+
+	/**
+	 * @return The calls, failures and mean time of each operation that has
+	 *         been called, one operation per line.
+	 */
+	@Override
+	public String toString() {
+		final StringBuilder result = new StringBuilder();
+		for (Operation operation : Operation.values()) {
+			final long n = getCalls(operation);
+			if (n == 0)
+				continue;
+			result.append(operation).append(": ").append(n)
+					.append(" calls, ").append(getFailures(operation))
+					.append(" failed, ")
+					.append(TimeUnit.NANOSECONDS.toMicros(getTotalNanos(operation)
+							/ n)).append(" us mean\n");
+		}
+		return result.toString();
+	}
+
+	@Override
+	public ExpressionId storeExpression(String expression, Date time)
+			throws DataStoreException, ExpressionAlreadyExistsException {
+		final long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			final ExpressionId result = super.storeExpression(expression, time);
+			failed = false;
+			return result;
+		} finally {
+			record(Operation.STORE_EXPRESSION, start, failed);
+		}
+	}
+
+	@Override
+	public void storeExpressionEquivalence(ExpressionId id,
+			ExpressionId equivalentExpressionId) throws DataStoreException,
+			NonExistingIdException, RelativeAlreadySetException {
+		final long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			super.storeExpressionEquivalence(id, equivalentExpressionId);
+			failed = false;
+		} finally {
+			record(Operation.STORE_EXPRESSION_EQUIVALENCE, start, failed);
+		}
+	}
+
+	@Override
+	public void storeExpressionParentsAndChildren(ExpressionId id,
+			Set<ExpressionId> parents, Set<ExpressionId> children)
+			throws DataStoreException, NonExistingIdException,
+			RelativeAlreadySetException {
+		final long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			super.storeExpressionParentsAndChildren(id, parents, children);
+			failed = false;
+		} finally {
+			record(Operation.STORE_EXPRESSION_PARENTS_AND_CHILDREN, start,
+					failed);
+		}
+	}
+
+	@Override
+	public List<ExpressionId> storeExpressions(List<String> expressions,
+			Date time) throws DataStoreException,
+			ExpressionAlreadyExistsException {
+		final long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			final List<ExpressionId> result = super.storeExpressions(
+					expressions, time);
+			failed = false;
+			return result;
+		} finally {
+			record(Operation.STORE_EXPRESSIONS, start, failed);
+		}
+	}
+
+	@Override
+	public void storeExpressionRelatives(List<ExpressionRelatives> relatives)
+			throws DataStoreException, NonExistingIdException,
+			RelativeAlreadySetException {
+		final long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			super.storeExpressionRelatives(relatives);
+			failed = false;
+		} finally {
+			record(Operation.STORE_EXPRESSION_RELATIVES, start, failed);
+		}
+	}
+
+	@Override
+	public List<ExpressionId> storeExpressionsAndRelatives(
+			List<String> expressions, Date time, RelativesHandler handler)
+			throws DataStoreException, ExpressionAlreadyExistsException,
+			NonExistingIdException, RelativeAlreadySetException {
+		final long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			final List<ExpressionId> result = super
+					.storeExpressionsAndRelatives(expressions, time, handler);
+			failed = false;
+			return result;
+		} finally {
+			record(Operation.STORE_EXPRESSIONS_AND_RELATIVES, start, failed);
+		}
+	}
+
+	@Override
+	public ExpressionId getExpressionId(String expression, Date time)
+			throws DataStoreException {
+		final long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			final ExpressionId result = super.getExpressionId(expression, time);
+			failed = false;
+			return result;
+		} finally {
+			record(Operation.GET_EXPRESSION_ID, start, failed);
+		}
+	}
+
+	@Override
+	public Map<String,
+			ExpressionId> getExpressionIds(Collection<String> expressions,
+			Date time) throws DataStoreException {
+		final long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			final Map<String,
+					ExpressionId> result = super.getExpressionIds(expressions,
+					time);
+			failed = false;
+			return result;
+		} finally {
+			record(Operation.GET_EXPRESSION_IDS, start, failed);
+		}
+	}
+
+	@Override
+	public String getExpression(ExpressionId id, Date time)
+			throws DataStoreException, NonExistingIdException {
+		final long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			final String result = super.getExpression(id, time);
+			failed = false;
+			return result;
+		} finally {
+			record(Operation.GET_EXPRESSION, start, failed);
+		}
+	}
+
+	@Override
+	public Set<ExpressionId> getDescendants(ExpressionId id, Date time)
+			throws DataStoreException, NonExistingIdException {
+		final long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			final Set<ExpressionId> result = super.getDescendants(id, time);
+			failed = false;
+			return result;
+		} finally {
+			record(Operation.GET_DESCENDANTS, start, failed);
+		}
+	}
+
+	@Override
+	public Set<ExpressionId> getChildren(ExpressionId id, Date time)
+			throws DataStoreException, NonExistingIdException {
+		final long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			final Set<ExpressionId> result = super.getChildren(id, time);
+			failed = false;
+			return result;
+		} finally {
+			record(Operation.GET_CHILDREN, start, failed);
+		}
+	}
+
+	@Override
+	public Set<ExpressionId> getAncestors(ExpressionId id, Date time)
+			throws DataStoreException, NonExistingIdException {
+		final long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			final Set<ExpressionId> result = super.getAncestors(id, time);
+			failed = false;
+			return result;
+		} finally {
+			record(Operation.GET_ANCESTORS, start, failed);
+		}
+	}
+
+	@Override
+	public Set<ExpressionId> getParents(ExpressionId id, Date time)
+			throws DataStoreException, NonExistingIdException {
+		final long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			final Set<ExpressionId> result = super.getParents(id, time);
+			failed = false;
+			return result;
+		} finally {
+			record(Operation.GET_PARENTS, start, failed);
+		}
+	}
+
+	@Override
+	public Set<Expression> getAllExpressions(Date time)
+			throws DataStoreException {
+		final long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			final Set<Expression> result = super.getAllExpressions(time);
+			failed = false;
+			return result;
+		} finally {
+			record(Operation.GET_ALL_EXPRESSIONS, start, failed);
+		}
+	}
+
+	@Override
+	public void forEachExpression(Date time, ExpressionHandler handler)
+			throws DataStoreException {
+		final long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			super.forEachExpression(time, handler);
+			failed = false;
+		} finally {
+			record(Operation.FOR_EACH_EXPRESSION, start, failed);
+		}
+	}
+
+	@Override
+	public boolean isSubsumingNotEquivalent(ExpressionId id1, ExpressionId id2,
+			Date time) throws DataStoreException {
+		final long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			final boolean result = super.isSubsumingNotEquivalent(id1, id2,
+					time);
+			failed = false;
+			return result;
+		} finally {
+			record(Operation.IS_SUBSUMING_NOT_EQUIVALENT, start, failed);
+		}
+	}
+
+	@Override
+	public boolean isEquivalent(ExpressionId id1, ExpressionId id2, Date time)
+			throws DataStoreException {
+		final long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			final boolean result = super.isEquivalent(id1, id2, time);
+			failed = false;
+			return result;
+		} finally {
+			record(Operation.IS_EQUIVALENT, start, failed);
+		}
+	}
+
+	@Override
+	public boolean isSubsuming(ExpressionId id1, ExpressionId id2, Date time)
+			throws DataStoreException {
+		final long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			final boolean result = super.isSubsuming(id1, id2, time);
+			failed = false;
+			return result;
+		} finally {
+			record(Operation.IS_SUBSUMING, start, failed);
+		}
+	}
+
+	@Override
+	public boolean isExistingId(ExpressionId id, Date time)
+			throws DataStoreException {
+		final long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			final boolean result = super.isExistingId(id, time);
+			failed = false;
+			return result;
+		} finally {
+			record(Operation.IS_EXISTING_ID, start, failed);
+		}
+	}
+
+	/**
+	 * Count a call of an operation.
+	 * 
+	 * @param operation
+	 *            The operation.
+	 * @param start
+	 *            The value of <code>System.nanoTime()</code> when the call
+	 *            started.
+	 * @param failed
+	 *            If the call threw an exception.
+	 */
+	private void record(Operation operation, long start, boolean failed) {
+		final int i = operation.ordinal();
+		nanos.addAndGet(i, System.nanoTime() - start);
+		calls.incrementAndGet(i);
+		if (failed)
+			failures.incrementAndGet(i);
+	}
+
+}
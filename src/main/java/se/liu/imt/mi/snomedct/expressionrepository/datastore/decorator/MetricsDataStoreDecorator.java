@@ -0,0 +1,42 @@
+package se.liu.imt.mi.snomedct.expressionrepository.datastore.decorator;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.log4j.Logger;
+
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStore;
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStoreDecorator;
+
+/**
+ * Provides the <code>metrics</code> data store decorator. If
+ * <code>datastore.metrics.loginterval</code> is set to a number of seconds the
+ * metrics are logged at that interval.
+ */
+public class MetricsDataStoreDecorator implements DataStoreDecorator {
+
+	private static final Logger log = Logger.getLogger(MetricsDataStore.class);
+
+	@Override
+	public String getName() {
+		return "metrics";
+	}
+
+	@Override
+	public DataStore decorate(DataStore dataStore, Configuration config) {
+		final MetricsDataStore metrics = new MetricsDataStore(dataStore);
+		final long interval = config.getLong("datastore.metrics.loginterval",
+				0) * 1000;
+		if (interval > 0) {
+			new Timer("datastore-metrics", true).schedule(new TimerTask() {
+				@Override
+				public void run() {
+					log.info("Data store metrics:\n" + metrics);
+				}
+			}, interval, interval);
+		}
+		return metrics;
+	}
+
+}
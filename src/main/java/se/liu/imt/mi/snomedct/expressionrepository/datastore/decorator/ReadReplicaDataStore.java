@@ -0,0 +1,365 @@
+package se.liu.imt.mi.snomedct.expressionrepository.datastore.decorator;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import se.liu.imt.mi.snomedct.expressionrepository.api.ExpressionAlreadyExistsException;
+import se.liu.imt.mi.snomedct.expressionrepository.api.NonExistingIdException;
+import se.liu.imt.mi.snomedct.expressionrepository.api.RelativeAlreadySetException;
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStore;
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStoreException;
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.ForwardingDataStore;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.Expression;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionId;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionRelatives;
+
+/**
+ * A data store decorator that sends look ups to a read replica and changes to
+ * the primary data store. The replica may lag behind the primary, so for a
+ * while after each change look ups go to the primary instead. After that,
+ * look ups of ids or expressions that have not reached the replica, and look
+ * ups that fail there, are repeated on the primary, but negative answers
+ * about ids that the replica has are not.
+ */
+public class ReadReplicaDataStore extends ForwardingDataStore {
+
+	private static final Logger log = Logger
+			.getLogger(ReadReplicaDataStore.class);
+
+	/**
+	 * The read replica.
+	 */
+	private final DataStore replica;
+
+	/**
+	 * How long look ups go to the primary after a change, in nanoseconds.
+	 */
+	private final long lagNanos;
+
+	/**
+	 * The value of <code>System.nanoTime()</code> when the last change was
+	 * made.
+	 */
+	private volatile long lastChange;
+
+	/**
+	 * Creates a read replica router.
+	 *
+	 * @param primary
+	 *            The primary data store, which gets all changes.
+	 * @param replica
+	 *            The read replica.
+	 * @param lagMillis
+	 *            How long look ups go to the primary after a change, in
+	 *            milliseconds.
+	 */
+	public ReadReplicaDataStore(DataStore primary, DataStore replica,
+			long lagMillis) {
+		super(primary);
+		this.replica = replica;
+		this.lagNanos = TimeUnit.MILLISECONDS.toNanos(lagMillis);
+		this.lastChange = System.nanoTime() - lagNanos;
+	}
+
+	/**
+	 * @return The data store to send a look up to.
+	 */
+	private DataStore reader() {
+		return (System.nanoTime() - lastChange >= lagNanos ? replica
+				: delegate);
+	}
+
+	/**
+	 * Note that a change is made.
+	 */
+	private void changed() {
+		lastChange = System.nanoTime();
+	}
+
+	@Override
+	public ExpressionId storeExpression(String expression, Date time)
+			throws DataStoreException, ExpressionAlreadyExistsException {
+		try {
+			return super.storeExpression(expression, time);
+		} finally {
+			changed();
+		}
+	}
+
+	@Override
+	public void storeExpressionEquivalence(ExpressionId id,
+			ExpressionId equivalentExpressionId) throws DataStoreException,
+			NonExistingIdException, RelativeAlreadySetException {
+		try {
+			super.storeExpressionEquivalence(id, equivalentExpressionId);
+		} finally {
+			changed();
+		}
+	}
+
+	@Override
+	public void storeExpressionParentsAndChildren(ExpressionId id,
+			Set<ExpressionId> parents, Set<ExpressionId> children)
+			throws DataStoreException, NonExistingIdException,
+			RelativeAlreadySetException {
+		try {
+			super.storeExpressionParentsAndChildren(id, parents, children);
+		} finally {
+			changed();
+		}
+	}
+
+	@Override
+	public List<ExpressionId> storeExpressions(List<String> expressions,
+			Date time) throws DataStoreException,
+			ExpressionAlreadyExistsException {
+		try {
+			return super.storeExpressions(expressions, time);
+		} finally {
+			changed();
+		}
+	}
+
+	@Override
+	public void storeExpressionRelatives(List<ExpressionRelatives> relatives)
+			throws DataStoreException, NonExistingIdException,
+			RelativeAlreadySetException {
+		try {
+			super.storeExpressionRelatives(relatives);
+		} finally {
+			changed();
+		}
+	}
+
+	@Override
+	public List<ExpressionId> storeExpressionsAndRelatives(
+			List<String> expressions, Date time, RelativesHandler handler)
+			throws DataStoreException, ExpressionAlreadyExistsException,
+			NonExistingIdException, RelativeAlreadySetException {
+		try {
+			return super.storeExpressionsAndRelatives(expressions, time,
+					handler);
+		} finally {
+			changed();
+		}
+	}
+
+	@Override
+	public ExpressionId getExpressionId(String expression, Date time)
+			throws DataStoreException {
+		final DataStore reader = reader();
+		if (reader == replica) {
+			try {
+				final ExpressionId result = replica.getExpressionId(
+						expression, time);
+				if (result != null)
+					return result;
+			} catch (DataStoreException e) {
+				log.warn("Look up failed on the read replica", e);
+			}
+		}
+		return delegate.getExpressionId(expression, time);
+	}
+
+	@Override
+	public Map<String, ExpressionId> getExpressionIds(
+			Collection<String> expressions, Date time)
+			throws DataStoreException {
+		final DataStore reader = reader();
+		if (reader == replica) {
+			try {
+				final Map<String, ExpressionId> result = replica
+						.getExpressionIds(expressions, time);
+				if (result.size() == new HashSet<String>(expressions).size())
+					return result;
+				// Look up the missing expressions on the primary.
+				final Set<String> missing = new HashSet<String>(expressions);
+				missing.removeAll(result.keySet());
+				result.putAll(delegate.getExpressionIds(missing, time));
+				return result;
+			} catch (DataStoreException e) {
+				log.warn("Look up failed on the read replica", e);
+			}
+		}
+		return delegate.getExpressionIds(expressions, time);
+	}
+
+	@Override
+	public String getExpression(ExpressionId id, Date time)
+			throws DataStoreException, NonExistingIdException {
+		final DataStore reader = reader();
+		if (reader == replica) {
+			try {
+				return replica.getExpression(id, time);
+			} catch (NonExistingIdException e) {
+				// The id may not have reached the replica yet.
+			} catch (DataStoreException e) {
+				log.warn("Look up failed on the read replica", e);
+			}
+		}
+		return delegate.getExpression(id, time);
+	}
+
+	@Override
+	public Set<ExpressionId> getDescendants(ExpressionId id, Date time)
+			throws DataStoreException, NonExistingIdException {
+		final DataStore reader = reader();
+		if (reader == replica) {
+			try {
+				return replica.getDescendants(id, time);
+			} catch (NonExistingIdException e) {
+				// The id may not have reached the replica yet.
+			} catch (DataStoreException e) {
+				log.warn("Look up failed on the read replica", e);
+			}
+		}
+		return delegate.getDescendants(id, time);
+	}
+
+	@Override
+	public Set<ExpressionId> getChildren(ExpressionId id, Date time)
+			throws DataStoreException, NonExistingIdException {
+		final DataStore reader = reader();
+		if (reader == replica) {
+			try {
+				return replica.getChildren(id, time);
+			} catch (NonExistingIdException e) {
+				// The id may not have reached the replica yet.
+			} catch (DataStoreException e) {
+				log.warn("Look up failed on the read replica", e);
+			}
+		}
+		return delegate.getChildren(id, time);
+	}
+
+	@Override
+	public Set<ExpressionId> getAncestors(ExpressionId id, Date time)
+			throws DataStoreException, NonExistingIdException {
+		final DataStore reader = reader();
+		if (reader == replica) {
+			try {
+				return replica.getAncestors(id, time);
+			} catch (NonExistingIdException e) {
+				// The id may not have reached the replica yet.
+			} catch (DataStoreException e) {
+				log.warn("Look up failed on the read replica", e);
+			}
+		}
+		return delegate.getAncestors(id, time);
+	}
+
+	@Override
+	public Set<ExpressionId> getParents(ExpressionId id, Date time)
+			throws DataStoreException, NonExistingIdException {
+		final DataStore reader = reader();
+		if (reader == replica) {
+			try {
+				return replica.getParents(id, time);
+			} catch (NonExistingIdException e) {
+				// The id may not have reached the replica yet.
+			} catch (DataStoreException e) {
+				log.warn("Look up failed on the read replica", e);
+			}
+		}
+		return delegate.getParents(id, time);
+	}
+
+	@Override
+	public Set<Expression> getAllExpressions(Date time)
+			throws DataStoreException {
+		// The whole set must be complete, so it is always read from the
+		// primary.
+		return delegate.getAllExpressions(time);
+	}
+
+	@Override
+	public void forEachExpression(Date time, ExpressionHandler handler)
+			throws DataStoreException {
+		// The expressions must be complete, so they are always read from the
+		// primary.
+		delegate.forEachExpression(time, handler);
+	}
+
+	/**
+	 * Checks if two ids have reached the replica, in which case a negative
+	 * answer about them from the replica holds on the primary as well.
+	 */
+	private boolean existOnReplica(ExpressionId id1, ExpressionId id2,
+			Date time) throws DataStoreException {
+		return replica.isExistingId(id1, time)
+				&& (id2.equals(id1) || replica.isExistingId(id2, time));
+	}
+
+	@Override
+	public boolean isSubsumingNotEquivalent(ExpressionId id1, ExpressionId id2,
+			Date time) throws DataStoreException {
+		final DataStore reader = reader();
+		if (reader == replica) {
+			try {
+				final boolean result = replica.isSubsumingNotEquivalent(id1,
+						id2, time);
+				if (result || existOnReplica(id1, id2, time))
+					return result;
+			} catch (DataStoreException e) {
+				log.warn("Look up failed on the read replica", e);
+			}
+		}
+		return delegate.isSubsumingNotEquivalent(id1, id2, time);
+	}
+
+	@Override
+	public boolean isEquivalent(ExpressionId id1, ExpressionId id2, Date time)
+			throws DataStoreException {
+		final DataStore reader = reader();
+		if (reader == replica) {
+			try {
+				final boolean result = replica.isEquivalent(id1, id2, time);
+				if (result || existOnReplica(id1, id2, time))
+					return result;
+			} catch (DataStoreException e) {
+				log.warn("Look up failed on the read replica", e);
+			}
+		}
+		return delegate.isEquivalent(id1, id2, time);
+	}
+
+	@Override
+	public boolean isSubsuming(ExpressionId id1, ExpressionId id2, Date time)
+			throws DataStoreException {
+		final DataStore reader = reader();
+		if (reader == replica) {
+			try {
+				final boolean result = replica.isSubsuming(id1, id2, time);
+				if (result || existOnReplica(id1, id2, time))
+					return result;
+			} catch (DataStoreException e) {
+				log.warn("Look up failed on the read replica", e);
+			}
+		}
+		return delegate.isSubsuming(id1, id2, time);
+	}
+
+	@Override
+	public boolean isExistingId(ExpressionId id, Date time)
+			throws DataStoreException {
+		final DataStore reader = reader();
+		if (reader == replica) {
+			try {
+				if (replica.isExistingId(id, time))
+					return true;
+				// The id may not have reached the replica yet.
+			} catch (DataStoreException e) {
+				log.warn("Look up failed on the read replica", e);
+			}
+		}
+		return delegate.isExistingId(id, time);
+	}
+
+}
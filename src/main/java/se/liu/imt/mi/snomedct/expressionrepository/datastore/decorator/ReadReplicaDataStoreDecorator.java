@@ -0,0 +1,49 @@
+package se.liu.imt.mi.snomedct.expressionrepository.datastore.decorator;
+
+import org.apache.commons.configuration.Configuration;
+
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStore;
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStoreDecorator;
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStoreException;
+
+/**
+ * Provides the <code>replica</code> data store decorator, which sends look ups
+ * to the PostgreSQL read replica at <code>datastore.replica.url</code>. The
+ * user name, password and pool size default to those in the
+ * <code>database</code> section. Look ups go to the primary data store for
+ * <code>datastore.replica.lag</code> milliseconds, by default 1000, after
+ * each change.
+ */
+public class ReadReplicaDataStoreDecorator implements DataStoreDecorator {
+
+	@Override
+	public String getName() {
+		return "replica";
+	}
+
+	@Override
+	public DataStore decorate(DataStore dataStore, Configuration config)
+			throws DataStoreException {
+		String url = config.getString("datastore.replica.url");
+		if (url == null)
+			throw new DataStoreException(
+					"The replica data store decorator needs datastore.replica.url");
+		String username = config.getString("datastore.replica.username",
+				config.getString("database.username"));
+		String password = config.getString("datastore.replica.password",
+				config.getString("database.password"));
+		int poolSize = config.getInt("datastore.replica.poolsize", config
+				.getInt("database.poolsize", Runtime.getRuntime()
+						.availableProcessors()));
+		long lag = config.getLong("datastore.replica.lag", 1000);
+		// The replica gets no changes through this process, so it must not
+		// keep an in-memory reachability index or ordinal file of its own. It
+		// reads the hierarchy in the same form as the primary.
+		boolean closureArrays = config.getBoolean("database.closurearrays",
+				false);
+		DataStore replica = new se.liu.imt.mi.snomedct.expressionrepository.datastore.postgresql.DataStore(
+				url, username, password, poolSize, false, null, closureArrays);
+		return new ReadReplicaDataStore(dataStore, replica, lag);
+	}
+
+}
@@ -0,0 +1,1469 @@
+package se.liu.imt.mi.snomedct.expressionrepository.datastore.embedded;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import se.liu.imt.mi.snomedct.expressionrepository.api.ExpressionAlreadyExistsException;
+import se.liu.imt.mi.snomedct.expressionrepository.api.NonExistingIdException;
+import se.liu.imt.mi.snomedct.expressionrepository.api.RelativeAlreadySetException;
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStoreException;
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.OrdinalDictionary;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.Expression;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionId;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionIdSet;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionRelatives;
+
+/**
+ * An implementation of the <code>DataStore</code> interface that keeps the
+ * concepts, expressions, equivalences and the temporal transitive closure in
+ * memory, in the same shape as the tables of the PostgreSQL data store but as
+ * columns of primitive arrays indexed by dense ordinals. Every change is
+ * written to an append-only journal before it is made in memory, and the
+ * journal is replayed when the data store is opened again.
+ * <p>
+ * The concepts and their transitive closure are loaded with
+ * <code>importTables</code> from the same tab separated files that are copied
+ * into the PostgreSQL tables, or one at a time with <code>storeConcept</code>
+ * and <code>storeConceptRelationship</code>. All operations are thread safe;
+ * look ups run in parallel and changes one at a time.
+ */
+public class DataStore implements
+		se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStore {
+
+	/**
+	 * The end time of rows that have not ended.
+	 */
+	private static final long OPEN = Long.MAX_VALUE;
+
+	/**
+	 * The time used for look ups at the current time.
+	 */
+	private static final long CURRENT = Long.MIN_VALUE;
+
+	/**
+	 * The journal record type of a concept.
+	 */
+	private static final byte CONCEPT = 1;
+
+	/**
+	 * The journal record type of a transitive closure row between concepts.
+	 */
+	private static final byte RELATIONSHIP = 2;
+
+	/**
+	 * The journal record type of an expression.
+	 */
+	private static final byte EXPRESSION = 3;
+
+	/**
+	 * The journal record type of an expression's equivalence.
+	 */
+	private static final byte EQUIVALENCE = 4;
+
+	/**
+	 * The journal record type of an expression's parents and children.
+	 */
+	private static final byte RELATIVES = 5;
+
+	/**
+	 * The journal record type that marks the start of an import. It is
+	 * written in the same record as the first imported rows.
+	 */
+	private static final byte IMPORT_STARTED = 6;
+
+	/**
+	 * The journal record type that marks the end of an import. It is written
+	 * in the same record as the last imported rows.
+	 */
+	private static final byte IMPORT_COMPLETED = 7;
+
+	/**
+	 * The number of imported rows written to the journal as one record.
+	 */
+	private static final int IMPORT_BATCH = 10000;
+
+	/**
+	 * The format of the times in the imported files.
+	 */
+	private static final String TIME_FORMAT = "yyyy-MM-dd HH:mm:ss";
+
+	/**
+	 * The journal, or <code>null</code> if the data store is only kept in
+	 * memory.
+	 */
+	private final Journal journal;
+
+	/**
+	 * Guards all fields below. Look ups take the read lock and changes take
+	 * the write lock.
+	 */
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * The ordinals of the concept and expression ids.
+	 */
+	private final OrdinalDictionary ordinals = new OrdinalDictionary();
+
+	/**
+	 * The ordinals of the expressions, keyed by expression.
+	 */
+	private final HashMap<String, Integer> expressionOrdinals = new HashMap<String, Integer>();
+
+	/**
+	 * The start time of each concept and expression, indexed by ordinal.
+	 */
+	private long[] nodeStart = new long[1024];
+
+	/**
+	 * The end time of each concept and expression, <code>OPEN</code> if it
+	 * has not ended.
+	 */
+	private long[] nodeEnd = new long[1024];
+
+	/**
+	 * The ordinal of the equivalent id of each concept and expression.
+	 */
+	private int[] equivalent = new int[1024];
+
+	/**
+	 * The expression of each expression, <code>null</code> for concepts.
+	 */
+	private String[] expressions = new String[1024];
+
+	/**
+	 * The ordinals that have each ordinal as equivalent id, in the first
+	 * <code>memberCount</code> elements.
+	 */
+	private int[][] members = new int[1024][];
+
+	/**
+	 * The number of ordinals in each list in <code>members</code>.
+	 */
+	private int[] memberCount = new int[1024];
+
+	/**
+	 * The transitive closure rows with each ordinal as source id.
+	 */
+	private int[][] outEdges = new int[1024][];
+
+	/**
+	 * The number of rows in each list in <code>outEdges</code>.
+	 */
+	private int[] outCount = new int[1024];
+
+	/**
+	 * The transitive closure rows with each ordinal as destination id.
+	 */
+	private int[][] inEdges = new int[1024][];
+
+	/**
+	 * The number of rows in each list in <code>inEdges</code>.
+	 */
+	private int[] inCount = new int[1024];
+
+	/**
+	 * The source ordinal of each transitive closure row.
+	 */
+	private int[] edgeSource = new int[4096];
+
+	/**
+	 * The destination ordinal of each transitive closure row.
+	 */
+	private int[] edgeDestination = new int[4096];
+
+	/**
+	 * The start time of each transitive closure row.
+	 */
+	private long[] edgeStart = new long[4096];
+
+	/**
+	 * The end time of each transitive closure row, <code>OPEN</code> if it
+	 * has not ended.
+	 */
+	private long[] edgeEnd = new long[4096];
+
+	/**
+	 * If each transitive closure row is a direct relation.
+	 */
+	private boolean[] edgeDirect = new boolean[4096];
+
+	/**
+	 * The number of transitive closure rows.
+	 */
+	private int edgeCount = 0;
+
+	/**
+	 * The id of the next stored expression.
+	 */
+	private long nextExpressionId = -1;
+
+	/**
+	 * If the journal has the start, and the end, of an import.
+	 */
+	private boolean importStarted = false;
+	private boolean importCompleted = false;
+
+	/**
+	 * Creates an empty data store that is only kept in memory.
+	 */
+	public DataStore() {
+		super();
+		journal = null;
+	}
+
+	/**
+	 * Opens a data store backed by a journal file, replaying the changes
+	 * already in the journal. The file is created if it does not exist.
+	 *
+	 * @param journalFile
+	 *            The journal file.
+	 * @throws DataStoreException
+	 *             Thrown if the journal can not be read or opened for
+	 *             writing.
+	 */
+	public DataStore(final File journalFile) throws DataStoreException {
+		super();
+		journal = new Journal(journalFile);
+		try {
+			journal.replay(new Journal.Replayer() {
+				@Override
+				public void replay(DataInputStream payload) throws IOException {
+					apply(payload);
+				}
+			});
+		} catch (IOException e) {
+			throw new DataStoreException(e);
+		}
+	}
+
+	/**
+	 * Close the journal.
+	 *
+	 * @throws DataStoreException
+	 *             Thrown if the journal can not be closed.
+	 */
+	public void close() throws DataStoreException {
+		if (journal != null) {
+			try {
+				journal.close();
+			} catch (IOException e) {
+				throw new DataStoreException(e);
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#finalize()
+	 */
+	@Override
+	public void finalize() throws Throwable {
+		// Close the journal.
+		close();
+		super.finalize();
+	}
+
+	/**
+	 * @return If the data store has no concepts or expressions.
+	 */
+	public boolean isEmpty() {
+		lock.readLock().lock();
+		try {
+			return ordinals.size() == 0;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return If an import was started but never completed, for example
+	 *         because the process stopped, so the data store only has some of
+	 *         the imported concepts and relationships.
+	 */
+	public boolean isImportInterrupted() {
+		lock.readLock().lock();
+		try {
+			return importStarted && !importCompleted;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Store a concept in the data store.
+	 *
+	 * @param id
+	 *            The concept's id.
+	 * @param time
+	 *            The time the concept was created. A <code>null</code> value
+	 *            is handled as the current time.
+	 * @throws DataStoreException
+	 *             Thrown if there are any problem with the data store or the
+	 *             id already exists in the data store.
+	 */
+	public void storeConcept(ExpressionId id, Date time)
+			throws DataStoreException {
+		lock.writeLock().lock();
+		try {
+			if (ordinals.getOrdinal(id.getId()) >= 0) {
+				throw new DataStoreException("The id " + id.getId()
+						+ " already exists in the data store.");
+			}
+			final long start = (time != null ? time.getTime() : System
+					.currentTimeMillis());
+			final Record record = new Record();
+			record.writeConcept(id.getId(), start, OPEN);
+			commit(record);
+		} catch (IOException e) {
+			throw new DataStoreException(e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Store a row of the transitive closure between two concepts.
+	 *
+	 * @param sourceId
+	 *            The id of the sub concept.
+	 * @param destinationId
+	 *            The id of the super concept.
+	 * @param direct
+	 *            If the concepts are parent and child.
+	 * @param time
+	 *            The time the relation was created. A <code>null</code> value
+	 *            is handled as the current time.
+	 * @throws DataStoreException
+	 *             Thrown if there are any problem with the data store.
+	 * @throws NonExistingIdException
+	 *             Thrown if at least one of the ids don't exist in the data
+	 *             store.
+	 */
+	public void storeConceptRelationship(ExpressionId sourceId,
+			ExpressionId destinationId, boolean direct, Date time)
+			throws DataStoreException, NonExistingIdException {
+		lock.writeLock().lock();
+		try {
+			for (ExpressionId id : Arrays.asList(sourceId, destinationId)) {
+				if (ordinals.getOrdinal(id.getId()) < 0) {
+					throw new NonExistingIdException("The specified id "
+							+ id.getId() + " do not exists in the data store.");
+				}
+			}
+			final long start = (time != null ? time.getTime() : System
+					.currentTimeMillis());
+			final Record record = new Record();
+			record.writeRelationship(sourceId.getId(), destinationId.getId(),
+					start, OPEN, direct);
+			commit(record);
+		} catch (IOException e) {
+			throw new DataStoreException(e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Import concepts and their transitive closure from tab separated files
+	 * in the format used to copy them into the PostgreSQL tables. The
+	 * concepts file has the columns id and start time, and the transitive
+	 * closure file the columns source id, destination id, start time and if
+	 * the relation is direct. Times are written as
+	 * <code>yyyy-MM-dd HH:mm:ss</code>.
+	 * <p>
+	 * The rows are written to the journal in several records, the first one
+	 * marking the start of the import and the last one its end, so an import
+	 * that did not complete is found by {@link #isImportInterrupted()}.
+	 *
+	 * @param concepts
+	 *            The concepts file.
+	 * @param transitiveClosure
+	 *            The transitive closure file.
+	 * @throws DataStoreException
+	 *             Thrown if there are any problem with the data store or the
+	 *             files.
+	 */
+	public void importTables(File concepts, File transitiveClosure)
+			throws DataStoreException {
+		final SimpleDateFormat format = new SimpleDateFormat(TIME_FORMAT);
+		lock.writeLock().lock();
+		try {
+			// Import the concepts.
+			BufferedReader in = open(concepts);
+			try {
+				Record record = new Record();
+				record.writeMarker(IMPORT_STARTED);
+				String line;
+				while ((line = in.readLine()) != null) {
+					final String[] columns = line.split("\t");
+					if (columns.length < 2)
+						continue;
+					record.writeConcept(Long.parseLong(columns[0]), format
+							.parse(columns[1]).getTime(), OPEN);
+					if (record.count == IMPORT_BATCH) {
+						commit(record);
+						record = new Record();
+					}
+				}
+				commit(record);
+			} finally {
+				in.close();
+			}
+
+			// Import the transitive closure.
+			in = open(transitiveClosure);
+			try {
+				Record record = new Record();
+				String line;
+				while ((line = in.readLine()) != null) {
+					final String[] columns = line.split("\t");
+					if (columns.length < 4)
+						continue;
+					final long sourceId = Long.parseLong(columns[0]);
+					final long destinationId = Long.parseLong(columns[1]);
+					if (ordinals.getOrdinal(sourceId) < 0
+							|| ordinals.getOrdinal(destinationId) < 0) {
+						throw new DataStoreException(
+								"The transitive closure refers to a concept that is not imported: "
+										+ line);
+					}
+					record.writeRelationship(sourceId, destinationId, format
+							.parse(columns[2]).getTime(), OPEN, columns[3]
+							.startsWith("t"));
+					if (record.count == IMPORT_BATCH) {
+						commit(record);
+						record = new Record();
+					}
+				}
+				record.writeMarker(IMPORT_COMPLETED);
+				commit(record);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new DataStoreException(e);
+		} catch (ParseException e) {
+			throw new DataStoreException(e);
+		} catch (NumberFormatException e) {
+			throw new DataStoreException(e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public ExpressionId storeExpression(String expression, Date time)
+			throws DataStoreException, ExpressionAlreadyExistsException {
+		return storeExpressions(Collections.singletonList(expression), time)
+				.get(0);
+	}
+
+	@Override
+	public List<ExpressionId> storeExpressions(List<String> expressions,
+			Date time) throws DataStoreException,
+			ExpressionAlreadyExistsException {
+		if (expressions.isEmpty()) {
+			return new ArrayList<ExpressionId>();
+		}
+		lock.writeLock().lock();
+		try {
+			final Record record = new Record();
+			final List<ExpressionId> result = writeExpressions(expressions,
+					time, record);
+			commit(record);
+			return result;
+		} catch (IOException e) {
+			throw new DataStoreException(e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void storeExpressionEquivalence(ExpressionId id,
+			ExpressionId equivalentExpressionId) throws DataStoreException,
+			NonExistingIdException, RelativeAlreadySetException {
+		storeExpressionRelatives(Collections
+				.singletonList(new ExpressionRelatives(id,
+						equivalentExpressionId)));
+	}
+
+	@Override
+	public void storeExpressionParentsAndChildren(ExpressionId id,
+			Set<ExpressionId> parents, Set<ExpressionId> children)
+			throws DataStoreException, NonExistingIdException,
+			RelativeAlreadySetException {
+		storeExpressionRelatives(Collections
+				.singletonList(new ExpressionRelatives(id, parents, children)));
+	}
+
+	@Override
+	public void storeExpressionRelatives(List<ExpressionRelatives> relatives)
+			throws DataStoreException, NonExistingIdException,
+			RelativeAlreadySetException {
+		if (relatives.isEmpty()) {
+			return;
+		}
+		lock.writeLock().lock();
+		try {
+			final Record record = new Record();
+			writeExpressionRelatives(relatives,
+					Collections.<Long, Integer> emptyMap(), record);
+			commit(record);
+		} catch (IOException e) {
+			throw new DataStoreException(e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public List<ExpressionId> storeExpressionsAndRelatives(
+			List<String> expressions, Date time, RelativesHandler handler)
+			throws DataStoreException, ExpressionAlreadyExistsException,
+			NonExistingIdException, RelativeAlreadySetException {
+		if (expressions.isEmpty()) {
+			return new ArrayList<ExpressionId>();
+		}
+		lock.writeLock().lock();
+		try {
+			// Write the expressions and their relatives to one record, so
+			// nothing is changed unless all of it is committed.
+			final Record record = new Record();
+			final List<ExpressionId> result = writeExpressions(expressions,
+					time, record);
+			final Map<Long, Integer> newOrdinals = new HashMap<Long, Integer>();
+			for (int i = 0; i < result.size(); i++) {
+				newOrdinals.put(result.get(i).getId(), -2 - i);
+			}
+			writeExpressionRelatives(handler.getRelatives(result),
+					newOrdinals, record);
+			commit(record);
+			return result;
+		} catch (IOException e) {
+			throw new DataStoreException(e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Check new expressions and write them to a record with the next ids. The
+	 * caller holds the write lock.
+	 * 
+	 * @param expressions
+	 *            The expressions to store.
+	 * @param time
+	 *            The time the expressions were created. A <code>null</code>
+	 *            value is handled as the current time.
+	 * @param record
+	 *            The record to write to.
+	 * @return The expressions' ids in the same order as the expressions.
+	 * @throws ExpressionAlreadyExistsException
+	 *             Thrown if any of the expressions already exists or occurs
+	 *             more than once in the list.
+	 * @throws IOException
+	 *             Thrown if the record can not be written.
+	 */
+	private List<ExpressionId> writeExpressions(List<String> expressions,
+			Date time, Record record) throws ExpressionAlreadyExistsException,
+			IOException {
+		// Check if any of the expressions already exists or occurs more than
+		// once in the list.
+		for (String expression : expressions) {
+			final Integer ordinal = expressionOrdinals.get(expression);
+			if (ordinal != null && nodeEnd[ordinal] == OPEN) {
+				throw new ExpressionAlreadyExistsException("The expression "
+						+ expression + " already exists in the data store.");
+			}
+		}
+		if (new HashSet<String>(expressions).size() != expressions.size()) {
+			throw new ExpressionAlreadyExistsException(
+					"An expression occurs more than once in the list of expressions to store.");
+		}
+
+		// Store the expressions with the next ids.
+		final long start = (time != null ? time.getTime() : System
+				.currentTimeMillis());
+		final List<ExpressionId> result = new ArrayList<ExpressionId>(
+				expressions.size());
+		long id = nextExpressionId;
+		for (String expression : expressions) {
+			record.writeExpression(id, start, expression);
+			result.add(new ExpressionId(id));
+			id--;
+		}
+		return result;
+	}
+
+	/**
+	 * Check the relatives of several expressions in list order and write
+	 * them to a record. The caller holds the write lock.
+	 * 
+	 * @param relatives
+	 *            The expressions' equivalences or parents and children.
+	 * @param newOrdinals
+	 *            The ordinals, below -1, of the expressions written earlier to
+	 *            the same record, by id. They exist and have no relatives.
+	 * @param record
+	 *            The record to write to.
+	 * @throws NonExistingIdException
+	 *             Thrown if at least one of the expression ids don't exist.
+	 * @throws RelativeAlreadySetException
+	 *             Thrown if any of the relatives already is set.
+	 * @throws IOException
+	 *             Thrown if the record can not be written.
+	 */
+	private void writeExpressionRelatives(List<ExpressionRelatives> relatives,
+			Map<Long, Integer> newOrdinals, Record record)
+			throws NonExistingIdException, RelativeAlreadySetException,
+			IOException {
+		// Check all relatives in list order before anything is changed,
+		// keeping track of what the earlier relatives in the list change.
+		final Map<Integer, Integer> pendingEquivalent = new HashMap<Integer, Integer>();
+		final Set<Integer> pendingRelated = new HashSet<Integer>();
+		final long now = System.currentTimeMillis();
+		for (ExpressionRelatives relative : relatives) {
+			final ExpressionId id = relative.getId();
+			final int ordinal = ordinal(id, newOrdinals);
+
+			// Check if the expression id exists.
+			if (ordinal == -1
+					|| (ordinal >= 0 && (expressions[ordinal] == null || nodeEnd[ordinal] != OPEN))) {
+				throw new NonExistingIdException("The expression id "
+						+ id.getId() + " do not exists in the data store.");
+			}
+
+			// Check if the expression already has got an equivalence
+			// expression id set.
+			if ((ordinal >= 0 && equivalent[ordinal] != ordinal)
+					|| pendingEquivalent.containsKey(ordinal)) {
+				throw new RelativeAlreadySetException("The expression with id "
+						+ id.getId() + " has already an equivalent id set");
+			}
+
+			// Check if the expression already has any parent or child set.
+			if ((ordinal >= 0 && (outCount[ordinal] > 0 || inCount[ordinal] > 0))
+					|| pendingRelated.contains(ordinal)) {
+				throw new RelativeAlreadySetException("The expression with id "
+						+ id.getId()
+						+ " has already at least one parent or child set.");
+			}
+
+			if (relative.getEquivalentId() != null) {
+				// Check if the equivalent expression id exists.
+				final ExpressionId equivalentId = relative.getEquivalentId();
+				final int equivalentOrdinal = ordinal(equivalentId,
+						newOrdinals);
+				if (!isOpen(equivalentOrdinal)) {
+					throw new NonExistingIdException(
+							"The equivalent expression id "
+									+ equivalentId.getId()
+									+ " do not exists in the data store.");
+				}
+				pendingEquivalent.put(ordinal,
+						representative(equivalentOrdinal, pendingEquivalent));
+				record.writeEquivalence(id.getId(), equivalentId.getId());
+			} else {
+				// Check if the parents and children exists.
+				for (ExpressionId parentId : relative.getParents()) {
+					final int parentOrdinal = ordinal(parentId, newOrdinals);
+					if (!isOpen(parentOrdinal)) {
+						throw new NonExistingIdException(
+								"The specified parent id " + parentId.getId()
+										+ " do not exists in the data store.");
+					}
+					pendingRelated.add(representative(parentOrdinal,
+							pendingEquivalent));
+				}
+				for (ExpressionId childId : relative.getChildren()) {
+					final int childOrdinal = ordinal(childId, newOrdinals);
+					if (!isOpen(childOrdinal)) {
+						throw new NonExistingIdException(
+								"The specified child id " + childId.getId()
+										+ " do not exists in the data store.");
+					}
+					pendingRelated.add(representative(childOrdinal,
+							pendingEquivalent));
+				}
+				pendingRelated.add(ordinal);
+				record.writeRelatives(id.getId(), now, relative.getParents(),
+						relative.getChildren());
+			}
+		}
+	}
+
+	/**
+	 * Get the ordinal of an id, or of an expression written earlier to the
+	 * same record.
+	 * 
+	 * @param id
+	 *            The id.
+	 * @param newOrdinals
+	 *            The ordinals of the expressions written earlier to the same
+	 *            record, by id.
+	 * @return The ordinal, -1 if the id is unknown.
+	 */
+	private int ordinal(ExpressionId id, Map<Long, Integer> newOrdinals) {
+		final Integer ordinal = newOrdinals.get(id.getId());
+		return (ordinal != null ? ordinal : ordinals.getOrdinal(id.getId()));
+	}
+
+	/**
+	 * Check if an ordinal is of a current concept or expression, or of an
+	 * expression written earlier to the same record.
+	 * 
+	 * @param ordinal
+	 *            The ordinal.
+	 * @return <code>true</code> if the node exists.
+	 */
+	private boolean isOpen(int ordinal) {
+		return ordinal < -1 || (ordinal >= 0 && nodeEnd[ordinal] == OPEN);
+	}
+
+	@Override
+	public ExpressionId getExpressionId(String expression, Date time)
+			throws DataStoreException {
+		lock.readLock().lock();
+		try {
+			final Integer ordinal = expressionOrdinals.get(expression);
+			if (ordinal == null
+					|| (time != null && !isVisible(nodeStart[ordinal],
+							nodeEnd[ordinal], time.getTime()))) {
+				return null;
+			}
+			return new ExpressionId(ordinals.getId(ordinal));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public Map<String, ExpressionId> getExpressionIds(
+			Collection<String> expressions, Date time)
+			throws DataStoreException {
+		final HashMap<String, ExpressionId> result = new HashMap<String, ExpressionId>();
+		for (String expression : expressions) {
+			final ExpressionId id = getExpressionId(expression, time);
+			if (id != null) {
+				result.put(expression, id);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public String getExpression(ExpressionId id, Date time)
+			throws DataStoreException, NonExistingIdException {
+		lock.readLock().lock();
+		try {
+			final int ordinal = ordinals.getOrdinal(id.getId());
+			if (ordinal < 0 || expressions[ordinal] == null
+					|| !isVisible(ordinal, toTime(time))) {
+				throw new NonExistingIdException("The expression id "
+						+ id.getId() + " do not exists in the data store.");
+			}
+			return expressions[ordinal];
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public ExpressionIdSet getDescendants(ExpressionId id, Date time)
+			throws DataStoreException, NonExistingIdException {
+		return getRelative(id, time, false, false);
+	}
+
+	@Override
+	public ExpressionIdSet getChildren(ExpressionId id, Date time)
+			throws DataStoreException, NonExistingIdException {
+		return getRelative(id, time, false, true);
+	}
+
+	@Override
+	public ExpressionIdSet getAncestors(ExpressionId id, Date time)
+			throws DataStoreException, NonExistingIdException {
+		return getRelative(id, time, true, false);
+	}
+
+	@Override
+	public ExpressionIdSet getParents(ExpressionId id, Date time)
+			throws DataStoreException, NonExistingIdException {
+		return getRelative(id, time, true, true);
+	}
+
+	@Override
+	public Set<Expression> getAllExpressions(Date time)
+			throws DataStoreException {
+		final long t = toTime(time);
+		final HashSet<Expression> result = new HashSet<Expression>();
+		lock.readLock().lock();
+		try {
+			for (int ordinal = 0; ordinal < ordinals.size(); ordinal++) {
+				if (expressions[ordinal] != null && isVisible(ordinal, t)) {
+					result.add(new Expression(new ExpressionId(ordinals
+							.getId(ordinal)), expressions[ordinal]));
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return result;
+	}
+
+	@Override
+	public void forEachExpression(Date time, ExpressionHandler handler)
+			throws DataStoreException {
+		final long t = toTime(time);
+		lock.readLock().lock();
+		try {
+			for (int ordinal = 0; ordinal < ordinals.size(); ordinal++) {
+				if (expressions[ordinal] != null && isVisible(ordinal, t)) {
+					handler.handle(new Expression(new ExpressionId(ordinals
+							.getId(ordinal)), expressions[ordinal]));
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public boolean isSubsumingNotEquivalent(ExpressionId id1, ExpressionId id2,
+			Date time) throws DataStoreException {
+		final long t = toTime(time);
+		lock.readLock().lock();
+		try {
+			final int destination = ordinals.getOrdinal(id1.getId());
+			final int source = ordinals.getOrdinal(id2.getId());
+			if (destination < 0 || source < 0 || !isVisible(destination, t)
+					|| !isVisible(source, t)) {
+				return false;
+			}
+			// Look for a row from the sub to the super equivalent id, in the
+			// shorter of the two lists.
+			final int sub = equivalent[source];
+			final int sup = equivalent[destination];
+			if (outCount[sub] <= inCount[sup]) {
+				for (int i = 0; i < outCount[sub]; i++) {
+					final int edge = outEdges[sub][i];
+					if (edgeDestination[edge] == sup && isEdgeVisible(edge, t))
+						return true;
+				}
+			} else {
+				for (int i = 0; i < inCount[sup]; i++) {
+					final int edge = inEdges[sup][i];
+					if (edgeSource[edge] == sub && isEdgeVisible(edge, t))
+						return true;
+				}
+			}
+			return false;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public boolean isEquivalent(ExpressionId id1, ExpressionId id2, Date time)
+			throws DataStoreException {
+		final long t = toTime(time);
+		lock.readLock().lock();
+		try {
+			final int ordinal1 = ordinals.getOrdinal(id1.getId());
+			final int ordinal2 = ordinals.getOrdinal(id2.getId());
+			return ordinal1 >= 0 && ordinal2 >= 0 && isVisible(ordinal1, t)
+					&& isVisible(ordinal2, t)
+					&& equivalent[ordinal1] == equivalent[ordinal2];
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public boolean isSubsuming(ExpressionId id1, ExpressionId id2, Date time)
+			throws DataStoreException {
+		return (isSubsumingNotEquivalent(id1, id2, time) || isEquivalent(id1,
+				id2, time));
+	}
+
+	@Override
+	public boolean isExistingId(ExpressionId id, Date time)
+			throws DataStoreException {
+		lock.readLock().lock();
+		try {
+			final int ordinal = ordinals.getOrdinal(id.getId());
+			return ordinal >= 0 && isVisible(ordinal, toTime(time));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Look up relatives by following the transitive closure rows from an id's
+	 * equivalent id, and returning every id that has the other end of a row as
+	 * equivalent id.
+	 *
+	 * @param id
+	 *            The expression id to look up the relatives to.
+	 * @param time
+	 *            The given time.
+	 * @param up
+	 *            If ancestors rather than descendants shall be looked up.
+	 * @param direct
+	 *            If only parents or children shall be looked up.
+	 * @return The expression ids of the relatives.
+	 * @throws NonExistingIdException
+	 *             The expression id do not exists in the data store.
+	 */
+	private ExpressionIdSet getRelative(ExpressionId id, Date time,
+			boolean up, boolean direct) throws NonExistingIdException {
+		final long t = toTime(time);
+		lock.readLock().lock();
+		try {
+			final int ordinal = ordinals.getOrdinal(id.getId());
+			if (ordinal < 0 || !isVisible(ordinal, t)) {
+				throw new NonExistingIdException("The specified id "
+						+ id.getId() + " do not exists in the data store.");
+			}
+			final int base = equivalent[ordinal];
+			final int[] edges = (up ? outEdges[base] : inEdges[base]);
+			final int count = (up ? outCount[base] : inCount[base]);
+			long[] ids = new long[Math.max(16, count)];
+			int size = 0;
+			for (int i = 0; i < count; i++) {
+				final int edge = edges[i];
+				if ((direct && !edgeDirect[edge]) || !isEdgeVisible(edge, t))
+					continue;
+				final int other = (up ? edgeDestination[edge]
+						: edgeSource[edge]);
+				for (int j = 0; j < memberCount[other]; j++) {
+					final int member = members[other][j];
+					if (!isVisible(member, t))
+						continue;
+					if (size == ids.length)
+						ids = Arrays.copyOf(ids, size * 2);
+					ids[size++] = ordinals.getId(member);
+				}
+			}
+			return new ExpressionIdSet(ids, size);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Get the equivalent id an ordinal will have once the pending
+	 * equivalences are stored.
+	 *
+	 * @param ordinal
+	 *            The ordinal.
+	 * @param pendingEquivalent
+	 *            The pending equivalences.
+	 * @return The ordinal of the equivalent id.
+	 */
+	private int representative(int ordinal,
+			Map<Integer, Integer> pendingEquivalent) {
+		final Integer pending = pendingEquivalent.get(ordinal);
+		if (pending != null) {
+			return pending;
+		}
+		return (ordinal < -1 ? ordinal : equivalent[ordinal]);
+	}
+
+	/**
+	 * Write a record to the journal and make its changes in memory. The
+	 * caller holds the write lock.
+	 *
+	 * @param record
+	 *            The record.
+	 * @throws IOException
+	 *             Thrown if the journal can not be written.
+	 */
+	private void commit(Record record) throws IOException {
+		if (record.count == 0)
+			return;
+		final byte[] payload = record.toByteArray();
+		if (journal != null)
+			journal.append(payload);
+		apply(new DataInputStream(new ByteArrayInputStream(payload)));
+	}
+
+	/**
+	 * Make the changes of a record in memory. The changes have already been
+	 * checked, so this is also used when the journal is replayed.
+	 *
+	 * @param in
+	 *            The payload of the record.
+	 * @throws IOException
+	 *             Thrown if the payload can not be read.
+	 */
+	private void apply(DataInputStream in) throws IOException {
+		while (in.available() > 0) {
+			final byte type = in.readByte();
+			switch (type) {
+			case CONCEPT: {
+				final long id = in.readLong();
+				final long start = in.readLong();
+				final long end = in.readLong();
+				// A concept imported again keeps its first row.
+				if (ordinals.getOrdinal(id) < 0)
+					addNode(id, start, end, null);
+				break;
+			}
+			case RELATIONSHIP: {
+				final int source = ordinals.getOrdinal(in.readLong());
+				final int destination = ordinals.getOrdinal(in.readLong());
+				final long start = in.readLong();
+				final long end = in.readLong();
+				addEdge(source, destination, start, end, in.readBoolean());
+				break;
+			}
+			case EXPRESSION: {
+				final long id = in.readLong();
+				final long start = in.readLong();
+				final byte[] expression = new byte[in.readInt()];
+				in.readFully(expression);
+				addNode(id, start, OPEN, new String(expression, "UTF-8"));
+				nextExpressionId = Math.min(nextExpressionId, id - 1);
+				break;
+			}
+			case EQUIVALENCE: {
+				final int ordinal = ordinals.getOrdinal(in.readLong());
+				final int representative = equivalent[ordinals.getOrdinal(in
+						.readLong())];
+				removeMember(equivalent[ordinal], ordinal);
+				equivalent[ordinal] = representative;
+				addMember(representative, ordinal);
+				break;
+			}
+			case RELATIVES: {
+				final int ordinal = ordinals.getOrdinal(in.readLong());
+				final long now = in.readLong();
+				final int[] parents = readRepresentatives(in);
+				final int[] children = readRepresentatives(in);
+				applyRelatives(ordinal, now, parents, children);
+				break;
+			}
+			case IMPORT_STARTED:
+				importStarted = true;
+				break;
+			case IMPORT_COMPLETED:
+				importCompleted = true;
+				break;
+			default:
+				throw new IOException("Unknown journal record type " + type);
+			}
+		}
+	}
+
+	/**
+	 * Add an expression's parents and children to the transitive closure, the
+	 * same way as the PostgreSQL data store does. The expression gets direct
+	 * rows to its parents and children and indirect rows to their ancestors
+	 * and descendants, and the direct rows between its children and parents
+	 * are ended and replaced by indirect rows.
+	 *
+	 * @param ordinal
+	 *            The expression's ordinal.
+	 * @param now
+	 *            The time of the change.
+	 * @param parents
+	 *            The equivalent ids of the parents, without duplicates.
+	 * @param children
+	 *            The equivalent ids of the children, without duplicates.
+	 */
+	private void applyRelatives(int ordinal, long now, int[] parents,
+			int[] children) {
+		// Collect the rows to add and end before anything is changed.
+		final int[] ancestors = collect(parents, true, false, null);
+		final int[] descendants = collect(children, false, false, null);
+		final int[] replaced = collect(children, true, true, parents);
+
+		for (int parent : parents)
+			addEdge(ordinal, parent, now, OPEN, true);
+		for (int child : children)
+			addEdge(child, ordinal, now, OPEN, true);
+		for (int ancestor : ancestors)
+			addEdge(ordinal, ancestor, now, OPEN, false);
+		for (int descendant : descendants)
+			addEdge(descendant, ordinal, now, OPEN, false);
+		for (int edge : replaced) {
+			addEdge(edgeSource[edge], edgeDestination[edge], now, OPEN, false);
+			edgeEnd[edge] = now;
+		}
+	}
+
+	/**
+	 * Collect the current transitive closure rows from or to a set of
+	 * ordinals.
+	 *
+	 * @param from
+	 *            The ordinals.
+	 * @param up
+	 *            If the rows with the ordinals as source id shall be collected
+	 *            rather than those with the ordinals as destination id.
+	 * @param edges
+	 *            If the rows themselves shall be returned rather than the
+	 *            ordinals at their other end.
+	 * @param to
+	 *            The ordinals the other end must be one of, or
+	 *            <code>null</code> for any ordinal. Only direct rows are
+	 *            collected when this is given.
+	 * @return The sorted rows or ordinals, without duplicates.
+	 */
+	private int[] collect(int[] from, boolean up, boolean edges, int[] to) {
+		int[] result = new int[16];
+		int size = 0;
+		for (int ordinal : from) {
+			final int[] list = (up ? outEdges[ordinal] : inEdges[ordinal]);
+			final int count = (up ? outCount[ordinal] : inCount[ordinal]);
+			for (int i = 0; i < count; i++) {
+				final int edge = list[i];
+				if (edgeEnd[edge] != OPEN)
+					continue;
+				final int other = (up ? edgeDestination[edge]
+						: edgeSource[edge]);
+				if (to != null
+						&& (!edgeDirect[edge] || Arrays.binarySearch(to, other) < 0))
+					continue;
+				if (size == result.length)
+					result = Arrays.copyOf(result, size * 2);
+				result[size++] = (edges ? edge : other);
+			}
+		}
+		return unique(result, size);
+	}
+
+	/**
+	 * Read a list of ids from a record and look up the ordinals of their
+	 * equivalent ids.
+	 *
+	 * @param in
+	 *            The payload of the record.
+	 * @return The sorted ordinals, without duplicates.
+	 * @throws IOException
+	 *             Thrown if the payload can not be read.
+	 */
+	private int[] readRepresentatives(DataInputStream in) throws IOException {
+		final int count = in.readInt();
+		final int[] result = new int[count];
+		for (int i = 0; i < count; i++)
+			result[i] = equivalent[ordinals.getOrdinal(in.readLong())];
+		return unique(result, count);
+	}
+
+	/**
+	 * Add a concept or expression.
+	 *
+	 * @param id
+	 *            The id.
+	 * @param start
+	 *            The start time.
+	 * @param end
+	 *            The end time.
+	 * @param expression
+	 *            The expression, or <code>null</code> for a concept.
+	 * @throws IOException
+	 *             Never thrown, the ordinals are only kept in memory.
+	 */
+	private void addNode(long id, long start, long end, String expression)
+			throws IOException {
+		final int ordinal = ordinals.addId(id);
+		if (ordinal == nodeStart.length) {
+			final int capacity = ordinal * 2;
+			nodeStart = Arrays.copyOf(nodeStart, capacity);
+			nodeEnd = Arrays.copyOf(nodeEnd, capacity);
+			equivalent = Arrays.copyOf(equivalent, capacity);
+			expressions = Arrays.copyOf(expressions, capacity);
+			members = Arrays.copyOf(members, capacity);
+			memberCount = Arrays.copyOf(memberCount, capacity);
+			outEdges = Arrays.copyOf(outEdges, capacity);
+			outCount = Arrays.copyOf(outCount, capacity);
+			inEdges = Arrays.copyOf(inEdges, capacity);
+			inCount = Arrays.copyOf(inCount, capacity);
+		}
+		nodeStart[ordinal] = start;
+		nodeEnd[ordinal] = end;
+		equivalent[ordinal] = ordinal;
+		expressions[ordinal] = expression;
+		addMember(ordinal, ordinal);
+		if (expression != null)
+			expressionOrdinals.put(expression, ordinal);
+	}
+
+	/**
+	 * Add a transitive closure row.
+	 *
+	 * @param source
+	 *            The source ordinal.
+	 * @param destination
+	 *            The destination ordinal.
+	 * @param start
+	 *            The start time.
+	 * @param end
+	 *            The end time.
+	 * @param direct
+	 *            If the row is a direct relation.
+	 */
+	private void addEdge(int source, int destination, long start, long end,
+			boolean direct) {
+		if (edgeCount == edgeSource.length) {
+			final int capacity = edgeCount * 2;
+			edgeSource = Arrays.copyOf(edgeSource, capacity);
+			edgeDestination = Arrays.copyOf(edgeDestination, capacity);
+			edgeStart = Arrays.copyOf(edgeStart, capacity);
+			edgeEnd = Arrays.copyOf(edgeEnd, capacity);
+			edgeDirect = Arrays.copyOf(edgeDirect, capacity);
+		}
+		final int edge = edgeCount++;
+		edgeSource[edge] = source;
+		edgeDestination[edge] = destination;
+		edgeStart[edge] = start;
+		edgeEnd[edge] = end;
+		edgeDirect[edge] = direct;
+		outEdges[source] = append(outEdges[source], outCount[source]++, edge);
+		inEdges[destination] = append(inEdges[destination],
+				inCount[destination]++, edge);
+	}
+
+	/**
+	 * Add an ordinal to the members of an equivalent id.
+	 *
+	 * @param representative
+	 *            The ordinal of the equivalent id.
+	 * @param ordinal
+	 *            The ordinal.
+	 */
+	private void addMember(int representative, int ordinal) {
+		members[representative] = append(members[representative],
+				memberCount[representative]++, ordinal);
+	}
+
+	/**
+	 * Remove an ordinal from the members of an equivalent id.
+	 *
+	 * @param representative
+	 *            The ordinal of the equivalent id.
+	 * @param ordinal
+	 *            The ordinal.
+	 */
+	private void removeMember(int representative, int ordinal) {
+		final int[] list = members[representative];
+		for (int i = 0; i < memberCount[representative]; i++) {
+			if (list[i] == ordinal) {
+				list[i] = list[--memberCount[representative]];
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Check if a concept or expression exists at a time.
+	 *
+	 * @param ordinal
+	 *            The ordinal of the concept or expression.
+	 * @param time
+	 *            The time, or <code>CURRENT</code>.
+	 * @return If the concept or expression exists.
+	 */
+	private boolean isVisible(int ordinal, long time) {
+		return isVisible(nodeStart[ordinal], nodeEnd[ordinal], time);
+	}
+
+	/**
+	 * Check if a transitive closure row exists at a time.
+	 *
+	 * @param edge
+	 *            The row.
+	 * @param time
+	 *            The time, or <code>CURRENT</code>.
+	 * @return If the row exists.
+	 */
+	private boolean isEdgeVisible(int edge, long time) {
+		return isVisible(edgeStart[edge], edgeEnd[edge], time);
+	}
+
+	/**
+	 * Check if a row with a start and an end time exists at a time. At the
+	 * current time every row that has not ended exists, as in the PostgreSQL
+	 * data store.
+	 *
+	 * @param start
+	 *            The start time.
+	 * @param end
+	 *            The end time.
+	 * @param time
+	 *            The time, or <code>CURRENT</code>.
+	 * @return If the row exists.
+	 */
+	private static boolean isVisible(long start, long end, long time) {
+		if (time == CURRENT)
+			return end == OPEN;
+		return start <= time && time < end;
+	}
+
+	/**
+	 * @param time
+	 *            A time, or <code>null</code> for the current time.
+	 * @return The time in milliseconds, or <code>CURRENT</code>.
+	 */
+	private static long toTime(Date time) {
+		return (time != null ? time.getTime() : CURRENT);
+	}
+
+	/**
+	 * Set an element of a growable list, growing it if it is full.
+	 *
+	 * @param list
+	 *            The list, or <code>null</code> if it is empty.
+	 * @param index
+	 *            The index, the number of elements before the element is set.
+	 * @param value
+	 *            The value.
+	 * @return The list.
+	 */
+	private static int[] append(int[] list, int index, int value) {
+		if (list == null)
+			list = new int[2];
+		else if (index == list.length)
+			list = Arrays.copyOf(list, index * 2);
+		list[index] = value;
+		return list;
+	}
+
+	/**
+	 * Sort the first elements of an array and remove duplicates.
+	 *
+	 * @param values
+	 *            The array.
+	 * @param size
+	 *            The number of elements to use.
+	 * @return A new sorted array without duplicates.
+	 */
+	private static int[] unique(int[] values, int size) {
+		final int[] sorted = Arrays.copyOf(values, size);
+		Arrays.sort(sorted);
+		int unique = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (unique == 0 || sorted[unique - 1] != sorted[i])
+				sorted[unique++] = sorted[i];
+		}
+		return Arrays.copyOf(sorted, unique);
+	}
+
+	/**
+	 * Open a file of imported rows.
+	 *
+	 * @param file
+	 *            The file.
+	 * @return A reader.
+	 * @throws IOException
+	 *             Thrown if the file can not be opened.
+	 */
+	private static BufferedReader open(File file) throws IOException {
+		return new BufferedReader(new InputStreamReader(new FileInputStream(
+				file), "UTF-8"), 1 << 16);
+	}
+
+	/**
+	 * The payload of a journal record, holding one or more changes.
+	 */
+	private static class Record {
+
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		private final DataOutputStream out = new DataOutputStream(bytes);
+
+		/**
+		 * The number of changes in the record.
+		 */
+		private int count = 0;
+
+		private void writeConcept(long id, long start, long end)
+				throws IOException {
+			out.writeByte(CONCEPT);
+			out.writeLong(id);
+			out.writeLong(start);
+			out.writeLong(end);
+			count++;
+		}
+
+		private void writeRelationship(long sourceId, long destinationId,
+				long start, long end, boolean direct) throws IOException {
+			out.writeByte(RELATIONSHIP);
+			out.writeLong(sourceId);
+			out.writeLong(destinationId);
+			out.writeLong(start);
+			out.writeLong(end);
+			out.writeBoolean(direct);
+			count++;
+		}
+
+		private void writeExpression(long id, long start, String expression)
+				throws IOException {
+			final byte[] utf8 = expression.getBytes("UTF-8");
+			out.writeByte(EXPRESSION);
+			out.writeLong(id);
+			out.writeLong(start);
+			out.writeInt(utf8.length);
+			out.write(utf8);
+			count++;
+		}
+
+		private void writeEquivalence(long id, long equivalentId)
+				throws IOException {
+			out.writeByte(EQUIVALENCE);
+			out.writeLong(id);
+			out.writeLong(equivalentId);
+			count++;
+		}
+
+		private void writeRelatives(long id, long now,
+				Set<ExpressionId> parents, Set<ExpressionId> children)
+				throws IOException {
+			out.writeByte(RELATIVES);
+			out.writeLong(id);
+			out.writeLong(now);
+			out.writeInt(parents.size());
+			for (ExpressionId parent : parents)
+				out.writeLong(parent.getId());
+			out.writeInt(children.size());
+			for (ExpressionId child : children)
+				out.writeLong(child.getId());
+			count++;
+		}
+
+		private void writeMarker(byte type) throws IOException {
+			out.writeByte(type);
+			count++;
+		}
+
+		private byte[] toByteArray() {
+			return bytes.toByteArray();
+		}
+	}
+
+}
@@ -0,0 +1,61 @@
+package se.liu.imt.mi.snomedct.expressionrepository.datastore.embedded;
+
+import java.io.File;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.log4j.Logger;
+
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStoreException;
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStoreProvider;
+
+/**
+ * Provides the embedded data store, <code>datastore.type</code>
+ * <code>embedded</code>. The journal file is given by
+ * <code>datastore.embedded.journal</code>; without it the data store is only
+ * kept in memory. When the data store is empty the concepts and their
+ * transitive closure are imported from the files given by
+ * <code>datastore.embedded.concepts</code> and
+ * <code>datastore.embedded.transitiveclosure</code>, and an import that was
+ * interrupted is started over.
+ */
+public class EmbeddedDataStoreProvider implements DataStoreProvider {
+
+	private static final Logger log = Logger
+			.getLogger(EmbeddedDataStoreProvider.class);
+
+	@Override
+	public String getType() {
+		return "embedded";
+	}
+
+	@Override
+	public se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStore createDataStore(
+			Configuration config) throws DataStoreException {
+		String journal = config.getString("datastore.embedded.journal");
+		String concepts = config.getString("datastore.embedded.concepts");
+		String transitiveClosure = config
+				.getString("datastore.embedded.transitiveclosure");
+		DataStore dataStore = (journal != null ? new DataStore(new File(
+				journal)) : new DataStore());
+		if (dataStore.isImportInterrupted() && concepts != null
+				&& transitiveClosure != null) {
+			// Nothing but the import has been written to the journal, so it
+			// is started over.
+			log.warn("The import into " + journal
+					+ " was interrupted, importing again");
+			dataStore.close();
+			if (!new File(journal).delete()) {
+				throw new DataStoreException("Could not delete the journal "
+						+ journal);
+			}
+			dataStore = new DataStore(new File(journal));
+		}
+		if (dataStore.isEmpty() && concepts != null
+				&& transitiveClosure != null) {
+			dataStore.importTables(new File(concepts), new File(
+					transitiveClosure));
+		}
+		return dataStore;
+	}
+
+}
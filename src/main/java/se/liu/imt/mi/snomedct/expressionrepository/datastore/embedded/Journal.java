@@ -0,0 +1,177 @@
+package se.liu.imt.mi.snomedct.expressionrepository.datastore.embedded;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal file of the changes made to an embedded data store.
+ * Each change is written as one record, a length, the payload and a CRC-32
+ * checksum, and is forced to the disk before the change is made in memory.
+ * A record that was only partly written when the process stopped is cut off
+ * when the journal is opened again, so a change is either in the journal as a
+ * whole or not at all. A record that fails to be written is cut off at once,
+ * so the records appended after it are kept.
+ */
+public class Journal {
+
+	/**
+	 * Receives the payloads of the records in a journal when it is replayed.
+	 */
+	public interface Replayer {
+
+		/**
+		 * Replay the payload of one record.
+		 *
+		 * @param payload
+		 *            The payload.
+		 * @throws IOException
+		 *             Thrown if the payload can not be read.
+		 */
+		void replay(DataInputStream payload) throws IOException;
+	}
+
+	/**
+	 * The journal file.
+	 */
+	private final File file;
+
+	/**
+	 * The stream new records are appended to, or <code>null</code> before
+	 * the journal is replayed.
+	 */
+	private FileOutputStream out = null;
+
+	/**
+	 * The length of the complete records in the file.
+	 */
+	private long size = 0;
+
+	/**
+	 * Set when a failed record could not be cut off. Nothing more is appended
+	 * then, since replaying stops at the failed record.
+	 */
+	private boolean failed = false;
+
+	/**
+	 * Creates a journal backed by a file. The file is created if it does not
+	 * exist. No records can be appended before the journal has been replayed.
+	 *
+	 * @param file
+	 *            The file.
+	 */
+	public Journal(final File file) {
+		super();
+		this.file = file;
+	}
+
+	/**
+	 * Replay the complete records in the journal, cut off a partly written
+	 * record at the end of the file and open the journal for appending.
+	 *
+	 * @param replayer
+	 *            Receives the payload of each record.
+	 * @return The number of replayed records.
+	 * @throws IOException
+	 *             Thrown if the file can not be read or opened for writing.
+	 */
+	public int replay(final Replayer replayer) throws IOException {
+		int records = 0;
+		long valid = 0;
+		if (file.exists()) {
+			final DataInputStream in = new DataInputStream(
+					new BufferedInputStream(new FileInputStream(file), 1 << 16));
+			try {
+				final CRC32 crc = new CRC32();
+				while (true) {
+					final byte[] payload;
+					try {
+						final int length = in.readInt();
+						if (length < 0 || valid + 12 + length > file.length())
+							break;
+						payload = new byte[length];
+						in.readFully(payload);
+						crc.reset();
+						crc.update(payload);
+						if (in.readLong() != crc.getValue())
+							break;
+					} catch (EOFException e) {
+						break;
+					}
+					replayer.replay(new DataInputStream(new ByteArrayInputStream(
+							payload)));
+					valid += 12 + payload.length;
+					records++;
+				}
+			} finally {
+				in.close();
+			}
+		}
+		out = new FileOutputStream(file, true);
+		// Cut off a partly written record at the end of the file.
+		if (out.getChannel().size() != valid)
+			out.getChannel().truncate(valid);
+		size = valid;
+		return records;
+	}
+
+	/**
+	 * Append a record and force it to the disk. If that fails, the part of
+	 * the record that was written is cut off again.
+	 *
+	 * @param payload
+	 *            The payload of the record.
+	 * @throws IOException
+	 *             Thrown if the file can not be written, or if an earlier
+	 *             failed record could not be cut off.
+	 */
+	public void append(final byte[] payload) throws IOException {
+		if (out == null)
+			throw new IllegalStateException(
+					"The journal must be replayed before records are appended.");
+		if (failed)
+			throw new IOException("The journal " + file
+					+ " has a failed record at the end and can not be appended to.");
+		final CRC32 crc = new CRC32();
+		crc.update(payload);
+		// Write the record with one call.
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+				payload.length + 12);
+		final DataOutputStream record = new DataOutputStream(bytes);
+		record.writeInt(payload.length);
+		record.write(payload);
+		record.writeLong(crc.getValue());
+		try {
+			bytes.writeTo(out);
+			out.getChannel().force(false);
+		} catch (IOException e) {
+			try {
+				out.getChannel().truncate(size);
+			} catch (IOException e1) {
+				failed = true;
+			}
+			throw e;
+		}
+		size += bytes.size();
+	}
+
+	/**
+	 * Close the journal file.
+	 *
+	 * @throws IOException
+	 *             Thrown if the file can not be closed.
+	 */
+	public void close() throws IOException {
+		if (out != null)
+			out.close();
+	}
+
+}
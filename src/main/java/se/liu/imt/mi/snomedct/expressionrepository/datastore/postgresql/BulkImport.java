@@ -0,0 +1,923 @@
+package se.liu.imt.mi.snomedct.expressionrepository.datastore.postgresql;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.antlr.runtime.tree.Tree;
+import org.apache.commons.configuration.Configuration;
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.log4j.Logger;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.semanticweb.elk.owlapi.ElkReasonerFactory;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.reasoner.InferenceType;
+import org.semanticweb.owlapi.reasoner.Node;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+
+import se.liu.imt.mi.snomedct.expression.tools.SCTOWLExpressionBuilder;
+import se.liu.imt.mi.snomedct.expression.tools.SCTSortedExpressionBuilder;
+import se.liu.imt.mi.snomedct.expression.tools.SnomedCTParser;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionId;
+
+/**
+ * Imports a large file of expressions into the PostgreSQL expression database
+ * without going through the repository one expression at a time. The import
+ * runs in three phases:
+ * <ol>
+ * <li>The expressions are parsed and sorted in parallel, duplicates are
+ * removed and the result is written next to the state file.</li>
+ * <li>The expressions that are not stored already are written to the
+ * <code>expressions</code> table with one <code>COPY</code>.</li>
+ * <li>The ontology is loaded with all stored expressions, classified once
+ * with ELK, and the new expressions' equivalences and transitive closure are
+ * written with <code>COPY</code>.</li>
+ * </ol>
+ * Each database phase is one transaction and every row it writes has the
+ * import's start time, which is saved in the state file before anything is
+ * written. After a crash the import is started again with the same arguments
+ * and continues after the last completed phase.
+ * <p>
+ * The repository must not be running during the import.
+ */
+public class BulkImport {
+
+	private static final Logger log = Logger.getLogger(BulkImport.class);
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * The completed phases of an import, in order.
+	 */
+	private enum Phase {
+		NORMALIZED, STORED, RELATED
+	}
+
+	/**
+	 * The number of expressions handled by a parallel task, and the number
+	 * between progress reports.
+	 */
+	private static final int CHUNK = 10000;
+
+	/**
+	 * The SQL for a <code>PreparedStatement</code> that retrieve the stored
+	 * expressions among an array of expression hashes.
+	 */
+	private static final String FIND_STORED = "SELECT expression FROM expressions WHERE expressionhash = ANY (?::uuid[]);";
+
+	/**
+	 * The SQL for a <code>PreparedStatement</code> that count the expressions
+	 * stored by an import.
+	 */
+	private static final String COUNT_IMPORTED = "SELECT Count(*) FROM expressions WHERE starttime = ?;";
+
+	/**
+	 * The SQL for copying expressions into the expressions table.
+	 */
+	private static final String COPY_EXPRESSIONS = "COPY expressions (expression, expressionhash, starttime) FROM STDIN;";
+
+	/**
+	 * The SQL for a <code>PreparedStatement</code> that set the equivalent ids
+	 * of the expressions stored by an import to their own ids.
+	 */
+	private static final String SET_EQUIVALENT_ID_TO_ID = "UPDATE expressions SET equivalentid = id WHERE starttime = ?;";
+
+	/**
+	 * The SQL for a <code>PreparedStatement</code> that check if the
+	 * relatives of the expressions stored by an import are stored.
+	 */
+	private static final String IS_RELATED = "SELECT EXISTS (SELECT 1 FROM transitiveclosure WHERE starttime = ?) "
+			+ "OR EXISTS (SELECT 1 FROM expressions WHERE starttime = ? AND id <> equivalentid);";
+
+	/**
+	 * The SQL for a <code>PreparedStatement</code> that retrieve the
+	 * expressions stored by an import.
+	 */
+	private static final String GET_IMPORTED = "SELECT id FROM expressions WHERE starttime = ?;";
+
+	/**
+	 * The SQL for a <code>PreparedStatement</code> that retrieve all current
+	 * expressions.
+	 */
+	private static final String GET_ALL_EXPRESSIONS = "SELECT id, expression FROM expressions WHERE endtime IS NULL;";
+
+	/**
+	 * The SQL for a <code>PreparedStatement</code> that retrieve all current
+	 * concepts' and expressions' ids and equivalent ids.
+	 */
+	private static final String LOAD_CONEXP = "SELECT id, equivalentid FROM conexp WHERE endtime IS NULL;";
+
+	/**
+	 * The SQL for copying rows into the transitive closure table.
+	 */
+	private static final String COPY_TRANSITIVECLOSURE = "COPY transitiveclosure (sourceid, destinationid, starttime, directrelation) FROM STDIN;";
+
+	/**
+	 * The SQL for a <code>PreparedStatement</code> that create a temporary
+	 * table for the new expressions' equivalent ids.
+	 */
+	private static final String EQUIVALENT_TABLE_CREATE = "CREATE TEMPORARY TABLE bulkequivalent "
+			+ "(id bigint NOT NULL PRIMARY KEY, equivalentid bigint NOT NULL) ON COMMIT DROP;";
+
+	/**
+	 * The SQL for copying rows into the temporary table for the new
+	 * expressions' equivalent ids.
+	 */
+	private static final String COPY_EQUIVALENT = "COPY bulkequivalent (id, equivalentid) FROM STDIN;";
+
+	/**
+	 * The SQL for a <code>PreparedStatement</code> that store the new
+	 * expressions' equivalent ids.
+	 */
+	private static final String SET_EQUIVALENT_ID = "UPDATE expressions SET equivalentid = bulkequivalent.equivalentid "
+			+ "FROM bulkequivalent WHERE expressions.id = bulkequivalent.id;";
+
+	/**
+	 * The SQL for a <code>PreparedStatement</code> that create a temporary
+	 * table for the direct parents of the stored concepts and expressions
+	 * that got a new expression as parent.
+	 */
+	private static final String DIRECT_TABLE_CREATE = "CREATE TEMPORARY TABLE bulkdirect "
+			+ "(sourceid bigint NOT NULL, destinationid bigint NOT NULL, "
+			+ "PRIMARY KEY (sourceid, destinationid)) ON COMMIT DROP;";
+
+	/**
+	 * The SQL for copying rows into the temporary table for the direct
+	 * parents.
+	 */
+	private static final String COPY_DIRECT = "COPY bulkdirect (sourceid, destinationid) FROM STDIN;";
+
+	/**
+	 * The SQL for a <code>PreparedStatement</code> that retire the direct
+	 * relationships that are no longer direct after the import and store them
+	 * again as indirect relationships.
+	 */
+	private static final String CONVERT_DIRECT_TO_INDIRECT_RELATIONSHIP = "WITH retired AS ("
+			+ "UPDATE transitiveclosure SET endtime = ? "
+			+ "WHERE sourceid IN (SELECT sourceid FROM bulkdirect) AND directrelation = true AND endtime IS NULL "
+			+ "AND NOT EXISTS (SELECT 1 FROM bulkdirect WHERE bulkdirect.sourceid = transitiveclosure.sourceid "
+			+ "AND bulkdirect.destinationid = transitiveclosure.destinationid) "
+			+ "RETURNING sourceid, destinationid) "
+			+ "INSERT INTO transitiveclosure (sourceid, destinationid, starttime, directrelation) "
+			+ "SELECT sourceid, destinationid, ?, false FROM retired;";
+
+	private final Configuration config;
+
+	private final File input;
+
+	private final File stateFile;
+
+	private final int workers;
+
+	private final Properties state = new Properties();
+
+	private ExecutorService executor;
+
+	/**
+	 * Creates a bulk import.
+	 *
+	 * @param config
+	 *            The configuration with the <code>database</code> and
+	 *            <code>owlapi</code> sections.
+	 * @param input
+	 *            The file of expressions, one per line.
+	 * @param stateFile
+	 *            The file where the progress of the import is kept.
+	 * @param workers
+	 *            The number of threads parsing expressions.
+	 */
+	public BulkImport(Configuration config, File input, File stateFile,
+			int workers) {
+		super();
+		this.config = config;
+		this.input = input;
+		this.stateFile = stateFile;
+		this.workers = workers;
+	}
+
+	/**
+	 * Run the import, continuing after the last completed phase if the state
+	 * file exists.
+	 *
+	 * @throws Exception
+	 *             Thrown if anything goes wrong. The import can be run again.
+	 */
+	public void run() throws Exception {
+		if (stateFile.exists()) {
+			final FileInputStream in = new FileInputStream(stateFile);
+			try {
+				state.load(in);
+			} finally {
+				in.close();
+			}
+			log.info("Continuing import after phase "
+					+ state.getProperty("phase"));
+		}
+		executor = Executors.newFixedThreadPool(workers);
+		final Connection con = DriverManager.getConnection(
+				config.getString("database.url"),
+				config.getString("database.username"),
+				config.getString("database.password"));
+		try {
+			final File normalizedFile = new File(stateFile.getPath()
+					+ ".expressions");
+			final List<String> expressions;
+			if (!isDone(Phase.NORMALIZED)) {
+				expressions = normalize();
+				writeLines(normalizedFile, expressions);
+				done(Phase.NORMALIZED);
+			} else {
+				expressions = readLines(normalizedFile);
+			}
+			if (!isDone(Phase.STORED)) {
+				store(con, expressions);
+				done(Phase.STORED);
+			}
+			if (!isDone(Phase.RELATED)) {
+				relate(con);
+				done(Phase.RELATED);
+			}
+			log.info("Import done");
+		} finally {
+			con.close();
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Parse and sort the expressions in the input file in parallel and remove
+	 * duplicates.
+	 *
+	 * @return The distinct sorted expressions in input order.
+	 * @throws Exception
+	 *             Thrown if the file can not be read.
+	 */
+	private List<String> normalize() throws Exception {
+		final List<String> lines = readLines(input);
+		log.info("Read " + lines.size() + " lines from " + input);
+		final long start = System.currentTimeMillis();
+		final List<Future<String[]>> chunks = new ArrayList<Future<String[]>>();
+		for (int from = 0; from < lines.size(); from += CHUNK) {
+			final int first = from;
+			final List<String> chunk = lines.subList(from,
+					Math.min(from + CHUNK, lines.size()));
+			chunks.add(executor.submit(new Callable<String[]>() {
+				@Override
+				public String[] call() {
+					final String[] sorted = new String[chunk.size()];
+					for (int i = 0; i < sorted.length; i++) {
+						final String line = chunk.get(i).trim();
+						if (line.isEmpty() || line.startsWith("#"))
+							continue;
+						try {
+							sorted[i] = SCTSortedExpressionBuilder
+									.buildSortedExpression(SnomedCTParser
+											.parseExpression(line));
+						} catch (Exception e) {
+							log.warn("Line " + (first + i + 1)
+									+ " is not a valid expression: "
+									+ e.getMessage());
+						}
+					}
+					return sorted;
+				}
+			}));
+		}
+		final Set<String> distinct = new LinkedHashSet<String>();
+		int parsed = 0;
+		int failed = 0;
+		for (Future<String[]> chunk : chunks) {
+			for (String sorted : chunk.get()) {
+				if (sorted != null) {
+					distinct.add(sorted);
+					parsed++;
+				} else {
+					failed++;
+				}
+			}
+			log.info("Normalized " + (parsed + failed) + " of "
+					+ lines.size() + " lines");
+		}
+		log.info("Normalized " + parsed + " expressions, " + distinct.size()
+				+ " distinct, " + failed + " lines skipped, in "
+				+ (System.currentTimeMillis() - start) + " ms");
+		return new ArrayList<String>(distinct);
+	}
+
+	/**
+	 * Store the expressions that are not stored already, with one
+	 * <code>COPY</code> in one transaction.
+	 *
+	 * @param con
+	 *            The connection.
+	 * @param expressions
+	 *            The distinct sorted expressions.
+	 * @throws Exception
+	 *             Thrown if anything goes wrong.
+	 */
+	private void store(Connection con, List<String> expressions)
+			throws Exception {
+		if (state.getProperty("importtime") == null) {
+			state.setProperty("importtime",
+					Long.toString(System.currentTimeMillis()));
+			saveState();
+		}
+		final Timestamp importTime = getImportTime();
+		con.setAutoCommit(false);
+		try {
+			// The previous run may have committed the expressions without
+			// saving the state.
+			final PreparedStatement countPs = con
+					.prepareStatement(COUNT_IMPORTED);
+			countPs.setTimestamp(1, importTime);
+			final ResultSet countRs = countPs.executeQuery();
+			countRs.next();
+			if (countRs.getLong(1) > 0) {
+				log.info("The expressions are already stored");
+				con.rollback();
+				return;
+			}
+
+			final long start = System.currentTimeMillis();
+			final Set<String> stored = findStored(con, expressions);
+			log.info(stored.size() + " of " + expressions.size()
+					+ " expressions are already stored");
+
+			final String time = format(importTime);
+			final CopyWriter copy = new CopyWriter(con, COPY_EXPRESSIONS);
+			for (String expression : expressions) {
+				if (!stored.contains(expression)) {
+					copy.row(expression, ExpressionHash.of(expression), time);
+					if (copy.getRows() % (10 * CHUNK) == 0)
+						log.info("Copied " + copy.getRows() + " expressions");
+				}
+			}
+			final long copied = copy.close();
+
+			final PreparedStatement setEquivalentIdToIdPs = con
+					.prepareStatement(SET_EQUIVALENT_ID_TO_ID);
+			setEquivalentIdToIdPs.setTimestamp(1, importTime);
+			setEquivalentIdToIdPs.executeUpdate();
+			con.commit();
+			log.info("Stored " + copied + " new expressions in "
+					+ (System.currentTimeMillis() - start) + " ms");
+		} catch (Exception e) {
+			con.rollback();
+			throw e;
+		} finally {
+			con.setAutoCommit(true);
+		}
+	}
+
+	/**
+	 * Find the stored expressions among a list of expressions.
+	 */
+	private Set<String> findStored(Connection con, List<String> expressions)
+			throws SQLException {
+		final Set<String> stored = new HashSet<String>();
+		final PreparedStatement findStoredPs = con
+				.prepareStatement(FIND_STORED);
+		for (int from = 0; from < expressions.size(); from += CHUNK) {
+			final List<String> chunk = expressions.subList(from,
+					Math.min(from + CHUNK, expressions.size()));
+			final String[] hashes = new String[chunk.size()];
+			for (int i = 0; i < hashes.length; i++)
+				hashes[i] = ExpressionHash.of(chunk.get(i));
+			final Array hashArray = con.createArrayOf("text", hashes);
+			findStoredPs.setArray(1, hashArray);
+			final ResultSet findStoredRs = findStoredPs.executeQuery();
+			while (findStoredRs.next())
+				stored.add(findStoredRs.getString(1));
+			findStoredRs.close();
+		}
+		// Rows that only share a hash with an expression are not matches.
+		stored.retainAll(expressions);
+		return stored;
+	}
+
+	/**
+	 * Classify the ontology with all stored expressions once and store the
+	 * new expressions' equivalences and transitive closure in one
+	 * transaction.
+	 *
+	 * @param con
+	 *            The connection.
+	 * @throws Exception
+	 *             Thrown if anything goes wrong.
+	 */
+	private void relate(Connection con) throws Exception {
+		final Timestamp importTime = getImportTime();
+		final PreparedStatement isRelatedPs = con.prepareStatement(IS_RELATED);
+		isRelatedPs.setTimestamp(1, importTime);
+		isRelatedPs.setTimestamp(2, importTime);
+		final ResultSet isRelatedRs = isRelatedPs.executeQuery();
+		isRelatedRs.next();
+		if (isRelatedRs.getBoolean(1)) {
+			log.info("The relatives are already stored");
+			return;
+		}
+		final Set<Long> imported = new HashSet<Long>();
+		final PreparedStatement getImportedPs = con
+				.prepareStatement(GET_IMPORTED);
+		getImportedPs.setTimestamp(1, importTime);
+		final ResultSet getImportedRs = getImportedPs.executeQuery();
+		while (getImportedRs.next())
+			imported.add(getImportedRs.getLong(1));
+		getImportedRs.close();
+		if (imported.isEmpty()) {
+			log.info("No new expressions to classify");
+			return;
+		}
+
+		// Load the ontology, add all stored expressions and classify once.
+		long start = System.currentTimeMillis();
+		final OWLOntologyManager manager = OWLManager
+				.createOWLOntologyManager();
+		final OWLDataFactory dataFactory = manager.getOWLDataFactory();
+		final OWLOntology ontology = manager
+				.loadOntologyFromOntologyDocument(IRI.create(config
+						.getString("owlapi.url")));
+		log.info("Loaded ontology in " + (System.currentTimeMillis() - start)
+				+ " ms");
+		start = System.currentTimeMillis();
+		manager.addAxioms(ontology,
+				translateAll(con, ontology, dataFactory));
+		log.info("Added stored expressions to the ontology in "
+				+ (System.currentTimeMillis() - start) + " ms");
+		start = System.currentTimeMillis();
+		final OWLReasoner reasoner = new ElkReasonerFactory()
+				.createReasoner(ontology);
+		reasoner.precomputeInferences(InferenceType.CLASS_HIERARCHY);
+		log.info("Classified ontology in "
+				+ (System.currentTimeMillis() - start) + " ms");
+
+		final Map<Long, Long> equivalentIds = new HashMap<Long, Long>();
+		final ResultSet conexpRs = con.prepareStatement(LOAD_CONEXP)
+				.executeQuery();
+		while (conexpRs.next())
+			equivalentIds.put(conexpRs.getLong(1), conexpRs.getLong(2));
+		conexpRs.close();
+
+		// Store the equivalences and the transitive closure in one
+		// transaction.
+		start = System.currentTimeMillis();
+		final Representatives representatives = new Representatives(
+				imported, equivalentIds);
+		final String time = format(importTime);
+		final Map<Long, Long> equivalences = new LinkedHashMap<Long, Long>();
+		final Map<Long, Set<Long>> directParents = new HashMap<Long, Set<Long>>();
+		final List<Long> ids = new ArrayList<Long>(imported);
+		Collections.sort(ids, Collections.reverseOrder());
+		con.setAutoCommit(false);
+		try {
+			final CopyWriter closure = new CopyWriter(con,
+					COPY_TRANSITIVECLOSURE);
+			int done = 0;
+			for (Long id : ids) {
+				final OWLClass cl = expressionClass(dataFactory, id);
+				final Long representative = representatives.of(reasoner
+						.getEquivalentClasses(cl));
+				if (representative == null) {
+					log.warn("Expression " + id + " is not classified");
+				} else if (!representative.equals(id)) {
+					equivalences.put(id, representative);
+				} else {
+					writeClosure(reasoner, representatives, cl, id, time,
+							closure, directParents);
+				}
+				if (++done % CHUNK == 0)
+					log.info("Related " + done + " of " + ids.size()
+							+ " expressions");
+			}
+			final long rows = closure.close();
+
+			con.prepareStatement(EQUIVALENT_TABLE_CREATE).executeUpdate();
+			final CopyWriter equivalent = new CopyWriter(con, COPY_EQUIVALENT);
+			for (Map.Entry<Long, Long> e : equivalences.entrySet())
+				equivalent.row(e.getKey(), e.getValue());
+			equivalent.close();
+			con.prepareStatement(SET_EQUIVALENT_ID).executeUpdate();
+
+			con.prepareStatement(DIRECT_TABLE_CREATE).executeUpdate();
+			final CopyWriter direct = new CopyWriter(con, COPY_DIRECT);
+			for (Map.Entry<Long, Set<Long>> e : directParents.entrySet())
+				for (Long parent : e.getValue())
+					direct.row(e.getKey(), parent);
+			direct.close();
+			final PreparedStatement convertPs = con
+					.prepareStatement(CONVERT_DIRECT_TO_INDIRECT_RELATIONSHIP);
+			convertPs.setTimestamp(1, importTime);
+			convertPs.setTimestamp(2, importTime);
+			final int converted = convertPs.executeUpdate();
+			con.commit();
+			log.info("Stored " + equivalences.size() + " equivalences and "
+					+ rows + " transitive closure rows, and converted "
+					+ converted + " direct relationships to indirect, in "
+					+ (System.currentTimeMillis() - start) + " ms");
+		} catch (Exception e) {
+			con.rollback();
+			throw e;
+		} finally {
+			con.setAutoCommit(true);
+		}
+		reasoner.dispose();
+	}
+
+	/**
+	 * Write the transitive closure rows of a new expression that represents
+	 * its equivalent group: to its ancestors, and from its stored
+	 * descendants. Rows between two new expressions are written for the
+	 * descendant. The direct parents of the stored children are collected so
+	 * that their direct relationships can be updated.
+	 */
+	private void writeClosure(OWLReasoner reasoner,
+			Representatives representatives, OWLClass cl, Long id,
+			String time, CopyWriter closure,
+			Map<Long, Set<Long>> directParents) throws Exception {
+		final Set<Long> parents = new HashSet<Long>();
+		for (Node<OWLClass> node : reasoner.getSuperClasses(cl, true)) {
+			final Long parent = representatives.of(node);
+			if (parent != null && parents.add(parent))
+				closure.row(id, parent, time, "t");
+		}
+		final Set<Long> ancestors = new HashSet<Long>(parents);
+		for (Node<OWLClass> node : reasoner.getSuperClasses(cl, false)) {
+			final Long ancestor = representatives.of(node);
+			if (ancestor != null && ancestors.add(ancestor))
+				closure.row(id, ancestor, time, "f");
+		}
+		final Set<Long> children = new HashSet<Long>();
+		for (Node<OWLClass> node : reasoner.getSubClasses(cl, true)) {
+			final Long child = representatives.of(node);
+			if (child != null && !representatives.isNew(child)
+					&& children.add(child)) {
+				closure.row(child, id, time, "t");
+				if (!directParents.containsKey(child)) {
+					final Set<Long> childParents = new HashSet<Long>();
+					for (Node<OWLClass> p : reasoner.getSuperClasses(
+							node.getRepresentativeElement(), true)) {
+						final Long childParent = representatives.of(p);
+						if (childParent != null)
+							childParents.add(childParent);
+					}
+					directParents.put(child, childParents);
+				}
+			}
+		}
+		final Set<Long> descendants = new HashSet<Long>(children);
+		for (Node<OWLClass> node : reasoner.getSubClasses(cl, false)) {
+			final Long descendant = representatives.of(node);
+			if (descendant != null && !representatives.isNew(descendant)
+					&& descendants.add(descendant))
+				closure.row(descendant, id, time, "f");
+		}
+	}
+
+	/**
+	 * Translate all stored expressions to OWL axioms in parallel.
+	 */
+	private Set<OWLAxiom> translateAll(Connection con,
+			final OWLOntology ontology, final OWLDataFactory dataFactory)
+			throws Exception {
+		final List<Long> ids = new ArrayList<Long>();
+		final List<String> expressions = new ArrayList<String>();
+		final ResultSet rs = con.prepareStatement(GET_ALL_EXPRESSIONS)
+				.executeQuery();
+		while (rs.next()) {
+			ids.add(rs.getLong(1));
+			expressions.add(rs.getString(2));
+		}
+		rs.close();
+		log.info("Translating " + ids.size() + " stored expressions to OWL");
+
+		// The OWL expression builder is not shared between threads.
+		final ThreadLocal<SCTOWLExpressionBuilder> builders = new ThreadLocal<SCTOWLExpressionBuilder>() {
+			@Override
+			protected SCTOWLExpressionBuilder initialValue() {
+				return new SCTOWLExpressionBuilder(ontology, dataFactory);
+			}
+		};
+		final List<Future<List<OWLAxiom>>> chunks = new ArrayList<Future<List<OWLAxiom>>>();
+		for (int from = 0; from < ids.size(); from += CHUNK) {
+			final int first = from;
+			final int last = Math.min(from + CHUNK, ids.size());
+			chunks.add(executor.submit(new Callable<List<OWLAxiom>>() {
+				@Override
+				public List<OWLAxiom> call() {
+					final SCTOWLExpressionBuilder builder = builders.get();
+					final List<OWLAxiom> axioms = new ArrayList<OWLAxiom>(
+							last - first);
+					for (int i = first; i < last; i++) {
+						try {
+							final Tree tree = SnomedCTParser
+									.parseExpression(expressions.get(i));
+							axioms.add(dataFactory.getOWLEquivalentClassesAxiom(
+									expressionClass(dataFactory, ids.get(i)),
+									builder.translateToOWL(tree)));
+						} catch (Exception e) {
+							log.error("Could not add expression " + ids.get(i)
+									+ " to ontology", e);
+						}
+					}
+					return axioms;
+				}
+			}));
+		}
+		final Set<OWLAxiom> axioms = new HashSet<OWLAxiom>(ids.size() * 2);
+		for (Future<List<OWLAxiom>> chunk : chunks) {
+			axioms.addAll(chunk.get());
+			log.info("Translated " + axioms.size() + " of " + ids.size()
+					+ " expressions");
+		}
+		return axioms;
+	}
+
+	/**
+	 * Finds the id that represents an equivalent group of classes in the
+	 * transitive closure, which is the equivalent id of a stored member, or
+	 * the first stored of the group's new expressions.
+	 */
+	private static final class Representatives {
+
+		private final Set<Long> imported;
+
+		private final Map<Long, Long> equivalentIds;
+
+		private final Map<OWLClass, Long> cache = new HashMap<OWLClass, Long>();
+
+		Representatives(Set<Long> imported, Map<Long, Long> equivalentIds) {
+			this.imported = imported;
+			this.equivalentIds = equivalentIds;
+		}
+
+		/**
+		 * @return The representative id, or <code>null</code> if no member
+		 *         of the group is a stored concept or expression.
+		 */
+		Long of(Node<OWLClass> node) {
+			final OWLClass key = node.getRepresentativeElement();
+			if (cache.containsKey(key))
+				return cache.get(key);
+			Long stored = null;
+			Long first = null;
+			for (OWLClass cl : node.getEntities()) {
+				final long id = idOf(cl);
+				if (id == 0 || !equivalentIds.containsKey(id))
+					continue;
+				if (imported.contains(id)) {
+					// Ids are given in decreasing order.
+					if (first == null || id > first)
+						first = id;
+				} else if (stored == null
+						|| new ExpressionId(id).isPreCoordinated()) {
+					stored = id;
+				}
+			}
+			final Long result = (stored != null ? equivalentIds.get(stored)
+					: first);
+			cache.put(key, result);
+			return result;
+		}
+
+		boolean isNew(Long id) {
+			return imported.contains(id);
+		}
+	}
+
+	/**
+	 * @return The id in the name of a class, or 0 if there is none.
+	 */
+	private static long idOf(OWLClass c) {
+		final String name = c.toStringID();
+		try {
+			return Long.parseLong(name.substring(name.lastIndexOf('_') + 1));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private static OWLClass expressionClass(OWLDataFactory dataFactory,
+			long id) {
+		return dataFactory.getOWLClass(IRI
+				.create(SCTOWLExpressionBuilder.PC_IRI + id));
+	}
+
+	/**
+	 * Writes rows to a <code>COPY ... FROM STDIN</code> in text format,
+	 * buffered.
+	 */
+	private static final class CopyWriter {
+
+		private final CopyIn copyIn;
+
+		private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(
+				1 << 17);
+
+		private final StringBuilder row = new StringBuilder();
+
+		private long rows = 0;
+
+		CopyWriter(Connection con, String sql) throws SQLException {
+			copyIn = ((PGConnection) con).getCopyAPI().copyIn(sql);
+		}
+
+		void row(Object... values) throws SQLException {
+			row.setLength(0);
+			for (int i = 0; i < values.length; i++) {
+				if (i > 0)
+					row.append('\t');
+				final String value = values[i].toString();
+				for (int j = 0; j < value.length(); j++) {
+					final char c = value.charAt(j);
+					switch (c) {
+					case '\\':
+						row.append("\\\\");
+						break;
+					case '\t':
+						row.append("\\t");
+						break;
+					case '\n':
+						row.append("\\n");
+						break;
+					case '\r':
+						row.append("\\r");
+						break;
+					default:
+						row.append(c);
+					}
+				}
+			}
+			row.append('\n');
+			final byte[] bytes = row.toString().getBytes(UTF_8);
+			buffer.write(bytes, 0, bytes.length);
+			rows++;
+			if (buffer.size() >= 1 << 16)
+				flush();
+		}
+
+		long getRows() {
+			return rows;
+		}
+
+		private void flush() throws SQLException {
+			copyIn.writeToCopy(buffer.toByteArray(), 0, buffer.size());
+			buffer.reset();
+		}
+
+		long close() throws SQLException {
+			flush();
+			return copyIn.endCopy();
+		}
+	}
+
+	private boolean isDone(Phase phase) {
+		final String done = state.getProperty("phase");
+		return done != null && Phase.valueOf(done).compareTo(phase) >= 0;
+	}
+
+	private void done(Phase phase) throws IOException {
+		state.setProperty("phase", phase.name());
+		saveState();
+		log.info("Completed phase " + phase);
+	}
+
+	private Timestamp getImportTime() {
+		return new Timestamp(Long.parseLong(state.getProperty("importtime")));
+	}
+
+	private static String format(Timestamp time) {
+		return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(time);
+	}
+
+	/**
+	 * Save the state by writing a new file and renaming it, so the state file
+	 * is never partly written.
+	 */
+	private void saveState() throws IOException {
+		final File tmp = new File(stateFile.getPath() + ".tmp");
+		final FileOutputStream out = new FileOutputStream(tmp);
+		try {
+			state.store(out, "Bulk import of " + input);
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(stateFile)) {
+			stateFile.delete();
+			if (!tmp.renameTo(stateFile))
+				throw new IOException("Could not write " + stateFile);
+		}
+	}
+
+	private static List<String> readLines(File file) throws IOException {
+		final List<String> lines = new ArrayList<String>();
+		final BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), UTF_8), 1 << 16);
+		try {
+			String line;
+			while ((line = in.readLine()) != null)
+				lines.add(line);
+		} finally {
+			in.close();
+		}
+		return lines;
+	}
+
+	private static void writeLines(File file, List<String> lines)
+			throws IOException {
+		final File tmp = new File(file.getPath() + ".tmp");
+		final Writer out = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(tmp), UTF_8), 1 << 16);
+		try {
+			for (String line : lines) {
+				out.write(line);
+				out.write('\n');
+			}
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(file)) {
+			file.delete();
+			if (!tmp.renameTo(file))
+				throw new IOException("Could not write " + file);
+		}
+	}
+
+	/**
+	 * Imports a file of expressions. The database and the ontology are read
+	 * from <code>config.xml</code> in the working directory.
+	 *
+	 * @param args
+	 *            <code>--input</code> file of expressions, one per line
+	 *            (required), and optionally <code>--state</code> file, by
+	 *            default the input file name followed by <code>.state</code>,
+	 *            and <code>--workers</code>, the number of parsing threads,
+	 *            by default the number of available processors.
+	 * @throws Exception
+	 *             Thrown if anything goes wrong.
+	 */
+	public static void main(String[] args) throws Exception {
+		File input = null;
+		File stateFile = null;
+		int workers = Runtime.getRuntime().availableProcessors();
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (i + 1 == args.length)
+				throw new IllegalArgumentException("Missing value for " + arg);
+			String value = args[++i];
+			if (arg.equals("--input"))
+				input = new File(value);
+			else if (arg.equals("--state"))
+				stateFile = new File(value);
+			else if (arg.equals("--workers"))
+				workers = Integer.parseInt(value);
+			else
+				throw new IllegalArgumentException("Unknown option " + arg);
+		}
+		if (input == null)
+			throw new IllegalArgumentException(
+					"The file of expressions must be given with --input");
+		if (stateFile == null)
+			stateFile = new File(input.getPath() + ".state");
+		new BulkImport(new XMLConfiguration("config.xml"), input, stateFile,
+				workers).run();
+	}
+
+}
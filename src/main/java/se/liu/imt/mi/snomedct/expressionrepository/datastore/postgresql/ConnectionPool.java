@@ -0,0 +1,236 @@
+package se.liu.imt.mi.snomedct.expressionrepository.datastore.postgresql;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.log4j.Logger;
+
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStoreException;
+
+/**
+ * A fixed size pool of connections to the PostgreSQL database management
+ * system. A thread checks out a connection for the duration of one data store
+ * operation and checks it in afterwards, so concurrent operations run on
+ * separate connections.
+ */
+public class ConnectionPool {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger log = Logger.getLogger(ConnectionPool.class);
+
+	/**
+	 * The URL for the database connections.
+	 */
+	private final String url;
+
+	/**
+	 * The user name for the database connections.
+	 */
+	private final String userName;
+
+	/**
+	 * The user password for the database connections.
+	 */
+	private final String password;
+
+	/**
+	 * All connections in the pool, checked out or not.
+	 */
+	private final List<PooledConnection> connections;
+
+	/**
+	 * The connections that are not checked out.
+	 */
+	private final BlockingQueue<PooledConnection> idle;
+
+	/**
+	 * Creates a pool and opens all its connections to the PostgreSQL database
+	 * management system.
+	 *
+	 * @param url
+	 *            The URL for the database connections.
+	 * @param userName
+	 *            The user name for the database connections.
+	 * @param password
+	 *            The user password for the database connections.
+	 * @param size
+	 *            The number of connections in the pool.
+	 * @throws DataStoreException
+	 *             Thrown if there is a problem with the dbms or the connection
+	 *             to the dbms.
+	 */
+	public ConnectionPool(final String url, final String userName,
+			final String password, final int size) throws DataStoreException {
+		super();
+		if (size < 1) {
+			throw new IllegalArgumentException(
+					"The connection pool size must be at least 1.");
+		}
+		this.url = url;
+		this.userName = userName;
+		this.password = password;
+
+		try {
+			Class.forName("org.postgresql.Driver");
+		} catch (ClassNotFoundException e) {
+			throw new DataStoreException(e);
+		}
+		connections = new ArrayList<PooledConnection>(size);
+		idle = new ArrayBlockingQueue<PooledConnection>(size);
+		for (int i = 0; i < size; i++) {
+			final PooledConnection con = connect();
+			connections.add(con);
+			idle.add(con);
+		}
+		log.debug("Opened " + size + " database connections");
+	}
+
+	/**
+	 * @return The number of connections in the pool.
+	 */
+	public int getSize() {
+		return connections.size();
+	}
+
+	/**
+	 * Check out a connection, waiting until one is available. A connection
+	 * that could not be replaced when it was checked in is replaced now.
+	 *
+	 * @return The checked out connection.
+	 * @throws DataStoreException
+	 *             Thrown if the thread was interrupted while waiting, or if a
+	 *             broken connection can still not be replaced.
+	 */
+	public PooledConnection checkOut() throws DataStoreException {
+		final PooledConnection con;
+		try {
+			con = idle.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DataStoreException(
+					"Interrupted while waiting for a database connection", e);
+		}
+		if (!isClosed(con)) {
+			return con;
+		}
+		try {
+			return replace(con);
+		} catch (DataStoreException e) {
+			// Keep the slot, the next check out tries again.
+			idle.add(con);
+			throw e;
+		}
+	}
+
+	/**
+	 * Check in a connection that has been checked out. An unfinished
+	 * transaction on the connection is rolled back, and a connection that no
+	 * longer works, because the rollback fails or the driver has closed it
+	 * after a connection failure, is replaced with a new one. If it can not be
+	 * replaced now, it is replaced when it is checked out again.
+	 *
+	 * @param con
+	 *            The connection to check in.
+	 */
+	public void checkIn(final PooledConnection con) {
+		boolean broken;
+		try {
+			if (!con.getConnection().getAutoCommit()) {
+				con.getConnection().rollback();
+				con.setAutoCommit(true);
+			}
+			broken = con.getConnection().isClosed();
+		} catch (SQLException e) {
+			log.warn("Database connection failed", e);
+			broken = true;
+		}
+		if (broken) {
+			try {
+				idle.add(replace(con));
+				return;
+			} catch (DataStoreException e) {
+				log.error("Could not replace database connection, "
+						+ "retrying when it is checked out", e);
+			}
+		}
+		idle.add(con);
+	}
+
+	/**
+	 * Close all connections in the pool.
+	 *
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the dbms.
+	 */
+	public void close() throws SQLException {
+		synchronized (connections) {
+			for (PooledConnection con : connections) {
+				con.close();
+			}
+		}
+	}
+
+	/**
+	 * Check if a connection has been closed, by the pool or by the driver
+	 * after a connection failure.
+	 *
+	 * @param con
+	 *            The connection.
+	 * @return <code>true</code> if the connection can not be used.
+	 */
+	private static boolean isClosed(final PooledConnection con) {
+		try {
+			return con.getConnection().isClosed();
+		} catch (SQLException e) {
+			return true;
+		}
+	}
+
+	/**
+	 * Close a broken connection and put a new one in its place in the pool.
+	 * The broken connection stays closed if no new one can be opened.
+	 *
+	 * @param con
+	 *            The broken connection.
+	 * @return The new connection.
+	 * @throws DataStoreException
+	 *             Thrown if the new connection can not be opened.
+	 */
+	private PooledConnection replace(final PooledConnection con)
+			throws DataStoreException {
+		try {
+			con.close();
+		} catch (SQLException e) {
+			// The connection is already broken.
+		}
+		final PooledConnection result = connect();
+		synchronized (connections) {
+			connections.set(connections.indexOf(con), result);
+		}
+		log.info("Replaced broken database connection");
+		return result;
+	}
+
+	/**
+	 * Open a new connection to the dbms.
+	 *
+	 * @return The new connection.
+	 * @throws DataStoreException
+	 *             Thrown if the connection can not be opened.
+	 */
+	private PooledConnection connect() throws DataStoreException {
+		try {
+			return new PooledConnection(DriverManager.getConnection(url,
+					userName, password));
+		} catch (SQLException e) {
+			throw new DataStoreException(e);
+		}
+	}
+
+}
@@ -1,25 +1,46 @@
 package se.liu.imt.mi.snomedct.expressionrepository.datastore.postgresql;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
+import java.io.File;
+import java.io.IOException;
+import java.sql.Array;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import org.apache.log4j.Logger;
+
 import se.liu.imt.mi.snomedct.expressionrepository.api.RelativeAlreadySetException;
 import se.liu.imt.mi.snomedct.expressionrepository.api.ExpressionAlreadyExistsException;
 import se.liu.imt.mi.snomedct.expressionrepository.api.NonExistingIdException;
 import se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStoreException;
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.OrdinalDictionary;
 import se.liu.imt.mi.snomedct.expressionrepository.datatypes.Expression;
 import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionId;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionIdSet;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionRelatives;
 
 /**
  * An implementation of the <code>DataStore</code> interface for the PostgreSQL
  * database management system.
+ * <p>
+ * Look ups at a specific time test the validity period of each row as a
+ * <code>tsrange</code> from its start time to its end time, which the GiST
+ * indexes created by <code>add_validity_indexes.sql</code> support.
+ * Look ups at the current time only read rows whose end time is
+ * <code>NULL</code>, so when <code>partition_transitiveclosure.sql</code> has
+ * partitioned the transitive closure by end time they only scan the partition
+ * of current rows.
  * 
  * @author Mikael Nystrm, mikael.nystrom@liu.se
  * 
@@ -28,285 +49,539 @@ public class DataStore implements
 		se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStore {
 
 	/**
-	 * The connection to the PostgreSQL database management system, dbms,
-	 * containing the expression database.
-	 */
-	protected Connection con;
-
-	/**
-	 * A <code>PreparedStatement</code> that store an a expression without
-	 * normal form with the current timestamp in the dbms.
+	 * The pool of connections to the PostgreSQL database management system,
+	 * dbms, containing the expression database.
 	 */
-	private final PreparedStatement storeExpressionPs;
+	protected final ConnectionPool pool;
 
 	/**
-	 * A <code>PreparedStatement</code> that store an a expression at with a
-	 * specified timestamp in the dbms.
+	 * The in-memory index of the current hierarchy, or <code>null</code> if
+	 * subsumption and equivalence tests are always answered by the dbms.
 	 */
-	private final PreparedStatement storeExpressionTimePs;
+	protected final ReachabilityIndex index;
 
 	/**
-	 * A <code>PreparedStatement</code> that set an expression's equivalent id
-	 * to the expressions own id in the dbms.
+	 * Set when the reachability index could not be updated after a commit.
+	 * Subsumption and equivalence tests are then answered by the dbms until
+	 * the index is loaded again.
 	 */
-	private final PreparedStatement setEquivalentIdToIdPs;
+	private volatile boolean indexStale = false;
 
 	/**
-	 * A <code>PreparedStatement</code> that store an expression's equivalent
-	 * concept or expression id in the dbms. The stored equivalent id is always
-	 * the same for an equivalent group.
+	 * Logger
 	 */
-	private final PreparedStatement setEquivalentIdPs;
+	private static final Logger log = Logger.getLogger(DataStore.class);
 
 	/**
-	 * A <code>PreparedStatement</code> that create a temporary table for the
-	 * parents' id.
+	 * If the hierarchy is also kept, and looked up, as one row of sorted
+	 * ancestor and parent arrays per concept or expression and validity
+	 * period in the <code>closurearrays</code> table.
 	 */
-	private final PreparedStatement setParentsTableCreate;
+	protected final boolean closureArrays;
 
 	/**
-	 * A <code>PreparedStatement</code> that create a temporary table for the
-	 * children's id.
+	 * The SQL for a <code>PreparedStatement</code> that store an a expression
+	 * and its hash without normal form with the current timestamp in the dbms.
 	 */
-	private final PreparedStatement setChildrenTableCreate;
+	private static final String STORE_EXPRESSION = "INSERT INTO expressions (expression, expressionhash, starttime) VALUES (?, ?::uuid, now());";
 
 	/**
-	 * A <code>PreparedStatement</code> that insert the parents id in the
-	 * temporary table.
+	 * The SQL for a <code>PreparedStatement</code> that store an a expression
+	 * and its hash at with a specified timestamp in the dbms.
 	 */
-	private final PreparedStatement setParentsTableInsert;
+	private static final String STORE_EXPRESSION_TIME = "INSERT INTO expressions (expression, expressionhash, starttime) VALUES (?, ?::uuid, ?);";
 
 	/**
-	 * A <code>PreparedStatement</code> that insert the children id in the
-	 * temporary table.
+	 * The SQL for a <code>PreparedStatement</code> that set an expression's
+	 * equivalent id to the expressions own id in the dbms, found by the
+	 * expression's hash.
 	 */
-	private final PreparedStatement setChildrenTableInsert;
+	private static final String SET_EQUIVALENT_ID_TO_ID = "UPDATE expressions SET equivalentid = id WHERE expressionhash = ?::uuid AND expression = ?;";
 
 	/**
-	 * A <code>PreparedStatement</code> that analyze the temporary table for the
-	 * parents' id.
+	 * The SQL for a <code>PreparedStatement</code> that store an expression's
+	 * equivalent concept or expression id in the dbms. The stored equivalent id
+	 * is always the same for an equivalent group.
 	 */
-	private final PreparedStatement setParentsTableAnalyze;
+	private static final String SET_EQUIVALENT_ID = "UPDATE expressions SET equivalentid = "
+			+ "(SELECT Max(equivalentid) FROM conexp WHERE endtime IS NULL AND id = ?) "
+			+ "WHERE id = ?;";
 
 	/**
-	 * A <code>PreparedStatement</code> that analyze the temporary table for the
-	 * children's id.
+	 * The SQL for a <code>PreparedStatement</code> that check in one query
+	 * that an expression exists, that it has no equivalent id and no parent
+	 * or child set, and that returns the given parents' and children's ids
+	 * that do not exist in the dbms.
 	 */
-	private final PreparedStatement setChildrenTableAnalyze;
+	private static final String CHECK_PARENTS_AND_CHILDREN = "SELECT "
+			+ "(SELECT Count(*) >= 1 FROM expressions WHERE id = ? AND endtime IS NULL), "
+			+ "(SELECT Count(*) >= 1 FROM expressions WHERE id = ? AND id <> equivalentid), "
+			+ "EXISTS (SELECT 1 FROM transitiveclosure "
+			+ "WHERE sourceid IN (SELECT equivalentid FROM conexp WHERE id = ?)) OR "
+			+ "EXISTS (SELECT 1 FROM transitiveclosure "
+			+ "WHERE destinationid IN (SELECT equivalentid FROM conexp WHERE id = ?)), "
+			+ "ARRAY(SELECT r.id FROM unnest(?::bigint[]) AS r(id) WHERE NOT EXISTS "
+			+ "(SELECT 1 FROM conexp WHERE conexp.id = r.id AND endtime IS NULL)), "
+			+ "ARRAY(SELECT r.id FROM unnest(?::bigint[]) AS r(id) WHERE NOT EXISTS "
+			+ "(SELECT 1 FROM conexp WHERE conexp.id = r.id AND endtime IS NULL));";
 
 	/**
-	 * A <code>PreparedStatement</code> that inserts the parents into the
-	 * transitive closure table.
+	 * The SQL for a <code>PreparedStatement</code> that store an expression's
+	 * parents and children, given as arrays of ids, in the transitive closure
+	 * table with one statement. The expression gets direct relationships to
+	 * the parents' and from the children's equivalent ids and indirect
+	 * relationships to the parents' ancestors and from the children's
+	 * descendants. The current direct relationships from the children to the
+	 * parents are retired and stored again as indirect relationships. All
+	 * parts of the statement see the transitive closure as it was before the
+	 * statement. The end time of the new relationships is left to the
+	 * column's default, <code>NULL</code>, since an untyped
+	 * <code>NULL</code> in a <code>UNION</code> would be resolved as text.
 	 */
-	private final PreparedStatement setParentsTransitiveclosureParentsInsert;
+	private static final String SET_PARENTS_AND_CHILDREN = "WITH "
+			+ "parents AS (SELECT DISTINCT equivalentid AS id FROM conexp "
+			+ "WHERE id = ANY (?::bigint[]) AND endtime IS NULL), "
+			+ "children AS (SELECT DISTINCT equivalentid AS id FROM conexp "
+			+ "WHERE id = ANY (?::bigint[]) AND endtime IS NULL), "
+			+ "retired AS (UPDATE transitiveclosure SET endtime = now() "
+			+ "WHERE sourceid IN (SELECT id FROM children) AND destinationid IN (SELECT id FROM parents) AND "
+			+ "endtime IS NULL AND directrelation = true "
+			+ "RETURNING sourceid, destinationid) "
+			+ "INSERT INTO transitiveclosure (sourceid, destinationid, starttime, directrelation) "
+			+ "SELECT ?, id, now(), true FROM parents "
+			+ "UNION ALL SELECT id, ?, now(), true FROM children "
+			+ "UNION ALL SELECT ?, destinationid, now(), false FROM transitiveclosure "
+			+ "WHERE sourceid IN (SELECT id FROM parents) AND endtime IS NULL "
+			+ "UNION ALL SELECT sourceid, ?, now(), false FROM transitiveclosure "
+			+ "WHERE destinationid IN (SELECT id FROM children) AND endtime IS NULL "
+			+ "UNION ALL SELECT sourceid, destinationid, now(), false FROM retired;";
 
 	/**
-	 * A <code>PreparedStatement</code> that inserts the children into the
-	 * transitive closure table.
+	 * The SQL for a <code>PreparedStatement</code> that retrieve an
+	 * expression's id given the expression's hash and the expression itself,
+	 * to rule out a collision, from the dbms.
 	 */
-	private final PreparedStatement setChildrenTransitiveclosureChildrenInsert;
+	private static final String GET_EXPRESSION_ID = "SELECT id FROM expressions WHERE expressionhash = ?::uuid AND expression = ?;";
 
 	/**
-	 * A <code>PreparedStatement</code> that inserts the ancestors into the
-	 * transitive closure table.
+	 * The SQL for a <code>PreparedStatement</code> that retrieve an
+	 * expression's id given the expression's hash and the expression itself at
+	 * a specific time from the dbms.
 	 */
-	private final PreparedStatement setParentsTransitiveclosureAncestorsInsert;
+	private static final String GET_EXPRESSION_ID_TIME = "SELECT id FROM expressions WHERE expressionhash = ?::uuid AND expression = ? "
+			+ "AND tsrange(starttime, endtime, '[)') @> ?::timestamp;";
 
 	/**
-	 * A <code>PreparedStatement</code> that inserts the descendants into the
-	 * transitive closure table.
+	 * The SQL for a <code>PreparedStatement</code> that retrieve several
+	 * expressions' ids given an array of the expressions' hashes from the dbms.
+	 * The expressions are returned to rule out collisions.
 	 */
-	private final PreparedStatement setChildrenTransitiveclosureDescendantsInsert;
+	private static final String GET_EXPRESSION_IDS = "SELECT id, expression FROM expressions WHERE expressionhash = ANY (?::uuid[]);";
 
 	/**
-	 * A <code>PreparedStatement</code> that store the current direct
-	 * relationships as indirect relationships that are out of date due to a
-	 * insert of a new expression in the dbms.
-	 * 
+	 * The SQL for a <code>PreparedStatement</code> that retrieve several
+	 * expressions' ids given an array of the expressions' hashes at a specific
+	 * time from the dbms.
 	 */
-	private final PreparedStatement convertDirectToIndirectRelationshipCreatePs;
+	private static final String GET_EXPRESSION_IDS_TIME = "SELECT id, expression FROM expressions WHERE expressionhash = ANY (?::uuid[]) "
+			+ "AND tsrange(starttime, endtime, '[)') @> ?::timestamp;";
 
 	/**
-	 * A <code>PreparedStatement</code> that retire the current direct
-	 * relationships that are out of date due to a insert of a new expression in
-	 * the dbms.
-	 * 
+	 * The SQL for a <code>PreparedStatement</code> that retrieve an expression
+	 * given the expression's id from the dbms.
 	 */
-	private final PreparedStatement convertDirectToIndirectRelationshipRetirePs;
+	private static final String GET_EXPRESSION = "SELECT expression FROM expressions WHERE id = ?;";
 
 	/**
-	 * A <code>PreparedStatement</code> that retrieve an expression's id given
-	 * the expression itself from the dbms.
+	 * The SQL for a <code>PreparedStatement</code> that retrieve an expression
+	 * given the expression's id at a specific time from the dbms.
 	 */
-	private final PreparedStatement getExpressionIdPs;
+	private static final String GET_EXPRESSION_TIME = "SELECT expression FROM expressions WHERE id = ? "
+			+ "AND tsrange(starttime, endtime, '[)') @> ?::timestamp;";
 
 	/**
-	 * A <code>PreparedStatement</code> that retrieve an expression's id given
-	 * the expression itself at a specific time from the dbms.
+	 * The SQL for a <code>PreparedStatement</code> that retrieve an
+	 * expression's descendants at the current time from the dbms.
 	 */
-	private final PreparedStatement getExpressionIdTimePs;
+	private static final String GET_DESCENDANTS = "SELECT result.id "
+			+ "FROM conexp AS base JOIN transitiveclosure ON base.equivalentid = transitiveclosure.destinationid "
+			+ "JOIN conexp AS result ON transitiveclosure.sourceid= result.equivalentid "
+			+ "WHERE base.endtime IS NULL AND transitiveclosure.endtime IS NULL AND result.endtime IS NULL AND "
+			+ "base.id = ?;";
 
 	/**
-	 * A <code>PreparedStatement</code> that retrieve an expression given the
-	 * expression's id from the dbms.
+	 * The SQL for a <code>PreparedStatement</code> that retrieve an
+	 * expression's descendants at a specific time from the dbms.
 	 */
-	private final PreparedStatement getExpressionPs;
+	private static final String GET_DESCENDANTS_TIME = "SELECT result.id "
+			+ "FROM conexp AS base JOIN transitiveclosure ON base.equivalentid = transitiveclosure.destinationid "
+			+ "JOIN conexp AS result ON transitiveclosure.sourceid = result.equivalentid "
+			+ "WHERE base.id = ? AND "
+			+ "tsrange(base.starttime, base.endtime, '[)') @> ?::timestamp AND "
+			+ "tsrange(transitiveclosure.starttime, transitiveclosure.endtime, '[)') @> ?::timestamp AND "
+			+ "tsrange(result.starttime, result.endtime, '[)') @> ?::timestamp;";
 
 	/**
-	 * A <code>PreparedStatement</code> that retrieve an expression given the
-	 * expression's id at a specific time from the dbms.
+	 * The SQL for a <code>PreparedStatement</code> that retrieve an
+	 * expression's children at the current time from the dbms.
 	 */
-	private final PreparedStatement getExpressionTimePs;
+	private static final String GET_CHILDREN = "SELECT result.id "
+			+ "FROM conexp AS base JOIN transitiveclosure ON base.equivalentid = transitiveclosure.destinationid "
+			+ "JOIN conexp AS result ON transitiveclosure.sourceid = result.equivalentid "
+			+ "WHERE transitiveclosure.directrelation = true AND "
+			+ "base.endtime IS NULL AND transitiveclosure.endtime IS NULL AND result.endtime IS NULL AND "
+			+ "base.id = ?;";
 
 	/**
-	 * A <code>PreparedStatement</code> that retrieve an expression's
-	 * descendants at the current time from the dbms.
+	 * The SQL for a <code>PreparedStatement</code> that retrieve an
+	 * expression's children at a specific time from the dbms.
 	 */
-	private final PreparedStatement getDescendantsPs;
+	private static final String GET_CHILDREN_TIME = "SELECT result.id "
+			+ "FROM conexp AS base JOIN transitiveclosure ON base.equivalentid = transitiveclosure.destinationid "
+			+ "JOIN conexp AS result ON transitiveclosure.sourceid = result.equivalentid "
+			+ "WHERE transitiveclosure.directrelation = true AND "
+			+ "base.id = ? AND "
+			+ "tsrange(base.starttime, base.endtime, '[)') @> ?::timestamp AND "
+			+ "tsrange(transitiveclosure.starttime, transitiveclosure.endtime, '[)') @> ?::timestamp AND "
+			+ "tsrange(result.starttime, result.endtime, '[)') @> ?::timestamp;";
 
 	/**
-	 * A <code>PreparedStatement</code> that retrieve an expression's
-	 * descendants at a specific time from the dbms.
+	 * The SQL for a <code>PreparedStatement</code> that retrieve an
+	 * expression's ancestors at the current time from the dbms.
 	 */
-	private final PreparedStatement getDescendantsTimePs;
+	private static final String GET_ANCESTORS = "SELECT result.id "
+			+ "FROM conexp AS base JOIN transitiveclosure ON base.equivalentid = transitiveclosure.sourceid "
+			+ "JOIN conexp AS result ON transitiveclosure.destinationid = result.equivalentid "
+			+ "WHERE base.endtime IS NULL AND transitiveclosure.endtime IS NULL AND result.endtime IS NULL AND "
+			+ "base.id = ?;";
 
 	/**
-	 * A <code>PreparedStatement</code> that retrieve an expression's children
-	 * at the current time from the dbms.
+	 * The SQL for a <code>PreparedStatement</code> that retrieve an
+	 * expression's ancestors at a specific time from the dbms.
 	 */
-	private final PreparedStatement getChildrenPs;
+	private static final String GET_ANCESTORS_TIME = "SELECT result.id "
+			+ "FROM conexp AS base JOIN transitiveclosure ON base.equivalentid = transitiveclosure.sourceid "
+			+ "JOIN conexp AS result ON transitiveclosure.destinationid = result.equivalentid "
+			+ "WHERE base.id = ? AND "
+			+ "tsrange(base.starttime, base.endtime, '[)') @> ?::timestamp AND "
+			+ "tsrange(transitiveclosure.starttime, transitiveclosure.endtime, '[)') @> ?::timestamp AND "
+			+ "tsrange(result.starttime, result.endtime, '[)') @> ?::timestamp;";
 
 	/**
-	 * A <code>PreparedStatement</code> that retrieve an expression's children
-	 * at a specific time from the dbms.
+	 * The SQL for a <code>PreparedStatement</code> that retrieve an
+	 * expression's parents at the current time from the dbms.
 	 */
-	private final PreparedStatement getChildrenTimePs;
+	private static final String GET_PARENTS = "SELECT result.id "
+			+ "FROM conexp AS base JOIN transitiveclosure ON base.equivalentid = transitiveclosure.sourceid "
+			+ "JOIN conexp AS result ON transitiveclosure.destinationid = result.equivalentid "
+			+ "WHERE transitiveclosure.directrelation = true AND "
+			+ "base.endtime IS NULL AND transitiveclosure.endtime IS NULL AND result.endtime IS NULL AND "
+			+ "base.id = ?;";
 
 	/**
-	 * A <code>PreparedStatement</code> that retrieve an expression's ancestors
-	 * at the current time from the dbms.
+	 * The SQL for a <code>PreparedStatement</code> that retrieve an
+	 * expression's parents at the current time from the dbms.
 	 */
-	private final PreparedStatement getAncestorsPs;
+	private static final String GET_PARENTS_TIME = "SELECT result.id "
+			+ "FROM conexp AS base JOIN transitiveclosure ON base.equivalentid = transitiveclosure.sourceid "
+			+ "JOIN conexp AS result ON transitiveclosure.destinationid = result.equivalentid "
+			+ "WHERE transitiveclosure.directrelation = true AND "
+			+ "base.id = ? AND "
+			+ "tsrange(base.starttime, base.endtime, '[)') @> ?::timestamp AND "
+			+ "tsrange(transitiveclosure.starttime, transitiveclosure.endtime, '[)') @> ?::timestamp AND "
+			+ "tsrange(result.starttime, result.endtime, '[)') @> ?::timestamp;";
 
 	/**
-	 * A <code>PreparedStatement</code> that retrieve an expression's ancestors
-	 * at a specific time from the dbms.
+	 * The SQL for a <code>PreparedStatement</code> that retrieve all
+	 * expressions from the dbms. It is a single statement without a
+	 * semicolon, so the driver can read it through a cursor.
 	 */
-	private final PreparedStatement getAncestorsTimePs;
+	private static final String GET_ALL_EXPRESSIONS = "SELECT id, expression FROM expressions WHERE endtime IS NULL";
 
 	/**
-	 * A <code>PreparedStatement</code> that retrieve an expression's parents at
-	 * the current time from the dbms.
+	 * The SQL for a <code>PreparedStatement</code> that retrieve all
+	 * expressions at a specific time from the dbms. It is a single statement
+	 * without a semicolon, so the driver can read it through a cursor.
 	 */
-	private final PreparedStatement getParentsPs;
+	private static final String GET_ALL_EXPRESSIONS_TIME = "SELECT id, expression FROM expressions WHERE tsrange(starttime, endtime, '[)') @> ?::timestamp";
 
 	/**
-	 * A <code>PreparedStatement</code> that retrieve an expression's parents at
-	 * the current time from the dbms.
+	 * The number of rows the driver fetches at a time when all expressions
+	 * are read.
 	 */
-	private final PreparedStatement getParentsTimePs;
+	private static final int FETCH_SIZE = 10000;
 
 	/**
-	 * A <code>PreparedStatement</code> that retrieve all expressions from the
-	 * dbms.
+	 * The SQL for a <code>PreparedStatement</code> which checks if an concept
+	 * or expression id exists at the current time in the dbms.
 	 */
-	private final PreparedStatement getAllExpressionsPs;
+	private static final String IS_EXISTING_ID = "SELECT Count(*) >= 1 AS exist FROM conexp WHERE id = ? AND endtime IS NULL;";
 
 	/**
-	 * A <code>PreparedStatement</code> that retrieve all expressions at a
-	 * specific time from the dbms.
+	 * The SQL for a <code>PreparedStatement</code> which checks if an concept
+	 * or expression id exists at a specific time in the dbms.
 	 */
-	private final PreparedStatement getAllExpressionsTimePs;
+	private static final String IS_EXISTING_ID_TIME = "SELECT Count(*) >= 1 AS exist FROM conexp WHERE id = ? AND tsrange(starttime, endtime, '[)') @> ?::timestamp;";
 
 	/**
-	 * A <code>PreparedStatement</code> which checks if an concept or expression
-	 * id exists at the current time in the dbms.
+	 * The SQL for a <code>PreparedStatement</code> which checks if an concept
+	 * id exists in the dbms.
 	 */
-	private final PreparedStatement isExistingIdPs;
+	private static final String IS_EXISTING_CONCEPT_ID = "SELECT Count(*) >= 1 AS exist FROM concepts WHERE id = ? AND endtime IS NULL;";
 
 	/**
-	 * A <code>PreparedStatement</code> which checks if an concept or expression
+	 * The SQL for a <code>PreparedStatement</code> which checks if an concept
 	 * id exists at a specific time in the dbms.
 	 */
-	private final PreparedStatement isExistingIdTimePs;
+	private static final String IS_EXISTING_CONCEPT_ID_TIME = "SELECT Count(*) >= 1 AS exist FROM concepts WHERE id = ? AND tsrange(starttime, endtime, '[)') @> ?::timestamp;";
 
 	/**
-	 * A <code>PreparedStatement</code> which checks if an concept id exists in
-	 * the dbms.
+	 * The SQL for a <code>PreparedStatement</code> which checks if an
+	 * expression id exists in the dbms.
 	 */
-	private final PreparedStatement isExistingConceptIdPs;
+	private static final String IS_EXISTING_EXPRESSION_ID = "SELECT Count(*) >= 1 AS exist FROM expressions WHERE id = ? AND endtime IS NULL;";
 
 	/**
-	 * A <code>PreparedStatement</code> which checks if an concept id exists at
-	 * a specific time in the dbms.
+	 * The SQL for a <code>PreparedStatement</code> which checks if an
+	 * expression id exists at a specific time in the dbms.
 	 */
-	private final PreparedStatement isExistingConceptIdTimePs;
+	private static final String IS_EXISTING_EXPRESSION_ID_TIME = "SELECT Count(*) >= 1 AS exist FROM expressions WHERE id = ? AND tsrange(starttime, endtime, '[)') @> ?::timestamp;";
 
 	/**
-	 * A <code>PreparedStatement</code> which checks if an expression id exists
-	 * in the dbms.
+	 * The SQL for a <code>PreparedStatement</code> which checks if an concept
+	 * or expression subsumes but is not equivalent to another concept or
+	 * expression at the current time.
 	 */
-	private final PreparedStatement isExistingExpressionIdPs;
+	private static final String IS_SUBSUMING_NOT_EQUIVALENT = "SELECT Count(*) >= 1 AS exist "
+			+ "FROM conexp AS source JOIN transitiveclosure ON source.equivalentid = transitiveclosure.sourceid "
+			+ "JOIN conexp AS destination ON transitiveclosure.destinationid = destination.equivalentid "
+			+ "WHERE destination.id = ? AND source.id = ? AND "
+			+ "source.endtime IS NULL AND transitiveclosure.endtime IS NULL AND destination.endtime IS NULL;";
 
 	/**
-	 * A <code>PreparedStatement</code> which checks if an expression id exists
-	 * at a specific time in the dbms.
+	 * The SQL for a <code>PreparedStatement</code> which checks if an concept
+	 * or expression subsumes but is not equivalent to another concept or
+	 * expression at a specific time.
 	 */
-	private final PreparedStatement isExistingExpressionIdTimePs;
+	private static final String IS_SUBSUMING_NOT_EQUIVALENT_TIME = "SELECT Count(*) >= 1 AS exist "
+			+ "FROM conexp AS source JOIN transitiveclosure ON source.equivalentid = transitiveclosure.sourceid "
+			+ "JOIN conexp AS destination ON transitiveclosure.destinationid = destination.equivalentid "
+			+ "WHERE destination.id = ? AND source.id = ? AND "
+			+ "tsrange(source.starttime, source.endtime, '[)') @> ?::timestamp AND "
+			+ "tsrange(transitiveclosure.starttime, transitiveclosure.endtime, '[)') @> ?::timestamp AND "
+			+ "tsrange(destination.starttime, destination.endtime, '[)') @> ?::timestamp;";
 
 	/**
-	 * A <code>PreparedStatement</code> which checks if an concept or expression
-	 * subsumes but is not equivalent to another concept or expression at the
+	 * The SQL for a <code>PreparedStatement</code> which checks if an concept
+	 * or expression is equivalent to another concept or expression at the
 	 * current time.
 	 */
-	private final PreparedStatement isSubsumingNotEquivalentPs;
+	private static final String IS_EQUIVALENT = "SELECT Count(*) >= 1 AS exist "
+			+ "FROM conexp AS source JOIN conexp AS destination ON source.equivalentid = destination.equivalentid "
+			+ "WHERE destination.id = ? AND source.id = ? AND "
+			+ "source.endtime IS NULL AND destination.endtime IS NULL;";
 
 	/**
-	 * A <code>PreparedStatement</code> which checks if an concept or expression
-	 * subsumes but is not equivalent to another concept or expression at a
+	 * The SQL for a <code>PreparedStatement</code> which checks if an concept
+	 * or expression is equivalent to another concept or expression at a
 	 * specific time.
 	 */
-	private final PreparedStatement isSubsumingNotEquivalentTimePs;
+	private static final String IS_EQUIVALENT_TIME = "SELECT Count(*) >= 1 AS exist "
+			+ "FROM conexp AS source JOIN conexp AS destination ON source.equivalentid = destination.equivalentid "
+			+ "WHERE destination.id = ? AND source.id = ? AND "
+			+ "tsrange(source.starttime, source.endtime, '[)') @> ?::timestamp AND "
+			+ "tsrange(destination.starttime, destination.endtime, '[)') @> ?::timestamp;";
+
+	/**
+	 * The SQL for a <code>PreparedStatement</code> which checks if an concept
+	 * or expression subsumes another concept or expression at the current time.
+	 */
+	@SuppressWarnings("unused")
+	private static final String IS_SUBSUMING = "SELECT Count(*) >= 1 AS exist "
+			+ "FROM conexp AS source, transitiveclosure , conexp AS destination "
+			+ "WHERE ((source.equivalentid = transitiveclosure.sourceid AND transitiveclosure.destinationid = destination.equivalentid) OR "
+			+ "source.equivalentid = destination.equivalentid) AND "
+			+ "destination.id = ? AND source.id = ? AND "
+			+ "source.endtime IS NULL AND transitiveclosure.endtime IS NULL AND destination.endtime IS NULL;";
 
 	/**
-	 * A <code>PreparedStatement</code> which checks if an concept or expression
-	 * is equivalent to another concept or expression at the current time.
+	 * The SQL for a <code>PreparedStatement</code> which checks if an concept
+	 * or expression subsumes another concept or expression at a specific time.
 	 */
-	private final PreparedStatement isEquivalentPs;
+	@SuppressWarnings("unused")
+	private static final String IS_SUBSUMING_TIME = "SELECT Count(*) >= 1 AS exist "
+			+ "FROM conexp AS source, transitiveclosure , conexp AS destination "
+			+ "WHERE ((source.equivalentid = transitiveclosure.sourceid AND transitiveclosure.destinationid = destination.equivalentid) OR "
+			+ "source.equivalentid = destination.equivalentid) AND "
+			+ "destination.id = ? AND source.id = ? AND "
+			+ "tsrange(source.starttime, source.endtime, '[)') @> ?::timestamp AND "
+			+ "tsrange(transitiveclosure.starttime, transitiveclosure.endtime, '[)') @> ?::timestamp AND "
+			+ "tsrange(destination.starttime, destination.endtime, '[)') @> ?::timestamp;";
 
 	/**
-	 * A <code>PreparedStatement</code> which checks if an concept or expression
-	 * is equivalent to another concept or expression at a specific time.
+	 * The SQL for a <code>PreparedStatement</code> that check if an
+	 * expression's equivalent concept or expression id is set in the dbms.
 	 */
-	private final PreparedStatement isEquivalentTimePs;
+	private static final String IS_EQUIVALENT_ID_SET = "SELECT id <> equivalentid AS set FROM expressions WHERE id = ?;";
 
 	/**
-	 * A <code>PreparedStatement</code> which checks if an concept or expression
-	 * subsumes another concept or expression at the current time.
+	 * The SQL for a <code>PreparedStatement</code> that check if an expression
+	 * has any relatives set in the dbms.
 	 */
-	@SuppressWarnings("unused")
-	private final PreparedStatement isSubsumingPs;
+	private static final String IS_RELATIVE_SET = "SELECT source.set OR destination.set "
+			+ "FROM (SELECT Count(*) > 0 AS set FROM transitiveclosure "
+			+ "WHERE sourceid IN (SELECT equivalentid FROM conexp WHERE id = ?)) AS source, "
+			+ "(SELECT Count(*) > 0 AS set FROM transitiveclosure "
+			+ "WHERE destinationid IN (SELECT equivalentid FROM conexp WHERE id = ?)) AS destination;";
 
 	/**
-	 * A <code>PreparedStatement</code> which checks if an concept or expression
-	 * subsumes another concept or expression at a specific time.
+	 * The SQL for a <code>PreparedStatement</code> that replace the closure
+	 * arrays of an expression and of its descendants with arrays read from
+	 * the current transitive closure, after the expression's parents and
+	 * children have been stored.
 	 */
-	@SuppressWarnings("unused")
-	private final PreparedStatement isSubsumingTimePs;
+	private static final String SET_CLOSURE_ARRAYS = "WITH "
+			+ "affected AS (SELECT ?::bigint AS id UNION SELECT sourceid FROM transitiveclosure "
+			+ "WHERE destinationid = ? AND endtime IS NULL), "
+			+ "retired AS (UPDATE closurearrays SET endtime = now() "
+			+ "WHERE nodeid IN (SELECT id FROM affected) AND endtime IS NULL) "
+			+ "INSERT INTO closurearrays (nodeid, starttime, ancestors, parents) "
+			+ "SELECT sourceid, now(), array_agg(destinationid ORDER BY destinationid), "
+			+ "Coalesce(array_agg(destinationid ORDER BY destinationid) FILTER (WHERE directrelation), '{}') "
+			+ "FROM transitiveclosure WHERE sourceid IN (SELECT id FROM affected) AND endtime IS NULL "
+			+ "GROUP BY sourceid;";
+
+	/**
+	 * The SQL for a <code>PreparedStatement</code> that retrieve an
+	 * expression's descendants at the current time as one array from the
+	 * closure arrays in the dbms.
+	 */
+	private static final String GET_DESCENDANTS_ARRAY = "WITH "
+			+ "base AS (SELECT base.equivalentid FROM conexp AS base WHERE base.id = ? AND base.endtime IS NULL) "
+			+ "SELECT ARRAY(SELECT result.id FROM base, closurearrays "
+			+ "JOIN conexp AS result ON closurearrays.nodeid = result.equivalentid "
+			+ "WHERE closurearrays.ancestors @> ARRAY[base.equivalentid] AND "
+			+ "closurearrays.endtime IS NULL AND result.endtime IS NULL);";
+
+	/**
+	 * The SQL for a <code>PreparedStatement</code> that retrieve an
+	 * expression's descendants at a specific time as one array from the
+	 * closure arrays in the dbms.
+	 */
+	private static final String GET_DESCENDANTS_ARRAY_TIME = "WITH "
+			+ "base AS (SELECT base.equivalentid FROM conexp AS base WHERE base.id = ? AND "
+			+ "tsrange(base.starttime, base.endtime, '[)') @> ?::timestamp) "
+			+ "SELECT ARRAY(SELECT result.id FROM base, closurearrays "
+			+ "JOIN conexp AS result ON closurearrays.nodeid = result.equivalentid "
+			+ "WHERE closurearrays.ancestors @> ARRAY[base.equivalentid] AND "
+			+ "tsrange(closurearrays.starttime, closurearrays.endtime, '[)') @> ?::timestamp AND "
+			+ "tsrange(result.starttime, result.endtime, '[)') @> ?::timestamp);";
+
+	/**
+	 * The SQL for a <code>PreparedStatement</code> that retrieve an
+	 * expression's children at the current time as one array from the
+	 * closure arrays in the dbms.
+	 */
+	private static final String GET_CHILDREN_ARRAY = "WITH "
+			+ "base AS (SELECT base.equivalentid FROM conexp AS base WHERE base.id = ? AND base.endtime IS NULL) "
+			+ "SELECT ARRAY(SELECT result.id FROM base, closurearrays "
+			+ "JOIN conexp AS result ON closurearrays.nodeid = result.equivalentid "
+			+ "WHERE closurearrays.parents @> ARRAY[base.equivalentid] AND "
+			+ "closurearrays.endtime IS NULL AND result.endtime IS NULL);";
+
+	/**
+	 * The SQL for a <code>PreparedStatement</code> that retrieve an
+	 * expression's children at a specific time as one array from the closure
+	 * arrays in the dbms.
+	 */
+	private static final String GET_CHILDREN_ARRAY_TIME = "WITH "
+			+ "base AS (SELECT base.equivalentid FROM conexp AS base WHERE base.id = ? AND "
+			+ "tsrange(base.starttime, base.endtime, '[)') @> ?::timestamp) "
+			+ "SELECT ARRAY(SELECT result.id FROM base, closurearrays "
+			+ "JOIN conexp AS result ON closurearrays.nodeid = result.equivalentid "
+			+ "WHERE closurearrays.parents @> ARRAY[base.equivalentid] AND "
+			+ "tsrange(closurearrays.starttime, closurearrays.endtime, '[)') @> ?::timestamp AND "
+			+ "tsrange(result.starttime, result.endtime, '[)') @> ?::timestamp);";
+
+	/**
+	 * The SQL for a <code>PreparedStatement</code> that retrieve an
+	 * expression's ancestors at the current time as one array from the
+	 * expression's row of closure arrays in the dbms.
+	 */
+	private static final String GET_ANCESTORS_ARRAY = "WITH "
+			+ "node AS (SELECT closurearrays.ancestors FROM conexp AS base "
+			+ "JOIN closurearrays ON base.equivalentid = closurearrays.nodeid "
+			+ "WHERE base.id = ? AND base.endtime IS NULL AND closurearrays.endtime IS NULL) "
+			+ "SELECT ARRAY(SELECT result.id FROM node, conexp AS result "
+			+ "WHERE result.equivalentid = ANY (node.ancestors) AND result.endtime IS NULL);";
 
-	// ----------
+	/**
+	 * The SQL for a <code>PreparedStatement</code> that retrieve an
+	 * expression's ancestors at a specific time as one array from the
+	 * expression's row of closure arrays in the dbms.
+	 */
+	private static final String GET_ANCESTORS_ARRAY_TIME = "WITH "
+			+ "node AS (SELECT closurearrays.ancestors FROM conexp AS base "
+			+ "JOIN closurearrays ON base.equivalentid = closurearrays.nodeid "
+			+ "WHERE base.id = ? AND "
+			+ "tsrange(base.starttime, base.endtime, '[)') @> ?::timestamp AND "
+			+ "tsrange(closurearrays.starttime, closurearrays.endtime, '[)') @> ?::timestamp) "
+			+ "SELECT ARRAY(SELECT result.id FROM node, conexp AS result "
+			+ "WHERE result.equivalentid = ANY (node.ancestors) AND "
+			+ "tsrange(result.starttime, result.endtime, '[)') @> ?::timestamp);";
 
 	/**
-	 * A <code>PreparedStatement</code> that check if an expression's equivalent
-	 * concept or expression id is set in the dbms.
+	 * The SQL for a <code>PreparedStatement</code> that retrieve an
+	 * expression's parents at the current time as one array from the
+	 * expression's row of closure arrays in the dbms.
 	 */
-	private final PreparedStatement iSEquivalentIdSetPs;
+	private static final String GET_PARENTS_ARRAY = "WITH "
+			+ "node AS (SELECT closurearrays.parents FROM conexp AS base "
+			+ "JOIN closurearrays ON base.equivalentid = closurearrays.nodeid "
+			+ "WHERE base.id = ? AND base.endtime IS NULL AND closurearrays.endtime IS NULL) "
+			+ "SELECT ARRAY(SELECT result.id FROM node, conexp AS result "
+			+ "WHERE result.equivalentid = ANY (node.parents) AND result.endtime IS NULL);";
 
 	/**
-	 * A <code>PreparedStatement</code> that check if an expression has any
-	 * relatives set in the dbms.
+	 * The SQL for a <code>PreparedStatement</code> that retrieve an
+	 * expression's parents at a specific time as one array from the
+	 * expression's row of closure arrays in the dbms.
 	 */
-	private final PreparedStatement isRelativeSetPs;
+	private static final String GET_PARENTS_ARRAY_TIME = "WITH "
+			+ "node AS (SELECT closurearrays.parents FROM conexp AS base "
+			+ "JOIN closurearrays ON base.equivalentid = closurearrays.nodeid "
+			+ "WHERE base.id = ? AND "
+			+ "tsrange(base.starttime, base.endtime, '[)') @> ?::timestamp AND "
+			+ "tsrange(closurearrays.starttime, closurearrays.endtime, '[)') @> ?::timestamp) "
+			+ "SELECT ARRAY(SELECT result.id FROM node, conexp AS result "
+			+ "WHERE result.equivalentid = ANY (node.parents) AND "
+			+ "tsrange(result.starttime, result.endtime, '[)') @> ?::timestamp);";
+
+	/**
+	 * The SQL for a <code>PreparedStatement</code> which checks if an concept
+	 * or expression subsumes but is not equivalent to another concept or
+	 * expression at the current time, using the other's row of closure
+	 * arrays in the dbms.
+	 */
+	private static final String IS_SUBSUMING_NOT_EQUIVALENT_ARRAY = "SELECT Count(*) >= 1 AS exist "
+			+ "FROM conexp AS source JOIN closurearrays ON source.equivalentid = closurearrays.nodeid "
+			+ "JOIN conexp AS destination ON destination.equivalentid = ANY (closurearrays.ancestors) "
+			+ "WHERE destination.id = ? AND source.id = ? AND "
+			+ "source.endtime IS NULL AND closurearrays.endtime IS NULL AND destination.endtime IS NULL;";
+
+	/**
+	 * The SQL for a <code>PreparedStatement</code> which checks if an concept
+	 * or expression subsumes but is not equivalent to another concept or
+	 * expression at a specific time, using the other's row of closure arrays
+	 * in the dbms.
+	 */
+	private static final String IS_SUBSUMING_NOT_EQUIVALENT_ARRAY_TIME = "SELECT Count(*) >= 1 AS exist "
+			+ "FROM conexp AS source JOIN closurearrays ON source.equivalentid = closurearrays.nodeid "
+			+ "JOIN conexp AS destination ON destination.equivalentid = ANY (closurearrays.ancestors) "
+			+ "WHERE destination.id = ? AND source.id = ? AND "
+			+ "tsrange(source.starttime, source.endtime, '[)') @> ?::timestamp AND "
+			+ "tsrange(closurearrays.starttime, closurearrays.endtime, '[)') @> ?::timestamp AND "
+			+ "tsrange(destination.starttime, destination.endtime, '[)') @> ?::timestamp;";
 
 	/**
 	 * Creates a data store API and set up a connection to the PostgreSQL
@@ -324,220 +599,147 @@ public class DataStore implements
 	 */
 	public DataStore(final String url, final String userName,
 			final String password) throws DataStoreException {
+		this(url, userName, password, 1);
+	}
+
+	/**
+	 * Creates a data store API and set up a pool of connections to the
+	 * PostgreSQL database management system containing the expression
+	 * database. Each operation checks out its own connection from the pool,
+	 * so the data store can be used from several threads at the same time.
+	 * 
+	 * @param url
+	 *            The URL for the database connections.
+	 * @param userName
+	 *            The user name for the database connections.
+	 * @param password
+	 *            The user password for the database connections.
+	 * @param poolSize
+	 *            The number of connections in the pool.
+	 * @throws DataStoreException
+	 *             Thrown if there is a problem with the dbms or the connection
+	 *             to the dbms.
+	 */
+	public DataStore(final String url, final String userName,
+			final String password, final int poolSize)
+			throws DataStoreException {
+		this(url, userName, password, poolSize, false, null);
+	}
+
+	/**
+	 * Creates a data store API, set up a pool of connections to the
+	 * PostgreSQL database management system containing the expression
+	 * database, and optionally loads an in-memory reachability index of the
+	 * current hierarchy. With the index, subsumption and equivalence tests at
+	 * the current time are answered without a database round trip. The index
+	 * is only correct as long as this data store is the only writer to the
+	 * database.
+	 * 
+	 * @param url
+	 *            The URL for the database connections.
+	 * @param userName
+	 *            The user name for the database connections.
+	 * @param password
+	 *            The user password for the database connections.
+	 * @param poolSize
+	 *            The number of connections in the pool.
+	 * @param reachabilityIndex
+	 *            If the reachability index shall be used or not.
+	 * @param ordinalFile
+	 *            The file that keeps the reachability index's ordinals the
+	 *            same between restarts, or <code>null</code> if the ordinals
+	 *            are only kept in memory.
+	 * @throws DataStoreException
+	 *             Thrown if there is a problem with the dbms or the connection
+	 *             to the dbms.
+	 */
+	public DataStore(final String url, final String userName,
+			final String password, final int poolSize,
+			final boolean reachabilityIndex, final File ordinalFile)
+			throws DataStoreException {
+		this(url, userName, password, poolSize, reachabilityIndex,
+				ordinalFile, false);
+	}
+
+	/**
+	 * Creates a data store API, set up a pool of connections to the
+	 * PostgreSQL database management system containing the expression
+	 * database, optionally loads an in-memory reachability index of the
+	 * current hierarchy, and optionally looks up the hierarchy in the closure
+	 * arrays. With the closure arrays an expression's ancestors and parents
+	 * are read from one row, and its descendants and children from the rows
+	 * whose arrays contain it, instead of from one row per relationship in
+	 * the transitive closure. The <code>closurearrays</code> table must have
+	 * been created by <code>add_closure_arrays.sql</code>.
+	 * 
+	 * @param url
+	 *            The URL for the database connections.
+	 * @param userName
+	 *            The user name for the database connections.
+	 * @param password
+	 *            The user password for the database connections.
+	 * @param poolSize
+	 *            The number of connections in the pool.
+	 * @param reachabilityIndex
+	 *            If the reachability index shall be used or not.
+	 * @param ordinalFile
+	 *            The file that keeps the reachability index's ordinals the
+	 *            same between restarts, or <code>null</code> if the ordinals
+	 *            are only kept in memory.
+	 * @param closureArrays
+	 *            If the closure arrays shall be kept up to date and used or
+	 *            not.
+	 * @throws DataStoreException
+	 *             Thrown if there is a problem with the dbms or the connection
+	 *             to the dbms.
+	 */
+	public DataStore(final String url, final String userName,
+			final String password, final int poolSize,
+			final boolean reachabilityIndex, final File ordinalFile,
+			final boolean closureArrays) throws DataStoreException {
 		super();
 
-		// Set up the dbms connection.
-		try {
-			Class.forName("org.postgresql.Driver");
-		} catch (ClassNotFoundException e) {
-			throw new DataStoreException(e);
-		}
-		try {
-			con = DriverManager.getConnection(url, userName, password);
-		} catch (SQLException e) {
-			throw new DataStoreException(e);
+		this.closureArrays = closureArrays;
+
+		// Set up the dbms connections. The prepared statements are created
+		// on each connection the first time they are used.
+		pool = new ConnectionPool(url, userName, password, poolSize);
+
+		// Load the reachability index.
+		if (reachabilityIndex) {
+			try {
+				index = (ordinalFile != null ? new ReachabilityIndex(
+						new OrdinalDictionary(ordinalFile))
+						: new ReachabilityIndex());
+			} catch (IOException e) {
+				throw new DataStoreException(e);
+			}
+			loadIndex();
+		} else {
+			index = null;
 		}
+	}
 
-		// Creates the prepared statements.
+	/**
+	 * Load the reachability index from the dbms, if the data store uses one.
+	 * 
+	 * @throws DataStoreException
+	 *             Thrown if there are any problem with the data store.
+	 */
+	protected void loadIndex() throws DataStoreException {
+		if (index == null) {
+			return;
+		}
+		final PooledConnection con = pool.checkOut();
 		try {
-			storeExpressionPs = con
-					.prepareStatement("INSERT INTO expressions (expression, starttime) VALUES (?, now());");
-			storeExpressionTimePs = con
-					.prepareStatement("INSERT INTO expressions (expression, starttime) VALUES (?, ?);");
-			setEquivalentIdToIdPs = con
-					.prepareStatement("UPDATE expressions SET equivalentid = id WHERE expression = ?;");
-			iSEquivalentIdSetPs = con
-					.prepareStatement("SELECT id <> equivalentid AS set FROM expressions WHERE id = ?;");
-			isRelativeSetPs = con
-					.prepareStatement("SELECT source.set OR destination.set "
-							+ "FROM (SELECT Count(*) > 0 AS set FROM transitiveclosure "
-							+ "WHERE sourceid IN (SELECT equivalentid FROM conexp WHERE id = ?)) AS source, "
-							+ "(SELECT Count(*) > 0 AS set FROM transitiveclosure "
-							+ "WHERE destinationid IN (SELECT equivalentid FROM conexp WHERE id = ?)) AS destination;");
-			setEquivalentIdPs = con
-					.prepareStatement("UPDATE expressions SET equivalentid = "
-							+ "(SELECT Max(equivalentid) FROM conexp WHERE endtime IS NULL AND id = ?) "
-							+ "WHERE id = ?;");
-			setParentsTableCreate = con
-					.prepareStatement("CREATE TEMPORARY TABLE parents "
-							+ "(id bigint NOT NULL, CONSTRAINT \"PK_parents\" PRIMARY KEY (id)) "
-							+ "ON COMMIT DROP;");
-			setChildrenTableCreate = con
-					.prepareStatement("CREATE TEMPORARY TABLE children "
-							+ "(id bigint NOT NULL, CONSTRAINT \"PK_children\" PRIMARY KEY (id)) "
-							+ "ON COMMIT DROP;");
-			setParentsTableInsert = con
-					.prepareStatement("INSERT INTO parents "
-							+ "(SELECT equivalentid "
-							+ "FROM conexp "
-							+ "WHERE id = ? AND endtime IS NULL AND id NOT IN (SELECT id FROM parents));");
-			setChildrenTableInsert = con
-					.prepareStatement("INSERT INTO children "
-							+ "(SELECT equivalentid "
-							+ "FROM conexp "
-							+ "WHERE id = ? AND endtime IS NULL AND id NOT IN (SELECT id FROM children));");
-			setParentsTableAnalyze = con.prepareStatement("ANALYZE parents;");
-			setChildrenTableAnalyze = con.prepareStatement("ANALYZE children;");
-			setParentsTransitiveclosureParentsInsert = con
-					.prepareStatement("INSERT INTO transitiveclosure "
-							+ "(sourceid, destinationid, starttime, endtime, directrelation) "
-							+ "(SELECT ?, id, now(), null, true FROM parents);");
-			setChildrenTransitiveclosureChildrenInsert = con
-					.prepareStatement("INSERT INTO transitiveclosure "
-							+ "(sourceid, destinationid, starttime, endtime, directrelation) "
-							+ "(SELECT id, ?, now(), null, true FROM children);");
-			setParentsTransitiveclosureAncestorsInsert = con
-					.prepareStatement("INSERT INTO transitiveclosure "
-							+ "(sourceid, destinationid, starttime, endtime, directrelation) "
-							+ "(SELECT ?, destinationid, now(), null, false "
-							+ "FROM transitiveclosure "
-							+ "WHERE sourceid IN (SELECT id FROM parents) AND endtime IS NULL);");
-			setChildrenTransitiveclosureDescendantsInsert = con
-					.prepareStatement("INSERT INTO transitiveclosure "
-							+ "(sourceid, destinationid, starttime, endtime, directrelation) "
-							+ "(SELECT sourceid, ?, now(), null, false "
-							+ "FROM transitiveclosure "
-							+ "WHERE destinationid IN (SELECT id FROM children) AND endtime IS NULL);");
-			convertDirectToIndirectRelationshipCreatePs = con
-					.prepareStatement("INSERT INTO transitiveclosure (sourceid, destinationid, starttime, endtime, directrelation) "
-							+ "(SELECT sourceid, destinationid, now(), NULL, false "
-							+ "FROM transitiveclosure "
-							+ "WHERE sourceid IN (SELECT id FROM children) AND destinationid IN (SELECT id FROM parents) AND "
-							+ "endtime IS NULL AND directrelation = true);");
-			convertDirectToIndirectRelationshipRetirePs = con
-					.prepareStatement("UPDATE transitiveclosure SET endtime = now() "
-							+ "WHERE sourceid IN (SELECT id FROM children) AND destinationid IN (SELECT id FROM parents) AND "
-							+ "endtime IS NULL AND directrelation = true;");
-			getExpressionIdPs = con
-					.prepareStatement("SELECT id FROM expressions WHERE expression = ?;");
-			getExpressionIdTimePs = con
-					.prepareStatement("SELECT id FROM expressions WHERE expression = ? "
-							+ "AND starttime <= ? AND (? < endtime OR endtime IS NULL);");
-			getExpressionPs = con
-					.prepareStatement("SELECT expression FROM expressions WHERE id = ?;");
-			getExpressionTimePs = con
-					.prepareStatement("SELECT expression FROM expressions WHERE id = ? "
-							+ "AND starttime <= ? AND (? < endtime OR endtime IS NULL);");
-			getDescendantsPs = con
-					.prepareStatement("SELECT result.id "
-							+ "FROM conexp AS base JOIN transitiveclosure ON base.equivalentid = transitiveclosure.destinationid "
-							+ "JOIN conexp AS result ON transitiveclosure.sourceid= result.equivalentid "
-							+ "WHERE base.endtime IS NULL AND transitiveclosure.endtime IS NULL AND result.endtime IS NULL AND "
-							+ "base.id = ?;");
-			getDescendantsTimePs = con
-					.prepareStatement("SELECT result.id "
-							+ "FROM conexp AS base JOIN transitiveclosure ON base.equivalentid = transitiveclosure.destinationid "
-							+ "JOIN conexp AS result ON transitiveclosure.sourceid = result.equivalentid "
-							+ "WHERE base.id = ? AND "
-							+ "base.starttime <= ? AND (? < base.endtime OR base.endtime IS NULL) AND "
-							+ "transitiveclosure.starttime <= ? AND (? < transitiveclosure.endtime OR transitiveclosure.endtime IS NULL) AND "
-							+ "result.starttime <= ? AND (? < result.endtime OR result.endtime IS NULL);");
-			getChildrenPs = con
-					.prepareStatement("SELECT result.id "
-							+ "FROM conexp AS base JOIN transitiveclosure ON base.equivalentid = transitiveclosure.destinationid "
-							+ "JOIN conexp AS result ON transitiveclosure.sourceid = result.equivalentid "
-							+ "WHERE transitiveclosure.directrelation = true AND "
-							+ "base.endtime IS NULL AND transitiveclosure.endtime IS NULL AND result.endtime IS NULL AND "
-							+ "base.id = ?;");
-			getChildrenTimePs = con
-					.prepareStatement("SELECT result.id "
-							+ "FROM conexp AS base JOIN transitiveclosure ON base.equivalentid = transitiveclosure.destinationid "
-							+ "JOIN conexp AS result ON transitiveclosure.sourceid = result.equivalentid "
-							+ "WHERE transitiveclosure.directrelation = true AND "
-							+ "base.id = ? AND "
-							+ "base.starttime <= ? AND (? < base.endtime OR base.endtime IS NULL) AND "
-							+ "transitiveclosure.starttime <= ? AND (? < transitiveclosure.endtime OR transitiveclosure.endtime IS NULL) AND "
-							+ "result.starttime <= ? AND (? < result.endtime OR result.endtime IS NULL);");
-			getAncestorsPs = con
-					.prepareStatement("SELECT result.id "
-							+ "FROM conexp AS base JOIN transitiveclosure ON base.equivalentid = transitiveclosure.sourceid "
-							+ "JOIN conexp AS result ON transitiveclosure.destinationid = result.equivalentid "
-							+ "WHERE base.endtime IS NULL AND transitiveclosure.endtime IS NULL AND result.endtime IS NULL AND "
-							+ "base.id = ?;");
-			getAncestorsTimePs = con
-					.prepareStatement("SELECT result.id "
-							+ "FROM conexp AS base JOIN transitiveclosure ON base.equivalentid = transitiveclosure.sourceid "
-							+ "JOIN conexp AS result ON transitiveclosure.destinationid = result.equivalentid "
-							+ "WHERE base.id = ? AND "
-							+ "base.starttime <= ? AND (? < base.endtime OR base.endtime IS NULL) AND "
-							+ "transitiveclosure.starttime <= ? AND (? < transitiveclosure.endtime OR transitiveclosure.endtime IS NULL) AND "
-							+ "result.starttime <= ? AND (? < result.endtime OR result.endtime IS NULL);");
-			getParentsPs = con
-					.prepareStatement("SELECT result.id "
-							+ "FROM conexp AS base JOIN transitiveclosure ON base.equivalentid = transitiveclosure.sourceid "
-							+ "JOIN conexp AS result ON transitiveclosure.destinationid = result.equivalentid "
-							+ "WHERE transitiveclosure.directrelation = true AND "
-							+ "base.endtime IS NULL AND transitiveclosure.endtime IS NULL AND result.endtime IS NULL AND "
-							+ "base.id = ?;");
-			getParentsTimePs = con
-					.prepareStatement("SELECT result.id "
-							+ "FROM conexp AS base JOIN transitiveclosure ON base.equivalentid = transitiveclosure.sourceid "
-							+ "JOIN conexp AS result ON transitiveclosure.destinationid = result.equivalentid "
-							+ "WHERE transitiveclosure.directrelation = true AND "
-							+ "base.id = ? AND "
-							+ "base.starttime <= ? AND (? < base.endtime OR base.endtime IS NULL) AND "
-							+ "transitiveclosure.starttime <= ? AND (? < transitiveclosure.endtime OR transitiveclosure.endtime IS NULL) AND "
-							+ "result.starttime <= ? AND (? < result.endtime OR result.endtime IS NULL);");
-			getAllExpressionsPs = con
-					.prepareStatement("SELECT id, expression FROM expressions WHERE endtime IS NULL;");
-			getAllExpressionsTimePs = con
-					.prepareStatement("SELECT id, expression FROM expressions WHERE starttime <= ? AND (? < endtime OR endtime IS NULL);");
-			isExistingConceptIdPs = con
-					.prepareStatement("SELECT Count(*) >= 1 AS exist FROM concepts WHERE id = ? AND endtime IS NULL;");
-			isExistingConceptIdTimePs = con
-					.prepareStatement("SELECT Count(*) >= 1 AS exist FROM concepts WHERE id = ? AND starttime <= ? AND (? < endtime OR endtime IS NULL);");
-			isExistingExpressionIdPs = con
-					.prepareStatement("SELECT Count(*) >= 1 AS exist FROM expressions WHERE id = ? AND endtime IS NULL;");
-			isExistingExpressionIdTimePs = con
-					.prepareStatement("SELECT Count(*) >= 1 AS exist FROM expressions WHERE id = ? AND starttime <= ? AND (? < endtime OR endtime IS NULL);");
-			isExistingIdPs = con
-					.prepareStatement("SELECT Count(*) >= 1 AS exist FROM conexp WHERE id = ? AND endtime IS NULL;");
-			isExistingIdTimePs = con
-					.prepareStatement("SELECT Count(*) >= 1 AS exist FROM conexp WHERE id = ? AND starttime <= ? AND (? < endtime OR endtime IS NULL);");
-			isSubsumingNotEquivalentPs = con
-					.prepareStatement("SELECT Count(*) >= 1 AS exist "
-							+ "FROM conexp AS source JOIN transitiveclosure ON source.equivalentid = transitiveclosure.sourceid "
-							+ "JOIN conexp AS destination ON transitiveclosure.destinationid = destination.equivalentid "
-							+ "WHERE destination.id = ? AND source.id = ? AND "
-							+ "source.endtime IS NULL AND transitiveclosure.endtime IS NULL AND destination.endtime IS NULL;");
-			isSubsumingNotEquivalentTimePs = con
-					.prepareStatement("SELECT Count(*) >= 1 AS exist "
-							+ "FROM conexp AS source JOIN transitiveclosure ON source.equivalentid = transitiveclosure.sourceid "
-							+ "JOIN conexp AS destination ON transitiveclosure.destinationid = destination.equivalentid "
-							+ "WHERE destination.id = ? AND source.id = ? AND "
-							+ "source.starttime <= ? AND (? < source.endtime OR source.endtime IS NULL) AND "
-							+ "transitiveclosure.starttime <= ? AND (? < transitiveclosure.endtime OR transitiveclosure.endtime IS NULL) AND "
-							+ "destination.starttime <= ? AND (? < destination.endtime OR destination.endtime IS NULL);");
-			isEquivalentPs = con
-					.prepareStatement("SELECT Count(*) >= 1 AS exist "
-							+ "FROM conexp AS source JOIN conexp AS destination ON source.equivalentid = destination.equivalentid "
-							+ "WHERE destination.id = ? AND source.id = ? AND "
-							+ "source.endtime IS NULL AND destination.endtime IS NULL;");
-			isEquivalentTimePs = con
-					.prepareStatement("SELECT Count(*) >= 1 AS exist "
-							+ "FROM conexp AS source JOIN conexp AS destination ON source.equivalentid = destination.equivalentid "
-							+ "WHERE destination.id = ? AND source.id = ? AND "
-							+ "source.starttime <= ? AND (? < source.endtime OR source.endtime IS NULL) AND "
-							+ "(? = ? OR True) AND "
-							+ "destination.starttime <= ? AND (? < destination.endtime OR destination.endtime IS NULL);");
-			isSubsumingPs = con
-					.prepareStatement("SELECT Count(*) >= 1 AS exist "
-							+ "FROM conexp AS source, transitiveclosure , conexp AS destination "
-							+ "WHERE ((source.equivalentid = transitiveclosure.sourceid AND transitiveclosure.destinationid = destination.equivalentid) OR "
-							+ "source.equivalentid = destination.equivalentid) AND "
-							+ "destination.id = ? AND source.id = ? AND "
-							+ "source.endtime IS NULL AND transitiveclosure.endtime IS NULL AND destination.endtime IS NULL;");
-			isSubsumingTimePs = con
-					.prepareStatement("SELECT Count(*) >= 1 AS exist "
-							+ "FROM conexp AS source, transitiveclosure , conexp AS destination "
-							+ "WHERE ((source.equivalentid = transitiveclosure.sourceid AND transitiveclosure.destinationid = destination.equivalentid) OR "
-							+ "source.equivalentid = destination.equivalentid) AND "
-							+ "destination.id = ? AND source.id = ? AND "
-							+ "source.starttime <= ? AND (? < source.endtime OR source.endtime IS NULL) AND "
-							+ "transitiveclosure.starttime <= ? AND (? < transitiveclosure.endtime OR transitiveclosure.endtime IS NULL) AND "
-							+ "destination.starttime <= ? AND (? < destination.endtime OR destination.endtime IS NULL);");
+			index.load(con);
+			indexStale = false;
 		} catch (SQLException e) {
 			throw new DataStoreException(e);
+		} catch (IOException e) {
+			throw new DataStoreException(e);
+		} finally {
+			pool.checkIn(con);
 		}
 	}
 
@@ -548,85 +750,144 @@ public class DataStore implements
 	 */
 	@Override
 	public void finalize() throws Throwable {
-		// Close the database connection.
-		con.close();
+		// Close the database connections.
+		pool.close();
 		super.finalize();
 	}
 
 	@Override
 	public ExpressionId storeExpression(final String expression, final Date time)
 			throws DataStoreException, ExpressionAlreadyExistsException {
-		final Timestamp sqlTimestamp = (time != null ? new Timestamp(
-				time.getTime()) : null);
+		final PooledConnection con = pool.checkOut();
 		try {
-			// Check if the expression already exists in the dbms.
-			if (getExpressionId(expression, null) != null) {
-				throw new ExpressionAlreadyExistsException("The expression "
-						+ expression + " already exists in the data store.");
-			}
-			// Store the expression in the dbms and set the equivalent id to the
-			// expression's own id.
+			// Store the expression in one transaction.
 			con.setAutoCommit(false);
-			if (sqlTimestamp == null) {
-				storeExpressionPs.setString(1, expression);
-				storeExpressionPs.executeUpdate();
-			} else {
-				storeExpressionTimePs.setString(1, expression);
-				storeExpressionTimePs.setTimestamp(2, sqlTimestamp);
-				storeExpressionTimePs.executeUpdate();
-			}
-			setEquivalentIdToIdPs.setString(1, expression);
-			setEquivalentIdToIdPs.executeUpdate();
+			final ExpressionId result = storeExpression(con, expression, time);
 			con.commit();
 			con.setAutoCommit(true);
+			updateIndex(Collections.singletonList(result),
+					Collections.<ExpressionRelatives> emptyList());
+			return result;
 		} catch (SQLException e) {
 			throw new DataStoreException(e);
+		} finally {
+			pool.checkIn(con);
 		}
-		// Return the assigned expression id.
-		return getExpressionId(expression, sqlTimestamp);
 	}
 
 	@Override
-	public void storeExpressionEquivalence(ExpressionId id,
-			ExpressionId equivalentExpressionId) throws DataStoreException,
-			NonExistingIdException, RelativeAlreadySetException {
+	public List<ExpressionId> storeExpressions(final List<String> expressions,
+			final Date time) throws DataStoreException,
+			ExpressionAlreadyExistsException {
+		if (expressions.isEmpty()) {
+			return new ArrayList<ExpressionId>();
+		}
+		final PooledConnection con = pool.checkOut();
 		try {
-			// Check if the expression id exists in the dbms.
-			if (!isExistingExpressionId(id, null)) {
-				throw new NonExistingIdException("The expression id "
-						+ id.getId() + " do not exists in the data store.");
-			}
+			// Store the expressions in the dbms and set the equivalent ids to
+			// the expressions' own ids, all in the same transaction.
+			con.setAutoCommit(false);
+			final List<ExpressionId> result = storeExpressions(con,
+					expressions, time);
+			con.commit();
+			con.setAutoCommit(true);
+			updateIndex(result, Collections.<ExpressionRelatives> emptyList());
+			return result;
+		} catch (SQLException e) {
+			throw new DataStoreException(e);
+		} finally {
+			pool.checkIn(con);
+		}
+	}
 
-			// Check if the expression already has got an equivalence expression
-			// id set.
-			if (isEquivalentIdSet(id)) {
-				throw new RelativeAlreadySetException("The expression with id "
-						+ id.getId() + " has already an equivalent id set");
-			}
+	/**
+	 * Store several expressions in the dbms and set their equivalent ids to
+	 * their own ids, in the connection's current transaction.
+	 * 
+	 * @param con
+	 *            The connection to the dbms.
+	 * @param expressions
+	 *            The expressions to store.
+	 * @param time
+	 *            The time the expressions were created. A <code>null</code>
+	 *            value is handled as the current time.
+	 * @return The stored expressions' ids in the same order as the
+	 *         expressions.
+	 * @throws DataStoreException
+	 *             Thrown if there are any problem with the data store.
+	 * @throws ExpressionAlreadyExistsException
+	 *             Thrown if any of the expressions already exists in the data
+	 *             store or occurs more than once in the list.
+	 * @throws SQLException
+	 *             Thrown if there are any problem with the dbms.
+	 */
+	private List<ExpressionId> storeExpressions(final PooledConnection con,
+			final List<String> expressions, final Date time)
+			throws DataStoreException, ExpressionAlreadyExistsException,
+			SQLException {
+		final Timestamp sqlTimestamp = (time != null ? new Timestamp(
+				time.getTime()) : null);
 
-			// Check if the expression already has any parent or child set.
-			if (isRelativeSet(id)) {
-				throw new RelativeAlreadySetException("The expression with id "
-						+ id.getId()
-						+ " has already at least one parent or child set.");
-			}
+		// Check if any of the expressions already exists in the dbms or
+		// occurs more than once in the list.
+		final Map<String, ExpressionId> existing = getExpressionIds(con,
+				expressions, null);
+		if (!existing.isEmpty()) {
+			throw new ExpressionAlreadyExistsException("The expression "
+					+ existing.keySet().iterator().next()
+					+ " already exists in the data store.");
+		}
+		if (new HashSet<String>(expressions).size() != expressions.size()) {
+			throw new ExpressionAlreadyExistsException(
+					"An expression occurs more than once in the list of expressions to store.");
+		}
 
-			// Check if the equivalent expression id exists in the dbms.
-			if (!(isExistingExpressionId(equivalentExpressionId, null) || isExistingConceptId(
-					equivalentExpressionId, null))) {
-				throw new NonExistingIdException(
-						"The equivalent expression id "
-								+ equivalentExpressionId.getId()
-								+ " do not exists in the data store.");
+		final PreparedStatement storeExpressionPs;
+		if (sqlTimestamp == null) {
+			storeExpressionPs = con.prepareStatement(STORE_EXPRESSION);
+		} else {
+			storeExpressionPs = con.prepareStatement(STORE_EXPRESSION_TIME);
+		}
+		final PreparedStatement setEquivalentIdToIdPs = con
+				.prepareStatement(SET_EQUIVALENT_ID_TO_ID);
+		for (String expression : expressions) {
+			final String hash = ExpressionHash.of(expression);
+			storeExpressionPs.setString(1, expression);
+			storeExpressionPs.setString(2, hash);
+			if (sqlTimestamp != null) {
+				storeExpressionPs.setTimestamp(3, sqlTimestamp);
 			}
+			storeExpressionPs.addBatch();
+			setEquivalentIdToIdPs.setString(1, hash);
+			setEquivalentIdToIdPs.setString(2, expression);
+			setEquivalentIdToIdPs.addBatch();
+		}
+		storeExpressionPs.executeBatch();
+		setEquivalentIdToIdPs.executeBatch();
+
+		// Look up the assigned expression ids.
+		final Map<String, ExpressionId> ids = getExpressionIds(con,
+				expressions, sqlTimestamp);
+		final List<ExpressionId> result = new ArrayList<ExpressionId>(
+				expressions.size());
+		for (String expression : expressions) {
+			result.add(ids.get(expression));
+		}
+		return result;
+	}
 
-			// Update the equivalent expression id if the equivalent expression
-			// is a concept.
-			setEquivalentIdPs.setLong(1, equivalentExpressionId.getId());
-			setEquivalentIdPs.setLong(2, id.getId());
-			setEquivalentIdPs.executeUpdate();
-		} catch (SQLException e) {
-			throw new DataStoreException(e);
+	@Override
+	public void storeExpressionEquivalence(ExpressionId id,
+			ExpressionId equivalentExpressionId) throws DataStoreException,
+			NonExistingIdException, RelativeAlreadySetException {
+		final PooledConnection con = pool.checkOut();
+		try {
+			storeExpressionEquivalence(con, id, equivalentExpressionId);
+			updateIndex(Collections.<ExpressionId> emptyList(),
+					Collections.singletonList(new ExpressionRelatives(id,
+							equivalentExpressionId)));
+		} finally {
+			pool.checkIn(con);
 		}
 	}
 
@@ -635,134 +896,194 @@ public class DataStore implements
 			Set<ExpressionId> parents, Set<ExpressionId> children)
 			throws DataStoreException, NonExistingIdException,
 			RelativeAlreadySetException {
+		final PooledConnection con = pool.checkOut();
 		try {
-			// Check if the expression's id exists in the dbms.
-			if (!isExistingExpressionId(id, null)) {
-				throw new NonExistingIdException("The specified id "
-						+ id.getId() + " do not exists in the data store.");
-			}
-
-			// Check if the expression already has got an equivalence expression
-			// id set.
-			if (isEquivalentIdSet(id)) {
-				throw new RelativeAlreadySetException("The expression with id "
-						+ id.getId() + " has already an equivalent id set");
-			}
-
-			// Check if the expression already has any parent or child set.
-			if (isRelativeSet(id)) {
-				throw new RelativeAlreadySetException("The expression with id "
-						+ id.getId()
-						+ " has already at least one parent or child set.");
-			}
+			// Store the parents and children in one transaction.
+			con.setAutoCommit(false);
+			storeExpressionParentsAndChildren(con, id, parents, children);
+			con.commit();
+			con.setAutoCommit(true);
+			updateIndex(Collections.<ExpressionId> emptyList(),
+					Collections.singletonList(new ExpressionRelatives(id,
+							parents, children)));
+		} catch (SQLException e) {
+			throw new DataStoreException(e);
+		} finally {
+			pool.checkIn(con);
+		}
+	}
 
-			// Check if the parents exists in the dbms.
-			for (ExpressionId parentId : parents) {
-				if (!isExistingId(parentId, null)) {
-					throw new NonExistingIdException("The specified parent id "
-							+ parentId.getId()
-							+ " do not exists in the data store.");
-				}
-			}
+	@Override
+	public void storeExpressionRelatives(final List<ExpressionRelatives> relatives)
+			throws DataStoreException, NonExistingIdException,
+			RelativeAlreadySetException {
+		final PooledConnection con = pool.checkOut();
+		try {
+			con.setAutoCommit(false);
+			storeExpressionRelatives(con, relatives);
+			con.commit();
+			con.setAutoCommit(true);
 
-			// Check if the children exists in the dbms.
-			for (ExpressionId childId : children) {
-				if (!isExistingId(childId, null)) {
-					throw new NonExistingIdException("The specified child id "
-							+ childId.getId()
-							+ " do not exists in the data store.");
-				}
-			}
+			// Update the reachability index once everything is committed.
+			updateIndex(Collections.<ExpressionId> emptyList(), relatives);
+		} catch (SQLException e) {
+			throw new DataStoreException(e);
+		} finally {
+			pool.checkIn(con);
+		}
+	}
 
-			// Switch of auto commit so all updates are done in the same
-			// transaction.
+	@Override
+	public List<ExpressionId> storeExpressionsAndRelatives(
+			final List<String> expressions, final Date time,
+			final RelativesHandler handler) throws DataStoreException,
+			ExpressionAlreadyExistsException, NonExistingIdException,
+			RelativeAlreadySetException {
+		if (expressions.isEmpty()) {
+			return new ArrayList<ExpressionId>();
+		}
+		final PooledConnection con = pool.checkOut();
+		try {
+			// Store the expressions and their relatives in one transaction,
+			// which is rolled back when the connection is checked in if
+			// anything fails before the commit.
 			con.setAutoCommit(false);
+			final List<ExpressionId> result = storeExpressions(con,
+					expressions, time);
+			final List<ExpressionRelatives> relatives = handler
+					.getRelatives(result);
+			storeExpressionRelatives(con, relatives);
+			con.commit();
+			con.setAutoCommit(true);
 
-			// Create a temporary table for the parents' id.
-			setParentsTableCreate.executeUpdate();
-
-			// Create a temporary table for the children's id.
-			setChildrenTableCreate.executeUpdate();
+			updateIndex(result, relatives);
+			return result;
+		} catch (SQLException e) {
+			throw new DataStoreException(e);
+		} finally {
+			pool.checkIn(con);
+		}
+	}
 
-			// Insert the parents' id in the temporary table.
-			for (ExpressionId parentId : parents) {
-				setParentsTableInsert.setLong(1, parentId.getId());
-				setParentsTableInsert.executeUpdate();
+	/**
+	 * Store the equivalences or parents and children of several expressions
+	 * in the connection's current transaction. They are stored in list order,
+	 * so the transitive closure of an expression earlier in the list is in
+	 * place when a later expression uses it.
+	 * 
+	 * @param con
+	 *            The connection to the dbms.
+	 * @param relatives
+	 *            The expressions' equivalences or parents and children.
+	 * @throws DataStoreException
+	 *             Thrown if there are any problem with the data store.
+	 * @throws NonExistingIdException
+	 *             Thrown if at least one of the expression ids don't exist in
+	 *             the data store.
+	 * @throws RelativeAlreadySetException
+	 *             Thrown if any of the relatives already is set.
+	 */
+	private void storeExpressionRelatives(final PooledConnection con,
+			final List<ExpressionRelatives> relatives)
+			throws DataStoreException, NonExistingIdException,
+			RelativeAlreadySetException {
+		for (ExpressionRelatives relative : relatives) {
+			if (relative.getEquivalentId() != null) {
+				storeExpressionEquivalence(con, relative.getId(),
+						relative.getEquivalentId());
+			} else {
+				storeExpressionParentsAndChildren(con, relative.getId(),
+						relative.getParents(), relative.getChildren());
 			}
+		}
+	}
 
-			// Insert the children's id in the temporary table.
-			for (ExpressionId childId : children) {
-				setChildrenTableInsert.setLong(1, childId.getId());
-				setChildrenTableInsert.executeUpdate();
+	/**
+	 * Add committed expressions, and then their equivalences or parents and
+	 * children in list order, to the reachability index. The changes are
+	 * already committed, so a failure does not fail the store. The index is
+	 * marked stale instead, and is not used until it is loaded again.
+	 * 
+	 * @param ids
+	 *            The new expressions' ids.
+	 * @param relatives
+	 *            The expressions' equivalences or parents and children.
+	 */
+	private void updateIndex(final List<ExpressionId> ids,
+			final List<ExpressionRelatives> relatives) {
+		if (index == null || indexStale) {
+			return;
+		}
+		try {
+			for (ExpressionId id : ids) {
+				index.addExpression(id);
 			}
+			for (ExpressionRelatives relative : relatives) {
+				if (relative.getEquivalentId() != null) {
+					index.setEquivalent(relative.getId(),
+							relative.getEquivalentId());
+				} else {
+					index.setParentsAndChildren(relative.getId(),
+							relative.getParents(), relative.getChildren());
+				}
+			}
+		} catch (IOException e) {
+			indexFailed(e);
+		} catch (RuntimeException e) {
+			indexFailed(e);
+		}
+	}
 
-			// Analyze the temporary table for the parents' id.
-			setParentsTableAnalyze.executeUpdate();
-
-			// Analyze the temporary table for the parents' id.
-			setChildrenTableAnalyze.executeUpdate();
-
-			// Insert the parents into the transitive closure table.
-			setParentsTransitiveclosureParentsInsert.setLong(1, id.getId());
-			setParentsTransitiveclosureParentsInsert.executeUpdate();
-
-			// Insert the children into the transitive closure table.
-			setChildrenTransitiveclosureChildrenInsert.setLong(1, id.getId());
-			setChildrenTransitiveclosureChildrenInsert.executeUpdate();
-
-			// Inserts the ancestors into the transitive closure table.
-			setParentsTransitiveclosureAncestorsInsert.setLong(1, id.getId());
-			setParentsTransitiveclosureAncestorsInsert.executeUpdate();
-
-			// Inserts the descendants into the transitive closure table.
-			setChildrenTransitiveclosureDescendantsInsert
-					.setLong(1, id.getId());
-			setChildrenTransitiveclosureDescendantsInsert.executeUpdate();
-
-			// Store the current direct relationships as indirect relationships.
-			convertDirectToIndirectRelationshipCreatePs.executeUpdate();
+	/**
+	 * Stop using the reachability index after it failed to be updated.
+	 * 
+	 * @param e
+	 *            The failure.
+	 */
+	private void indexFailed(final Exception e) {
+		indexStale = true;
+		log.error("The reachability index could not be updated, subsumption "
+				+ "and equivalence tests go to the database until the index "
+				+ "is loaded again", e);
+	}
 
-			// Retire the current direct relationships
-			convertDirectToIndirectRelationshipRetirePs.executeUpdate();
+	/**
+	 * Check if a subsumption or equivalence test can be answered by the
+	 * reachability index.
+	 * 
+	 * @param time
+	 *            The time of the test, <code>null</code> for the current
+	 *            time.
+	 * @return <code>true</code> if the index answers the test.
+	 */
+	private boolean useIndex(final Date time) {
+		return time == null && index != null && !indexStale;
+	}
 
-			// Commit all updates
-			con.commit();
-			// // Switch on auto commit.
-			con.setAutoCommit(true);
-		} catch (SQLException e) {
-			throw new DataStoreException(e);
+	@Override
+	public ExpressionId getExpressionId(String expression, Date time)
+			throws DataStoreException {
+		final PooledConnection con = pool.checkOut();
+		try {
+			return getExpressionId(con, expression, time);
+		} finally {
+			pool.checkIn(con);
 		}
 	}
 
 	@Override
-	public ExpressionId getExpressionId(String expression, Date time)
+	public Map<String, ExpressionId> getExpressionIds(
+			Collection<String> expressions, Date time)
 			throws DataStoreException {
-		final Timestamp sqlTimestamp = (time != null ? new Timestamp(
-				time.getTime()) : null);
-		final ExpressionId result;
+		if (expressions.isEmpty()) {
+			return new HashMap<String, ExpressionId>();
+		}
+		final PooledConnection con = pool.checkOut();
 		try {
-			final ResultSet getExpressionIdRs;
-			// Look up expression id when no time is given.
-			if (sqlTimestamp == null) {
-				getExpressionIdPs.setString(1, expression);
-				getExpressionIdRs = getExpressionIdPs.executeQuery();
-			} else {
-				// Look up expression id when a time is given.
-				getExpressionIdTimePs.setString(1, expression);
-				getExpressionIdTimePs.setTimestamp(2, sqlTimestamp);
-				getExpressionIdTimePs.setTimestamp(3, sqlTimestamp);
-				getExpressionIdRs = getExpressionIdTimePs.executeQuery();
-			}
-			// Store the result in the variable.
-			if (getExpressionIdRs.next()) {
-				result = new ExpressionId(getExpressionIdRs.getLong(1));
-			} else {
-				result = null;
-			}
-		} catch (SQLException e) {
-			throw new DataStoreException(e);
+			return getExpressionIds(con, expressions, time);
+		} finally {
+			pool.checkIn(con);
 		}
-		return result;
 	}
 
 	@Override
@@ -771,22 +1092,26 @@ public class DataStore implements
 		final Timestamp sqlTimestamp = (time != null ? new Timestamp(
 				time.getTime()) : null);
 		final String result;
+		final PooledConnection con = pool.checkOut();
 		try {
 			// Check if the expression id exists in the dbms.
-			if (!isExistingExpressionId(id, time)) {
+			if (!isExistingExpressionId(con, id, time)) {
 				throw new NonExistingIdException("The expression id "
 						+ id.getId() + " do not exists in the data store.");
 			}
 			final ResultSet getExpressionRs;
 			// Look up expression when no time is given.
 			if (sqlTimestamp == null) {
+				final PreparedStatement getExpressionPs = con
+						.prepareStatement(GET_EXPRESSION);
 				getExpressionPs.setLong(1, id.getId());
 				getExpressionRs = getExpressionPs.executeQuery();
 			} else {
 				// Look up expression when a time is given.
+				final PreparedStatement getExpressionTimePs = con
+						.prepareStatement(GET_EXPRESSION_TIME);
 				getExpressionTimePs.setLong(1, id.getId());
 				getExpressionTimePs.setTimestamp(2, sqlTimestamp);
-				getExpressionTimePs.setTimestamp(3, sqlTimestamp);
 				getExpressionRs = getExpressionTimePs.executeQuery();
 			}
 			// Store the result in the variable.
@@ -794,67 +1119,116 @@ public class DataStore implements
 			result = getExpressionRs.getString(1);
 		} catch (SQLException e) {
 			throw new DataStoreException(e);
+		} finally {
+			pool.checkIn(con);
 		}
 		return result;
 	}
 
 	@Override
-	public HashSet<ExpressionId> getDescendants(ExpressionId id, Date time)
+	public ExpressionIdSet getDescendants(ExpressionId id, Date time)
 			throws DataStoreException, NonExistingIdException {
-		return getRelative(getDescendantsPs, getDescendantsTimePs, id, time);
+		if (closureArrays) {
+			return getRelative(GET_DESCENDANTS_ARRAY, GET_DESCENDANTS_ARRAY_TIME, id,
+					time);
+		}
+		return getRelative(GET_DESCENDANTS, GET_DESCENDANTS_TIME, id, time);
 	}
 
 	@Override
-	public HashSet<ExpressionId> getChildren(ExpressionId id, Date time)
+	public ExpressionIdSet getChildren(ExpressionId id, Date time)
 			throws DataStoreException, NonExistingIdException {
-		return getRelative(getChildrenPs, getChildrenTimePs, id, time);
+		if (closureArrays) {
+			return getRelative(GET_CHILDREN_ARRAY, GET_CHILDREN_ARRAY_TIME, id,
+					time);
+		}
+		return getRelative(GET_CHILDREN, GET_CHILDREN_TIME, id, time);
 	}
 
 	@Override
-	public HashSet<ExpressionId> getAncestors(ExpressionId id, Date time)
+	public ExpressionIdSet getAncestors(ExpressionId id, Date time)
 			throws DataStoreException, NonExistingIdException {
-		return getRelative(getAncestorsPs, getAncestorsTimePs, id, time);
+		if (closureArrays) {
+			return getRelative(GET_ANCESTORS_ARRAY, GET_ANCESTORS_ARRAY_TIME, id,
+					time);
+		}
+		return getRelative(GET_ANCESTORS, GET_ANCESTORS_TIME, id, time);
 	}
 
 	@Override
-	public HashSet<ExpressionId> getParents(ExpressionId id, Date time)
+	public ExpressionIdSet getParents(ExpressionId id, Date time)
 			throws DataStoreException, NonExistingIdException {
-		return getRelative(getParentsPs, getParentsTimePs, id, time);
+		if (closureArrays) {
+			return getRelative(GET_PARENTS_ARRAY, GET_PARENTS_ARRAY_TIME, id,
+					time);
+		}
+		return getRelative(GET_PARENTS, GET_PARENTS_TIME, id, time);
 	}
 
 	@Override
 	public Set<Expression> getAllExpressions(Date time)
 			throws DataStoreException {
+		final HashSet<Expression> result = new HashSet<Expression>();
+		forEachExpression(time, new ExpressionHandler() {
+			@Override
+			public void handle(Expression expression) {
+				result.add(expression);
+			}
+		});
+		return result;
+	}
+
+	@Override
+	public void forEachExpression(Date time, ExpressionHandler handler)
+			throws DataStoreException {
 		final Timestamp sqlTimestamp = (time != null ? new Timestamp(
 				time.getTime()) : null);
-		final HashSet<Expression> result = new HashSet<Expression>();
+		final PooledConnection con = pool.checkOut();
 		try {
-			// Look up all expressions.
-			final ResultSet getAllExpressionsRs;
+			// The driver only reads the rows through a cursor, a fetch size at
+			// a time, inside a transaction. Otherwise it reads all rows
+			// before returning the first.
+			con.setAutoCommit(false);
+			final PreparedStatement getAllExpressionsPs;
 			if (time == null) {
-				getAllExpressionsRs = getAllExpressionsPs.executeQuery();
+				getAllExpressionsPs = con.prepareStatement(GET_ALL_EXPRESSIONS);
 			} else {
-				getAllExpressionsTimePs.setTimestamp(1, sqlTimestamp);
-				getAllExpressionsTimePs.setTimestamp(2, sqlTimestamp);
-				getAllExpressionsRs = getAllExpressionsTimePs.executeQuery();
+				getAllExpressionsPs = con
+						.prepareStatement(GET_ALL_EXPRESSIONS_TIME);
+				getAllExpressionsPs.setTimestamp(1, sqlTimestamp);
 			}
+			getAllExpressionsPs.setFetchSize(FETCH_SIZE);
+			final ResultSet getAllExpressionsRs = getAllExpressionsPs
+					.executeQuery();
 
-			// Store the expression in the linked list.
+			// Hand each expression to the handler as it is read.
 			while (getAllExpressionsRs.next()) {
-				result.add(new Expression(new ExpressionId(getAllExpressionsRs
-						.getLong(1)), getAllExpressionsRs.getString(2)));
+				handler.handle(new Expression(new ExpressionId(
+						getAllExpressionsRs.getLong(1)), getAllExpressionsRs
+						.getString(2)));
 			}
+			getAllExpressionsRs.close();
+			con.commit();
+			con.setAutoCommit(true);
 		} catch (SQLException e) {
 			throw new DataStoreException(e);
+		} finally {
+			pool.checkIn(con);
 		}
-		return result;
 	}
 
 	@Override
 	public boolean isSubsumingNotEquivalent(ExpressionId id1, ExpressionId id2,
 			Date time) throws DataStoreException {
-		return isSE(id1, id2, time, isSubsumingNotEquivalentPs,
-				isSubsumingNotEquivalentTimePs);
+		if (useIndex(time)) {
+			return index.isSubsumingNotEquivalent(id1, id2);
+		}
+		if (closureArrays) {
+			return isSE(id1, id2, time, IS_SUBSUMING_NOT_EQUIVALENT_ARRAY,
+					IS_SUBSUMING_NOT_EQUIVALENT_ARRAY_TIME, 3);
+		}
+		return isSE(id1, id2, time, IS_SUBSUMING_NOT_EQUIVALENT,
+				IS_SUBSUMING_NOT_EQUIVALENT_TIME, 3);
 	}
 
 	/*
@@ -869,7 +1243,10 @@ public class DataStore implements
 	@Override
 	public boolean isEquivalent(ExpressionId id1, ExpressionId id2, Date time)
 			throws DataStoreException {
-		return isSE(id1, id2, time, isEquivalentPs, isEquivalentTimePs);
+		if (useIndex(time)) {
+			return index.isEquivalent(id1, id2);
+		}
+		return isSE(id1, id2, time, IS_EQUIVALENT, IS_EQUIVALENT_TIME, 2);
 	}
 
 	/*
@@ -885,7 +1262,7 @@ public class DataStore implements
 	public boolean isSubsuming(ExpressionId id1, ExpressionId id2, Date time)
 			throws DataStoreException {
 		// Changed to use the two other methods to improve the performance.
-		// return isSE(id1, id2, time, isSubsumingPs, isSubsumingTimePs);
+		// return isSE(id1, id2, time, IS_SUBSUMING, IS_SUBSUMING_TIME, 3);
 		return (isSubsumingNotEquivalent(id1, id2, time) || isEquivalent(id1,
 				id2, time));
 	}
@@ -893,7 +1270,401 @@ public class DataStore implements
 	@Override
 	public boolean isExistingId(ExpressionId id, Date time)
 			throws DataStoreException {
-		return isExiId(id, time, isExistingIdPs, isExistingIdTimePs);
+		final PooledConnection con = pool.checkOut();
+		try {
+			return isExistingId(con, id, time);
+		} finally {
+			pool.checkIn(con);
+		}
+	}
+
+	/**
+	 * Store an expression in the data store using a checked out connection.
+	 * The caller is responsible for the transaction.
+	 * 
+	 * @param con
+	 *            The checked out connection.
+	 * @param expression
+	 *            The expression to store.
+	 * @param time
+	 *            The time the expression was created. A <code>null</code> value
+	 *            is handled as the current time.
+	 * @return The stored expression's id.
+	 * @throws DataStoreException
+	 *             Thrown if there are any problem with the data store.
+	 * @throws ExpressionAlreadyExistsException
+	 *             Thrown if the expression already exists in the data store.
+	 */
+	private ExpressionId storeExpression(final PooledConnection con,
+			final String expression, final Date time)
+			throws DataStoreException, ExpressionAlreadyExistsException {
+		final Timestamp sqlTimestamp = (time != null ? new Timestamp(
+				time.getTime()) : null);
+		try {
+			// Check if the expression already exists in the dbms.
+			if (getExpressionId(con, expression, null) != null) {
+				throw new ExpressionAlreadyExistsException("The expression "
+						+ expression + " already exists in the data store.");
+			}
+			// Store the expression in the dbms and set the equivalent id to the
+			// expression's own id.
+			final String hash = ExpressionHash.of(expression);
+			if (sqlTimestamp == null) {
+				final PreparedStatement storeExpressionPs = con
+						.prepareStatement(STORE_EXPRESSION);
+				storeExpressionPs.setString(1, expression);
+				storeExpressionPs.setString(2, hash);
+				storeExpressionPs.executeUpdate();
+			} else {
+				final PreparedStatement storeExpressionTimePs = con
+						.prepareStatement(STORE_EXPRESSION_TIME);
+				storeExpressionTimePs.setString(1, expression);
+				storeExpressionTimePs.setString(2, hash);
+				storeExpressionTimePs.setTimestamp(3, sqlTimestamp);
+				storeExpressionTimePs.executeUpdate();
+			}
+			final PreparedStatement setEquivalentIdToIdPs = con
+					.prepareStatement(SET_EQUIVALENT_ID_TO_ID);
+			setEquivalentIdToIdPs.setString(1, hash);
+			setEquivalentIdToIdPs.setString(2, expression);
+			setEquivalentIdToIdPs.executeUpdate();
+		} catch (SQLException e) {
+			throw new DataStoreException(e);
+		}
+		// Return the assigned expression id.
+		return getExpressionId(con, expression, sqlTimestamp);
+	}
+
+	/**
+	 * Store that an expression is equivalent to an existing expression in the
+	 * data store using a checked out connection.
+	 * 
+	 * @param con
+	 *            The checked out connection.
+	 * @param id
+	 *            The expression's id to store the equivalence for.
+	 * @param equivalentExpressionId
+	 *            The expression's id to the equivalent expression.
+	 * @throws DataStoreException
+	 *             Thrown if there are any problem with the data store.
+	 * @throws NonExistingIdException
+	 *             Thrown if at least one of the expression ids don't exist in
+	 *             the data store.
+	 * @throws RelativeAlreadySetException
+	 *             Thrown if the equivalence already is set or any parent or
+	 *             children already has been added to the expression in the data
+	 *             store.
+	 */
+	private void storeExpressionEquivalence(final PooledConnection con,
+			ExpressionId id, ExpressionId equivalentExpressionId)
+			throws DataStoreException, NonExistingIdException,
+			RelativeAlreadySetException {
+		try {
+			// Check if the expression id exists in the dbms.
+			if (!isExistingExpressionId(con, id, null)) {
+				throw new NonExistingIdException("The expression id "
+						+ id.getId() + " do not exists in the data store.");
+			}
+
+			// Check if the expression already has got an equivalence expression
+			// id set.
+			if (isEquivalentIdSet(con, id)) {
+				throw new RelativeAlreadySetException("The expression with id "
+						+ id.getId() + " has already an equivalent id set");
+			}
+
+			// Check if the expression already has any parent or child set.
+			if (isRelativeSet(con, id)) {
+				throw new RelativeAlreadySetException("The expression with id "
+						+ id.getId()
+						+ " has already at least one parent or child set.");
+			}
+
+			// Check if the equivalent expression id exists in the dbms.
+			if (!(isExistingExpressionId(con, equivalentExpressionId, null) || isExistingConceptId(
+					con, equivalentExpressionId, null))) {
+				throw new NonExistingIdException(
+						"The equivalent expression id "
+								+ equivalentExpressionId.getId()
+								+ " do not exists in the data store.");
+			}
+
+			// Update the equivalent expression id if the equivalent expression
+			// is a concept.
+			final PreparedStatement setEquivalentIdPs = con
+					.prepareStatement(SET_EQUIVALENT_ID);
+			setEquivalentIdPs.setLong(1, equivalentExpressionId.getId());
+			setEquivalentIdPs.setLong(2, id.getId());
+			setEquivalentIdPs.executeUpdate();
+		} catch (SQLException e) {
+			throw new DataStoreException(e);
+		}
+	}
+
+	/**
+	 * Store an expression's parents and children in the data store using a
+	 * checked out connection. The caller is responsible for the transaction.
+	 * The expression and its relatives are checked with one query and the
+	 * transitive closure is updated with one statement, however many parents
+	 * and children there are.
+	 * 
+	 * @param con
+	 *            The checked out connection.
+	 * @param id
+	 *            The expression's id to store the parents and children for.
+	 * @param parents
+	 *            The expression's parents.
+	 * @param children
+	 *            The expression's children.
+	 * @throws DataStoreException
+	 *             Thrown if there are any problem with the data store.
+	 * @throws NonExistingIdException
+	 *             Thrown if at least one of the expression ids don't exist in
+	 *             the data store.
+	 * @throws RelativeAlreadySetException
+	 *             Thrown if the equivalence already is set or any parent or
+	 *             children already has been added to the expression in the data
+	 *             store.
+	 */
+	private void storeExpressionParentsAndChildren(final PooledConnection con,
+			ExpressionId id, Set<ExpressionId> parents,
+			Set<ExpressionId> children) throws DataStoreException,
+			NonExistingIdException, RelativeAlreadySetException {
+		try {
+			final Array parentArray = toIdArray(con, parents);
+			final Array childArray = toIdArray(con, children);
+
+			// Check the expression and its relatives in one query.
+			final PreparedStatement checkPs = con
+					.prepareStatement(CHECK_PARENTS_AND_CHILDREN);
+			checkPs.setLong(1, id.getId());
+			checkPs.setLong(2, id.getId());
+			checkPs.setLong(3, id.getId());
+			checkPs.setLong(4, id.getId());
+			checkPs.setArray(5, parentArray);
+			checkPs.setArray(6, childArray);
+			final ResultSet checkRs = checkPs.executeQuery();
+			checkRs.next();
+
+			// Check if the expression's id exists in the dbms.
+			if (!checkRs.getBoolean(1)) {
+				throw new NonExistingIdException("The specified id "
+						+ id.getId() + " do not exists in the data store.");
+			}
+
+			// Check if the expression already has got an equivalence expression
+			// id set.
+			if (checkRs.getBoolean(2)) {
+				throw new RelativeAlreadySetException("The expression with id "
+						+ id.getId() + " has already an equivalent id set");
+			}
+
+			// Check if the expression already has any parent or child set.
+			if (checkRs.getBoolean(3)) {
+				throw new RelativeAlreadySetException("The expression with id "
+						+ id.getId()
+						+ " has already at least one parent or child set.");
+			}
+
+			// Check if the parents exists in the dbms.
+			final Long[] missingParents = (Long[]) checkRs.getArray(4)
+					.getArray();
+			if (missingParents.length > 0) {
+				throw new NonExistingIdException("The specified parent id "
+						+ missingParents[0]
+						+ " do not exists in the data store.");
+			}
+
+			// Check if the children exists in the dbms.
+			final Long[] missingChildren = (Long[]) checkRs.getArray(5)
+					.getArray();
+			if (missingChildren.length > 0) {
+				throw new NonExistingIdException("The specified child id "
+						+ missingChildren[0]
+						+ " do not exists in the data store.");
+			}
+			checkRs.close();
+
+			// Store the parents, children, ancestors and descendants and
+			// convert the current direct relationships between the children
+			// and the parents to indirect relationships.
+			final PreparedStatement setParentsAndChildrenPs = con
+					.prepareStatement(SET_PARENTS_AND_CHILDREN);
+			setParentsAndChildrenPs.setArray(1, parentArray);
+			setParentsAndChildrenPs.setArray(2, childArray);
+			setParentsAndChildrenPs.setLong(3, id.getId());
+			setParentsAndChildrenPs.setLong(4, id.getId());
+			setParentsAndChildrenPs.setLong(5, id.getId());
+			setParentsAndChildrenPs.setLong(6, id.getId());
+			setParentsAndChildrenPs.executeUpdate();
+
+			// Replace the closure arrays of the expression and of the
+			// descendants that got it as a new ancestor.
+			if (closureArrays) {
+				final PreparedStatement setClosureArraysPs = con
+						.prepareStatement(SET_CLOSURE_ARRAYS);
+				setClosureArraysPs.setLong(1, id.getId());
+				setClosureArraysPs.setLong(2, id.getId());
+				setClosureArraysPs.executeUpdate();
+			}
+		} catch (SQLException e) {
+			throw new DataStoreException(e);
+		}
+	}
+
+	/**
+	 * Create an SQL array of ids.
+	 * 
+	 * @param con
+	 *            The checked out connection.
+	 * @param ids
+	 *            The ids.
+	 * @return The SQL array.
+	 * @throws SQLException
+	 *             Thrown if the array can not be created.
+	 */
+	private static Array toIdArray(final PooledConnection con,
+			Collection<ExpressionId> ids) throws SQLException {
+		final Long[] values = new Long[ids.size()];
+		int i = 0;
+		for (ExpressionId id : ids) {
+			values[i++] = id.getId();
+		}
+		return con.getConnection().createArrayOf("int8", values);
+	}
+
+	/**
+	 * Get an expression's id from the data store using a checked out
+	 * connection.
+	 * 
+	 * @param con
+	 *            The checked out connection.
+	 * @param expression
+	 *            The expression to receive the id for.
+	 * @param time
+	 *            The specific time. A <code>null</code> value is handled as the
+	 *            current time.
+	 * @return The expression's id. If the expression do not exist in the data
+	 *         store then <code>null</code> is returned.
+	 * @throws DataStoreException
+	 *             Thrown if there are any problem with the data store.
+	 */
+	private ExpressionId getExpressionId(final PooledConnection con,
+			String expression, Date time) throws DataStoreException {
+		final Timestamp sqlTimestamp = (time != null ? new Timestamp(
+				time.getTime()) : null);
+		final ExpressionId result;
+		try {
+			final ResultSet getExpressionIdRs;
+			// Look up expression id when no time is given.
+			if (sqlTimestamp == null) {
+				final PreparedStatement getExpressionIdPs = con
+						.prepareStatement(GET_EXPRESSION_ID);
+				getExpressionIdPs.setString(1, ExpressionHash.of(expression));
+				getExpressionIdPs.setString(2, expression);
+				getExpressionIdRs = getExpressionIdPs.executeQuery();
+			} else {
+				// Look up expression id when a time is given.
+				final PreparedStatement getExpressionIdTimePs = con
+						.prepareStatement(GET_EXPRESSION_ID_TIME);
+				getExpressionIdTimePs.setString(1,
+						ExpressionHash.of(expression));
+				getExpressionIdTimePs.setString(2, expression);
+				getExpressionIdTimePs.setTimestamp(3, sqlTimestamp);
+				getExpressionIdRs = getExpressionIdTimePs.executeQuery();
+			}
+			// Store the result in the variable.
+			if (getExpressionIdRs.next()) {
+				result = new ExpressionId(getExpressionIdRs.getLong(1));
+			} else {
+				result = null;
+			}
+		} catch (SQLException e) {
+			throw new DataStoreException(e);
+		}
+		return result;
+	}
+
+	/**
+	 * Get several expressions' ids from the data store with one look up using a
+	 * checked out connection.
+	 * 
+	 * @param con
+	 *            The checked out connection.
+	 * @param expressions
+	 *            The expressions to receive the ids for.
+	 * @param time
+	 *            The specific time. A <code>null</code> value is handled as the
+	 *            current time.
+	 * @return The ids of the expressions that exist in the data store, keyed
+	 *         by expression.
+	 * @throws DataStoreException
+	 *             Thrown if there are any problem with the data store.
+	 */
+	private Map<String, ExpressionId> getExpressionIds(
+			final PooledConnection con, Collection<String> expressions,
+			Date time) throws DataStoreException {
+		final Timestamp sqlTimestamp = (time != null ? new Timestamp(
+				time.getTime()) : null);
+		final HashMap<String, ExpressionId> result = new HashMap<String, ExpressionId>();
+		try {
+			final Set<String> requested = new HashSet<String>(expressions);
+			final String[] hashes = new String[requested.size()];
+			int i = 0;
+			for (String expression : requested) {
+				hashes[i++] = ExpressionHash.of(expression);
+			}
+			final Array expressionArray = con.getConnection().createArrayOf(
+					"text", hashes);
+			final ResultSet getExpressionIdsRs;
+			// Look up the expression ids when no time is given.
+			if (sqlTimestamp == null) {
+				final PreparedStatement getExpressionIdsPs = con
+						.prepareStatement(GET_EXPRESSION_IDS);
+				getExpressionIdsPs.setArray(1, expressionArray);
+				getExpressionIdsRs = getExpressionIdsPs.executeQuery();
+			} else {
+				// Look up the expression ids when a time is given.
+				final PreparedStatement getExpressionIdsTimePs = con
+						.prepareStatement(GET_EXPRESSION_IDS_TIME);
+				getExpressionIdsTimePs.setArray(1, expressionArray);
+				getExpressionIdsTimePs.setTimestamp(2, sqlTimestamp);
+				getExpressionIdsRs = getExpressionIdsTimePs.executeQuery();
+			}
+			// Store the result in the map, skipping any expression that only
+			// shares a hash with a requested one.
+			while (getExpressionIdsRs.next()) {
+				final String expression = getExpressionIdsRs.getString(2);
+				if (requested.contains(expression)) {
+					result.put(expression, new ExpressionId(
+							getExpressionIdsRs.getLong(1)));
+				}
+			}
+			getExpressionIdsRs.close();
+		} catch (SQLException e) {
+			throw new DataStoreException(e);
+		}
+		return result;
+	}
+
+	/**
+	 * Check if an id exist as an id for a concept or expression in the data
+	 * store at a specific time using a checked out connection.
+	 * 
+	 * @param con
+	 *            The checked out connection.
+	 * @param id
+	 *            The id to check the existence for.
+	 * @param time
+	 *            The specific time. A <code>null</code> value is handled as the
+	 *            current time.
+	 * @return If the id exists or not in the data store.
+	 * @throws DataStoreException
+	 *             Thrown if there are any problem with the data store.
+	 */
+	private boolean isExistingId(final PooledConnection con, ExpressionId id,
+			Date time) throws DataStoreException {
+		return isExiId(con, id, time, IS_EXISTING_ID, IS_EXISTING_ID_TIME);
 	}
 
 	/**
@@ -907,45 +1678,55 @@ public class DataStore implements
 	 * @param time
 	 *            The specific time. A <code>null</code> value is handled as the
 	 *            current time.
-	 * @param isWithoutTimePs
-	 *            The <code>PreparedStatement</code> to use if no time is given.
-	 * @param isWithTimePs
-	 *            The <code>PreparedStatement</code> to use if a time is given.
+	 * @param isWithoutTimeSql
+	 *            The SQL of the <code>PreparedStatement</code> to use if no
+	 *            time is given.
+	 * @param isWithTimeSql
+	 *            The SQL of the <code>PreparedStatement</code> to use if a time
+	 *            is given.
+	 * @param timeParameters
+	 *            The number of times the time is given to the
+	 *            <code>PreparedStatement</code> to use if a time is given,
+	 *            after the two ids.
 	 * @return if the concept or expression is subsuming and/or is equivalent to
 	 *         another concept or expression.
 	 * @throws DataStoreException
 	 *             Thrown if there are any problem with the data store.
 	 */
 	private boolean isSE(ExpressionId id1, ExpressionId id2, Date time,
-			PreparedStatement isWithoutTimePs, PreparedStatement isWithTimePs)
+			String isWithoutTimeSql, String isWithTimeSql, int timeParameters)
 			throws DataStoreException {
 		final boolean result;
 		final Timestamp sqlTimestamp = (time != null ? new Timestamp(
 				time.getTime()) : null);
 
+		final PooledConnection con = pool.checkOut();
 		try {
 			final ResultSet isRs;
 			// Look up if an id exists when no time is given.
 			if (sqlTimestamp == null) {
+				final PreparedStatement isWithoutTimePs = con
+						.prepareStatement(isWithoutTimeSql);
 				isWithoutTimePs.setLong(1, id1.getId());
 				isWithoutTimePs.setLong(2, id2.getId());
 				isRs = isWithoutTimePs.executeQuery();
 			} else {
 				// Look up if an id exists when a time is given.
+				final PreparedStatement isWithTimePs = con
+						.prepareStatement(isWithTimeSql);
 				isWithTimePs.setLong(1, id1.getId());
 				isWithTimePs.setLong(2, id2.getId());
-				isWithTimePs.setTimestamp(3, sqlTimestamp);
-				isWithTimePs.setTimestamp(4, sqlTimestamp);
-				isWithTimePs.setTimestamp(5, sqlTimestamp);
-				isWithTimePs.setTimestamp(6, sqlTimestamp);
-				isWithTimePs.setTimestamp(7, sqlTimestamp);
-				isWithTimePs.setTimestamp(8, sqlTimestamp);
+				for (int i = 0; i < timeParameters; i++) {
+					isWithTimePs.setTimestamp(3 + i, sqlTimestamp);
+				}
 				isRs = isWithTimePs.executeQuery();
 			}
 			isRs.next();
 			result = isRs.getBoolean("exist");
 		} catch (SQLException e) {
 			throw new DataStoreException(e);
+		} finally {
+			pool.checkIn(con);
 		}
 		return result;
 	}
@@ -953,6 +1734,8 @@ public class DataStore implements
 	/**
 	 * Check if a specified concept id exists in the dbms.
 	 * 
+	 * @param con
+	 *            The checked out connection.
 	 * @param id
 	 *            The specified concept id.
 	 * @param time
@@ -961,15 +1744,17 @@ public class DataStore implements
 	 * @throws DataStoreException
 	 *             Thrown if there are any problem with the data store.
 	 */
-	private boolean isExistingConceptId(final ExpressionId id, Date time)
-			throws DataStoreException {
-		return isExiId(id, time, isExistingConceptIdPs,
-				isExistingConceptIdTimePs);
+	private boolean isExistingConceptId(final PooledConnection con,
+			final ExpressionId id, Date time) throws DataStoreException {
+		return isExiId(con, id, time, IS_EXISTING_CONCEPT_ID,
+				IS_EXISTING_CONCEPT_ID_TIME);
 	}
 
 	/**
 	 * Check if a specified expression id exists in the dbms.
 	 * 
+	 * @param con
+	 *            The checked out connection.
 	 * @param id
 	 *            The specified expression id.
 	 * @param time
@@ -978,15 +1763,17 @@ public class DataStore implements
 	 * @throws DataStoreException
 	 *             Thrown if there are any problem with the data store.
 	 */
-	private boolean isExistingExpressionId(final ExpressionId id, Date time)
-			throws DataStoreException {
-		return isExiId(id, time, isExistingExpressionIdPs,
-				isExistingExpressionIdTimePs);
+	private boolean isExistingExpressionId(final PooledConnection con,
+			final ExpressionId id, Date time) throws DataStoreException {
+		return isExiId(con, id, time, IS_EXISTING_EXPRESSION_ID,
+				IS_EXISTING_EXPRESSION_ID_TIME);
 	}
 
 	/**
 	 * Check if the expression already has got an equivalence expression id set.
 	 * 
+	 * @param con
+	 *            The checked out connection.
 	 * @param id
 	 *            The expression's id to check the existence of a equivalence
 	 *            expression for.
@@ -996,9 +1783,11 @@ public class DataStore implements
 	 * @throws DataStoreException
 	 *             Thrown if there are any problem with the data store.
 	 */
-	private boolean isEquivalentIdSet(ExpressionId id)
-			throws DataStoreException {
+	private boolean isEquivalentIdSet(final PooledConnection con,
+			ExpressionId id) throws DataStoreException {
 		try {
+			final PreparedStatement iSEquivalentIdSetPs = con
+					.prepareStatement(IS_EQUIVALENT_ID_SET);
 			iSEquivalentIdSetPs.setLong(1, id.getId());
 			ResultSet isEquivalentIdSetRs = iSEquivalentIdSetPs.executeQuery();
 			isEquivalentIdSetRs.next();
@@ -1011,6 +1800,8 @@ public class DataStore implements
 	/**
 	 * Check if the expression already has any parent or child set.
 	 * 
+	 * @param con
+	 *            The checked out connection.
 	 * @param id
 	 *            The expression's id to check the existence of any parent or
 	 *            child for.
@@ -1019,8 +1810,11 @@ public class DataStore implements
 	 * @throws DataStoreException
 	 *             Thrown if there are any problem with the data store.
 	 */
-	private boolean isRelativeSet(ExpressionId id) throws DataStoreException {
+	private boolean isRelativeSet(final PooledConnection con, ExpressionId id)
+			throws DataStoreException {
 		try {
+			final PreparedStatement isRelativeSetPs = con
+					.prepareStatement(IS_RELATIVE_SET);
 			isRelativeSetPs.setLong(1, id.getId());
 			isRelativeSetPs.setLong(2, id.getId());
 			ResultSet isRelativeSetRs = isRelativeSetPs.executeQuery();
@@ -1034,11 +1828,15 @@ public class DataStore implements
 	/**
 	 * 
 	 * Look up relatives from the dbms using <code>PreparedStatement</code> .
+	 * With the closure arrays the statements return all relatives as one
+	 * array in one row, and otherwise one row per relative.
 	 * 
-	 * @param getWithoutTimePs
-	 *            The <code>PreparedStatement</code> to use if no time is given.
-	 * @param getWithTimePs
-	 *            The <code>PreparedStatement</code> to use if a time is given.
+	 * @param getWithoutTimeSql
+	 *            The SQL of the <code>PreparedStatement</code> to use if no
+	 *            time is given.
+	 * @param getWithTimeSql
+	 *            The SQL of the <code>PreparedStatement</code> to use if a time
+	 *            is given.
 	 * @param id
 	 *            The expression id to look up the relatives to.
 	 * @param time
@@ -1049,41 +1847,61 @@ public class DataStore implements
 	 * @throws DataStoreException
 	 *             Thrown if there are any problem with the data store.
 	 */
-	private HashSet<ExpressionId> getRelative(
-			PreparedStatement getWithoutTimePs,
-			PreparedStatement getWithTimePs, ExpressionId id, Date time)
+	private ExpressionIdSet getRelative(String getWithoutTimeSql,
+			String getWithTimeSql, ExpressionId id, Date time)
 			throws NonExistingIdException, DataStoreException {
 		final Timestamp sqlTimestamp = (time != null ? new Timestamp(
 				time.getTime()) : null);
-		final HashSet<ExpressionId> result = new HashSet<ExpressionId>();
+		final ExpressionIdSet result;
+		final PooledConnection con = pool.checkOut();
 		try {
 			// Check if the id exists in the dbms.
-			if (!isExistingId(id, time)) {
+			if (!isExistingId(con, id, time)) {
 				throw new NonExistingIdException("The specified id "
 						+ id.getId() + " do not exists in the data store.");
 			}
 			final ResultSet rs;
 			// Look up the relatives if no time is given.
 			if (sqlTimestamp == null) {
+				final PreparedStatement getWithoutTimePs = con
+						.prepareStatement(getWithoutTimeSql);
 				getWithoutTimePs.setLong(1, id.getId());
 				rs = getWithoutTimePs.executeQuery();
 				// Look up the relatives if a time is given.
 			} else {
+				final PreparedStatement getWithTimePs = con
+						.prepareStatement(getWithTimeSql);
 				getWithTimePs.setLong(1, id.getId());
 				getWithTimePs.setTimestamp(2, sqlTimestamp);
 				getWithTimePs.setTimestamp(3, sqlTimestamp);
 				getWithTimePs.setTimestamp(4, sqlTimestamp);
-				getWithTimePs.setTimestamp(5, sqlTimestamp);
-				getWithTimePs.setTimestamp(6, sqlTimestamp);
-				getWithTimePs.setTimestamp(7, sqlTimestamp);
 				rs = getWithTimePs.executeQuery();
 			}
-			// Store the result.
-			while (rs.next()) {
-				result.add(new ExpressionId(rs.getLong(1)));
+			// Store the result as primitive ids.
+			long[] ids = new long[64];
+			int size = 0;
+			if (closureArrays) {
+				// The closure arrays give all ids in one array in one row.
+				rs.next();
+				final Long[] values = (Long[]) rs.getArray(1).getArray();
+				ids = new long[values.length];
+				for (Long value : values) {
+					ids[size++] = value;
+				}
+			} else {
+				while (rs.next()) {
+					if (size == ids.length) {
+						ids = Arrays.copyOf(ids, size * 2);
+					}
+					ids[size++] = rs.getLong(1);
+				}
 			}
+			rs.close();
+			result = new ExpressionIdSet(ids, size);
 		} catch (SQLException e) {
 			throw new DataStoreException(e);
+		} finally {
+			pool.checkIn(con);
 		}
 		return result;
 	}
@@ -1092,22 +1910,26 @@ public class DataStore implements
 	 * Check if an id exist as an id for a concept or expression or both
 	 * depending on the used <code>PreparedStatement</code>.
 	 * 
+	 * @param con
+	 *            The checked out connection.
 	 * @param id
 	 *            The id to check the existence for.
 	 * @param time
 	 *            The specific time. A <code>null</code> value is handled as the
 	 *            current time.
-	 * @param isWithoutTimePs
-	 *            The <code>PreparedStatement</code> to use if no time is given.
-	 * @param isWithTimePs
-	 *            The <code>PreparedStatement</code> to use if a time is given.
+	 * @param isWithoutTimeSql
+	 *            The SQL of the <code>PreparedStatement</code> to use if no
+	 *            time is given.
+	 * @param isWithTimeSql
+	 *            The SQL of the <code>PreparedStatement</code> to use if a time
+	 *            is given.
 	 * 
 	 * @return If the id exist or not.
 	 * @throws DataStoreException
 	 *             Thrown if there are any problem with the data store.F
 	 */
-	private boolean isExiId(ExpressionId id, Date time,
-			PreparedStatement isWithoutTimePs, PreparedStatement isWithTimePs)
+	private boolean isExiId(final PooledConnection con, ExpressionId id,
+			Date time, String isWithoutTimeSql, String isWithTimeSql)
 			throws DataStoreException {
 		final Timestamp sqlTimestamp = (time != null ? new Timestamp(
 				time.getTime()) : null);
@@ -1116,13 +1938,16 @@ public class DataStore implements
 			final ResultSet isExistingIdRs;
 			// Look up if an id exists when no time is given.
 			if (sqlTimestamp == null) {
+				final PreparedStatement isWithoutTimePs = con
+						.prepareStatement(isWithoutTimeSql);
 				isWithoutTimePs.setLong(1, id.getId());
 				isExistingIdRs = isWithoutTimePs.executeQuery();
 			} else {
 				// Look up if an id exists when a time is given.
+				final PreparedStatement isWithTimePs = con
+						.prepareStatement(isWithTimeSql);
 				isWithTimePs.setLong(1, id.getId());
 				isWithTimePs.setTimestamp(2, sqlTimestamp);
-				isWithTimePs.setTimestamp(3, sqlTimestamp);
 				isExistingIdRs = isWithTimePs.executeQuery();
 			}
 			isExistingIdRs.next();
@@ -1133,4 +1958,4 @@ public class DataStore implements
 		return result;
 	}
 
-}
\ No newline at end of file
+}
@@ -4,11 +4,15 @@
 package se.liu.imt.mi.snomedct.expressionrepository.datastore.postgresql;
 
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Timestamp;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.XMLConfiguration;
@@ -59,28 +63,73 @@ public class DataStoreService extends DataStore {
 	}
 
 	/**
-	 * A <code>PreparedStatement</code> restore the dbms to a previous state by
-	 * removing rows in the expressions table.
+	 * The number of rows deleted or updated in each transaction when the dbms
+	 * is restored to a previous state.
 	 */
-	private final PreparedStatement restoreDataStoreExpressionsDelete;
+	private static final int RESTORE_BATCH_SIZE = 10000;
 
 	/**
-	 * A <code>PreparedStatement</code> restore the dbms to a previous state by
-	 * updating rows in the expressions table.
+	 * The SQL for a <code>PreparedStatement</code> that retrieve the names of
+	 * the tables holding the rows of a table, which are its partitions that
+	 * are not partitioned themselves, or the table itself if it is not
+	 * partitioned.
 	 */
-	private final PreparedStatement restoreDataStoreExpressionsUpdate;
+	private static final String RESTORE_DATA_STORE_TABLES = "WITH RECURSIVE tree(relid) AS "
+			+ "(SELECT ?::regclass::oid UNION ALL SELECT pg_inherits.inhrelid "
+			+ "FROM pg_inherits JOIN tree ON pg_inherits.inhparent = tree.relid) "
+			+ "SELECT relid::regclass::text FROM tree WHERE NOT EXISTS "
+			+ "(SELECT 1 FROM pg_inherits WHERE pg_inherits.inhparent = tree.relid);";
 
 	/**
-	 * A <code>PreparedStatement</code> restore the dbms to a previous state by
-	 * removing rows in the transitiveclosure table.
+	 * The SQL for a <code>PreparedStatement</code> that check if a table
+	 * exists in the dbms.
 	 */
-	private final PreparedStatement restoreDataStoreTransitiveclosureDelete;
+	private static final String RESTORE_DATA_STORE_TABLE_EXISTS = "SELECT to_regclass(?) IS NOT NULL;";
 
 	/**
-	 * A <code>PreparedStatement</code> restore the dbms to a previous state by
-	 * updating rows in the transitiveclosure table.
+	 * The SQL, given the name of a table, that retrieve the earliest start time of the rows in the table.
 	 */
-	private final PreparedStatement restoreDataStoreTransitiveclosureUpdate;
+	private static final String RESTORE_DATA_STORE_EARLIEST = "SELECT Min(starttime) FROM %1$s;";
+
+	/**
+	 * The SQL, given the name of a table, that restore the dbms to a previous
+	 * state by removing all rows in a table whose rows are all later than the
+	 * previous state.
+	 */
+	private static final String RESTORE_DATA_STORE_TRUNCATE = "TRUNCATE %1$s;";
+
+	/**
+	 * The SQL, given the name of a table, for a <code>PreparedStatement</code>
+	 * that restore the dbms to a previous state by removing a batch of rows
+	 * in the table.
+	 */
+	private static final String RESTORE_DATA_STORE_DELETE = "DELETE FROM %1$s WHERE ctid = ANY "
+			+ "(ARRAY(SELECT ctid FROM %1$s WHERE starttime > ? LIMIT ?));";
+
+	/**
+	 * The SQL for a <code>PreparedStatement</code> restore the dbms to a
+	 * previous state by updating a batch of rows in the expressions table.
+	 */
+	private static final String RESTORE_DATA_STORE_EXPRESSIONS_UPDATE = "UPDATE expressions SET endtime = NULL "
+			+ "WHERE id IN (SELECT id FROM expressions WHERE endtime > ? LIMIT ?) AND endtime > ?;";
+
+	/**
+	 * The SQL for a <code>PreparedStatement</code> restore the dbms to a
+	 * previous state by updating a batch of rows in the transitiveclosure
+	 * table. The rows are updated through the table rather than its
+	 * partitions, so that they move to the partition of current rows.
+	 */
+	private static final String RESTORE_DATA_STORE_TRANSITIVECLOSURE_UPDATE = "UPDATE transitiveclosure SET endtime = NULL "
+			+ "WHERE (sourceid, destinationid, starttime) IN (SELECT sourceid, destinationid, starttime "
+			+ "FROM transitiveclosure WHERE endtime > ? LIMIT ?) AND endtime > ?;";
+
+	/**
+	 * The SQL for a <code>PreparedStatement</code> restore the dbms to a
+	 * previous state by updating a batch of rows in the closurearrays table.
+	 */
+	private static final String RESTORE_DATA_STORE_CLOSUREARRAYS_UPDATE = "UPDATE closurearrays SET endtime = NULL "
+			+ "WHERE (nodeid, starttime) IN (SELECT nodeid, starttime "
+			+ "FROM closurearrays WHERE endtime > ? LIMIT ?) AND endtime > ?;";
 
 	/**
 	 * Creates a data store API and set up a connection to the PostgreSQL
@@ -99,22 +148,16 @@ public class DataStoreService extends DataStore {
 	public DataStoreService(String url, String userName, String password)
 			throws DataStoreException {
 		super(url, userName, password);
-		try {
-			restoreDataStoreExpressionsDelete = super.con
-					.prepareStatement("DELETE FROM expressions WHERE starttime > ?;");
-			restoreDataStoreExpressionsUpdate = super.con
-					.prepareStatement("UPDATE expressions SET endtime = NULL WHERE endtime > ?;");
-			restoreDataStoreTransitiveclosureDelete = super.con
-					.prepareStatement("DELETE FROM transitiveclosure WHERE starttime > ?;");
-			restoreDataStoreTransitiveclosureUpdate = super.con
-					.prepareStatement("UPDATE transitiveclosure SET endtime = NULL WHERE endtime > ?;");
-		} catch (SQLException e) {
-			throw new DataStoreException(e);
-		}
 	}
 
 	/**
-	 * Restore the data store to the state at a specific time.
+	 * Restore the data store to the state at a specific time. Tables, or
+	 * partitions of tables, whose rows all start after the time are emptied
+	 * at once. From the other tables the rows that start after the time are
+	 * deleted, and then the rows that ended after the time are made current
+	 * again, in batches of {@value #RESTORE_BATCH_SIZE} rows, each in its own
+	 * transaction. The restore should be run while nothing else uses the
+	 * data store, and if it is interrupted it can be run again.
 	 * 
 	 * @param time
 	 *            The time to restore the data store to.
@@ -131,23 +174,158 @@ public class DataStoreService extends DataStore {
 		}
 		final Timestamp sqlTimestamp = new Timestamp(time.getTime());
 
+		final PooledConnection con = pool.checkOut();
 		try {
-			super.con.setAutoCommit(false);
-			restoreDataStoreExpressionsDelete.setTimestamp(1, sqlTimestamp);
-			restoreDataStoreExpressionsDelete.executeUpdate();
-			restoreDataStoreExpressionsUpdate.setTimestamp(1, sqlTimestamp);
-			restoreDataStoreExpressionsUpdate.executeUpdate();
-			restoreDataStoreTransitiveclosureDelete.setTimestamp(1,
-					sqlTimestamp);
-			restoreDataStoreTransitiveclosureDelete.executeUpdate();
-			restoreDataStoreTransitiveclosureUpdate.setTimestamp(1,
-					sqlTimestamp);
-			restoreDataStoreTransitiveclosureUpdate.executeUpdate();
-			super.con.commit();
-			super.con.setAutoCommit(true);
+			// The closure arrays are only there if they have been added.
+			final PreparedStatement restoreDataStoreTableExists = con
+					.prepareStatement(RESTORE_DATA_STORE_TABLE_EXISTS);
+			restoreDataStoreTableExists.setString(1, "closurearrays");
+			final ResultSet rs = restoreDataStoreTableExists.executeQuery();
+			rs.next();
+			final boolean closureArrays = rs.getBoolean(1);
+			rs.close();
+
+			emptyLaterRows(con, "transitiveclosure", sqlTimestamp);
+			if (closureArrays) {
+				emptyLaterRows(con, "closurearrays", sqlTimestamp);
+			}
+			emptyLaterRows(con, "expressions", sqlTimestamp);
+			updateLaterRows(con, "transitiveclosure",
+					RESTORE_DATA_STORE_TRANSITIVECLOSURE_UPDATE, sqlTimestamp);
+			if (closureArrays) {
+				updateLaterRows(con, "closurearrays",
+						RESTORE_DATA_STORE_CLOSUREARRAYS_UPDATE, sqlTimestamp);
+			}
+			updateLaterRows(con, "expressions",
+					RESTORE_DATA_STORE_EXPRESSIONS_UPDATE, sqlTimestamp);
 		} catch (SQLException e) {
 			throw new DataStoreException(e);
+		} finally {
+			pool.checkIn(con);
 		}
+
+		// The restore changes the current hierarchy.
+		loadIndex();
+	}
+
+	/**
+	 * Delete the rows of a table that start after a time, partition by
+	 * partition, emptying the partitions whose rows all start after the time.
+	 * 
+	 * @param con
+	 *            The connection to use.
+	 * @param table
+	 *            The name of the table.
+	 * @param time
+	 *            The time to restore the table to.
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the dbms.
+	 */
+	private void emptyLaterRows(final PooledConnection con,
+			final String table, final Timestamp time) throws SQLException {
+		final List<String> partitions = new ArrayList<String>();
+		final PreparedStatement restoreDataStoreTables = con
+				.prepareStatement(RESTORE_DATA_STORE_TABLES);
+		restoreDataStoreTables.setString(1, table);
+		final ResultSet rs = restoreDataStoreTables.executeQuery();
+		while (rs.next()) {
+			partitions.add(rs.getString(1));
+		}
+		rs.close();
+
+		// The statements name a partition, so they are not kept by the
+		// connection.
+		final Statement statement = con.getConnection().createStatement();
+		try {
+			for (final String partition : partitions) {
+				final ResultSet earliest = statement.executeQuery(String
+						.format(RESTORE_DATA_STORE_EARLIEST, partition));
+				earliest.next();
+				final Timestamp earliestTime = earliest.getTimestamp(1);
+				earliest.close();
+				if (earliestTime == null) {
+					continue;
+				}
+				if (earliestTime.after(time)) {
+					statement.executeUpdate(String.format(
+							RESTORE_DATA_STORE_TRUNCATE, partition));
+					log.info("Emptied " + partition);
+					continue;
+				}
+				deleteLaterRows(con, partition, time);
+			}
+		} finally {
+			statement.close();
+		}
+	}
+
+	/**
+	 * Delete the rows of a table, which is not partitioned, that start after a
+	 * time.
+	 * 
+	 * @param con
+	 *            The connection to use.
+	 * @param partition
+	 *            The name of the table.
+	 * @param time
+	 *            The time to restore the table to.
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the dbms.
+	 */
+	private void deleteLaterRows(final PooledConnection con,
+			final String partition, final Timestamp time) throws SQLException {
+		final PreparedStatement restoreDataStoreDelete = con.getConnection()
+				.prepareStatement(
+						String.format(RESTORE_DATA_STORE_DELETE, partition));
+		try {
+			restoreDataStoreDelete.setTimestamp(1, time);
+			restoreDataStoreDelete.setInt(2, RESTORE_BATCH_SIZE);
+			long deleted = 0;
+			int count;
+			do {
+				count = restoreDataStoreDelete.executeUpdate();
+				deleted += count;
+				if (count > 0) {
+					log.info("Deleted " + deleted + " rows from " + partition);
+				}
+			} while (count > 0);
+		} finally {
+			restoreDataStoreDelete.close();
+		}
+	}
+
+	/**
+	 * Make the rows of a table that ended after a time current again.
+	 * 
+	 * @param con
+	 *            The connection to use.
+	 * @param table
+	 *            The name of the table.
+	 * @param sql
+	 *            The SQL that update a batch of rows in the table.
+	 * @param time
+	 *            The time to restore the table to.
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the dbms.
+	 */
+	private void updateLaterRows(final PooledConnection con,
+			final String table, final String sql, final Timestamp time)
+			throws SQLException {
+		final PreparedStatement restoreDataStoreUpdate = con
+				.prepareStatement(sql);
+		restoreDataStoreUpdate.setTimestamp(1, time);
+		restoreDataStoreUpdate.setInt(2, RESTORE_BATCH_SIZE);
+		restoreDataStoreUpdate.setTimestamp(3, time);
+		long updated = 0;
+		int count;
+		do {
+			count = restoreDataStoreUpdate.executeUpdate();
+			updated += count;
+			if (count > 0) {
+				log.info("Made " + updated + " rows in " + table
+						+ " current again");
+			}
+		} while (count > 0);
 	}
 
 	/*
@@ -0,0 +1,54 @@
+package se.liu.imt.mi.snomedct.expressionrepository.datastore.postgresql;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+
+/**
+ * The 128-bit content hash of a sorted expression that the dbms keeps in the
+ * <code>expressionhash</code> column of the <code>expressions</code> table.
+ * The hash is the MD5 digest of the expression's UTF-8 bytes written as a
+ * <code>uuid</code>, which is the same value as
+ * <code>md5(expression)::uuid</code> in a UTF-8 database, so existing rows
+ * can be filled in by SQL.
+ * <p>
+ * Look ups probe the unique index on the hash and compare the expression
+ * text only for the row found, to rule out a collision.
+ */
+public final class ExpressionHash {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final ThreadLocal<MessageDigest> md5 = new ThreadLocal<MessageDigest>() {
+		@Override
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				// Every Java platform has MD5.
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+
+	private ExpressionHash() {
+	}
+
+	/**
+	 * Get the hash of an expression.
+	 * 
+	 * @param expression
+	 *            The sorted expression.
+	 * @return The hash in the text form of a <code>uuid</code>.
+	 */
+	public static String of(String expression) {
+		final MessageDigest digest = md5.get();
+		digest.reset();
+		final ByteBuffer bytes = ByteBuffer.wrap(digest.digest(expression
+				.getBytes(UTF_8)));
+		return new UUID(bytes.getLong(), bytes.getLong()).toString();
+	}
+
+}
@@ -0,0 +1,106 @@
+package se.liu.imt.mi.snomedct.expressionrepository.datastore.postgresql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A connection to the PostgreSQL database management system that is handed
+ * out by a <code>ConnectionPool</code>. Each pooled connection has its own
+ * cache of <code>PreparedStatement</code>s, so a statement is only prepared
+ * once per connection. A pooled connection must only be used by the thread
+ * that has checked it out.
+ */
+public class PooledConnection {
+
+	/**
+	 * The connection to the dbms.
+	 */
+	private final Connection connection;
+
+	/**
+	 * The <code>PreparedStatement</code>s prepared on this connection, keyed
+	 * by their SQL.
+	 */
+	private final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+
+	/**
+	 * Creates a pooled connection.
+	 *
+	 * @param connection
+	 *            The connection to the dbms.
+	 */
+	PooledConnection(final Connection connection) {
+		super();
+		this.connection = connection;
+	}
+
+	/**
+	 * @return The connection to the dbms.
+	 */
+	public Connection getConnection() {
+		return connection;
+	}
+
+	/**
+	 * Get a <code>PreparedStatement</code> for the SQL, preparing it if it has
+	 * not been prepared on this connection before.
+	 *
+	 * @param sql
+	 *            The SQL of the statement.
+	 * @return The <code>PreparedStatement</code>.
+	 * @throws SQLException
+	 *             Thrown if the statement can not be prepared.
+	 */
+	public PreparedStatement prepareStatement(final String sql)
+			throws SQLException {
+		PreparedStatement ps = statements.get(sql);
+		if (ps == null) {
+			ps = connection.prepareStatement(sql);
+			statements.put(sql, ps);
+		}
+		return ps;
+	}
+
+	/**
+	 * Set the auto commit mode of the connection.
+	 *
+	 * @param autoCommit
+	 *            If each statement is committed on its own or not.
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the dbms.
+	 */
+	public void setAutoCommit(final boolean autoCommit) throws SQLException {
+		connection.setAutoCommit(autoCommit);
+	}
+
+	/**
+	 * Commit the current transaction.
+	 *
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the dbms.
+	 */
+	public void commit() throws SQLException {
+		connection.commit();
+	}
+
+	/**
+	 * Close all prepared statements and the connection.
+	 *
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the dbms.
+	 */
+	void close() throws SQLException {
+		try {
+			for (PreparedStatement ps : statements.values()) {
+				ps.close();
+			}
+		} finally {
+			statements.clear();
+			connection.close();
+		}
+	}
+
+}
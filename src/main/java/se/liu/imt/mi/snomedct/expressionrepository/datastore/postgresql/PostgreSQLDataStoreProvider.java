@@ -0,0 +1,40 @@
+package se.liu.imt.mi.snomedct.expressionrepository.datastore.postgresql;
+
+import java.io.File;
+
+import org.apache.commons.configuration.Configuration;
+
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStoreException;
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStoreProvider;
+
+/**
+ * Provides the PostgreSQL data store, <code>datastore.type</code>
+ * <code>postgresql</code>, configured by the <code>database</code> section of
+ * <code>config.xml</code>.
+ */
+public class PostgreSQLDataStoreProvider implements DataStoreProvider {
+
+	@Override
+	public String getType() {
+		return "postgresql";
+	}
+
+	@Override
+	public se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStore createDataStore(
+			Configuration config) throws DataStoreException {
+		String url = config.getString("database.url");
+		String username = config.getString("database.username");
+		String password = config.getString("database.password");
+		int poolSize = config.getInt("database.poolsize", Runtime.getRuntime()
+				.availableProcessors());
+		boolean reachabilityIndex = config.getBoolean(
+				"database.reachabilityindex", false);
+		String ordinalFile = config.getString("database.ordinalfile");
+		boolean closureArrays = config.getBoolean("database.closurearrays",
+				false);
+		return new DataStore(url, username, password, poolSize,
+				reachabilityIndex, ordinalFile != null ? new File(ordinalFile)
+						: null, closureArrays);
+	}
+
+}
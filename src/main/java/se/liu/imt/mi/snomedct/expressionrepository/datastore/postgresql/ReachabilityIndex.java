@@ -0,0 +1,402 @@
+package se.liu.imt.mi.snomedct.expressionrepository.datastore.postgresql;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.log4j.Logger;
+import org.roaringbitmap.RoaringBitmap;
+
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.OrdinalDictionary;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionId;
+
+/**
+ * An in-memory index of the current hierarchy in the dbms, used to answer
+ * subsumption and equivalence tests without a database round trip. Every
+ * concept and expression gets a dense ordinal from an
+ * <code>OrdinalDictionary</code>, and the ancestors and descendants of each
+ * equivalent group are kept as compressed bitmaps of the ordinals of the
+ * groups' equivalent ids.
+ * <p>
+ * The index only describes the current time, and it is only correct as long
+ * as the data store that owns it is the only writer to the dbms.
+ */
+public class ReachabilityIndex {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger log = Logger
+			.getLogger(ReachabilityIndex.class);
+
+	/**
+	 * The SQL for the query that retrieve all current concepts' and
+	 * expressions' ids and equivalent ids from the dbms.
+	 */
+	private static final String LOAD_CONEXP = "SELECT id, equivalentid FROM conexp WHERE endtime IS NULL;";
+
+	/**
+	 * The SQL for the query that retrieve all current relationships in the
+	 * transitive closure from the dbms.
+	 */
+	private static final String LOAD_TRANSITIVECLOSURE = "SELECT sourceid, destinationid FROM transitiveclosure WHERE endtime IS NULL;";
+
+	/**
+	 * The number of rows fetched at a time while loading the index.
+	 */
+	private static final int FETCH_SIZE = 10000;
+
+	/**
+	 * Guards all fields below. Tests take the read lock and updates take the
+	 * write lock.
+	 */
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * The ordinal of each id.
+	 */
+	private final OrdinalDictionary ordinals;
+
+	/**
+	 * The ordinals of the ids that exist in the dbms. A dictionary backed by a
+	 * file may also know ids that have been removed.
+	 */
+	private RoaringBitmap existing = new RoaringBitmap();
+
+	/**
+	 * The ordinal of the equivalent id of each ordinal.
+	 */
+	private int[] equivalents = new int[0];
+
+	/**
+	 * The ancestors of each equivalent id's ordinal.
+	 */
+	private RoaringBitmap[] ancestors = new RoaringBitmap[0];
+
+	/**
+	 * The descendants of each equivalent id's ordinal.
+	 */
+	private RoaringBitmap[] descendants = new RoaringBitmap[0];
+
+	/**
+	 * Creates an empty index with ordinals that are only kept in memory.
+	 */
+	public ReachabilityIndex() {
+		this(new OrdinalDictionary());
+	}
+
+	/**
+	 * Creates an empty index.
+	 *
+	 * @param ordinals
+	 *            The dictionary that assigns the ordinals. A dictionary backed
+	 *            by a file keeps the ordinals the same between loads.
+	 */
+	public ReachabilityIndex(final OrdinalDictionary ordinals) {
+		super();
+		this.ordinals = ordinals;
+	}
+
+	/**
+	 * Load the index from the dbms, replacing anything loaded before.
+	 *
+	 * @param con
+	 *            A checked out connection.
+	 * @throws SQLException
+	 *             Thrown if there is a problem with the dbms.
+	 * @throws IOException
+	 *             Thrown if the ordinals can not be written.
+	 */
+	public void load(final PooledConnection con) throws SQLException,
+			IOException {
+		final long start = System.currentTimeMillis();
+		lock.writeLock().lock();
+		try {
+			existing = new RoaringBitmap();
+			equivalents = new int[0];
+			ancestors = new RoaringBitmap[0];
+			descendants = new RoaringBitmap[0];
+
+			// The rows are streamed with a cursor, which requires a
+			// transaction.
+			con.setAutoCommit(false);
+
+			final PreparedStatement loadConexpPs = con
+					.prepareStatement(LOAD_CONEXP);
+			loadConexpPs.setFetchSize(FETCH_SIZE);
+			final ResultSet loadConexpRs = loadConexpPs.executeQuery();
+			while (loadConexpRs.next()) {
+				final int ordinal = ordinal(loadConexpRs.getLong(1));
+				existing.add(ordinal);
+				equivalents[ordinal] = ordinal(loadConexpRs.getLong(2));
+			}
+			loadConexpRs.close();
+
+			final PreparedStatement loadTransitiveclosurePs = con
+					.prepareStatement(LOAD_TRANSITIVECLOSURE);
+			loadTransitiveclosurePs.setFetchSize(FETCH_SIZE);
+			final ResultSet loadTransitiveclosureRs = loadTransitiveclosurePs
+					.executeQuery();
+			long relationships = 0;
+			while (loadTransitiveclosureRs.next()) {
+				final int source = ordinal(loadTransitiveclosureRs.getLong(1));
+				final int destination = ordinal(loadTransitiveclosureRs
+						.getLong(2));
+				ancestors(source).add(destination);
+				descendants(destination).add(source);
+				relationships++;
+			}
+			loadTransitiveclosureRs.close();
+
+			con.commit();
+			con.setAutoCommit(true);
+			ordinals.flush();
+
+			for (int i = 0; i < equivalents.length; i++) {
+				if (ancestors[i] != null)
+					ancestors[i].runOptimize();
+				if (descendants[i] != null)
+					descendants[i].runOptimize();
+			}
+			log.info("Loaded reachability index with "
+					+ existing.getCardinality() + " ids and " + relationships
+					+ " relationships in "
+					+ (System.currentTimeMillis() - start) + " ms");
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Check if one concept or expression subsumes but is not equivalent to
+	 * another concept or expression.
+	 *
+	 * @param id1
+	 *            The id1 of the concept or expression.
+	 * @param id2
+	 *            The id2 of the concept or expression.
+	 * @return If the concept or expression with id1 is subsuming but not
+	 *         equivalent to the concept or expression with id2. Unknown ids
+	 *         subsume nothing.
+	 */
+	public boolean isSubsumingNotEquivalent(final ExpressionId id1,
+			final ExpressionId id2) {
+		lock.readLock().lock();
+		try {
+			final int ordinal1 = ordinals.getOrdinal(id1.getId());
+			final int ordinal2 = ordinals.getOrdinal(id2.getId());
+			if (!isExisting(ordinal1) || !isExisting(ordinal2))
+				return false;
+			final RoaringBitmap ancestors2 = ancestors[equivalents[ordinal2]];
+			return ancestors2 != null
+					&& ancestors2.contains(equivalents[ordinal1]);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Check if one concept or expression is equivalent to another concept or
+	 * expression.
+	 *
+	 * @param id1
+	 *            The id1 of the concept or expression.
+	 * @param id2
+	 *            The id2 of the concept or expression.
+	 * @return If the concept or expression with id1 is equivalent to the
+	 *         concept or expression with id2. Unknown ids are equivalent to
+	 *         nothing.
+	 */
+	public boolean isEquivalent(final ExpressionId id1, final ExpressionId id2) {
+		lock.readLock().lock();
+		try {
+			final int ordinal1 = ordinals.getOrdinal(id1.getId());
+			final int ordinal2 = ordinals.getOrdinal(id2.getId());
+			return isExisting(ordinal1) && isExisting(ordinal2)
+					&& equivalents[ordinal1] == equivalents[ordinal2];
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Add a new expression that is only equivalent to itself and has no
+	 * relatives yet.
+	 *
+	 * @param id
+	 *            The expression's id.
+	 * @throws IOException
+	 *             Thrown if the ordinals can not be written.
+	 */
+	public void addExpression(final ExpressionId id) throws IOException {
+		lock.writeLock().lock();
+		try {
+			final int ordinal = ordinal(id.getId());
+			existing.add(ordinal);
+			equivalents[ordinal] = ordinal;
+			ordinals.flush();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Make an expression equivalent to an existing concept or expression, as
+	 * done by <code>storeExpressionEquivalence</code>.
+	 *
+	 * @param id
+	 *            The expression's id.
+	 * @param equivalentId
+	 *            The id of the equivalent concept or expression.
+	 * @throws IOException
+	 *             Thrown if the ordinals can not be written.
+	 */
+	public void setEquivalent(final ExpressionId id,
+			final ExpressionId equivalentId) throws IOException {
+		lock.writeLock().lock();
+		try {
+			final int ordinal = ordinal(id.getId());
+			equivalents[ordinal] = equivalents[ordinal(equivalentId.getId())];
+			ordinals.flush();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Insert an expression between its parents and children, as done by
+	 * <code>storeExpressionParentsAndChildren</code>.
+	 *
+	 * @param id
+	 *            The expression's id.
+	 * @param parents
+	 *            The expression's parents.
+	 * @param children
+	 *            The expression's children.
+	 * @throws IOException
+	 *             Thrown if the ordinals can not be written.
+	 */
+	public void setParentsAndChildren(final ExpressionId id,
+			final Set<ExpressionId> parents, final Set<ExpressionId> children)
+			throws IOException {
+		lock.writeLock().lock();
+		try {
+			final int ordinal = equivalents[ordinal(id.getId())];
+
+			// The expression's ancestors are its parents and their ancestors.
+			final RoaringBitmap newAncestors = ancestors(ordinal);
+			for (ExpressionId parentId : parents) {
+				final int parent = equivalents[ordinal(parentId.getId())];
+				newAncestors.add(parent);
+				if (ancestors[parent] != null)
+					newAncestors.or(ancestors[parent]);
+			}
+
+			// The expression's descendants are its children and their
+			// descendants.
+			final RoaringBitmap newDescendants = descendants(ordinal);
+			for (ExpressionId childId : children) {
+				final int child = equivalents[ordinal(childId.getId())];
+				newDescendants.add(child);
+				if (descendants[child] != null)
+					newDescendants.or(descendants[child]);
+			}
+
+			// The expression is a new descendant of all its ancestors and a
+			// new ancestor of all its descendants.
+			for (int ancestor : newAncestors) {
+				descendants(ancestor).add(ordinal);
+			}
+			for (int descendant : newDescendants) {
+				ancestors(descendant).add(ordinal);
+			}
+			ordinals.flush();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return The number of ids in the index.
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return existing.getCardinality();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Check if an ordinal is the ordinal of an id that exists in the dbms.
+	 * Must be called while holding the read or write lock.
+	 *
+	 * @param ordinal
+	 *            The ordinal, or -1 for an unknown id.
+	 * @return If the id exists.
+	 */
+	private boolean isExisting(final int ordinal) {
+		return ordinal >= 0 && existing.contains(ordinal);
+	}
+
+	/**
+	 * Get the ordinal of an id, assigning the next free ordinal to an id that
+	 * has none. An ordinal that is new to the index is its own equivalent.
+	 * Must be called while holding the write lock.
+	 *
+	 * @param id
+	 *            The id.
+	 * @return The ordinal.
+	 * @throws IOException
+	 *             Thrown if the ordinals can not be written.
+	 */
+	private int ordinal(final long id) throws IOException {
+		final int ordinal = ordinals.addId(id);
+		if (ordinal >= equivalents.length) {
+			final int length = equivalents.length;
+			final int capacity = Math.max(Math.max(1024, length * 2),
+					ordinals.size());
+			equivalents = Arrays.copyOf(equivalents, capacity);
+			ancestors = Arrays.copyOf(ancestors, capacity);
+			descendants = Arrays.copyOf(descendants, capacity);
+			for (int i = length; i < capacity; i++)
+				equivalents[i] = i;
+		}
+		return ordinal;
+	}
+
+	/**
+	 * Get the ancestors of an ordinal, creating an empty bitmap if there is
+	 * none. Must be called while holding the write lock.
+	 *
+	 * @param ordinal
+	 *            The ordinal.
+	 * @return The ancestors.
+	 */
+	private RoaringBitmap ancestors(final int ordinal) {
+		if (ancestors[ordinal] == null)
+			ancestors[ordinal] = new RoaringBitmap();
+		return ancestors[ordinal];
+	}
+
+	/**
+	 * Get the descendants of an ordinal, creating an empty bitmap if there is
+	 * none. Must be called while holding the write lock.
+	 *
+	 * @param ordinal
+	 *            The ordinal.
+	 * @return The descendants.
+	 */
+	private RoaringBitmap descendants(final int ordinal) {
+		if (descendants[ordinal] == null)
+			descendants[ordinal] = new RoaringBitmap();
+		return descendants[ordinal];
+	}
+
+}
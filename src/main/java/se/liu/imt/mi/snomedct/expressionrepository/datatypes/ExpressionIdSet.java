@@ -0,0 +1,262 @@
+package se.liu.imt.mi.snomedct.expressionrepository.datatypes;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A set of expression ids stored as a sorted array of primitive
+ * <code>long</code>s, which costs eight bytes per member instead of a boxed
+ * <code>ExpressionId</code> and a hash table entry. The
+ * <code>ExpressionId</code> objects are only created while iterating.
+ * <p>
+ * Copies of a set share its array until they are changed, and the first
+ * change of a set copies the array. Adding or removing an id moves the larger
+ * ids, so the set suits sets that are read far more often than changed.
+ */
+public class ExpressionIdSet extends AbstractSet<ExpressionId> {
+
+	/**
+	 * The ids, sorted and without duplicates, in the first <code>size</code>
+	 * elements.
+	 */
+	private long[] ids;
+
+	/**
+	 * The number of ids.
+	 */
+	private int size;
+
+	/**
+	 * If the array belongs to this set alone, so that it can be changed in
+	 * place. An array that is not owned may be shared with copies of the set.
+	 */
+	private boolean owned;
+
+	/**
+	 * Creates a set of the first <code>length</code> ids in an array. The ids
+	 * do not have to be sorted or unique, and the array is not kept.
+	 *
+	 * @param ids
+	 *            The ids.
+	 * @param length
+	 *            The number of ids to use from the array.
+	 */
+	public ExpressionIdSet(final long[] ids, final int length) {
+		super();
+		final long[] sorted = Arrays.copyOf(ids, length);
+		Arrays.sort(sorted);
+		int unique = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (unique == 0 || sorted[unique - 1] != sorted[i])
+				sorted[unique++] = sorted[i];
+		}
+		this.ids = (unique == sorted.length ? sorted : Arrays.copyOf(sorted,
+				unique));
+		this.size = unique;
+	}
+
+	/**
+	 * Creates a set of ids. The ids do not have to be sorted or unique, and
+	 * the array is not kept.
+	 *
+	 * @param ids
+	 *            The ids.
+	 */
+	public ExpressionIdSet(final long... ids) {
+		this(ids, ids.length);
+	}
+
+	/**
+	 * Creates a set with the same members as a collection of expression ids.
+	 *
+	 * @param ids
+	 *            The expression ids.
+	 */
+	public ExpressionIdSet(final Collection<ExpressionId> ids) {
+		this(toArray(ids), ids.size());
+	}
+
+	/**
+	 * Creates a copy of a set, which shares the ids of the set until either
+	 * of them is changed.
+	 *
+	 * @param set
+	 *            The set to copy.
+	 */
+	public ExpressionIdSet(final ExpressionIdSet set) {
+		super();
+		// an owned array may still be changed in place by the other set
+		this.ids = (set.owned ? Arrays.copyOf(set.ids, set.size) : set.ids);
+		this.size = set.size;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractCollection#size()
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractCollection#contains(java.lang.Object)
+	 */
+	@Override
+	public boolean contains(final Object o) {
+		if (!(o instanceof ExpressionId))
+			return false;
+		final Long id = ((ExpressionId) o).getId();
+		return id != null && contains(id.longValue());
+	}
+
+	/**
+	 * Check if the set contains an id.
+	 *
+	 * @param id
+	 *            The id.
+	 * @return If the id is a member of the set.
+	 */
+	public boolean contains(final long id) {
+		return Arrays.binarySearch(ids, 0, size, id) >= 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractCollection#add(java.lang.Object)
+	 */
+	@Override
+	public boolean add(final ExpressionId e) {
+		final long id = e.getId();
+		final int i = Arrays.binarySearch(ids, 0, size, id);
+		if (i >= 0)
+			return false;
+		final int at = -i - 1;
+		if (!owned || size == ids.length) {
+			final long[] grown = new long[Math.max(size + (size >> 1),
+					size + 1)];
+			System.arraycopy(ids, 0, grown, 0, at);
+			System.arraycopy(ids, at, grown, at + 1, size - at);
+			ids = grown;
+			owned = true;
+		} else {
+			System.arraycopy(ids, at, ids, at + 1, size - at);
+		}
+		ids[at] = id;
+		size++;
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractCollection#remove(java.lang.Object)
+	 */
+	@Override
+	public boolean remove(final Object o) {
+		if (!(o instanceof ExpressionId))
+			return false;
+		final Long id = ((ExpressionId) o).getId();
+		if (id == null)
+			return false;
+		final int i = Arrays.binarySearch(ids, 0, size, id.longValue());
+		if (i < 0)
+			return false;
+		removeAt(i);
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractCollection#clear()
+	 */
+	@Override
+	public void clear() {
+		ids = new long[0];
+		size = 0;
+		owned = true;
+	}
+
+	/**
+	 * Remove the id at an index of the array.
+	 *
+	 * @param i
+	 *            The index.
+	 */
+	private void removeAt(final int i) {
+		if (!owned) {
+			ids = Arrays.copyOf(ids, size);
+			owned = true;
+		}
+		System.arraycopy(ids, i + 1, ids, i, size - i - 1);
+		size--;
+	}
+
+	/**
+	 * @return A copy of the ids in ascending order.
+	 */
+	public long[] toLongArray() {
+		return Arrays.copyOf(ids, size);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractCollection#iterator()
+	 */
+	@Override
+	public Iterator<ExpressionId> iterator() {
+		return new Iterator<ExpressionId>() {
+			private int next = 0;
+
+			private boolean removable = false;
+
+			@Override
+			public boolean hasNext() {
+				return next < size;
+			}
+
+			@Override
+			public ExpressionId next() {
+				if (next >= size)
+					throw new NoSuchElementException();
+				removable = true;
+				return new ExpressionId(ids[next++]);
+			}
+
+			@Override
+			public void remove() {
+				if (!removable)
+					throw new IllegalStateException();
+				removeAt(--next);
+				removable = false;
+			}
+		};
+	}
+
+	/**
+	 * Copy the ids of a collection of expression ids to an array.
+	 *
+	 * @param ids
+	 *            The expression ids.
+	 * @return The ids.
+	 */
+	private static long[] toArray(final Collection<ExpressionId> ids) {
+		if (ids instanceof ExpressionIdSet)
+			return ((ExpressionIdSet) ids).ids;
+		final long[] result = new long[ids.size()];
+		int i = 0;
+		for (ExpressionId id : ids)
+			result[i++] = id.getId();
+		return result;
+	}
+
+}
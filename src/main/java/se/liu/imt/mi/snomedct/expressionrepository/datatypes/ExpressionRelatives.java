@@ -0,0 +1,112 @@
+package se.liu.imt.mi.snomedct.expressionrepository.datatypes;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * The classification result of an expression, either an equivalent concept
+ * or expression, or the expression's parents and children.
+ */
+
+public class ExpressionRelatives {
+
+	/**
+	 * The expression's id.
+	 */
+	private final ExpressionId id;
+
+	/**
+	 * The id of an equivalent concept or expression, or <code>null</code> if
+	 * there is none.
+	 */
+	private final ExpressionId equivalentId;
+
+	/**
+	 * The expression's parents.
+	 */
+	private final Set<ExpressionId> parents;
+
+	/**
+	 * The expression's children.
+	 */
+	private final Set<ExpressionId> children;
+
+	/**
+	 * Constructor for an expression that is equivalent to an existing concept
+	 * or expression.
+	 *
+	 * @param id
+	 *            The expression's id.
+	 * @param equivalentId
+	 *            The id of the equivalent concept or expression.
+	 */
+	public ExpressionRelatives(ExpressionId id, ExpressionId equivalentId) {
+		super();
+		this.id = id;
+		this.equivalentId = equivalentId;
+		this.parents = Collections.emptySet();
+		this.children = Collections.emptySet();
+	}
+
+	/**
+	 * Constructor for an expression that has no equivalent concept or
+	 * expression.
+	 *
+	 * @param id
+	 *            The expression's id.
+	 * @param parents
+	 *            The expression's parents.
+	 * @param children
+	 *            The expression's children.
+	 */
+	public ExpressionRelatives(ExpressionId id, Set<ExpressionId> parents,
+			Set<ExpressionId> children) {
+		super();
+		this.id = id;
+		this.equivalentId = null;
+		this.parents = parents;
+		this.children = children;
+	}
+
+	/**
+	 * @return the expression's id
+	 */
+	public ExpressionId getId() {
+		return id;
+	}
+
+	/**
+	 * @return the id of the equivalent concept or expression, or
+	 *         <code>null</code> if there is none
+	 */
+	public ExpressionId getEquivalentId() {
+		return equivalentId;
+	}
+
+	/**
+	 * @return the expression's parents
+	 */
+	public Set<ExpressionId> getParents() {
+		return parents;
+	}
+
+	/**
+	 * @return the expression's children
+	 */
+	public Set<ExpressionId> getChildren() {
+		return children;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		if (equivalentId != null)
+			return id + " = " + equivalentId;
+		return id + ", parents " + parents + ", children " + children;
+	}
+
+}
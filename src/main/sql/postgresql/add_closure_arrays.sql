@@ -0,0 +1,75 @@
+-- Adds the closure arrays, a second form of the transitive closure with one
+-- row per concept or expression and validity period instead of one row per
+-- relationship. Each row holds the sorted equivalent ids of all ancestors
+-- of the node, and of its direct parents, as it was between starttime and
+-- endtime. The data store reads an expression's ancestors or parents from
+-- its one row, and its descendants or children from the rows whose arrays
+-- contain it, which the GIN indexes find.
+--
+-- The data store keeps the closure arrays up to date when it is started
+-- with closurearrays set to true in the database section of config.xml, and
+-- the transitive closure is still written as before. Rebuild the closure
+-- arrays after changing the transitive closure in any other way, such as
+-- with the bulk import tool, by emptying the table and running the INSERT
+-- below again.
+--
+-- Run this once, with the repository stopped.
+
+CREATE EXTENSION IF NOT EXISTS btree_gist;
+
+BEGIN;
+
+CREATE TABLE closurearrays (
+	nodeid bigint NOT NULL,
+	starttime timestamp NOT NULL,
+	endtime timestamp,
+	ancestors bigint[] NOT NULL,
+	parents bigint[] NOT NULL
+);
+
+-- The ancestors of a node only change when one of its relationships starts
+-- or ends, so each of those times starts a new row, which holds the
+-- relationships valid from it until the next one.
+
+INSERT INTO closurearrays (nodeid, starttime, endtime, ancestors, parents)
+WITH changes AS (
+	SELECT sourceid, starttime AS changetime FROM transitiveclosure
+	UNION
+	SELECT sourceid, endtime FROM transitiveclosure WHERE endtime IS NOT NULL),
+periods AS (
+	SELECT sourceid, changetime AS starttime,
+		lead(changetime) OVER (PARTITION BY sourceid ORDER BY changetime) AS endtime
+	FROM changes)
+SELECT periods.sourceid, periods.starttime, periods.endtime,
+	array_agg(transitiveclosure.destinationid ORDER BY transitiveclosure.destinationid),
+	Coalesce(array_agg(transitiveclosure.destinationid ORDER BY transitiveclosure.destinationid)
+		FILTER (WHERE transitiveclosure.directrelation), '{}')
+FROM periods JOIN transitiveclosure ON periods.sourceid = transitiveclosure.sourceid
+	AND tsrange(transitiveclosure.starttime, transitiveclosure.endtime, '[)') @> periods.starttime
+GROUP BY periods.sourceid, periods.starttime, periods.endtime;
+
+-- Not unique, since the data store inserts a node's new row in the same
+-- statement as it retires the old one.
+
+CREATE INDEX closurearrays_nodeid_current_idx
+	ON closurearrays (nodeid) WHERE endtime IS NULL;
+
+CREATE INDEX closurearrays_nodeid_validity_idx
+	ON closurearrays USING gist (nodeid, tsrange(starttime, endtime, '[)'));
+
+CREATE INDEX closurearrays_ancestors_idx
+	ON closurearrays USING gin (ancestors);
+
+CREATE INDEX closurearrays_parents_idx
+	ON closurearrays USING gin (parents);
+
+-- Restoring the data store finds the rows to delete and to make current
+-- again by their starttime and endtime.
+
+CREATE INDEX closurearrays_starttime_idx ON closurearrays (starttime);
+
+CREATE INDEX closurearrays_endtime_idx ON closurearrays (endtime);
+
+COMMIT;
+
+ANALYZE closurearrays;
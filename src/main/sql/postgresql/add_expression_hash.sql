@@ -0,0 +1,27 @@
+-- Adds the 128-bit content hash of each sorted expression to the expressions
+-- table. Expressions are looked up by the unique index on the hash, and the
+-- text is only compared for the row found, instead of probing a B-tree index
+-- on the full expression text.
+--
+-- The data store computes the hash as the MD5 digest of the expression's
+-- UTF-8 bytes, which is what md5(expression)::uuid gives in a UTF-8 database.
+-- Run this once, with the repository stopped, before starting a version that
+-- writes the expressionhash column.
+
+BEGIN;
+
+ALTER TABLE expressions ADD COLUMN expressionhash uuid;
+
+UPDATE expressions SET expressionhash = md5(expression)::uuid;
+
+ALTER TABLE expressions ALTER COLUMN expressionhash SET NOT NULL;
+
+CREATE UNIQUE INDEX expressions_expressionhash_key ON expressions (expressionhash);
+
+COMMIT;
+
+ANALYZE expressions;
+
+-- An index on the expression text is no longer used by the data store and
+-- can be dropped once nothing else needs it, for example:
+-- DROP INDEX expressions_expression_idx;
@@ -0,0 +1,52 @@
+-- Indexes the validity period of the rows in the concepts, expressions and
+-- transitiveclosure tables, so that look ups at a specific time are about as
+-- fast as look ups at the current time.
+--
+-- A row is valid from its starttime up to, but not including, its endtime,
+-- or for ever while endtime is NULL. The data store tests this as
+--
+--     tsrange(starttime, endtime, '[)') @> ?::timestamp
+--
+-- which the GiST indexes below match. The hierarchy queries look up
+-- transitiveclosure by source or destination id and time together, so those
+-- indexes also cover the id, which needs the btree_gist extension. The
+-- conexp view reads the concepts and expressions tables, and its time
+-- conditions are used on their indexes.
+--
+-- The starttime and endtime columns are assumed to be timestamp without time
+-- zone, as written by the data store. Every row must have an endtime that is
+-- not before its starttime, which can be checked first with
+--
+--     SELECT Count(*) FROM transitiveclosure WHERE endtime < starttime;
+--
+-- and likewise for concepts and expressions. Run this once; the indexes are
+-- built without blocking writes, so the repository may keep running.
+
+CREATE EXTENSION IF NOT EXISTS btree_gist;
+
+CREATE INDEX CONCURRENTLY concepts_id_validity_idx
+	ON concepts USING gist (id, tsrange(starttime, endtime, '[)'));
+
+CREATE INDEX CONCURRENTLY expressions_id_validity_idx
+	ON expressions USING gist (id, tsrange(starttime, endtime, '[)'));
+
+CREATE INDEX CONCURRENTLY expressions_equivalentid_validity_idx
+	ON expressions USING gist (equivalentid, tsrange(starttime, endtime, '[)'));
+
+CREATE INDEX CONCURRENTLY transitiveclosure_sourceid_validity_idx
+	ON transitiveclosure USING gist (sourceid, tsrange(starttime, endtime, '[)'));
+
+CREATE INDEX CONCURRENTLY transitiveclosure_destinationid_validity_idx
+	ON transitiveclosure USING gist (destinationid, tsrange(starttime, endtime, '[)'));
+
+ANALYZE concepts;
+ANALYZE expressions;
+ANALYZE transitiveclosure;
+
+-- The same pair of ids should never have overlapping validity periods in the
+-- transitive closure. Once the data is known to be clean this can be
+-- enforced, and the constraint's index then replaces the sourceid index:
+--
+-- ALTER TABLE transitiveclosure ADD CONSTRAINT transitiveclosure_no_overlap
+--	EXCLUDE USING gist (sourceid WITH =, destinationid WITH =,
+--		tsrange(starttime, endtime, '[)') WITH &&);
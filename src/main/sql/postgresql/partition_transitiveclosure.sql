@@ -0,0 +1,131 @@
+-- Splits the transitiveclosure table into a partition with the current rows,
+-- those whose endtime is NULL, and a partition with the retired rows. The
+-- current time queries of the data store all test endtime IS NULL, so they
+-- only scan the small partition of current rows and its indexes, however
+-- many retired rows have piled up. Queries at a specific time scan both
+-- partitions.
+--
+-- Setting the endtime of a row, as the data store does when it retires a
+-- direct relationship, moves the row to the retired partition, and restoring
+-- the data store to an earlier time moves rows back. This needs PostgreSQL
+-- 11 or later.
+--
+-- The expressions table is not partitioned. Its id primary key and the
+-- unique index on expressionhash can not be kept on a table partitioned by
+-- endtime, since a unique index on a partitioned table has to include the
+-- partition key, and the data store never retires expressions, so there are
+-- no retired rows to move away.
+--
+-- The partitioned table keeps the old table's columns, defaults, NOT NULL and
+-- CHECK constraints, comments and storage settings, its foreign keys, its
+-- owner and its privileges, which are also given to the partitions, since
+-- restoring the data store empties the partitions by name. A primary key,
+-- unique or exclusion constraint is only kept if it includes endtime, as a
+-- partitioned table requires; any other is dropped with a notice. Triggers,
+-- policies and foreign keys of other tables that reference transitiveclosure
+-- are not carried over, and have to be recreated by hand.
+--
+-- Run this once, with the repository stopped. It copies the table, so it
+-- needs about as much free disk space as the table and its indexes.
+
+CREATE EXTENSION IF NOT EXISTS btree_gist;
+
+BEGIN;
+
+ALTER TABLE transitiveclosure RENAME TO transitiveclosure_unpartitioned;
+
+CREATE TABLE transitiveclosure
+	(LIKE transitiveclosure_unpartitioned INCLUDING ALL EXCLUDING INDEXES)
+	PARTITION BY LIST (endtime);
+
+CREATE TABLE transitiveclosure_current PARTITION OF transitiveclosure
+	FOR VALUES IN (NULL);
+
+CREATE TABLE transitiveclosure_retired PARTITION OF transitiveclosure
+	DEFAULT;
+
+-- LIKE does not copy foreign keys, the owner or the privileges, and the
+-- primary key, unique and exclusion constraints are indexes, so they are
+-- kept until the old table is dropped.
+
+CREATE TEMPORARY TABLE transitiveclosure_constraints ON COMMIT DROP AS
+	SELECT conname, contype, pg_get_constraintdef(oid) AS definition
+	FROM pg_constraint
+	WHERE conrelid = 'transitiveclosure_unpartitioned'::regclass
+		AND contype IN ('f', 'p', 'u', 'x');
+
+DO $$
+DECLARE
+	old_table regclass := 'transitiveclosure_unpartitioned';
+	new_table text;
+	c record;
+	g record;
+BEGIN
+	FOR c IN SELECT * FROM transitiveclosure_constraints WHERE contype = 'f' LOOP
+		EXECUTE format('ALTER TABLE transitiveclosure ADD CONSTRAINT %I %s',
+			c.conname, c.definition);
+	END LOOP;
+	FOREACH new_table IN ARRAY ARRAY['transitiveclosure', 'transitiveclosure_current', 'transitiveclosure_retired'] LOOP
+		EXECUTE format('ALTER TABLE %I OWNER TO %I', new_table,
+			(SELECT pg_get_userbyid(relowner) FROM pg_class WHERE oid = old_table));
+		FOR g IN SELECT acl.privilege_type, acl.is_grantable,
+				CASE acl.grantee WHEN 0 THEN 'PUBLIC' ELSE quote_ident(pg_get_userbyid(acl.grantee)) END AS grantee
+			FROM pg_class, aclexplode(pg_class.relacl) AS acl
+			WHERE pg_class.oid = old_table AND acl.grantee <> pg_class.relowner LOOP
+			EXECUTE format('GRANT %s ON %I TO %s%s', g.privilege_type, new_table, g.grantee,
+				CASE WHEN g.is_grantable THEN ' WITH GRANT OPTION' ELSE '' END);
+		END LOOP;
+	END LOOP;
+END;
+$$;
+
+INSERT INTO transitiveclosure SELECT * FROM transitiveclosure_unpartitioned;
+
+-- The old table's indexes, such as those of add_validity_indexes.sql, keep
+-- their names when the table is renamed, so it is dropped before the same
+-- indexes are created on the partitioned table.
+
+DROP TABLE transitiveclosure_unpartitioned;
+
+-- The primary key, unique and exclusion constraints that a partitioned table
+-- can have, which are those that include endtime.
+
+DO $$
+DECLARE
+	c record;
+BEGIN
+	FOR c IN SELECT * FROM transitiveclosure_constraints WHERE contype <> 'f' LOOP
+		BEGIN
+			EXECUTE format('ALTER TABLE transitiveclosure ADD CONSTRAINT %I %s',
+				c.conname, c.definition);
+		EXCEPTION WHEN feature_not_supported OR invalid_table_definition OR not_null_violation THEN
+			RAISE NOTICE 'Constraint % of transitiveclosure is dropped: %', c.conname, SQLERRM;
+		END;
+	END LOOP;
+END;
+$$;
+
+-- Indexes created on the partitioned table are created on each partition.
+
+CREATE INDEX transitiveclosure_sourceid_destinationid_idx
+	ON transitiveclosure (sourceid, destinationid);
+
+CREATE INDEX transitiveclosure_destinationid_sourceid_idx
+	ON transitiveclosure (destinationid, sourceid);
+
+-- The validity indexes of add_validity_indexes.sql, for the queries at a
+-- specific time.
+
+CREATE INDEX transitiveclosure_sourceid_validity_idx
+	ON transitiveclosure USING gist (sourceid, tsrange(starttime, endtime, '[)'));
+
+CREATE INDEX transitiveclosure_destinationid_validity_idx
+	ON transitiveclosure USING gist (destinationid, tsrange(starttime, endtime, '[)'));
+
+COMMIT;
+
+ANALYZE transitiveclosure;
+
+-- Retired rows are only read by queries at a specific time. Once the current
+-- partition has settled, the retired partition can be packed, for example:
+-- CLUSTER transitiveclosure_retired USING transitiveclosure_retired_sourceid_destinationid_idx;
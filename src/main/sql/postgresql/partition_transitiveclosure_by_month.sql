@@ -0,0 +1,92 @@
+-- Splits the current and retired partitions of the transitiveclosure table,
+-- as created by partition_transitiveclosure.sql, further into one partition
+-- per month of starttime. Restoring the data store to an earlier time then
+-- empties the partitions of the months after that time at once, instead of
+-- deleting their rows one by one, and only deletes rows in bounded batches
+-- from the month the time falls in.
+--
+-- Rows outside the months that have partitions go to a default partition of
+-- each, so partitions for the coming months must be created before those
+-- months start, for example by running
+--
+--     SELECT transitiveclosure_add_months(current_date, current_date + interval '3 months');
+--
+-- every month. A month can not be added once its rows have gone to the
+-- default partition.
+--
+-- Run this once, with the repository stopped, after
+-- partition_transitiveclosure.sql. It copies the table, so it needs about as
+-- much free disk space as the table and its indexes.
+--
+-- Run this, and transitiveclosure_add_months, as the owner of
+-- transitiveclosure, so that the new partitions, which restoring the data
+-- store empties by name, have the same owner. Privileges that other roles
+-- had on the old partitions are not carried over to the new ones.
+
+CREATE OR REPLACE FUNCTION transitiveclosure_add_months(first date, last date)
+RETURNS void AS $$
+DECLARE
+	month date;
+	parent text;
+BEGIN
+	month := date_trunc('month', first);
+	WHILE month <= last LOOP
+		FOREACH parent IN ARRAY ARRAY['transitiveclosure_current', 'transitiveclosure_retired'] LOOP
+			EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)',
+				parent || '_' || to_char(month, 'YYYYMM'), parent,
+				month::timestamp, (month + interval '1 month')::timestamp);
+		END LOOP;
+		month := month + interval '1 month';
+	END LOOP;
+END;
+$$ LANGUAGE plpgsql;
+
+BEGIN;
+
+ALTER TABLE transitiveclosure DETACH PARTITION transitiveclosure_current;
+ALTER TABLE transitiveclosure DETACH PARTITION transitiveclosure_retired;
+ALTER TABLE transitiveclosure_current RENAME TO transitiveclosure_current_unpartitioned;
+ALTER TABLE transitiveclosure_retired RENAME TO transitiveclosure_retired_unpartitioned;
+
+CREATE TABLE transitiveclosure_current PARTITION OF transitiveclosure
+	FOR VALUES IN (NULL) PARTITION BY RANGE (starttime);
+
+CREATE TABLE transitiveclosure_retired PARTITION OF transitiveclosure
+	DEFAULT PARTITION BY RANGE (starttime);
+
+CREATE TABLE transitiveclosure_current_default
+	PARTITION OF transitiveclosure_current DEFAULT;
+
+CREATE TABLE transitiveclosure_retired_default
+	PARTITION OF transitiveclosure_retired DEFAULT;
+
+SELECT transitiveclosure_add_months(
+	(SELECT Coalesce(Min(starttime), now())::date FROM transitiveclosure_current_unpartitioned),
+	current_date + interval '3 months');
+
+SELECT transitiveclosure_add_months(
+	(SELECT Coalesce(Min(starttime), now())::date FROM transitiveclosure_retired_unpartitioned),
+	current_date + interval '3 months');
+
+INSERT INTO transitiveclosure SELECT * FROM transitiveclosure_current_unpartitioned;
+INSERT INTO transitiveclosure SELECT * FROM transitiveclosure_retired_unpartitioned;
+
+-- Restoring finds the months to empty by their earliest starttime, and the
+-- retired rows to bring back by their endtime.
+
+CREATE INDEX transitiveclosure_starttime_idx ON transitiveclosure (starttime);
+
+CREATE INDEX transitiveclosure_endtime_idx ON transitiveclosure (endtime);
+
+DROP TABLE transitiveclosure_current_unpartitioned;
+DROP TABLE transitiveclosure_retired_unpartitioned;
+
+COMMIT;
+
+ANALYZE transitiveclosure;
+
+-- The expressions table is not partitioned, and restoring deletes its rows
+-- in batches found by starttime.
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS expressions_starttime_idx
+	ON expressions (starttime);
@@ -0,0 +1,133 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.decorator.CachingDataStore;
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.embedded.DataStore;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionId;
+
+/**
+ * Tests the hierarchy cache in front of the embedded data store.
+ */
+public class CachingDataStoreTest {
+
+	private static final ExpressionId ROOT = new ExpressionId(138875005L);
+	private static final ExpressionId FINDING = new ExpressionId(404684003L);
+	private static final ExpressionId DISEASE = new ExpressionId(64572001L);
+	private static final ExpressionId ACUTE_DISEASE = new ExpressionId(2704003L);
+	private static final ExpressionId BODY_STRUCTURE = new ExpressionId(
+			123037004L);
+
+	private static final Date RELEASE = new GregorianCalendar(2002, 0, 31)
+			.getTime();
+
+	private DataStore ds;
+
+	private CachingDataStore cache;
+
+	@Before
+	public void setUp() throws Exception {
+		ds = new DataStore();
+		for (ExpressionId id : Arrays.asList(ROOT, FINDING, DISEASE,
+				ACUTE_DISEASE, BODY_STRUCTURE))
+			ds.storeConcept(id, RELEASE);
+		relate(FINDING, ROOT);
+		relate(DISEASE, FINDING);
+		relate(ACUTE_DISEASE, DISEASE);
+		relate(BODY_STRUCTURE, ROOT);
+		cache = new CachingDataStore(ds, 1000);
+	}
+
+	@Test
+	public void testHitsAndMisses() throws Exception {
+		assertEquals(ds.getDescendants(ROOT, null),
+				cache.getDescendants(ROOT, null));
+		assertEquals(ds.getDescendants(ROOT, null),
+				cache.getDescendants(ROOT, null));
+		cache.getDescendants(ROOT, RELEASE);
+		assertEquals(1, cache.getHits());
+		assertEquals(2, cache.getMisses());
+	}
+
+	@Test
+	public void testChangingAReturnedSet() throws Exception {
+		Set<ExpressionId> descendants = cache.getDescendants(FINDING, null);
+		descendants.add(BODY_STRUCTURE);
+		descendants.remove(DISEASE);
+		assertEquals(ds.getDescendants(FINDING, null),
+				cache.getDescendants(FINDING, null));
+		assertEquals(1, cache.getHits());
+	}
+
+	@Test
+	public void testInvalidationByParentsAndChildren() throws Exception {
+		cache.getDescendants(ROOT, null);
+		cache.getChildren(DISEASE, null);
+		cache.getParents(ACUTE_DISEASE, null);
+		cache.getAncestors(ACUTE_DISEASE, null);
+		cache.getDescendants(BODY_STRUCTURE, null);
+
+		ExpressionId id = cache.storeExpression("1", null);
+		cache.storeExpressionParentsAndChildren(id, set(DISEASE),
+				set(ACUTE_DISEASE));
+
+		assertTrue(cache.getDescendants(ROOT, null).contains(id));
+		assertEquals(set(id), cache.getChildren(DISEASE, null));
+		assertEquals(set(id), cache.getParents(ACUTE_DISEASE, null));
+		assertTrue(cache.getAncestors(ACUTE_DISEASE, null).contains(id));
+		// The body structure branch is not affected.
+		long hits = cache.getHits();
+		cache.getDescendants(BODY_STRUCTURE, null);
+		assertEquals(hits + 1, cache.getHits());
+	}
+
+	@Test
+	public void testInvalidationByEquivalence() throws Exception {
+		ExpressionId e1 = cache.storeExpression("2", null);
+		cache.storeExpressionParentsAndChildren(e1, set(DISEASE),
+				Collections.<ExpressionId> emptySet());
+		cache.getDescendants(FINDING, null);
+		cache.getChildren(DISEASE, null);
+
+		ExpressionId e2 = cache.storeExpression("3", null);
+		cache.storeExpressionEquivalence(e2, e1);
+
+		assertTrue(cache.getDescendants(FINDING, null).contains(e2));
+		assertTrue(cache.getChildren(DISEASE, null).contains(e2));
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		// Each of the 16 segments holds one set of the four descendants of
+		// the root.
+		CachingDataStore small = new CachingDataStore(ds, 16 * 8);
+		small.getDescendants(ROOT, null);
+		small.getDescendants(ROOT, RELEASE);
+		assertEquals(1, small.getEvictions());
+		assertEquals(ds.getDescendants(ROOT, null),
+				small.getDescendants(ROOT, null));
+	}
+
+	private void relate(ExpressionId child, ExpressionId parent)
+			throws Exception {
+		ds.storeConceptRelationship(child, parent, true, RELEASE);
+		for (ExpressionId ancestor : ds.getAncestors(parent, null)) {
+			ds.storeConceptRelationship(child, ancestor, false, RELEASE);
+		}
+	}
+
+	private static Set<ExpressionId> set(ExpressionId... ids) {
+		return new HashSet<ExpressionId>(Arrays.asList(ids));
+	}
+
+}
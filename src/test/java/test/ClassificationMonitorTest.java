@@ -0,0 +1,43 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import se.liu.imt.mi.snomedct.expressionrepository.ClassificationMonitor;
+
+/**
+ * Tests that the classification monitor records the taxonomy stages reported
+ * by ELK.
+ */
+public class ClassificationMonitorTest {
+
+	private static void stage(ClassificationMonitor monitor, String name,
+			int size) {
+		monitor.reasonerTaskStarted(name);
+		monitor.reasonerTaskProgressChanged(size / 2, size);
+		monitor.reasonerTaskProgressChanged(size, size);
+		monitor.reasonerTaskStopped();
+	}
+
+	@Test
+	public void testIncrementalClassification() {
+		ClassificationMonitor monitor = new ClassificationMonitor();
+		monitor.reset();
+		stage(monitor, "Loading of Axioms", 1);
+		stage(monitor, "Class Taxonomy Computation", 1000);
+		assertEquals(1000, monitor.getTaxonomyWork());
+		assertEquals(1000, monitor.getTaxonomySize());
+
+		monitor.reset();
+		stage(monitor, "Incremental Additions Initialization", 3);
+		stage(monitor, "Incremental Taxonomy Construction", 5);
+		assertEquals(5, monitor.getTaxonomyWork());
+		assertEquals(1000, monitor.getTaxonomySize());
+		assertTrue(monitor.toString().startsWith(
+				"recomputed 5 classes (0.500% of 1000)"));
+		assertTrue(monitor.toString().contains(
+				"Incremental Taxonomy Construction 5 in"));
+	}
+
+}
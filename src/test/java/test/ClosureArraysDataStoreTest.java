@@ -0,0 +1,44 @@
+package test;
+
+import static org.junit.Assume.assumeTrue;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.junit.BeforeClass;
+
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStoreException;
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.postgresql.DataStore;
+
+/**
+ * Runs the tests of {@link DataStoreTest} with the closure arrays turned on,
+ * so the data store keeps them up to date, reads the hierarchy from them and
+ * restores them. The tests are skipped when <code>add_closure_arrays.sql</code>
+ * has not been run on the test database.
+ */
+public class ClosureArraysDataStoreTest extends DataStoreTest {
+
+	/**
+	 * @throws java.lang.Exception
+	 *             If it is any problems with the database.
+	 */
+	@BeforeClass
+	public static void setUpClosureArrays() throws Exception {
+		final Statement stmt = con.createStatement();
+		try {
+			final ResultSet rs = stmt
+					.executeQuery("SELECT to_regclass('closurearrays') IS NOT NULL");
+			rs.next();
+			assumeTrue(rs.getBoolean(1));
+		} finally {
+			stmt.close();
+		}
+	}
+
+	@Override
+	protected DataStore createDataStore(String url, String username,
+			String password) throws DataStoreException {
+		return new DataStore(url, username, password, 1, false, null, true);
+	}
+
+}
@@ -0,0 +1,57 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.util.Date;
+
+import org.apache.commons.configuration.BaseConfiguration;
+import org.junit.Test;
+
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStore;
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStoreException;
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStoreFactory;
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.decorator.MetricsDataStore;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionId;
+
+/**
+ * Tests that the data store and its decorators are selected from the
+ * configuration.
+ */
+public class DataStoreFactoryTest {
+
+	@Test
+	public void testEmbeddedWithMetrics() throws Exception {
+		BaseConfiguration config = new BaseConfiguration();
+		config.setProperty("datastore.type", "embedded");
+		config.setProperty("datastore.decorators", "metrics");
+		DataStore dataStore = DataStoreFactory.createDataStore(config);
+		assertTrue(dataStore instanceof MetricsDataStore);
+		MetricsDataStore metrics = (MetricsDataStore) dataStore;
+		assertTrue(metrics.getDelegate() instanceof se.liu.imt.mi.snomedct.expressionrepository.datastore.embedded.DataStore);
+
+		ExpressionId id = dataStore.storeExpression("64572001:{116676008=123}",
+				new Date());
+		assertEquals(id,
+				dataStore.getExpressionId("64572001:{116676008=123}", null));
+		assertEquals(1,
+				metrics.getCalls(MetricsDataStore.Operation.STORE_EXPRESSION));
+		assertEquals(1,
+				metrics.getCalls(MetricsDataStore.Operation.GET_EXPRESSION_ID));
+	}
+
+	@Test(expected = DataStoreException.class)
+	public void testUnknownType() throws Exception {
+		BaseConfiguration config = new BaseConfiguration();
+		config.setProperty("datastore.type", "nosuchstore");
+		DataStoreFactory.createDataStore(config);
+	}
+
+	@Test(expected = DataStoreException.class)
+	public void testUnknownDecorator() throws Exception {
+		BaseConfiguration config = new BaseConfiguration();
+		config.setProperty("datastore.type", "embedded");
+		config.setProperty("datastore.decorators", "nosuchdecorator");
+		DataStoreFactory.createDataStore(config);
+	}
+
+}
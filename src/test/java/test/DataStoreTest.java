@@ -3,16 +3,21 @@
  */
 package test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashSet;
@@ -62,7 +67,7 @@ public class DataStoreTest {
 	 * A <code>Connection</code> to use for preparation before and clean up
 	 * after the tests.
 	 */
-	private static Connection con = null;
+	protected static Connection con = null;
 	/**
 	 * A <code>Statement</code> to use for preparation before and clean up after
 	 * the tests.
@@ -122,7 +127,25 @@ public class DataStoreTest {
 	@Before
 	public void setUp() throws Exception {
 		// Fetch the database connection details.
-		ds = new DataStore(url, username, password);
+		ds = createDataStore(url, username, password);
+	}
+
+	/**
+	 * Create the data store to test.
+	 * 
+	 * @param url
+	 *            The url to the database.
+	 * @param username
+	 *            The user name to the database.
+	 * @param password
+	 *            The password to the database.
+	 * @return The data store.
+	 * @throws DataStoreException
+	 *             If it is any problems with the database.
+	 */
+	protected DataStore createDataStore(String url, String username,
+			String password) throws DataStoreException {
+		return new DataStore(url, username, password);
 	}
 
 	/**
@@ -2042,6 +2065,208 @@ public class DataStoreTest {
 
 	}
 
+	/**
+	 * Test method for
+	 * {@link se.liu.imt.mi.snomedct.expressionrepository.datastore.postgresql.DataStoreService#restoreDataStore(java.util.Date)}
+	 * . The expressions stored after the time are removed and the direct
+	 * relation they retired is made current again.
+	 */
+	@Test
+	public final void testRestoreDataStore() throws Throwable {
+		final ExpressionId conceptDisease = new ExpressionId((long) 64572001);
+		final ExpressionId expressionId;
+		final ExpressionId expressionChildId;
+		final ExpressionId expressionBetweenId;
+		final Date restoreTime;
+
+		try {
+			expressionId = ds.storeExpression("130", null);
+			ds.storeExpressionParentsAndChildren(expressionId,
+					set(conceptDisease), new HashSet<ExpressionId>());
+			expressionChildId = ds.storeExpression("131", null);
+			ds.storeExpressionParentsAndChildren(expressionChildId,
+					set(expressionId), new HashSet<ExpressionId>());
+			restoreTime = databaseTime();
+			expressionBetweenId = ds.storeExpression("132", null);
+			ds.storeExpressionParentsAndChildren(expressionBetweenId,
+					set(expressionId), set(expressionChildId));
+			assertEquals(set(expressionBetweenId),
+					ds.getParents(expressionChildId, null));
+
+			new DataStoreService(url, username, password)
+					.restoreDataStore(restoreTime);
+		} catch (DataStoreException | NonExistingIdException
+				| RelativeAlreadySetException
+				| ExpressionAlreadyExistsException | SQLException e) {
+			throw new AssertionError(e);
+		}
+
+		assertRestored("132", expressionId, expressionChildId);
+	}
+
+	/**
+	 * Test method for
+	 * {@link se.liu.imt.mi.snomedct.expressionrepository.datastore.postgresql.DataStoreService#restoreDataStore(java.util.Date)}
+	 * . A restore that was interrupted after the later rows of the
+	 * transitiveclosure table were deleted is completed by running it again,
+	 * and running it once more changes nothing.
+	 */
+	@Test
+	public final void testRestoreDataStoreAfterInterruption()
+			throws Throwable {
+		final ExpressionId conceptDisease = new ExpressionId((long) 64572001);
+		final ExpressionId expressionId;
+		final ExpressionId expressionChildId;
+		final ExpressionId expressionBetweenId;
+		final Date restoreTime;
+
+		try {
+			expressionId = ds.storeExpression("140", null);
+			ds.storeExpressionParentsAndChildren(expressionId,
+					set(conceptDisease), new HashSet<ExpressionId>());
+			expressionChildId = ds.storeExpression("141", null);
+			ds.storeExpressionParentsAndChildren(expressionChildId,
+					set(expressionId), new HashSet<ExpressionId>());
+			restoreTime = databaseTime();
+			expressionBetweenId = ds.storeExpression("142", null);
+			ds.storeExpressionParentsAndChildren(expressionBetweenId,
+					set(expressionId), set(expressionChildId));
+
+			// The first step of the restore, as if it was interrupted after
+			// it.
+			final PreparedStatement delete = con
+					.prepareStatement("DELETE FROM transitiveclosure WHERE starttime > ?");
+			try {
+				delete.setTimestamp(1, new Timestamp(restoreTime.getTime()));
+				delete.executeUpdate();
+			} finally {
+				delete.close();
+			}
+
+			new DataStoreService(url, username, password)
+					.restoreDataStore(restoreTime);
+		} catch (DataStoreException | NonExistingIdException
+				| RelativeAlreadySetException
+				| ExpressionAlreadyExistsException | SQLException e) {
+			throw new AssertionError(e);
+		}
+		assertRestored("142", expressionId, expressionChildId);
+
+		new DataStoreService(url, username, password)
+				.restoreDataStore(restoreTime);
+		assertRestored("142", expressionId, expressionChildId);
+	}
+
+	/**
+	 * Test method for
+	 * {@link se.liu.imt.mi.snomedct.expressionrepository.datastore.postgresql.DataStoreService#restoreDataStore(java.util.Date)}
+	 * . A partition of the transitiveclosure table whose rows all start after
+	 * the time is emptied. The test is skipped when
+	 * <code>partition_transitiveclosure.sql</code> has not been run on the test
+	 * database.
+	 */
+	@Test
+	public final void testRestoreDataStorePartitioned() throws Throwable {
+		final ExpressionId conceptDisease = new ExpressionId((long) 64572001);
+		final ExpressionId expressionId;
+		final Date restoreTime;
+
+		final ResultSet rs = stmt
+				.executeQuery("SELECT relkind = 'p' FROM pg_class WHERE oid = 'transitiveclosure'::regclass");
+		rs.next();
+		assumeTrue(rs.getBoolean(1));
+		rs.close();
+
+		// A partition that only holds the row inserted below.
+		stmt.executeUpdate("CREATE TABLE transitiveclosure_restoretest "
+				+ "PARTITION OF transitiveclosure FOR VALUES IN ('2999-12-31')");
+		try {
+			restoreTime = databaseTime();
+			expressionId = ds.storeExpression("150", null);
+			final PreparedStatement insert = con
+					.prepareStatement("INSERT INTO transitiveclosure "
+							+ "(sourceid, destinationid, starttime, endtime, directrelation) "
+							+ "VALUES (?, ?, clock_timestamp(), '2999-12-31', true)");
+			try {
+				insert.setLong(1, expressionId.getId());
+				insert.setLong(2, conceptDisease.getId());
+				insert.executeUpdate();
+			} finally {
+				insert.close();
+			}
+
+			new DataStoreService(url, username, password)
+					.restoreDataStore(restoreTime);
+
+			final ResultSet count = stmt
+					.executeQuery("SELECT count(*) FROM transitiveclosure_restoretest");
+			count.next();
+			assertEquals(0, count.getLong(1));
+			count.close();
+			final DataStore restored = createDataStore(url, username,
+					password);
+			try {
+				assertNull(restored.getExpressionId("150", null));
+			} finally {
+				restored.finalize();
+			}
+		} finally {
+			stmt.executeUpdate("DROP TABLE transitiveclosure_restoretest");
+		}
+	}
+
+	/**
+	 * Check that a data store restored by the restore tests has the state
+	 * from before the expression in between was stored.
+	 * 
+	 * @param expressionBetween
+	 *            The expression stored after the restore time.
+	 * @param expressionId
+	 *            The id of the parent expression.
+	 * @param expressionChildId
+	 *            The id of the child expression.
+	 * @throws Throwable
+	 *             If it is any problems with the database.
+	 */
+	private void assertRestored(String expressionBetween,
+			ExpressionId expressionId, ExpressionId expressionChildId)
+			throws Throwable {
+		// A new data store, so nothing is read from what ds has cached.
+		final DataStore restored = createDataStore(url, username, password);
+		try {
+			assertNull(restored.getExpressionId(expressionBetween, null));
+			assertEquals(set(expressionId),
+					restored.getParents(expressionChildId, null));
+			assertEquals(set(expressionChildId),
+					restored.getChildren(expressionId, null));
+			final Set<ExpressionId> ancestors = new HashSet<ExpressionId>(
+					restored.getAncestors(expressionId, null));
+			ancestors.add(expressionId);
+			assertEquals(ancestors,
+					restored.getAncestors(expressionChildId, null));
+		} finally {
+			restored.finalize();
+		}
+	}
+
+	/**
+	 * @return The current time of the dbms, which stamps the stored rows.
+	 * @throws SQLException
+	 *             If it is any problems with the database.
+	 */
+	private static Date databaseTime() throws SQLException {
+		final ResultSet rs = stmt
+				.executeQuery("SELECT clock_timestamp()::timestamp");
+		rs.next();
+		final Date time = rs.getTimestamp(1);
+		rs.close();
+		return time;
+	}
+
+	private static Set<ExpressionId> set(ExpressionId... ids) {
+		return new HashSet<ExpressionId>(Arrays.asList(ids));
+	}
+
 	/**
 	 * Convert a <code>Date</code> to a <code>String</code> suitable to use in
 	 * SQL queries.
@@ -0,0 +1,403 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.configuration.BaseConfiguration;
+import org.apache.commons.configuration.Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import se.liu.imt.mi.snomedct.expressionrepository.api.ExpressionAlreadyExistsException;
+import se.liu.imt.mi.snomedct.expressionrepository.api.NonExistingIdException;
+import se.liu.imt.mi.snomedct.expressionrepository.api.RelativeAlreadySetException;
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStore.ExpressionHandler;
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStore.RelativesHandler;
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStoreException;
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.embedded.DataStore;
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.embedded.EmbeddedDataStoreProvider;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.Expression;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionId;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionRelatives;
+
+/**
+ * Tests the embedded data store against a small part of the SNOMED CT
+ * hierarchy, with the same expectations as the PostgreSQL data store tests.
+ */
+public class EmbeddedDataStoreTest {
+
+	private static final ExpressionId ROOT = new ExpressionId(138875005L);
+	private static final ExpressionId FINDING = new ExpressionId(404684003L);
+	private static final ExpressionId DISEASE = new ExpressionId(64572001L);
+	private static final ExpressionId ACUTE_DISEASE = new ExpressionId(2704003L);
+	private static final ExpressionId PROCEDURE = new ExpressionId(71388002L);
+	private static final ExpressionId PROCEDURE_BY_METHOD = new ExpressionId(
+			128927009L);
+	private static final ExpressionId BODY_STRUCTURE = new ExpressionId(
+			123037004L);
+
+	private static final Date RELEASE = new GregorianCalendar(2002, 0, 31)
+			.getTime();
+
+	private File journal;
+
+	private DataStore ds;
+
+	@Before
+	public void setUp() throws Exception {
+		journal = File.createTempFile("journal", ".bin");
+		journal.delete();
+		ds = new DataStore(journal);
+		for (ExpressionId id : Arrays.asList(ROOT, FINDING, DISEASE,
+				ACUTE_DISEASE, PROCEDURE, PROCEDURE_BY_METHOD, BODY_STRUCTURE)) {
+			ds.storeConcept(id, RELEASE);
+		}
+		relate(FINDING, ROOT);
+		relate(DISEASE, FINDING);
+		relate(ACUTE_DISEASE, DISEASE);
+		relate(PROCEDURE, ROOT);
+		relate(PROCEDURE_BY_METHOD, PROCEDURE);
+		relate(BODY_STRUCTURE, ROOT);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		ds.close();
+		journal.delete();
+	}
+
+	@Test
+	public void testStoreExpression() throws Exception {
+		final Date insertTime = new GregorianCalendar(2110, 12, 3, 16, 14, 32)
+				.getTime();
+		final ExpressionId id = ds.storeExpression("20", insertTime);
+		assertTrue(id.getId() < 0);
+		assertEquals(id, ds.getExpressionId("20", null));
+		assertEquals(id, ds.getExpressionId("20", insertTime));
+		assertNull(ds.getExpressionId("20", RELEASE));
+		assertEquals("20", ds.getExpression(id, insertTime));
+		assertTrue(ds.isExistingId(id, null));
+		assertFalse(ds.isExistingId(id, RELEASE));
+		try {
+			ds.storeExpression("20", null);
+			fail("A ExpressionAlreadyExistsException should be thrown when inserting multiple versions of the same expression.");
+		} catch (ExpressionAlreadyExistsException e) {
+			// Everything is correct.
+		}
+		try {
+			ds.getExpression(DISEASE, null);
+			fail("A concept id is not an expression id.");
+		} catch (NonExistingIdException e) {
+			// Everything is correct.
+		}
+	}
+
+	@Test
+	public void testForEachExpression() throws Exception {
+		final Date insertTime = new GregorianCalendar(2110, 12, 3, 16, 14, 32)
+				.getTime();
+		ds.storeExpression("21", null);
+		ds.storeExpression("22", insertTime);
+		final Set<Expression> handled = new HashSet<Expression>();
+		ds.forEachExpression(null, new ExpressionHandler() {
+			@Override
+			public void handle(Expression expression) {
+				assertTrue(handled.add(expression));
+			}
+		});
+		assertEquals(ds.getAllExpressions(null), handled);
+		handled.clear();
+		ds.forEachExpression(RELEASE, new ExpressionHandler() {
+			@Override
+			public void handle(Expression expression) {
+				handled.add(expression);
+			}
+		});
+		assertTrue(handled.isEmpty());
+	}
+
+	@Test
+	public void testStoreExpressionEquivalence() throws Exception {
+		final ExpressionId expression1Id = ds.storeExpression("31", null);
+		final ExpressionId expression2Id = ds.storeExpression("32", null);
+		final ExpressionId expression3Id = ds.storeExpression("33", null);
+		ds.storeExpressionEquivalence(expression1Id, BODY_STRUCTURE);
+		ds.storeExpressionEquivalence(expression2Id, expression1Id);
+		assertTrue(ds.isEquivalent(expression2Id, BODY_STRUCTURE, null));
+		assertTrue(ds.getDescendants(ROOT, null).containsAll(
+				Arrays.asList(expression1Id, expression2Id)));
+
+		ds.storeExpressionEquivalence(expression3Id, expression1Id);
+		try {
+			ds.storeExpressionEquivalence(expression3Id, expression2Id);
+			fail("A RelativeAlreadySetException should be thrown when setting an already set expression equivalence id.");
+		} catch (RelativeAlreadySetException e) {
+			// Everything is correct.
+		}
+	}
+
+	@Test
+	public void testStoreExpressionParentsAndChildren() throws Exception {
+		final Set<ExpressionId> ancestors = ds.getAncestors(ACUTE_DISEASE,
+				null);
+		final Set<ExpressionId> descendants = ds.getDescendants(ACUTE_DISEASE,
+				null);
+		final ExpressionId expressionId = ds.storeExpression("40", null);
+		final ExpressionId parentId = ds.storeExpression("41", null);
+		final ExpressionId child1Id = ds.storeExpression("42", null);
+		final ExpressionId child2Id = ds.storeExpression("43", null);
+		final Set<ExpressionId> parents = set(parentId, DISEASE);
+		final Set<ExpressionId> children = set(child1Id, child2Id,
+				ACUTE_DISEASE);
+		final Set<ExpressionId> expectedAncestors = new HashSet<ExpressionId>(
+				ancestors);
+		expectedAncestors.addAll(parents);
+		final Set<ExpressionId> expectedDescendants = new HashSet<ExpressionId>(
+				descendants);
+		expectedDescendants.addAll(children);
+
+		// Leave a moment between the old and new hierarchy.
+		Thread.sleep(5);
+		final Date before = new Date();
+		Thread.sleep(5);
+		ds.storeExpressionParentsAndChildren(expressionId, parents, children);
+
+		assertEquals(parents, ds.getParents(expressionId, null));
+		assertEquals(children, ds.getChildren(expressionId, null));
+		assertEquals(expectedAncestors, ds.getAncestors(expressionId, null));
+		assertEquals(expectedDescendants, ds.getDescendants(expressionId, null));
+
+		// The direct relation between the child and the parent is replaced.
+		assertEquals(set(expressionId), ds.getParents(ACUTE_DISEASE, null));
+		assertEquals(set(DISEASE), ds.getParents(ACUTE_DISEASE, before));
+		assertTrue(ds.getAncestors(ACUTE_DISEASE, null).contains(DISEASE));
+		assertFalse(ds.getDescendants(DISEASE, before).contains(expressionId));
+		assertTrue(ds.isSubsumingNotEquivalent(DISEASE, expressionId, null));
+		assertFalse(ds.isSubsumingNotEquivalent(DISEASE, expressionId, before));
+
+		try {
+			ds.storeExpressionParentsAndChildren(expressionId, parents,
+					children);
+			fail("A RelativeAlreadySetException should be thrown when setting the relatives again.");
+		} catch (RelativeAlreadySetException e) {
+			// Everything is correct.
+		}
+	}
+
+	@Test
+	public void testIsSubsumingNotEquivalent() throws Exception {
+		final ExpressionId equalToProcedure = ds.storeExpression("71388002",
+				null);
+		ds.storeExpressionEquivalence(equalToProcedure, PROCEDURE);
+		final ExpressionId equalToProcedureByMethod = ds.storeExpression(
+				"128927009", null);
+		ds.storeExpressionEquivalence(equalToProcedureByMethod,
+				PROCEDURE_BY_METHOD);
+
+		assertTrue(ds.isSubsumingNotEquivalent(PROCEDURE, PROCEDURE_BY_METHOD,
+				null));
+		assertFalse(ds.isSubsumingNotEquivalent(PROCEDURE_BY_METHOD, PROCEDURE,
+				null));
+		assertFalse(ds.isSubsumingNotEquivalent(PROCEDURE, BODY_STRUCTURE, null));
+		assertFalse(ds.isSubsumingNotEquivalent(PROCEDURE, PROCEDURE, null));
+		assertTrue(ds.isSubsumingNotEquivalent(equalToProcedure,
+				equalToProcedureByMethod, null));
+		assertFalse(ds.isSubsumingNotEquivalent(PROCEDURE, equalToProcedure,
+				null));
+		assertTrue(ds.isSubsuming(PROCEDURE, equalToProcedure, null));
+		assertTrue(ds.isSubsumingNotEquivalent(PROCEDURE, PROCEDURE_BY_METHOD,
+				RELEASE));
+		assertFalse(ds.isSubsumingNotEquivalent(PROCEDURE, PROCEDURE_BY_METHOD,
+				new GregorianCalendar(2001, 0, 1).getTime()));
+	}
+
+	@Test
+	public void testFailedBatchStoresNothing() throws Exception {
+		final ExpressionId first = ds.storeExpression("50", null);
+		final ExpressionId second = ds.storeExpression("51", null);
+		try {
+			ds.storeExpressionRelatives(Arrays.asList(new ExpressionRelatives(
+					first, set(DISEASE), Collections.<ExpressionId> emptySet()),
+					new ExpressionRelatives(second, new ExpressionId(-999L))));
+			fail("A NonExistingIdException should be thrown for the unknown equivalent id.");
+		} catch (NonExistingIdException e) {
+			// Everything is correct.
+		}
+		assertTrue(ds.getParents(first, null).isEmpty());
+		ds.storeExpressionParentsAndChildren(first, set(DISEASE),
+				Collections.<ExpressionId> emptySet());
+		assertEquals(set(DISEASE), ds.getParents(first, null));
+	}
+
+	@Test
+	public void testStoreExpressionsAndRelatives() throws Exception {
+		final List<ExpressionId> ids = ds.storeExpressionsAndRelatives(
+				Arrays.asList("70", "71"), null, new RelativesHandler() {
+					@Override
+					public List<ExpressionRelatives> getRelatives(
+							List<ExpressionId> ids) {
+						return Arrays.asList(new ExpressionRelatives(ids
+								.get(0), set(DISEASE), set(ACUTE_DISEASE)),
+								new ExpressionRelatives(ids.get(1), set(ids
+										.get(0)), Collections
+										.<ExpressionId> emptySet()));
+					}
+				});
+		assertEquals(ids.get(0), ds.getExpressionId("70", null));
+		assertEquals(set(ids.get(0)), ds.getParents(ids.get(1), null));
+		assertTrue(ds.getAncestors(ACUTE_DISEASE, null).contains(ids.get(0)));
+	}
+
+	@Test
+	public void testFailedHandlerStoresNothing() throws Exception {
+		try {
+			ds.storeExpressionsAndRelatives(Arrays.asList("72"), null,
+					new RelativesHandler() {
+						@Override
+						public List<ExpressionRelatives> getRelatives(
+								List<ExpressionId> ids)
+								throws DataStoreException {
+							throw new DataStoreException("Not classified");
+						}
+					});
+			fail("The handler's DataStoreException should be thrown.");
+		} catch (DataStoreException e) {
+			// Everything is correct.
+		}
+		assertNull(ds.getExpressionId("72", null));
+		assertNotNull(ds.storeExpression("72", null));
+	}
+
+	@Test
+	public void testReplayJournal() throws Exception {
+		final ExpressionId expressionId = ds.storeExpression("60", null);
+		ds.storeExpressionParentsAndChildren(expressionId, set(DISEASE),
+				set(ACUTE_DISEASE));
+		final ExpressionId equivalentId = ds.storeExpression("61", null);
+		ds.storeExpressionEquivalence(equivalentId, expressionId);
+		ds.close();
+
+		// A partly written record at the end is cut off.
+		final RandomAccessFile raf = new RandomAccessFile(journal, "rw");
+		final long length = raf.length();
+		raf.seek(length);
+		raf.writeInt(1000);
+		raf.writeByte(3);
+		raf.close();
+
+		ds = new DataStore(journal);
+		assertEquals(length, journal.length());
+		assertEquals(expressionId, ds.getExpressionId("60", null));
+		assertEquals(set(expressionId, equivalentId),
+				ds.getParents(ACUTE_DISEASE, null));
+		assertTrue(ds.isEquivalent(equivalentId, expressionId, null));
+		assertEquals(new ExpressionId(expressionId.getId() - 2),
+				ds.storeExpression("62", null));
+	}
+
+	@Test
+	public void testImportTables() throws Exception {
+		final File concepts = File.createTempFile("concepts", ".tsv");
+		final File closure = File.createTempFile("transitiveclosure", ".tsv");
+		try {
+			write(concepts, "138875005\t2002-01-31 00:00:00\n"
+					+ "404684003\t2002-01-31 00:00:00\n"
+					+ "64572001\t2002-01-31 00:00:00\n");
+			write(closure, "404684003\t138875005\t2002-01-31 00:00:00\ttrue\n"
+					+ "64572001\t404684003\t2002-01-31 00:00:00\ttrue\n"
+					+ "64572001\t138875005\t2002-01-31 00:00:00\tfalse\n");
+			final DataStore imported = new DataStore();
+			imported.importTables(concepts, closure);
+			assertEquals(set(FINDING, DISEASE),
+					imported.getDescendants(ROOT, null));
+			assertEquals(set(FINDING), imported.getChildren(ROOT, null));
+			assertTrue(imported.isSubsumingNotEquivalent(ROOT, DISEASE, null));
+		} finally {
+			concepts.delete();
+			closure.delete();
+		}
+	}
+
+	@Test
+	public void testInterruptedImport() throws Exception {
+		final File concepts = File.createTempFile("concepts", ".tsv");
+		final File closure = File.createTempFile("transitiveclosure", ".tsv");
+		final File importJournal = File.createTempFile("journal", ".bin");
+		importJournal.delete();
+		try {
+			write(concepts, "138875005\t2002-01-31 00:00:00\n"
+					+ "404684003\t2002-01-31 00:00:00\n"
+					+ "64572001\t2002-01-31 00:00:00\n");
+			write(closure, "404684003\t138875005\t2002-01-31 00:00:00\ttrue\n"
+					+ "64572001\t404684003\t2002-01-31 00:00:00\ttrue\n"
+					+ "64572001\t138875005\t2002-01-31 00:00:00\tfalse\n");
+			DataStore imported = new DataStore(importJournal);
+			imported.importTables(concepts, closure);
+			imported.close();
+
+			// Keep only the first record, with the concepts.
+			final RandomAccessFile raf = new RandomAccessFile(importJournal,
+					"rw");
+			raf.setLength(12 + raf.readInt());
+			raf.close();
+			imported = new DataStore(importJournal);
+			assertTrue(imported.isImportInterrupted());
+			assertFalse(imported.isEmpty());
+			imported.close();
+
+			final Configuration config = new BaseConfiguration();
+			config.setProperty("datastore.embedded.journal",
+					importJournal.getPath());
+			config.setProperty("datastore.embedded.concepts",
+					concepts.getPath());
+			config.setProperty("datastore.embedded.transitiveclosure",
+					closure.getPath());
+			imported = (DataStore) new EmbeddedDataStoreProvider()
+					.createDataStore(config);
+			assertFalse(imported.isImportInterrupted());
+			assertEquals(set(FINDING, DISEASE),
+					imported.getDescendants(ROOT, null));
+			imported.close();
+		} finally {
+			concepts.delete();
+			closure.delete();
+			importJournal.delete();
+		}
+	}
+
+	private void relate(ExpressionId child, ExpressionId parent)
+			throws Exception {
+		ds.storeConceptRelationship(child, parent, true, RELEASE);
+		for (ExpressionId ancestor : ds.getAncestors(parent, null)) {
+			ds.storeConceptRelationship(child, ancestor, false, RELEASE);
+		}
+	}
+
+	private static void write(File file, String content) throws Exception {
+		final Writer out = new OutputStreamWriter(new FileOutputStream(file),
+				"UTF-8");
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static Set<ExpressionId> set(ExpressionId... ids) {
+		return new HashSet<ExpressionId>(Arrays.asList(ids));
+	}
+
+}
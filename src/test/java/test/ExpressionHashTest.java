@@ -0,0 +1,27 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.postgresql.ExpressionHash;
+
+/**
+ * Tests that the expression hash is the same as
+ * <code>md5(expression)::uuid</code> in PostgreSQL.
+ */
+public class ExpressionHashTest {
+
+	@Test
+	public void testSameAsPostgreSQL() {
+		// SELECT md5('')::uuid;
+		assertEquals("d41d8cd9-8f00-b204-e980-0998ecf8427e",
+				ExpressionHash.of(""));
+		// SELECT md5('abc')::uuid;
+		assertEquals("90015098-3cd2-4fb0-d696-3f7d28e17f72",
+				ExpressionHash.of("abc"));
+		assertFalse(ExpressionHash.of("64572001:{116676008=123}").equals(
+				ExpressionHash.of("64572001:{116676008=124}")));
+	}
+
+}
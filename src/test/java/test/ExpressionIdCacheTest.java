@@ -0,0 +1,97 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import se.liu.imt.mi.snomedct.expressionrepository.ExpressionIdCache;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionId;
+
+/**
+ * Tests the expression id cache.
+ */
+public class ExpressionIdCacheTest {
+
+	@Test
+	public void testSingleFlight() throws Exception {
+		final ExpressionIdCache cache = new ExpressionIdCache(100);
+		final AtomicInteger loads = new AtomicInteger();
+		final CountDownLatch release = new CountDownLatch(1);
+		final Callable<ExpressionId> loader = new Callable<ExpressionId>() {
+			@Override
+			public ExpressionId call() throws Exception {
+				loads.incrementAndGet();
+				release.await();
+				return new ExpressionId(-1L);
+			}
+		};
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<ExpressionId>> results = new ArrayList<Future<ExpressionId>>();
+			for (int i = 0; i < 8; i++)
+				results.add(executor.submit(new Callable<ExpressionId>() {
+					@Override
+					public ExpressionId call() throws Exception {
+						return cache.get("64572001:{116676008=123}", loader);
+					}
+				}));
+			Thread.sleep(200);
+			release.countDown();
+			for (Future<ExpressionId> result : results)
+				assertEquals(new ExpressionId(-1L), result.get());
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(1, loads.get());
+		assertEquals(new ExpressionId(-1L),
+				cache.get("64572001:{116676008=123}"));
+	}
+
+	@Test
+	public void testFailureIsNotCached() throws Exception {
+		ExpressionIdCache cache = new ExpressionIdCache(100);
+		try {
+			cache.get("x", new Callable<ExpressionId>() {
+				@Override
+				public ExpressionId call() throws Exception {
+					throw new IllegalArgumentException("x");
+				}
+			});
+			fail("The loader's exception should be thrown.");
+		} catch (IllegalArgumentException e) {
+			// Everything is correct.
+		}
+		assertNull(cache.get("x"));
+	}
+
+	@Test
+	public void testSizeBound() {
+		ExpressionIdCache cache = new ExpressionIdCache(32);
+		for (int i = 0; i < 1000; i++)
+			cache.put(Integer.toString(i), new ExpressionId((long) -i));
+		assertTrue(cache.size() <= 32);
+		cache.put("null", null);
+		assertNull(cache.get("null"));
+	}
+
+	@Test
+	public void testRecentlyUsedIsKept() {
+		ExpressionIdCache cache = new ExpressionIdCache(64);
+		cache.put("64572001", new ExpressionId(64572001L));
+		for (int i = 0; i < 1000; i++) {
+			cache.put(Integer.toString(i), new ExpressionId((long) -i));
+			assertEquals(new ExpressionId(64572001L), cache.get("64572001"));
+		}
+		assertTrue(cache.size() <= 64);
+	}
+
+}
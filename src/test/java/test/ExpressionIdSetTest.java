@@ -0,0 +1,77 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.junit.Test;
+
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionId;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionIdSet;
+
+/**
+ * Tests the primitive expression id set.
+ */
+public class ExpressionIdSetTest {
+
+	@Test
+	public void testSetContract() {
+		ExpressionIdSet set = new ExpressionIdSet(404684003L, -1L, 138875005L,
+				-1L);
+		Set<ExpressionId> expected = new HashSet<ExpressionId>();
+		expected.add(new ExpressionId(404684003L));
+		expected.add(new ExpressionId(-1L));
+		expected.add(new ExpressionId(138875005L));
+
+		assertEquals(3, set.size());
+		assertEquals(expected, set);
+		assertEquals(set, expected);
+		assertEquals(expected.hashCode(), set.hashCode());
+		assertTrue(set.contains(new ExpressionId(-1L)));
+		assertFalse(set.contains(new ExpressionId(-2L)));
+		assertFalse(set.contains("-1"));
+		assertArrayEquals(new long[] { -1L, 138875005L, 404684003L },
+				set.toLongArray());
+		assertEquals(set, new ExpressionIdSet(expected));
+	}
+
+	@Test
+	public void testChanges() {
+		ExpressionIdSet set = new ExpressionIdSet(3L, 1L);
+		assertTrue(set.add(new ExpressionId(2L)));
+		assertFalse(set.add(new ExpressionId(2L)));
+		assertTrue(set.add(new ExpressionId(4L)));
+		assertTrue(set.remove(new ExpressionId(1L)));
+		assertFalse(set.remove(new ExpressionId(1L)));
+		assertArrayEquals(new long[] { 2L, 3L, 4L }, set.toLongArray());
+
+		Iterator<ExpressionId> i = set.iterator();
+		assertEquals(new ExpressionId(2L), i.next());
+		assertEquals(new ExpressionId(3L), i.next());
+		i.remove();
+		assertEquals(new ExpressionId(4L), i.next());
+		assertFalse(i.hasNext());
+		assertArrayEquals(new long[] { 2L, 4L }, set.toLongArray());
+
+		set.clear();
+		assertTrue(set.isEmpty());
+	}
+
+	@Test
+	public void testCopyOnWrite() {
+		ExpressionIdSet set = new ExpressionIdSet(1L, 2L);
+		ExpressionIdSet copy = new ExpressionIdSet(set);
+		copy.add(new ExpressionId(3L));
+		set.remove(new ExpressionId(1L));
+		assertArrayEquals(new long[] { 1L, 2L, 3L }, copy.toLongArray());
+		assertArrayEquals(new long[] { 2L }, set.toLongArray());
+
+		// A copy of a changed set does not see its later changes.
+		ExpressionIdSet later = new ExpressionIdSet(copy);
+		copy.add(new ExpressionId(4L));
+		assertArrayEquals(new long[] { 1L, 2L, 3L }, later.toLongArray());
+	}
+
+}
@@ -0,0 +1,104 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.antlr.runtime.tree.Tree;
+import org.junit.Test;
+
+import se.liu.imt.mi.snomedct.expressionrepository.ExpressionPipeline;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionId;
+
+/**
+ * Tests that the expression pipeline writes concurrently submitted
+ * expressions in batches.
+ */
+public class ExpressionPipelineTest {
+
+	/**
+	 * Gives each expression an id from a counter, and can hold the first
+	 * batch until released.
+	 */
+	private static class CountingWriter implements
+			ExpressionPipeline.BatchWriter {
+
+		final AtomicInteger batches = new AtomicInteger();
+		final AtomicInteger next = new AtomicInteger();
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release;
+
+		CountingWriter(boolean hold) {
+			release = new CountDownLatch(hold ? 1 : 0);
+		}
+
+		@Override
+		public Map<String, ExpressionId> write(Map<String, Tree> parseTrees)
+				throws Exception {
+			batches.incrementAndGet();
+			started.countDown();
+			release.await();
+			Map<String, ExpressionId> ids = new HashMap<String, ExpressionId>();
+			for (String expression : parseTrees.keySet()) {
+				if (expression.equals("invalid"))
+					throw new IllegalArgumentException(expression);
+				ids.put(expression, new ExpressionId((long) -next
+						.incrementAndGet()));
+			}
+			return ids;
+		}
+	}
+
+	@Test
+	public void testCoalesce() throws Exception {
+		CountingWriter writer = new CountingWriter(true);
+		ExpressionPipeline pipeline = new ExpressionPipeline(writer, 100, 50,
+				0);
+		Future<ExpressionId> first = pipeline.submit("first", null);
+		writer.started.await();
+
+		// submitted while the first batch is written
+		List<Future<ExpressionId>> waiting = new ArrayList<Future<ExpressionId>>();
+		for (int i = 0; i < 20; i++)
+			waiting.add(pipeline.submit("e" + (i % 10), null));
+		assertEquals(20, pipeline.getQueueDepth());
+		writer.release.countDown();
+
+		assertEquals(new ExpressionId(-1L), first.get());
+		for (int i = 0; i < 10; i++)
+			assertEquals(waiting.get(i).get(), waiting.get(i + 10).get());
+		assertEquals(2, writer.batches.get());
+		assertEquals(2, pipeline.getBatches());
+		assertEquals(11, pipeline.getExpressions());
+		assertEquals(0, pipeline.getQueueDepth());
+	}
+
+	@Test
+	public void testFailedBatch() throws Exception {
+		CountingWriter writer = new CountingWriter(true);
+		ExpressionPipeline pipeline = new ExpressionPipeline(writer, 100, 50,
+				0);
+		Future<ExpressionId> first = pipeline.submit("first", null);
+		writer.started.await();
+		Future<ExpressionId> valid = pipeline.submit("valid", null);
+		Future<ExpressionId> invalid = pipeline.submit("invalid", null);
+		writer.release.countDown();
+
+		first.get();
+		assertNotNull(valid.get());
+		try {
+			invalid.get();
+			fail("The invalid expression should fail.");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+	}
+
+}
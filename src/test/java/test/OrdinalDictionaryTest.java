@@ -0,0 +1,73 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.OrdinalDictionary;
+
+/**
+ * Tests the ordinal dictionary, in memory and backed by a file.
+ */
+public class OrdinalDictionaryTest {
+
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("ordinals", ".bin");
+		file.delete();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		file.delete();
+	}
+
+	@Test
+	public void testDenseOrdinals() throws Exception {
+		OrdinalDictionary dictionary = new OrdinalDictionary();
+		for (long i = 0; i < 10000; i++) {
+			assertEquals(i, dictionary.addId(100000000000000L + i * 1000));
+		}
+		assertEquals(10000, dictionary.size());
+		assertEquals(42, dictionary.addId(100000000000000L + 42 * 1000));
+		assertEquals(10000, dictionary.size());
+		assertEquals(100000000000000L + 4711 * 1000, dictionary.getId(4711));
+		assertEquals(-1, dictionary.getOrdinal(-5));
+		assertEquals(10000, dictionary.addId(-5));
+	}
+
+	@Test
+	public void testPersistence() throws Exception {
+		OrdinalDictionary dictionary = new OrdinalDictionary(file);
+		dictionary.addId(138875005L);
+		dictionary.addId(-1L);
+		dictionary.addId(404684003L);
+		dictionary.close();
+
+		// Simulate a crash in the middle of writing an id.
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.seek(raf.length());
+		raf.write(new byte[] { 1, 2, 3 });
+		raf.close();
+
+		dictionary = new OrdinalDictionary(file);
+		assertEquals(3, dictionary.size());
+		assertEquals(0, dictionary.getOrdinal(138875005L));
+		assertEquals(1, dictionary.getOrdinal(-1L));
+		assertEquals(2, dictionary.getOrdinal(404684003L));
+		assertEquals(3, dictionary.addId(-2L));
+		dictionary.close();
+
+		dictionary = new OrdinalDictionary(file);
+		assertEquals(3, dictionary.getOrdinal(-2L));
+		dictionary.close();
+	}
+
+}
@@ -0,0 +1,91 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.postgresql.ReachabilityIndex;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionId;
+
+/**
+ * Tests the in-memory reachability index without a dbms, by building a small
+ * hierarchy the same way the data store updates it when expressions are
+ * stored.
+ */
+public class ReachabilityIndexTest {
+
+	private static final ExpressionId TOP = new ExpressionId(138875005L);
+	private static final ExpressionId MIDDLE = new ExpressionId(-1L);
+	private static final ExpressionId BOTTOM = new ExpressionId(-2L);
+	private static final ExpressionId BETWEEN = new ExpressionId(-3L);
+	private static final ExpressionId SAME_AS_MIDDLE = new ExpressionId(-4L);
+
+	private ReachabilityIndex index;
+
+	@Before
+	public void setUp() throws Exception {
+		index = new ReachabilityIndex();
+		index.addExpression(TOP);
+
+		index.addExpression(MIDDLE);
+		index.setParentsAndChildren(MIDDLE, set(TOP),
+				Collections.<ExpressionId> emptySet());
+
+		index.addExpression(BOTTOM);
+		index.setParentsAndChildren(BOTTOM, set(MIDDLE),
+				Collections.<ExpressionId> emptySet());
+	}
+
+	@Test
+	public void testSubsumption() {
+		assertTrue(index.isSubsumingNotEquivalent(TOP, MIDDLE));
+		assertTrue(index.isSubsumingNotEquivalent(TOP, BOTTOM));
+		assertTrue(index.isSubsumingNotEquivalent(MIDDLE, BOTTOM));
+		assertFalse(index.isSubsumingNotEquivalent(BOTTOM, TOP));
+		assertFalse(index.isSubsumingNotEquivalent(TOP, TOP));
+		assertTrue(index.isEquivalent(TOP, TOP));
+		assertFalse(index.isEquivalent(TOP, MIDDLE));
+	}
+
+	@Test
+	public void testInsertBetween() throws Exception {
+		index.addExpression(BETWEEN);
+		index.setParentsAndChildren(BETWEEN, set(MIDDLE), set(BOTTOM));
+
+		assertTrue(index.isSubsumingNotEquivalent(TOP, BETWEEN));
+		assertTrue(index.isSubsumingNotEquivalent(MIDDLE, BETWEEN));
+		assertTrue(index.isSubsumingNotEquivalent(BETWEEN, BOTTOM));
+		assertFalse(index.isSubsumingNotEquivalent(BOTTOM, BETWEEN));
+	}
+
+	@Test
+	public void testEquivalence() throws Exception {
+		index.addExpression(SAME_AS_MIDDLE);
+		index.setEquivalent(SAME_AS_MIDDLE, MIDDLE);
+
+		assertTrue(index.isEquivalent(SAME_AS_MIDDLE, MIDDLE));
+		assertTrue(index.isSubsumingNotEquivalent(TOP, SAME_AS_MIDDLE));
+		assertTrue(index.isSubsumingNotEquivalent(SAME_AS_MIDDLE, BOTTOM));
+		assertFalse(index.isSubsumingNotEquivalent(SAME_AS_MIDDLE, MIDDLE));
+	}
+
+	@Test
+	public void testUnknownId() {
+		ExpressionId unknown = new ExpressionId(404684003L);
+		assertFalse(index.isSubsumingNotEquivalent(TOP, unknown));
+		assertFalse(index.isEquivalent(unknown, unknown));
+		assertEquals(3, index.size());
+	}
+
+	private static Set<ExpressionId> set(ExpressionId... ids) {
+		Set<ExpressionId> result = new HashSet<ExpressionId>();
+		Collections.addAll(result, ids);
+		return result;
+	}
+
+}
@@ -0,0 +1,103 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.GregorianCalendar;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.decorator.MetricsDataStore;
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.decorator.MetricsDataStore.Operation;
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.decorator.ReadReplicaDataStore;
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.embedded.DataStore;
+import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionId;
+
+/**
+ * Tests which look ups the read replica router sends to the primary, with an
+ * embedded data store as the primary and another as the replica.
+ */
+public class ReadReplicaDataStoreTest {
+
+	private static final ExpressionId ROOT = new ExpressionId(138875005L);
+	private static final ExpressionId FINDING = new ExpressionId(404684003L);
+	private static final ExpressionId DISEASE = new ExpressionId(64572001L);
+	private static final ExpressionId BODY_STRUCTURE = new ExpressionId(
+			123037004L);
+
+	private static final Date RELEASE = new GregorianCalendar(2002, 0, 31)
+			.getTime();
+
+	private DataStore primary;
+
+	private DataStore replica;
+
+	private MetricsDataStore metrics;
+
+	@Before
+	public void setUp() throws Exception {
+		primary = new DataStore();
+		replica = new DataStore();
+		for (DataStore ds : Arrays.asList(primary, replica)) {
+			for (ExpressionId id : Arrays.asList(ROOT, FINDING, BODY_STRUCTURE))
+				ds.storeConcept(id, RELEASE);
+			relate(ds, FINDING, ROOT);
+			relate(ds, BODY_STRUCTURE, ROOT);
+		}
+		// The disease has only reached the primary.
+		primary.storeConcept(DISEASE, RELEASE);
+		relate(primary, DISEASE, FINDING);
+		metrics = new MetricsDataStore(primary);
+	}
+
+	@Test
+	public void testAnswersAboutIdsOnTheReplica() throws Exception {
+		ReadReplicaDataStore router = new ReadReplicaDataStore(metrics,
+				replica, 0);
+		assertTrue(router.isSubsuming(ROOT, FINDING, null));
+		assertFalse(router.isSubsuming(FINDING, ROOT, null));
+		assertFalse(router.isSubsumingNotEquivalent(FINDING, BODY_STRUCTURE,
+				null));
+		assertFalse(router.isEquivalent(FINDING, BODY_STRUCTURE, null));
+		assertTrue(router.isExistingId(FINDING, null));
+		assertEquals(0, metrics.getCalls(Operation.IS_SUBSUMING));
+		assertEquals(0, metrics.getCalls(Operation.IS_SUBSUMING_NOT_EQUIVALENT));
+		assertEquals(0, metrics.getCalls(Operation.IS_EQUIVALENT));
+		assertEquals(0, metrics.getCalls(Operation.IS_EXISTING_ID));
+	}
+
+	@Test
+	public void testIdMissingOnTheReplica() throws Exception {
+		ReadReplicaDataStore router = new ReadReplicaDataStore(metrics,
+				replica, 0);
+		assertTrue(router.isSubsuming(FINDING, DISEASE, null));
+		assertTrue(router.isSubsumingNotEquivalent(ROOT, DISEASE, null));
+		assertFalse(router.isEquivalent(DISEASE, FINDING, null));
+		assertTrue(router.isExistingId(DISEASE, null));
+		assertEquals(1, metrics.getCalls(Operation.IS_SUBSUMING));
+		assertEquals(1, metrics.getCalls(Operation.IS_SUBSUMING_NOT_EQUIVALENT));
+		assertEquals(1, metrics.getCalls(Operation.IS_EQUIVALENT));
+		assertEquals(1, metrics.getCalls(Operation.IS_EXISTING_ID));
+	}
+
+	@Test
+	public void testLookUpsAfterAChange() throws Exception {
+		ReadReplicaDataStore router = new ReadReplicaDataStore(metrics,
+				replica, 60000);
+		router.storeExpression("1", null);
+		assertFalse(router.isSubsuming(FINDING, ROOT, null));
+		assertTrue(router.isSubsuming(ROOT, FINDING, null));
+		assertEquals(2, metrics.getCalls(Operation.IS_SUBSUMING));
+	}
+
+	private static void relate(DataStore ds, ExpressionId child,
+			ExpressionId parent) throws Exception {
+		ds.storeConceptRelationship(child, parent, true, RELEASE);
+		for (ExpressionId ancestor : ds.getAncestors(parent, null)) {
+			ds.storeConceptRelationship(child, ancestor, false, RELEASE);
+		}
+	}
+
+}
@@ -2,10 +2,18 @@ package test;
 
 import static org.junit.Assert.*;
 
+import java.lang.reflect.Field;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Collection;
 import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.XMLConfiguration;
@@ -15,10 +23,14 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import se.liu.imt.mi.snomedct.expression.tools.ExpressionSyntaxError;
+import se.liu.imt.mi.snomedct.expression.tools.SCTSortedExpressionBuilder;
+import se.liu.imt.mi.snomedct.expression.tools.SnomedCTParser;
 import se.liu.imt.mi.snomedct.expressionrepository.ExpressionRepositoryImpl;
 import se.liu.imt.mi.snomedct.expressionrepository.api.ExpressionRepository;
 import se.liu.imt.mi.snomedct.expressionrepository.api.NonExistingIdException;
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStore;
 import se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStoreException;
+import se.liu.imt.mi.snomedct.expressionrepository.datastore.DataStoreFactory;
 import se.liu.imt.mi.snomedct.expressionrepository.datastore.postgresql.DataStoreService;
 import se.liu.imt.mi.snomedct.expressionrepository.datatypes.ExpressionId;
 
@@ -74,6 +86,70 @@ public class TestExpressionReporitoryImpl {
 		assertEquals(36, result.size()); // depends on SNOMED CT release, might change
 	}
 
+	/**
+	 * A query with an expression that is not stored must neither store it nor
+	 * wait while new expressions are classified, which is simulated by
+	 * holding the lock the writers classify under.
+	 */
+	@Test
+	public final void testQueryWithNewExpression() throws Exception {
+		log.debug("testQueryWithNewExpression()");
+		final String expression = "125605004 | fracture of bone | : 272741003 | laterality | = 7771000 | left |, 363698007 | finding site | = 71341001 | bone structure of femur |";
+		final String sortedExpression = SCTSortedExpressionBuilder
+				.buildSortedExpression(SnomedCTParser
+						.parseExpression(expression));
+
+		// the first query creates the query ontology
+		repo.getSCTQueryResult("Descendants(" + expression + ")");
+
+		Field field = ExpressionRepositoryImpl.class
+				.getDeclaredField("ontologyLock");
+		field.setAccessible(true);
+		final ReentrantLock ontologyLock = (ReentrantLock) field.get(repo);
+		final CountDownLatch locked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				ontologyLock.lock();
+				try {
+					locked.countDown();
+					release.await();
+				} catch (InterruptedException e) {
+					// Released.
+				} finally {
+					ontologyLock.unlock();
+				}
+			}
+		});
+		writer.start();
+		locked.await();
+		try {
+			ExecutorService executor = Executors.newSingleThreadExecutor();
+			try {
+				Future<Collection<ExpressionId>> result = executor
+						.submit(new Callable<Collection<ExpressionId>>() {
+							@Override
+							public Collection<ExpressionId> call()
+									throws Exception {
+								return repo.getSCTQueryResult("Descendants("
+										+ expression + ")");
+							}
+						});
+				result.get(60, TimeUnit.SECONDS);
+			} finally {
+				executor.shutdownNow();
+			}
+		} finally {
+			release.countDown();
+			writer.join();
+		}
+
+		DataStore dataStore = DataStoreFactory
+				.createDataStore(new XMLConfiguration("config.xml"));
+		assertNull(dataStore.getExpressionId(sortedExpression, null));
+	}
+
 	@Test
 	public final void testGetExpressionID() throws ExpressionSyntaxError,
 			NonExistingIdException {